@@ -174,6 +174,132 @@ public class Api extends Controller {
         }
     }
 
+    /*
+     * typeahead for names and identifiers; key optionally restricts the
+     * suggestions to the given (comma separated) stitch keys, e.g.,
+     *   /suggest/aspi?key=N_Name
+     */
+    public Result suggest (String q, String key, Integer top) {
+        List<StitchKey> keys = new ArrayList<>();
+        if (key != null) {
+            for (String k : key.split(",")) {
+                StitchKey sk = null;
+                try {
+                    sk = StitchKey.valueOf(k.trim());
+                }
+                catch (IllegalArgumentException ex) {
+                }
+                // only names and string identifiers are suggested
+                if (sk == null || !Arrays.asList(Suggester.KEYS).contains(sk))
+                    return badRequest ("Not a suggestion key: "+k);
+                keys.add(sk);
+            }
+        }
+
+        try {
+            List<Suggester.Suggestion> suggestions = es.getGraphDb()
+                .getSuggester().suggest(q, Math.min(top, 100),
+                                        keys.toArray(new StitchKey[0]));
+            ObjectNode json = mapper.createObjectNode();
+            json.put("query", q);
+            json.put("count", suggestions.size());
+            ArrayNode contents = mapper.createArrayNode();
+            for (Suggester.Suggestion s : suggestions) {
+                ObjectNode n = mapper.createObjectNode();
+                n.put("value", s.value);
+                n.put("weight", s.weight);
+                n.put("keys", mapper.valueToTree(s.keys));
+                contents.add(n);
+            }
+            json.put("contents", contents);
+            return ok (json);
+        }
+        catch (Exception ex) {
+            ex.printStackTrace();
+            return internalServerError (ex.getMessage());
+        }
+    }
+
+    /*
+     * stitches of the given version matching q (if any) along with
+     * facet counts; results can be narrowed down with one or more
+     * facet=NAME/VALUE parameters, e.g.,
+     *   /stitches/v1/@search?q=aspirin&facet=USapproved/true
+     */
+    public Result searchStitches (Integer ver, String q,
+                                  Integer skip, Integer top) {
+        String uri = routes.Api.searchStitches(ver, q, skip, top).url();
+        Logger.debug(uri);
+
+        Map<String, List<String>> params = new HashMap<>();
+        String[] facets = request().queryString().get("facet");
+        if (facets != null) {
+            for (String f : facets) {
+                int pos = f.indexOf('/');
+                if (pos > 0) {
+                    String name = f.substring(0, pos);
+                    List<String> values = params.get(name);
+                    if (values == null)
+                        params.put(name, values = new ArrayList<>());
+                    values.add(f.substring(pos+1));
+                }
+                else {
+                    return badRequest ("Bad facet: "+f);
+                }
+            }
+        }
+
+        Map<String, String[]> filters = new HashMap<>();
+        for (Map.Entry<String, List<String>> me : params.entrySet())
+            filters.put(me.getKey(), me.getValue().toArray(new String[0]));
+
+        try {
+            Indexer.SearchResult result = es.getGraphDb().getIndexer(ver)
+                .search(q, filters, skip, Math.min(top, 1000));
+            ObjectNode json = mapper.createObjectNode();
+            json.put("version", ver);
+            json.put("query", q);
+            json.put("skip", skip);
+            json.put("top", top);
+            json.put("count", result.size());
+            json.put("total", result.total);
+            json.put("facets", mapper.valueToTree(result.facets));
+            ArrayNode contents = mapper.createArrayNode();
+            for (Indexer.Hit hit : result.hits) {
+                ObjectNode n = mapper.valueToTree(hit.fields);
+                n.put("node", hit.id);
+                n.put("score", hit.score);
+                contents.add(n);
+            }
+            json.put("contents", contents);
+            return ok (json);
+        }
+        catch (Exception ex) {
+            ex.printStackTrace();
+            return internalServerError (ex.getMessage());
+        }
+    }
+
+    public Result searchLatestStitches (String q, Integer skip, Integer top) {
+        Integer ver = service.getLatestVersion();
+        if (null == ver)
+            return badRequest ("No latest stitch version defined!");
+        return searchStitches (ver, q, skip, top);
+    }
+
+    /*
+     * make sure the search index of the given version is kept up-to-date
+     */
+    Indexer stitchIndexer (Integer ver) {
+        try {
+            return es.getGraphDb().getIndexer(ver);
+        }
+        catch (Exception ex) {
+            Logger.error("Can't open stitch index for version "+ver, ex);
+        }
+        return null;
+    }
+
     public Result paths (List<Entity[]> paths, String... props) {
         try {
             ObjectNode json = mapper.createObjectNode();
@@ -490,6 +616,7 @@ public class Api extends Controller {
         Entity e = getStitchEntity(ver, id);
 
         if (e != null) {
+            stitchIndexer (ver);
             CalculatorFactory.getCalculatorFactory(es.getEntityFactory())
                              .process(Stitch.getStitch(e));
             return getStitch(ver, id);
@@ -623,6 +750,7 @@ public class Api extends Controller {
 
             Entity stitchNode = getStitchEntity(ver, id);
             if (stitchNode != null) {
+                Indexer indexer = stitchIndexer (ver);
                 Entity updateNode = null;
                 // TODO fix these shenanigans to get component more directly
                 JsonNode node = jsonCodec.encode(stitchNode);
@@ -887,6 +1015,10 @@ public class Api extends Controller {
                                 response = "updated payload and stitchkey, but stitching not affected.";
                             }
                         }
+                        // member payloads aren't part of the stitch node,
+                        // so the stitch has to be reindexed explicitly
+                        if (!test && indexer != null)
+                            indexer.update(stitchNode);
                         message.put("status", "success");
                         message.put("statusMessage", response);
                     } catch (Exception ex) {
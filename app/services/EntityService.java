@@ -45,6 +45,39 @@ public class EntityService {
             }
             */
             efac = new EntityFactory (graphDb);     
+
+            // start counting the metrics in the background
+            graphDb.getMetricsCounter();
+
+            final Suggester suggester = graphDb.getSuggester();
+            if (!suggester.isCurrent()) {
+                // missed changes, e.g., loaded without it or not closed cleanly
+                CompletableFuture.runAsync(() -> {
+                        try {
+                            suggester.rebuild();
+                        }
+                        catch (IOException ex) {
+                            Logger.error("Can't build suggester", ex);
+                        }
+                    });
+            }
+
+            Integer ver = service.getLatestVersion();
+            if (ver != null) {
+                final Indexer indexer = graphDb.getIndexer(ver);
+                if (!indexer.isCurrent()) {
+                    // no stitch index yet or it has missed changes
+                    CompletableFuture.runAsync(() -> {
+                            try {
+                                indexer.rebuild();
+                            }
+                            catch (IOException ex) {
+                                Logger.error("Can't build stitch index for "
+                                             +"version "+ver, ex);
+                            }
+                        });
+                }
+            }
         }
         catch (IOException ex) {
             ex.printStackTrace();
@@ -88,7 +121,7 @@ public class EntityService {
     }
     
     public GraphMetrics calcMetrics () {
-        return getEntityFactory().calcGraphMetrics();
+        return getEntityFactory().getGraphMetrics();
     }
 
     public Entity getEntity (long id) {
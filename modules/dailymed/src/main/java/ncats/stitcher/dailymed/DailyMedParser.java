@@ -17,6 +17,9 @@ import javax.xml.xpath.*;
 import org.w3c.dom.*;
 
 import java.lang.reflect.Array;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 import java.security.DigestInputStream;
@@ -115,8 +118,28 @@ public class DailyMedParser {
         public List<Section> sections = new ArrayList<>();
     }
 
+    /*
+     * receives the xml entries of an archive
+     */
+    interface EntrySink {
+        void accept(InputStream is) throws Exception;
+    }
+
     final ObjectWriter writer;
     File outdir;
+    int threads = 1; // labels parsed concurrently; 1 means inline
+    final ThreadLocal<DocumentBuilder> builder = ThreadLocal.withInitial(() -> {
+            DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+            try {
+                String FEATURE = "http://apache.org/xml/features/disallow-doctype-decl";
+                dbf.setFeature(FEATURE, true);
+                dbf.setXIncludeAware(false);
+
+                return dbf.newDocumentBuilder();
+            } catch (ParserConfigurationException ex) {
+                throw new RuntimeException(ex);
+            }
+        });
     Set<String> tags = new TreeSet<>();
     HashMap<String, HashMap<String, String>> inactivated = new HashMap<>(); // setid -> ["status": status, "date": date]
 
@@ -833,21 +856,30 @@ public class DailyMedParser {
     }
     
     protected int parseXml(InputStream is) throws Exception {
-        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-
-        String FEATURE = "http://apache.org/xml/features/disallow-doctype-decl";
-        dbf.setFeature(FEATURE, true);
-        dbf.setXIncludeAware(false);
-
-        DocumentBuilder builder = dbf.newDocumentBuilder();
+        writeLabel(parseLabel(is));
+        return 0;
+    }
 
-        Element doc = builder.parse(is).getDocumentElement();
+    /*
+     * build the label of an SPL document; this doesn't touch any
+     * shared state, so it's safe to call from any thread
+     */
+    protected DrugLabel parseLabel(InputStream is) throws Exception {
+        Element doc = builder.get().parse(is).getDocumentElement();
         
         DrugLabel label = new DrugLabel();
         parsePreamble(label, doc.getChildNodes());
         parseProducts(label, doc.getElementsByTagName("manufacturedProduct"));
         parseSections(label, doc.getElementsByTagName("section"));
 
+        return label;
+    }
+
+    /*
+     * print the ingredient rows of the label and write its json (if
+     * there is an output directory)
+     */
+    protected void writeLabel(DrugLabel label) {
         Set<String> seen = new HashSet<>();
         for (Product p : label.products) {
             String marketDate = p.marketDate != null 
@@ -911,8 +943,6 @@ public class DailyMedParser {
                 logger.log(Level.SEVERE, "Can't write file: " + out, ex);
             }
         }
-        
-        return 0;
     }    
 
     InputStream getInputStream(ZipInputStream zis, ZipEntry ze) throws IOException {
@@ -930,7 +960,10 @@ public class DailyMedParser {
         return null;
     }
 
-    protected int parseZip(InputStream is) throws Exception {
+    /*
+     * walk the (nested) zip archive handing each xml entry to the sink
+     */
+    void extractZip(InputStream is, EntrySink sink) throws Exception {
         ZipInputStream zis = new ZipInputStream(is);
 
         for (ZipEntry ze; zis.available() > 0; ) {
@@ -943,21 +976,99 @@ public class DailyMedParser {
                     is = getInputStream(zis, ze);
 
                     if (is != null){
-                        parseZip(is);
+                        extractZip(is, sink);
                     }
 
                 } else if (name.endsWith(".xml")) {
                     is = getInputStream(zis, ze);
 
                     if (is != null){
-                        parseXml(is);
+                        sink.accept(is);
                     }
                 }
             }
         }
         zis.close();
+    }
+
+    /*
+     * parse all labels in the archive; with more than one thread, the
+     * entries are extracted on a thread of their own, the labels are
+     * parsed on a pool and written on the calling thread in archive
+     * order. returns the number of labels.
+     */
+    protected int parseZip(InputStream is) throws Exception {
+        final int[] count = {0};
+        long start = System.currentTimeMillis();
+        if (threads < 2) {
+            extractZip(is, xml -> {
+                    parseXml(xml);
+                    ++count[0];
+                });
+        } else {
+            final ExecutorService workers = Executors.newFixedThreadPool(threads);
+            final BlockingQueue<Future<DrugLabel>> queue =
+                new ArrayBlockingQueue<>(16*threads);
+            final Future<DrugLabel> eof = new CompletableFuture<>();
+            final AtomicReference<Exception> error = new AtomicReference<>();
+            final AtomicBoolean done = new AtomicBoolean();
+            
+            // nobody takes from the queue once the calling thread is done
+            // (or fails), so the extractor never blocks on it for good
+            Thread extractor = new Thread(() -> {
+                    try {
+                        extractZip(is, xml -> {
+                                Future<DrugLabel> f =
+                                    workers.submit(() -> parseLabel(xml));
+                                while (!queue.offer(f, 1, TimeUnit.SECONDS)) {
+                                    if (done.get()) {
+                                        f.cancel(true);
+                                        throw new CancellationException
+                                            ("Label extraction cancelled");
+                                    }
+                                }
+                            });
+                    } catch (Exception ex) {
+                        error.set(ex);
+                    } finally {
+                        try {
+                            while (!done.get()
+                                   && !queue.offer(eof, 1, TimeUnit.SECONDS))
+                                ;
+                        } catch (InterruptedException ex) {
+                        }
+                    }
+                }, "dailymed-extractor");
+            extractor.setDaemon(true);
+            extractor.start();
+
+            try {
+                for (Future<DrugLabel> f; (f = queue.take()) != eof; ) {
+                    writeLabel(f.get());
+                    ++count[0];
+                }
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                throw cause instanceof Exception
+                    ? (Exception)cause : new RuntimeException(cause);
+            } finally {
+                done.set(true);
+                extractor.interrupt();
+                queue.clear();
+                workers.shutdownNow();
+            }
+            
+            if (error.get() != null) {
+                throw error.get();
+            }
+        }
         
-        return 0;
+        long time = Math.max(1l, System.currentTimeMillis() - start);
+        logger.info(String.format("## %1$d label(s) in %2$dms "
+                                  + "(%3$.1f labels/s) using %4$d thread(s)",
+                                  count[0], time, count[0]*1000./time,
+                                  threads));
+        return count[0];
     }
 
     protected int parseInitiatedInactivatedXml(InputStream is) throws Exception {
@@ -1118,11 +1229,20 @@ public class DailyMedParser {
     public File getOutDir() { 
         return outdir; 
     }
+
+    public void setThreads(int threads) {
+        this.threads = threads == 0 
+            ? Runtime.getRuntime().availableProcessors() : threads;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
     
     public static void main(String[] argv) throws Exception {
         if (argv.length == 0) {
             System.err.println("Usage: ncats.stitcher.dailymed.DailyMedParser"
-                               + " [OutDir=OUTPUT] FILE...");
+                               + " [OutDir=OUTPUT] [threads=1] FILE...");
             System.exit(1);
         }
 
@@ -1163,6 +1283,8 @@ public class DailyMedParser {
                     File outdir = new File(argv[i].substring(pos+1));
 
                     daily.setOutDir(outdir);
+                } else if ("threads".equalsIgnoreCase(argv[i].substring(0, pos))) {
+                    daily.setThreads(Integer.parseInt(argv[i].substring(pos+1)));
                 } else {
                     System.err.println("Unknown option: " + argv[i]);
                 }
@@ -5,8 +5,6 @@ import java.util.logging.Logger;
 import java.util.logging.Level;
 import java.util.concurrent.Callable;
 import java.lang.reflect.Array;
-import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Direction;
@@ -18,6 +16,7 @@ import org.neo4j.graphdb.index.RelationshipIndex;
 import org.neo4j.graphdb.index.IndexHits;
 import org.neo4j.graphdb.Transaction;
 import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.ResourceIterator;
 import org.neo4j.index.lucene.LuceneTimeline;
 import org.neo4j.index.lucene.TimelineIndex;
 
@@ -380,6 +379,14 @@ public class CNode implements Props, Comparable<CNode> {
     }
 
     public static void _delete (Node node) {
+        _delete (node, _children (node));
+    }
+
+    /*
+     * same as above with the union-find children of the node already
+     * known (see _children); they're hung onto the child of highest rank
+     */
+    static void _delete (Node node, List<Node> children) {
         GraphDatabaseService gdb = node.getGraphDatabase();
 
         for (Relationship rel : node.getRelationships()) {
@@ -391,24 +398,19 @@ public class CNode implements Props, Comparable<CNode> {
             }
         }
 
-        final List<Node> children = new ArrayList<Node>();
-        AtomicLong newRoot = new AtomicLong ();
-        AtomicInteger rank = new AtomicInteger ();
-        gdb.findNodes(AuxNodeType.ENTITY, PARENT, node.getId())
-            .stream().forEach(n -> {
-                    if (!n.equals(node)) {
-                        Integer r = (Integer)n.getProperty(RANK);
-                        if (newRoot.get() == 0l || r > rank.get()) {
-                            newRoot.set(n.getId());
-                            rank.set(r);
-                        }
-                        children.add(n);
-                    }
-                });
+        Node newRoot = null;
+        int rank = 0;
+        for (Node n : children) {
+            Integer r = (Integer)n.getProperty(RANK);
+            if (newRoot == null || r > rank) {
+                newRoot = n;
+                rank = r;
+            }
+        }
 
-        if (newRoot.get() != 0l) {
+        if (newRoot != null) {
             for (Node n : children)
-                n.setProperty(PARENT, newRoot.get());
+                n.setProperty(PARENT, newRoot.getId());
         }
 
         for (String index : gdb.index().nodeIndexNames()) 
@@ -417,6 +419,23 @@ public class CNode implements Props, Comparable<CNode> {
         node.delete();
     }
 
+    /*
+     * nodes whose union-find parent is the given node (other than the
+     * node itself)
+     */
+    static List<Node> _children (Node node) {
+        List<Node> children = new ArrayList<>();
+        try (ResourceIterator<Node> it = node.getGraphDatabase().findNodes
+             (AuxNodeType.ENTITY, PARENT, node.getId())) {
+            while (it.hasNext()) {
+                Node n = it.next();
+                if (!n.equals(node))
+                    children.add(n);
+            }
+        }
+        return children;
+    }
+
     protected static Node getRoot (Node node) {
         GraphDatabaseService g = node.getGraphDatabase();
         Long id = (Long)node.getProperty(PARENT);
@@ -0,0 +1,128 @@
+package ncats.stitcher;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compact binary encoding of cache keys and values. The common types
+ * (String, String[], numbers, byte[]) are written directly; anything
+ * else falls back to Java serialization.
+ */
+public class CacheCodec {
+    static final byte NULL = 0;
+    static final byte STRING = 1;
+    static final byte STRING_ARRAY = 2;
+    static final byte LONG = 3;
+    static final byte INTEGER = 4;
+    static final byte DOUBLE = 5;
+    static final byte BYTES = 6;
+    static final byte SERIAL = 7;
+
+    private CacheCodec () {}
+
+    public static byte[] encode (Object obj) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream (64);
+        DataOutputStream out = new DataOutputStream (bos);
+        if (obj == null) {
+            out.writeByte(NULL);
+        }
+        else if (obj instanceof String) {
+            out.writeByte(STRING);
+            writeString (out, (String)obj);
+        }
+        else if (obj instanceof String[]) {
+            String[] strs = (String[])obj;
+            out.writeByte(STRING_ARRAY);
+            out.writeInt(strs.length);
+            for (String s : strs) {
+                out.writeBoolean(s != null);
+                if (s != null)
+                    writeString (out, s);
+            }
+        }
+        else if (obj instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long)obj);
+        }
+        else if (obj instanceof Integer) {
+            out.writeByte(INTEGER);
+            out.writeInt((Integer)obj);
+        }
+        else if (obj instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double)obj);
+        }
+        else if (obj instanceof byte[]) {
+            byte[] b = (byte[])obj;
+            out.writeByte(BYTES);
+            out.writeInt(b.length);
+            out.write(b);
+        }
+        else if (obj instanceof Serializable) {
+            out.writeByte(SERIAL);
+            out.write(Util.serialize(obj));
+        }
+        else {
+            throw new IllegalArgumentException
+                (obj.getClass()+" is not serializable!");
+        }
+        out.flush();
+        return bos.toByteArray();
+    }
+
+    public static Object decode (byte[] data) throws IOException {
+        return decode (data, 0, data.length);
+    }
+
+    public static Object decode (byte[] data, int off, int len)
+        throws IOException {
+        DataInputStream in = new DataInputStream
+            (new ByteArrayInputStream (data, off, len));
+        byte type = in.readByte();
+        switch (type) {
+        case NULL:
+            return null;
+        case STRING:
+            return readString (in);
+        case STRING_ARRAY: {
+            String[] strs = new String[in.readInt()];
+            for (int i = 0; i < strs.length; ++i)
+                strs[i] = in.readBoolean() ? readString (in) : null;
+            return strs;
+        }
+        case LONG:
+            return in.readLong();
+        case INTEGER:
+            return in.readInt();
+        case DOUBLE:
+            return in.readDouble();
+        case BYTES: {
+            byte[] b = new byte[in.readInt()];
+            in.readFully(b);
+            return b;
+        }
+        case SERIAL:
+            try (ObjectInputStream ois = new ObjectInputStream (in)) {
+                return ois.readObject();
+            }
+            catch (ClassNotFoundException ex) {
+                throw new IOException (ex);
+            }
+        }
+        throw new IOException ("Unknown cache type: "+type);
+    }
+
+    // DataOutput.writeUTF is limited to 64k
+    static void writeString (DataOutputStream out, String s)
+        throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    static String readString (DataInputStream in) throws IOException {
+        byte[] b = new byte[in.readInt()];
+        in.readFully(b);
+        return new String (b, StandardCharsets.UTF_8);
+    }
+}
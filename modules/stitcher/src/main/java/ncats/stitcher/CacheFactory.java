@@ -9,87 +9,121 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 
-import net.sf.ehcache.Status;
-import net.sf.ehcache.Cache;
-import net.sf.ehcache.Ehcache;
 import net.sf.ehcache.CacheEntry;
-import net.sf.ehcache.CacheManager;
 import net.sf.ehcache.Element;
-import net.sf.ehcache.config.Configuration;
-import net.sf.ehcache.config.CacheConfiguration;
-import net.sf.ehcache.config.PersistenceConfiguration;
-import net.sf.ehcache.writer.CacheWriter;
 import net.sf.ehcache.writer.AbstractCacheWriter;
-import net.sf.ehcache.loader.CacheLoader;
 import net.sf.ehcache.constructs.blocking.CacheEntryFactory;
-import net.sf.ehcache.constructs.blocking.SelfPopulatingCache;
-
-import org.apache.lucene.index.*;
-import org.apache.lucene.store.*;
-import org.apache.lucene.search.*;
-import org.apache.lucene.analysis.core.KeywordAnalyzer;
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
-import org.apache.lucene.util.Version;
-import org.apache.lucene.document.Field;
-import org.apache.lucene.document.StringField;
-import org.apache.lucene.document.Document;
 
+/**
+ * Persistent cache (e.g., of LyChI hashes) backed by a CacheStore with a
+ * bounded in-memory LRU in front of it. Directories holding a Lucene
+ * index from earlier versions are opened with LuceneCacheStore; anything
+ * else uses MappedCacheStore. It can still be plugged into an Ehcache
+ * as its entry factory and writer; those methods delegate to the store.
+ */
 public class CacheFactory
     extends AbstractCacheWriter implements CacheEntryFactory {
-    
     static private final Logger logger =
         Logger.getLogger(CacheFactory.class.getName());
 
-    static final String KEY = "__key";
-    static final String VALUE = "__value";
+    public static final int DEFAULT_MEMORY_SIZE = 10000; // entries
+    public static final int DEFAULT_PREFETCH_SIZE = 500000; // entries
 
     static final Map<File, CacheFactory> CACHES =
         new ConcurrentHashMap<File, CacheFactory>();
 
+    /*
+     * hit/miss/latency counters
+     */
+    public static class Stats {
+        final AtomicLong hits = new AtomicLong ();
+        final AtomicLong memoryHits = new AtomicLong ();
+        final AtomicLong misses = new AtomicLong ();
+        final AtomicLong puts = new AtomicLong ();
+        final AtomicLong readNanos = new AtomicLong ();
+        final AtomicLong loadNanos = new AtomicLong ();
+
+        public long getHits () { return hits.get(); }
+        public long getMemoryHits () { return memoryHits.get(); }
+        public long getMisses () { return misses.get(); }
+        public long getPuts () { return puts.get(); }
+        public double getHitRate () {
+            long total = getHits () + getMisses ();
+            return total > 0 ? (double)getHits ()/total : 0.;
+        }
+        /*
+         * average time (in milliseconds) of a lookup and of computing a
+         * missing value
+         */
+        public double getReadLatency () {
+            long total = getHits () + getMisses ();
+            return total > 0 ? readNanos.get()/(1e6*total) : 0.;
+        }
+        public double getLoadLatency () {
+            long n = getPuts ();
+            return n > 0 ? loadNanos.get()/(1e6*n) : 0.;
+        }
+
+        public String toString () {
+            return String.format("hits=%1$d (%2$d in memory) misses=%3$d "
+                                 +"hit rate=%4$.1f%% read=%5$.3fms "
+                                 +"load=%6$.3fms", getHits (),
+                                 getMemoryHits (), getMisses (),
+                                 100.*getHitRate (), getReadLatency (),
+                                 getLoadLatency ());
+        }
+    }
+
     protected final File dir;
-    protected final Ehcache cache;
+    protected final CacheStore store;
     protected final AtomicLong refs = new AtomicLong (1l);
-    protected IndexWriter indexWriter;
-    protected DirectoryReader indexReader;
-    protected IndexSearcher indexSearcher;
-    
-    private CacheFactory (File dir) throws IOException {        
-        dir.mkdirs();
-        if (!dir.isDirectory())
-            throw new IllegalArgumentException (dir+" is not a directory!");
-        
+    protected final Stats stats = new Stats ();
+    protected final Map<Object, Object> memory;
+    // bulk loaded by prefetch(); entries move to memory once read
+    protected final Map<Object, Object> prefetched;
+    protected final int prefetchSize;
+
+    private CacheFactory (File dir, CacheStore store,
+                          int memorySize, int prefetchSize) {
         this.dir = dir;
-        String name = getCacheName ();
-        
-        CacheManager manager = CacheManager.getInstance();
-        /*
-        CacheConfiguration config = new CacheConfiguration ();
-        config.eternal(true)
-            .name(name)
-            .timeToIdleSeconds(3600l)
-            .timeToLiveSeconds(3600l)
-            .timeoutMillis(5000l)
-            .setupFor(manager);
-        */
-        cache = new SelfPopulatingCache
-            (manager.addCacheIfAbsent(name), this);
-        cache.registerCacheWriter(this);        
+        this.store = store;
+        this.prefetchSize = prefetchSize;
+        memory = new LinkedHashMap<Object, Object>(16, .75f, true) {
+            protected boolean removeEldestEntry (Map.Entry eldest) {
+                return size () > memorySize;
+            }
+        };
+        prefetched = new LinkedHashMap<Object, Object>() {
+            protected boolean removeEldestEntry (Map.Entry eldest) {
+                return size () > prefetchSize;
+            }
+        };
     }
 
-    protected String getCacheName () throws IOException {
-        return dir.getCanonicalFile().toURI().toString();
-    }
     public File getCachePath () { return dir; }
+    public CacheStore getStore () { return store; }
+    public Stats getStats () { return stats; }
 
     public static CacheFactory getInstance (String dir) throws IOException {
         return getInstance (new File (dir));
     }
-    
+
     public static synchronized CacheFactory getInstance (File dir)
         throws IOException {
         CacheFactory cache = CACHES.get(dir);
         if (cache == null) {
-            CACHES.put(dir, cache = new CacheFactory (dir));
+            dir.mkdirs();
+            if (!dir.isDirectory())
+                throw new IllegalArgumentException
+                    (dir+" is not a directory!");
+
+            CacheStore store = LuceneCacheStore.isLuceneIndex(dir)
+                ? new LuceneCacheStore (dir) : new MappedCacheStore (dir);
+            CACHES.put(dir, cache = new CacheFactory
+                       (dir, store, Integer.getInteger
+                        ("stitcher.cache.memory", DEFAULT_MEMORY_SIZE),
+                        Integer.getInteger("stitcher.cache.prefetch",
+                                           DEFAULT_PREFETCH_SIZE)));
         }
         else {
             cache.refs.incrementAndGet();
@@ -97,179 +131,131 @@ public class CacheFactory
         return cache;
     }
 
-    protected synchronized IndexSearcher getIndexSearcher ()
-        throws IOException {
-        if (indexWriter.hasUncommittedChanges()) {
-            indexWriter.commit();
-            DirectoryReader reader =
-                DirectoryReader.openIfChanged(indexReader, indexWriter);
-            if (reader != null) {
-                indexReader.close();
-                indexReader = reader;
-                indexSearcher = new IndexSearcher (reader);
+    Object lookup (Object key) {
+        long start = System.nanoTime();
+        Object value;
+        synchronized (memory) {
+            value = memory.get(key);
+        }
+
+        if (value == null) {
+            synchronized (prefetched) {
+                value = prefetched.remove(key);
+            }
+            if (value != null) {
+                synchronized (memory) {
+                    memory.put(key, value);
+                }
+            }
+        }
+        
+        if (value != null) {
+            stats.memoryHits.incrementAndGet();
+        }
+        else {
+            try {
+                value = store.get(key);
+            }
+            catch (IOException ex) {
+                logger.log(Level.SEVERE, "Can't read cache key "+key, ex);
+            }
+            if (value != null) {
+                synchronized (memory) {
+                    memory.put(key, value);
+                }
             }
         }
-        return indexSearcher;
+
+        stats.readNanos.addAndGet(System.nanoTime() - start);
+        (value != null ? stats.hits : stats.misses).incrementAndGet();
+        return value;
     }
 
     public <T> T getOrElse (Object key, Callable<T> callable) {
-        Element elm = cache.get(key);
-        if (elm == null || elm.getObjectValue() == null) {
+        Object value = lookup (key);
+        if (value == null) {
             try {
-                T value = callable.call();
-                if (value != null) {
-                    cache.putWithWriter(elm = new Element (key, value));
-                }
+                long start = System.nanoTime();
+                value = callable.call();
+                stats.loadNanos.addAndGet(System.nanoTime() - start);
+                if (value != null)
+                    put (key, value);
             }
             catch (Exception ex) {
                 logger.log(Level.SEVERE, "Can't cache element", ex);
             }
         }
-        return elm != null ? (T)elm.getObjectValue() : null;
+        return (T)value;
     }
 
     public void put (Object key, Object value) {
-        cache.putWithWriter(new Element (key, value));
+        try {
+            store.put(key, value);
+            synchronized (memory) {
+                memory.put(key, value);
+            }
+            stats.puts.incrementAndGet();
+        }
+        catch (IOException ex) {
+            logger.log(Level.SEVERE, "Can't write cache element: key="
+                       +key+" value="+value, ex);
+        }
     }
-    
+
     public Object get (Object key) {
-        Element elm = cache.get(key);
-        return elm != null ? elm.getObjectValue() : null;
+        return lookup (key);
     }
 
     public void remove (Object key) {
-        cache.removeWithWriter(key);
-    }
-
-    public int size () {
-        try {
-            return indexWriter.numDocs();
+        synchronized (prefetched) {
+            prefetched.remove(key);
         }
-        catch (Exception ex) {
-            logger.log(Level.SEVERE, "Can't access IndexWriter", ex);
+        synchronized (memory) {
+            memory.remove(key);
         }
-        return -1;
-    }
-
-    public void shutdown () {
-        if (refs.decrementAndGet() <= 1l) {
-            CacheManager manager = cache.getCacheManager();
-            manager.removeCache(cache.getName());
-            CACHES.remove(dir);
+        try {
+            store.remove(key);
+        }
+        catch (IOException ex) {
+            logger.log(Level.SEVERE, "Deleting cache "
+                       +key+" from persistence!", ex);
         }
     }
 
-    static String getKey (Serializable key) throws IOException {
-        return Util.sha1hex(Util.serialize(key));
+    public int size () {
+        return store.size();
     }
 
-    static Object getValue (Document doc) throws Exception {
-        byte[] data = doc.getBinaryValue(VALUE).bytes;
-        ObjectInputStream ois = new ObjectInputStream
-            (new ByteArrayInputStream (data));
-        return ois.readObject();
-    }
-    
-    /**
-     * CacheEntryFactory interface
+    /*
+     * CacheEntryFactory
      */
     public Object createEntry (Object key) throws Exception {
-        if (!(key instanceof Serializable)) {
-            throw new IllegalArgumentException
-                ("Cache key "+key+" is not serliazable!");
-        }
-        
-        String id = getKey ((Serializable)key);
-        IndexSearcher searcher = getIndexSearcher ();
-        TermQuery query = new TermQuery (new Term (KEY, id));           
-        TopDocs hits = searcher.search(query, 1);
-        //logger.info("retrieving cache for "+id+"..."+(hits.totalHits > 0));
-        Element elm = null;
-        if (hits.totalHits > 0) {
-            Document doc = searcher.doc(hits.scoreDocs[0].doc);
-            elm = new Element (key, getValue (doc));
-            cache.put(elm);
-        }
-        return elm;
-    }
-    
-    /**
-     * CacheWriter interface
-     */
-    static IndexWriter initIndex (File path) throws IOException {
-        Directory dir = new NIOFSDirectory (path.toPath());
-        IndexWriterConfig config = new IndexWriterConfig
-            (new KeywordAnalyzer ());
-        IndexWriter indexWriter = new IndexWriter (dir, config);
-        logger.info("##### initializing cache: "+path
-                    +"; "+indexWriter.numDocs()+" entries! ######");
-        return indexWriter;
+        Object value = lookup (key);
+        return value != null ? new Element (key, value) : null;
     }
 
+    /*
+     * CacheWriter; the store is opened by getInstance and closed by
+     * shutdown, so there's nothing else to do here
+     */
     @Override
     public void init () {
-        try {
-            indexWriter = initIndex (dir);
-            indexReader = DirectoryReader.open(indexWriter);
-            indexSearcher = new IndexSearcher (indexReader);
-        }
-        catch (IOException ex) {
-            logger.log(Level.SEVERE, "Can't initialize lucene for "+dir, ex);
-        }
     }
-    
+
     @Override
     public void dispose () {
-        try {
-            logger.info("#### closing cache writer "+cache.getName()
-                        +"; "+indexWriter.numDocs()+" entries #####");
-            indexReader.close();
-            indexWriter.close();
-        }
-        catch (IOException ex) {
-            logger.log(Level.SEVERE, "Can't close lucene index!", ex);
-        }
+        flush ();
     }
-    
+
     @Override
     public void delete (CacheEntry entry) {
-        Object key = entry.getKey();
-        if (!(key instanceof Serializable))
-            return;
-
-        try {
-            String id = getKey ((Serializable)key);         
-            Term term = new Term (KEY, id);
-            indexWriter.deleteDocuments(term);
-        }
-        catch (Exception ex) {
-            logger.log(Level.SEVERE, "Deleting cache "
-                       +key+" from persistence!", ex);
-        }
+        remove (entry.getKey());
     }
-    
+
     @Override
     public void write (Element elm) {
-        Serializable key = elm.getKey();
-        if (key != null) {
-            //logger.info("Persisting cache key="+key+" value="+value);
-            try {
-                Document doc = new Document ();
-                String id = getKey (key);
-                Field f = new StringField (KEY, id, Field.Store.NO);
-                doc.add(f);
-                doc.add(new Field
-                        (VALUE, Util.serialize(elm.getObjectValue())));
-                indexWriter.addDocument(doc);
-            }
-            catch (Exception ex) {
-                logger.log(Level.SEVERE, "Can't write cache element: key="
-                           +key+" value="+elm.getObjectValue(), ex);
-            }
-        }
-        else {
-            logger.warning("Key "+elm.getObjectKey()+" isn't serializable!");
-        }
+        if (elm.getObjectKey() != null)
+            put (elm.getObjectKey(), elm.getObjectValue());
     }
 
     @Override
@@ -277,38 +263,143 @@ public class CacheFactory
         for (CacheEntry e : entries)
             delete (e);
     }
-    
+
     @Override
     public void writeAll (Collection<Element> entries) {
         for (Element elm : entries)
             write (elm);
     }
 
+    /*
+     * bulk load the values of the given keys, e.g., of every structure in
+     * an input file ahead of registration, so that the lookups that follow
+     * don't hit the store one at a time; returns the number found. At most
+     * stitcher.cache.prefetch entries are held; keys past that are left to
+     * be read from the store as usual.
+     */
+    public int prefetch (Collection<?> keys) {
+        long start = System.currentTimeMillis();
+        if (keys.size() > prefetchSize) {
+            logger.warning("## only "+prefetchSize+" of "+keys.size()
+                           +" keys are prefetched; see "
+                           +"stitcher.cache.prefetch");
+            List<Object> head = new ArrayList<>(prefetchSize);
+            for (Object k : keys) {
+                if (head.size() == prefetchSize)
+                    break;
+                head.add(k);
+            }
+            keys = head;
+        }
+        
+        try {
+            Map<Object, Object> values = store.getAll(keys);
+            synchronized (prefetched) {
+                prefetched.putAll(values);
+            }
+            logger.info("## prefetched "+values.size()+"/"+keys.size()
+                        +" cache entries in "
+                        +(System.currentTimeMillis()-start)+"ms");
+            return values.size();
+        }
+        catch (IOException ex) {
+            logger.log(Level.SEVERE, "Can't prefetch cache entries", ex);
+        }
+        return 0;
+    }
+
+    /*
+     * rewrite the store without its superseded and removed records
+     */
+    public int compact () throws IOException {
+        return compact (false);
+    }
+
+    /*
+     * as compact() and, if prune, also drop every entry (LyChI or not)
+     * that hasn't been read or written since the last compaction (see
+     * MappedCacheStore.compact); returns the number of entries dropped
+     */
+    public int compact (boolean prune) throws IOException {
+        if (!(store instanceof MappedCacheStore))
+            throw new UnsupportedOperationException
+                ("Compaction is not supported by "
+                 +store.getClass().getSimpleName());
+        synchronized (prefetched) {
+            prefetched.clear();
+        }
+        synchronized (memory) {
+            memory.clear();
+        }
+        return ((MappedCacheStore)store).compact(prune);
+    }
+
+    public void flush () {
+        try {
+            store.flush();
+        }
+        catch (IOException ex) {
+            logger.log(Level.SEVERE, "Can't flush cache "+dir, ex);
+        }
+    }
+
+    public void shutdown () {
+        if (refs.decrementAndGet() <= 0l) {
+            CACHES.remove(dir);
+            close ();
+        }
+        else {
+            flush ();
+        }
+    }
+
+    void close () {
+        logger.info("##### Shutting down cache: "+dir+"; "+stats+" #####");
+        try {
+            store.close();
+        }
+        catch (IOException ex) {
+            logger.log(Level.SEVERE, "Can't close cache "+dir, ex);
+        }
+    }
+
     public static void addShutdownHook () {
         Runtime.getRuntime().addShutdownHook(new Thread() {
                 // do shutdown work here
                 public void run () {
                     for (CacheFactory cf : CACHES.values()) {
-                        cf.cache.getCacheManager()
-                            .removeCache(cf.cache.getName());
-                        logger.info
-                            ("##### Shutting down cache: "
-                             +cf.cache.getName()+" ("+cf.refs+") #####");
+                        cf.close();
                     }
+                    CACHES.clear();
                 }
             });
     }
-    
+
     public static void main (String[] argv) throws Exception {
         if (argv.length == 0) {
             System.err.println("Usage: "+CacheFactory.class.getName()
-                               +" DIR [MAX=1000]");
+                               +" DIR [compact [prune]]");
+            System.err.println("where compact rewrites the cache without "
+                               +"its superseded and removed entries and");
+            System.err.println("prune also drops ALL entries that haven't "
+                               +"been used since the last compaction,");
+            System.err.println("e.g., by the latest build; only prune "
+                               +"after a build that reads everything "
+                               +"worth keeping");
             System.exit(1);
         }
 
         CacheFactory cache = CacheFactory.getInstance(argv[0]);
-        logger.info("## cache "+argv[0]+" has "+cache.size()+" entries!");
-        
+        logger.info("## cache "+argv[0]+" ("+cache.store.getClass()
+                    .getSimpleName()+") has "+cache.size()+" entries!");
+        if (argv.length > 1 && "compact".equalsIgnoreCase(argv[1])) {
+            boolean prune = argv.length > 2
+                && "prune".equalsIgnoreCase(argv[2]);
+            int dropped = cache.compact(prune);
+            logger.info("## "+dropped+" entries dropped; "
+                        +cache.size()+" entries remain");
+        }
+
         cache.shutdown();
     }
 }
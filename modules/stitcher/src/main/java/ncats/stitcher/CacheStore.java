@@ -0,0 +1,33 @@
+package ncats.stitcher;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Persistent key/value storage behind a CacheFactory. Implementations
+ * are free to buffer writes; they must be visible to get() right away
+ * and durable after flush() or close().
+ */
+public interface CacheStore extends Closeable {
+    Object get (Object key) throws IOException;
+    /*
+     * values of the given keys that are present
+     */
+    default Map<Object, Object> getAll (Collection<?> keys)
+        throws IOException {
+        Map<Object, Object> values = new HashMap<>();
+        for (Object key : keys) {
+            Object value = get (key);
+            if (value != null)
+                values.put(key, value);
+        }
+        return values;
+    }
+    void put (Object key, Object value) throws IOException;
+    void remove (Object key) throws IOException;
+    int size ();
+    void flush () throws IOException;
+}
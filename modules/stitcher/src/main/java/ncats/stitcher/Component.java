@@ -78,6 +78,17 @@ public interface Component extends Iterable<Entity> {
             ("cliques() is not supported for this implementation");
     }
 
+    /*
+     * same as above but the enumeration stops after timeout milliseconds
+     * or maxCliques cliques (0 means no limit), whichever comes first;
+     * returns false if the budget ran out, in which case only the
+     * cliques found so far have been visited
+     */
+    default boolean cliques (CliqueVisitor visitor, long timeout,
+                             int maxCliques, StitchKey... keys) {
+        throw new UnsupportedOperationException
+            ("cliques() is not supported for this implementation");
+    }
     
     default public void cliques (CliqueVisitor visitor,
                                  StitchKey key, Object value) {
@@ -523,7 +523,18 @@ public class Entity extends CNode {
     }
 
     public double similarity (Entity other, StitchKey... keys) {
-        Map<StitchKey, Object> values = keys (other);
+        try (Transaction tx = gdb.beginTx()) {
+            double sim = _similarity (other, keys);
+            tx.success();
+            return sim;
+        }
+    }
+
+    /*
+     * see EntitySignature for comparing many pairs
+     */
+    public double _similarity (Entity other, StitchKey... keys) {
+        Map<StitchKey, Object> values = _keys (other);
         if (values.containsKey(R_exactMatch)
             || values.containsKey(R_equivalentClass)) {
             if (keys != null && keys.length > 0) {
@@ -544,7 +555,7 @@ public class Entity extends CNode {
         int a = 0, b = 0, ov = 0;
         for (StitchKey key : keys) {
             Set set = new HashSet ();
-            Object value = other.get(key.name());
+            Object value = other._get(key.name());
             if (value != null) {
                 if (value.getClass().isArray()) {
                     int len = Array.getLength(value);
@@ -556,7 +567,7 @@ public class Entity extends CNode {
                 }
             }
             
-            value = get (key.name());
+            value = _get (key.name());
             if (value != null) {
                 if (value.getClass().isArray()) {
                     int len = Array.getLength(value);
@@ -926,14 +937,21 @@ public class Entity extends CNode {
 
     @Override
     public void _delete () {
+        _delete (_children (_node));
+    }
+
+    /*
+     * same as above with the union-find children of this entity already
+     * known
+     */
+    void _delete (List<Node> children) {
         for (Relationship rel : _node.getRelationships
                  (Direction.BOTH, KEYS)) {
-            StitchKey k = StitchKey.valueOf(rel.getType().name());
             for (String index : gdb.index().relationshipIndexNames())
                 gdb.index().forRelationships(index).remove(rel);
             rel.delete();
         }
-        super._delete();
+        _delete (_node, children);
     }
     
     public static void _delete (Relationship r) {
@@ -1193,6 +1211,13 @@ public class Entity extends CNode {
         }
     }
 
+    static Node createStatsNode (Node root) {
+        Node stats = root.getGraphDatabase().createNode(AuxNodeType.STATS);
+        stats.setProperty(KIND, "StitchValues");
+        stats.createRelationshipTo(root, AuxRelType.SUMMARY);
+        return stats;
+    }
+
     static void updateStatsNode (Node stats, StitchKey key, Object value) {
         RelationshipIndex relidx = _relationshipIndex (stats);
         IndexHits<Relationship> hits = relidx.get(key.name(), value, stats, stats);
@@ -1205,6 +1230,56 @@ public class Entity extends CNode {
         }
     }
 
+    /*
+     * remove values of the stats node that are no longer shared by any
+     * stitch within the component (given by the ids of its members);
+     * returns the number of values removed
+     */
+    static int pruneStatsNode (Node stats, Set<Long> component) {
+        RelationshipIndex relidx = _relationshipIndex (stats);
+        int pruned = 0;
+        for (Relationship rel
+                 : stats.getRelationships(Direction.OUTGOING, KEYS)) {
+            Object value = rel.getProperty(VALUE, null);
+            boolean stale = true;
+            if (value != null) {
+                IndexHits<Relationship> hits =
+                    relidx.get(rel.getType().name(), value);
+                try {
+                    for (Relationship r : hits) {
+                        // the value can be shared by stitches in other
+                        // components; this also skips the self
+                        // relationships of stats nodes
+                        if (component.contains(r.getStartNode().getId())
+                            && component.contains(r.getEndNode().getId())) {
+                            stale = false;
+                            break;
+                        }
+                    }
+                }
+                finally {
+                    hits.close();
+                }
+            }
+
+            if (stale) {
+                relidx.remove(rel);
+                rel.delete();
+                ++pruned;
+            }
+        }
+        return pruned;
+    }
+
+    static void deleteStatsNode (Node stats) {
+        RelationshipIndex relidx = _relationshipIndex (stats);
+        for (Relationship rel : stats.getRelationships()) {
+            relidx.remove(rel);
+            rel.delete();
+        }
+        stats.delete();
+    }
+
     protected void union (Node node, StitchKey key, Object value) {
         union (_node, node, key, value);
     }
@@ -1250,9 +1325,7 @@ public class Entity extends CNode {
             stats = stats2;
         }
         else {
-            stats = root.getGraphDatabase().createNode(AuxNodeType.STATS);
-            stats.setProperty(KIND, "StitchValues");
-            stats.createRelationshipTo(root, AuxRelType.SUMMARY);
+            stats = createStatsNode (root);
         }
 
         if (stats != null) {
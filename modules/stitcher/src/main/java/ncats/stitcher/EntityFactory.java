@@ -7,6 +7,7 @@ import java.util.logging.Logger;
 import java.util.logging.Level;
 import java.lang.reflect.Array;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import java.util.stream.Collectors;
 import java.util.function.BiPredicate;
 import java.util.function.BiConsumer;
@@ -15,6 +16,11 @@ import java.util.function.Supplier;
 import java.util.function.Function;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -40,6 +46,7 @@ import org.neo4j.graphdb.traversal.TraversalDescription;
 import org.neo4j.graphdb.traversal.Traverser;
 
 import ncats.stitcher.graph.UnionFind;
+import ncats.stitcher.graph.BronKerbosch;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.JsonNode;
@@ -92,34 +99,90 @@ public class EntityFactory implements Props, AutoCloseable {
         public int getSingletonCount () { return singletonCount; }
     }
 
-    static class EntityIterator implements Iterator<Entity> {
+    /*
+     * iterate over the nodes a chunk at a time; each chunk is fetched
+     * and wrapped under a single transaction
+     */
+    static class EntityIterator implements Iterator<Entity>, AutoCloseable {
+        static final int DEFAULT_CHUNK = 1024;
+        
         final ResourceIterator<Node> iter;
         final GraphDatabaseService gdb;
+        final int chunk;
+        final ArrayDeque<Entity> buffer = new ArrayDeque<>();
+        boolean done;
 
         EntityIterator (GraphDatabaseService gdb, ResourceIterator<Node> iter) {
+            this (gdb, iter, DEFAULT_CHUNK);
+        }
+        
+        EntityIterator (GraphDatabaseService gdb,
+                        ResourceIterator<Node> iter, int chunk) {
+            if (chunk < 1)
+                throw new IllegalArgumentException ("Invalid chunk: "+chunk);
             this.iter = iter;
             this.gdb = gdb;
+            this.chunk = chunk;
         }
 
-        public boolean hasNext () {
+        void fill () {
             try (Transaction tx = gdb.beginTx()) {
-                boolean next = iter.hasNext();
+                for (int i = 0; i < chunk && iter.hasNext(); ++i)
+                    buffer.add(Entity._getEntity(iter.next()));
+                if (!iter.hasNext()) {
+                    done = true;
+                    iter.close();
+                }
                 tx.success();
-                return next;
             }
         }
+
+        public boolean hasNext () {
+            if (buffer.isEmpty() && !done)
+                fill ();
+            return !buffer.isEmpty();
+        }
         
         public Entity next () {
-            try (Transaction tx = gdb.beginTx()) {
-                Node n = iter.next();
-                tx.success();
-                return Entity.getEntity(n);
-            }
+            if (!hasNext ())
+                throw new NoSuchElementException ();
+            return buffer.poll();
         }
         
         public void remove () {
             throw new UnsupportedOperationException ("remove not supported");
         }
+
+        /*
+         * release the underlying index hits; only needed when the
+         * iteration is abandoned before the end
+         */
+        public void close () {
+            buffer.clear();
+            if (!done) {
+                done = true;
+                iter.close();
+            }
+        }
+
+        public Stream<Entity> stream () {
+            return StreamSupport.stream
+                (Spliterators.spliteratorUnknownSize
+                 (this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(this::close);
+        }
+    }
+
+    /*
+     * streams returned must be closed (e.g., with try-with-resources) if
+     * they aren't fully consumed
+     */
+    static Stream<Entity> stream (Iterator<Entity> iter) {
+        if (iter instanceof EntityIterator)
+            return ((EntityIterator)iter).stream();
+        return StreamSupport.stream
+            (Spliterators.spliteratorUnknownSize
+             (iter, Spliterator.ORDERED | Spliterator.NONNULL), false);
     }
 
     static class EquivalenceClass {
@@ -234,6 +297,20 @@ public class EntityFactory implements Props, AutoCloseable {
             return sv;
         }
         
+        /*
+         * fold the result of another (partial) equivalence class into
+         * this one; singletons are appended in the order given
+         */
+        public void merge (EquivalenceClass other) {
+            singletons.addAll(other.singletons);
+            eqv.union(other.eqv);
+            for (Map.Entry<Integer, Integer> me : other.hist.entrySet()) {
+                Integer c = hist.get(me.getKey());
+                hist.put(me.getKey(), c == null
+                         ? me.getValue() : c+me.getValue());
+            }
+        }
+        
         public long[] singletons () { return Util.toArray(singletons); }
         public long[][] components () { return eqv.components(); }
 
@@ -264,13 +341,67 @@ public class EntityFactory implements Props, AutoCloseable {
         StronglyConnectedComponents (final GraphDatabaseService gdb,
                                      final Predication predication,
                                      final int minscore) {
+            this (gdb, predication, minscore, 1);
+        }
+        
+        /*
+         * with threads > 1, the entity node ids are split into contiguous
+         * chunks that are scored by a pool of workers, each within its
+         * own read transaction and with its own equivalence class. the
+         * partial classes are then merged in chunk order, so the result
+         * is identical to that of the sequential pass.
+         */
+        StronglyConnectedComponents (final GraphDatabaseService gdb,
+                                     final Predication predication,
+                                     final int minscore, final int threads) {
             EquivalenceClass eqv = new EquivalenceClass (minscore, predication);
-            try (Transaction tx = gdb.beginTx()) {
-                gdb.findNodes(AuxNodeType.ENTITY).stream().forEach(node -> {
-                        eqv.add(node);
-                    });
+            if (threads > 1) {
+                long[] nodes;
+                try (Transaction tx = gdb.beginTx()) {
+                    nodes = gdb.findNodes(AuxNodeType.ENTITY).stream()
+                        .mapToLong(node -> node.getId()).toArray();
+                    tx.success();
+                }
                 
-                tx.success();
+                // more chunks than threads to even out hairball nodes
+                int chunk = Math.max(1000, nodes.length / (threads*16) + 1);
+                ExecutorService pool = Executors.newFixedThreadPool(threads);
+                try {
+                    List<Future<EquivalenceClass>> parts = new ArrayList<>();
+                    for (int i = 0; i < nodes.length; i += chunk) {
+                        final int start = i;
+                        final int end = Math.min(nodes.length, i+chunk);
+                        parts.add(pool.submit(() -> {
+                                    EquivalenceClass part = new EquivalenceClass
+                                        (minscore, eqv.predication);
+                                    try (Transaction tx = gdb.beginTx()) {
+                                        for (int j = start; j < end; ++j)
+                                            part.add(gdb.getNodeById(nodes[j]));
+                                        tx.success();
+                                    }
+                                    return part;
+                                }));
+                    }
+                    
+                    for (Future<EquivalenceClass> f : parts)
+                        eqv.merge(f.get());
+                }
+                catch (Exception ex) {
+                    throw new RuntimeException
+                        ("Can't calculate connected components", ex);
+                }
+                finally {
+                    pool.shutdownNow();
+                }
+            }
+            else {
+                try (Transaction tx = gdb.beginTx()) {
+                    gdb.findNodes(AuxNodeType.ENTITY).stream().forEach(node -> {
+                            eqv.add(node);
+                        });
+                    
+                    tx.success();
+                }
             }
             eqv.dumpScoreHist();
             
@@ -314,85 +445,235 @@ public class EntityFactory implements Props, AutoCloseable {
     }
 
     /*
-     * a simple graph wrapper around a set of nodes
+     * adjacency of a fixed set of nodes over any number of stitch keys;
+     * the relationships of each node are read once for all the keys
+     * requested together and kept as neighbor lists per key
      */
-    static class Graph {
-        final BitSet[] adj;
-        StitchKey key;
-        GraphDatabaseService gdb;
-        Node[] nodes;
+    static class Adjacency {
+        static final int[] NONE = new int[0];
+        
+        final GraphDatabaseService gdb;
+        final long[] nodes;
+        final Map<Long, Integer> index;
+        final Map<StitchKey, int[][]> layers = new EnumMap<>(StitchKey.class);
 
-        Graph (Component comp) {
-            Entity[] entities = comp.entities();
-            adj = new BitSet[entities.length];
-            if (entities.length > 0) {
-                gdb = entities[0].getGraphDb();
-                try (Transaction tx = gdb.beginTx()) {
-                    for (int i = 0; i < entities.length; ++i) {
-                        Node n = entities[i]._node();
-                        BitSet bs = new BitSet (entities.length);
-                        for (Relationship rel :
-                                 n.getRelationships(key, Direction.BOTH)) {
-                            Node m = rel.getOtherNode(n);
-                            long id = m.getId();
-                            for (int j = 0; j < entities.length; ++j) 
-                                if (i != j && entities[j].getId() == id) {
-                                    bs.set(j);
-                                    break;
-                                }
-                        }
-                        adj[i] = bs;
-                        nodes[i] = n;
-                    }
-                    tx.success();
-                }
-            }
+        Adjacency (GraphDatabaseService gdb, long[] nodes) {
+            this.gdb = gdb;
+            this.nodes = nodes;
+            index = new HashMap<>(2*nodes.length);
+            for (int i = 0; i < nodes.length; ++i)
+                index.put(nodes[i], i);
+        }
+
+        public int size () { return nodes.length; }
+        public int indexOf (long id) {
+            Integer i = index.get(id);
+            return i != null ? i : -1;
         }
         
-        Graph (GraphDatabaseService gdb, StitchKey key, long[] nodes) {
-            adj = new BitSet[nodes.length];
+        /*
+         * make sure the given keys are loaded
+         */
+        synchronized Adjacency load (StitchKey... keys) {
+            EnumSet<StitchKey> missing = EnumSet.noneOf(StitchKey.class);
+            for (StitchKey key : keys)
+                if (!layers.containsKey(key))
+                    missing.add(key);
+            if (missing.isEmpty())
+                return this;
+
+            StitchKey[] types = missing.toArray(new StitchKey[0]);
+            Map<StitchKey, int[][]> adj = new EnumMap<>(StitchKey.class);
+            for (StitchKey key : types)
+                adj.put(key, new int[nodes.length][]);
+            
+            Map<StitchKey, int[]> buf = new EnumMap<>(StitchKey.class);
+            int[] size = new int[StitchKey.values().length];
             try (Transaction tx = gdb.beginTx()) {
-                this.nodes = new Node[nodes.length];
                 for (int i = 0; i < nodes.length; ++i) {
+                    Arrays.fill(size, 0);
                     Node n = gdb.getNodeById(nodes[i]);
-                    BitSet bs = new BitSet (nodes.length);
-                    for (Relationship rel :
-                             n.getRelationships(key, Direction.BOTH)) {
-                        Node m = rel.getOtherNode(n);
-                        long id = m.getId();
-                        for (int j = 0; j < nodes.length; ++j) 
-                            if (i != j && nodes[j] == id) {
-                                bs.set(j);
-                                break;
-                            }
+                    for (Relationship rel
+                             : n.getRelationships(Direction.BOTH, types)) {
+                        Integer j = index.get(rel.getOtherNodeId(nodes[i]));
+                        if (j == null || j == i)
+                            continue;
+                        
+                        StitchKey key = StitchKey.valueOf
+                            (rel.getType().name());
+                        int[] nb = buf.get(key);
+                        if (nb == null)
+                            buf.put(key, nb = new int[16]);
+                        else if (size[key.ordinal()] == nb.length)
+                            buf.put(key, nb = Arrays.copyOf
+                                    (nb, 2*nb.length));
+                        nb[size[key.ordinal()]++] = j;
+                    }
+
+                    for (StitchKey key : types) {
+                        int k = size[key.ordinal()];
+                        adj.get(key)[i] = k == 0 ? NONE
+                            // multiple values can stitch the same pair
+                            : Arrays.stream(buf.get(key), 0, k)
+                            .sorted().distinct().toArray();
                     }
-                    adj[i] = bs;
-                    this.nodes[i] = n;
                 }
                 tx.success();
             }
-            this.gdb = gdb;
-            this.key = key;
+            layers.putAll(adj);
+            
+            return this;
         }
 
-        public BitSet maxclique (StitchKey key, Object value) {
-            return null;
+        /*
+         * adjacency bitsets of the given key for the nodes at the given
+         * positions (or all nodes if null); the key must be loaded
+         */
+        BitSet[] graph (StitchKey key, int[] subset) {
+            int[][] layer;
+            synchronized (this) {
+                layer = layers.get(key);
+            }
+            if (layer == null)
+                throw new IllegalStateException ("Key "+key+" not loaded!");
+
+            int[] map = null;
+            if (subset != null) {
+                map = new int[nodes.length];
+                Arrays.fill(map, -1);
+                for (int i = 0; i < subset.length; ++i)
+                    map[subset[i]] = i;
+            }
+            
+            int size = subset != null ? subset.length : nodes.length;
+            BitSet[] G = new BitSet[size];
+            for (int i = 0; i < size; ++i) {
+                G[i] = new BitSet (size);
+                for (int j : layer[subset != null ? subset[i] : i]) {
+                    if (map == null)
+                        G[i].set(j);
+                    else if (map[j] >= 0)
+                        G[i].set(map[j]);
+                }
+            }
+            return G;
         }
 
-        // construct a clique based on the given set of nodes
-        
-        public BitSet edges (int n) { return adj[n]; }
-        public StitchKey key () { return key; }
-        public int size () { return adj.length; }
+        long[] nodes (int[] subset) {
+            if (subset == null)
+                return nodes;
+            long[] sub = new long[subset.length];
+            for (int i = 0; i < subset.length; ++i)
+                sub[i] = nodes[subset[i]];
+            return sub;
+        }
     }
 
     static class ComponentImpl implements Component {
-        TreeSet<Long> nodes = new TreeSet<>();
-        Entity[] entities;
+        static final long[] EMPTY = new long[0];
+        
+        long[] nodes = EMPTY; // sorted node ids
+        Entity[] entities; // created on demand in the order of nodes
+        Adjacency adjacency; // kept across cliques() calls
+        EntitySignature[] signatures; // kept across potential() calls
         String id;
         GraphDatabaseService gdb;
         Entity root;
 
+        /*
+         * read-only view of the node ids as a set
+         */
+        static class NodeSet extends AbstractSet<Long> {
+            final long[] nodes;
+            NodeSet (long[] nodes) {
+                this.nodes = nodes;
+            }
+
+            public int size () { return nodes.length; }
+            public boolean contains (Object obj) {
+                return obj instanceof Long
+                    && Arrays.binarySearch(nodes, (Long)obj) >= 0;
+            }
+            public Iterator<Long> iterator () {
+                return new Iterator<Long> () {
+                    int i = 0;
+                    public boolean hasNext () { return i < nodes.length; }
+                    public Long next () {
+                        if (i >= nodes.length)
+                            throw new NoSuchElementException ();
+                        return nodes[i++];
+                    }
+                };
+            }
+        }
+
+        /*
+         * set algebra over sorted arrays
+         */
+        static long[] union (long[] a, long[] b) {
+            long[] c = new long[a.length+b.length];
+            int i = 0, j = 0, k = 0;
+            while (i < a.length && j < b.length) {
+                if (a[i] < b[j]) c[k++] = a[i++];
+                else if (a[i] > b[j]) c[k++] = b[j++];
+                else {
+                    c[k++] = a[i++];
+                    ++j;
+                }
+            }
+            while (i < a.length) c[k++] = a[i++];
+            while (j < b.length) c[k++] = b[j++];
+            return k < c.length ? Arrays.copyOf(c, k) : c;
+        }
+
+        static long[] intersection (long[] a, long[] b) {
+            long[] c = new long[Math.min(a.length, b.length)];
+            int i = 0, j = 0, k = 0;
+            while (i < a.length && j < b.length) {
+                if (a[i] < b[j]) ++i;
+                else if (a[i] > b[j]) ++j;
+                else {
+                    c[k++] = a[i++];
+                    ++j;
+                }
+            }
+            return k < c.length ? Arrays.copyOf(c, k) : c;
+        }
+
+        static long[] symmetricDifference (long[] a, long[] b) {
+            long[] c = new long[a.length+b.length];
+            int i = 0, j = 0, k = 0;
+            while (i < a.length && j < b.length) {
+                if (a[i] < b[j]) c[k++] = a[i++];
+                else if (a[i] > b[j]) c[k++] = b[j++];
+                else {
+                    ++i;
+                    ++j;
+                }
+            }
+            while (i < a.length) c[k++] = a[i++];
+            while (j < b.length) c[k++] = b[j++];
+            return k < c.length ? Arrays.copyOf(c, k) : c;
+        }
+
+        /*
+         * sorted copy of the given ids without duplicates
+         */
+        static long[] sorted (long[] ids) {
+            long[] s = ids.clone();
+            Arrays.sort(s);
+            int k = 0;
+            for (int i = 0; i < s.length; ++i)
+                if (k == 0 || s[k-1] != s[i])
+                    s[k++] = s[i];
+            return k < s.length ? Arrays.copyOf(s, k) : s;
+        }
+
+        static long[] sorted (Component comp) {
+            return comp instanceof ComponentImpl
+                ? ((ComponentImpl)comp).members() : sorted (comp.nodes());
+        }
+
         ComponentImpl () {
         }
         
@@ -410,21 +691,12 @@ public class EntityFactory implements Props, AutoCloseable {
                 traverse (node);
 
                 Integer rank = (Integer)node.getProperty(RANK);
-                if (rank != nodes.size()) {
+                if (rank != nodes.length) {
                     logger.warning("Node #"+node.getId()
                                    +": Rank is "+rank+" but there are "
-                                   +nodes.size()+" nodes in this component!");
-                }
-                
-                entities = new Entity[nodes.size()];
-                int i = 0;
-                for (Long id : nodes) {
-                    entities[i] = Entity._getEntity(gdb.getNodeById(id));
-                    if (id.equals(node.getId())) {
-                        root = entities[i];
-                    }
-                    ++i;
+                                   +nodes.length+" nodes in this component!");
                 }
+                root = Entity._getEntity(node);
                 
                 tx.success();
             }
@@ -432,35 +704,46 @@ public class EntityFactory implements Props, AutoCloseable {
         }
 
         void traverse (Node node) {
+            Set<Long> seen = new HashSet<>();
+            long[] ids = new long[16];
+            int size = 0;
+            
             LinkedList<Node> stack = new LinkedList<>();
             stack.push(node);
             while (!stack.isEmpty()) {
                 Node n = stack.pop();
-                nodes.add(n.getId());
+                if (!seen.add(n.getId()))
+                    continue;
+                
+                if (size == ids.length)
+                    ids = Arrays.copyOf(ids, size*2);
+                ids[size++] = n.getId();
                 for (Relationship rel :
                          n.getRelationships(Direction.BOTH, Entity.KEYS)) {
                     Node xn = rel.getOtherNode(n);
-                    if (!nodes.contains(xn.getId()))
+                    if (!seen.contains(xn.getId()))
                         stack.push(xn);
                 }
             }
+            nodes = Arrays.copyOf(ids, size);
+            Arrays.sort(nodes);
         }
 
         ComponentImpl (GraphDatabaseService gdb, long[] nodes) {
             try (Transaction tx = gdb.beginTx()) {
-                entities = new Entity[nodes.length];
                 int rank = 0;
-                
+                Node rn = null;
                 for (int i = 0; i < nodes.length; ++i) {
                     Node n = gdb.getNodeById(nodes[i]);
-                    entities[i] = Entity._getEntity(n);
                     Integer r = (Integer)n.getProperty(RANK, 0);
-                    if (r > rank || root == null) {
+                    if (r > rank || rn == null) {
                         rank = r;
-                        root = entities[i];
+                        rn = n;
                     }
-                    this.nodes.add(nodes[i]);
                 }
+                if (rn != null)
+                    root = Entity._getEntity(rn);
+                this.nodes = sorted (nodes);
                 id = Util.sha1(this.nodes).substring(0, 9);
                 tx.success();
             }
@@ -472,7 +755,6 @@ public class EntityFactory implements Props, AutoCloseable {
         }
 
         ComponentImpl (Component... comps) {
-            Set<Entity> entities = new TreeSet<Entity>();
             int rank = 0;
             for (Component c : comps) {
                 Integer r = (Integer)c.root()
@@ -482,25 +764,21 @@ public class EntityFactory implements Props, AutoCloseable {
                     root = c.root();
                 }
                 
-                for (Entity e : c) {
-                    if (gdb == null) {
-                        // this assumes that all entities come from the same
-                        // underlying graphdb instance!
-                        gdb = e.getGraphDb();
-                    }
-                    
-                    entities.add(e);
-                    nodes.add(e.getId());
+                if (gdb == null) {
+                    // this assumes that all entities come from the same
+                    // underlying graphdb instance!
+                    gdb = c.root().getGraphDb();
                 }
+                nodes = union (nodes, sorted (c));
             }
-
-            this.entities = entities.toArray(new Entity[0]);
             id = Util.sha1(nodes).substring(0, 9);
         }
 
         ComponentImpl (Entity... entities) {
             int rank = 0;
-            for (Entity e : entities) {
+            long[] ids = new long[entities.length];
+            for (int i = 0; i < entities.length; ++i) {
+                Entity e = entities[i];
                 if (gdb == null)
                     gdb = e.getGraphDb();
                 Integer r = (Integer)e._node().getProperty(RANK, 0);
@@ -508,42 +786,85 @@ public class EntityFactory implements Props, AutoCloseable {
                     rank = r;
                     root = e;
                 }
-                nodes.add(e.getId());
+                ids[i] = e.getId();
+            }
+            nodes = sorted (ids);
+            if (nodes.length == entities.length) {
+                // keep the entities we're given
+                Entity[] ents = entities.clone();
+                Arrays.sort(ents, (a, b) -> Long.compare(a.getId(), b.getId()));
+                this.entities = ents;
             }
-            this.entities = entities;
             id = Util.sha1(nodes).substring(0, 9);
         }
 
+        /*
+         * node ids in sorted order; everything in this class goes through
+         * here so that subclasses can defer populating the nodes
+         */
+        long[] members () { return nodes; }
+
+        synchronized EntitySignature[] signatures () {
+            if (signatures == null)
+                signatures = EntitySignature.create(gdb, members ());
+            return signatures;
+        }
+
+        synchronized Adjacency adjacency () {
+            if (adjacency == null)
+                adjacency = new Adjacency (gdb, members ());
+            return adjacency;
+        }
+
+        int indexOf (long id) {
+            return Arrays.binarySearch(members (), id);
+        }
+
+        Entity[] _entities () {
+            Entity[] ents = entities;
+            if (ents == null) {
+                long[] nodes = members ();
+                ents = new Entity[nodes.length];
+                for (int i = 0; i < nodes.length; ++i) {
+                    ents[i] = root != null && root.getId() == nodes[i]
+                        ? root : Entity._getEntity(gdb.getNodeById(nodes[i]));
+                }
+                entities = ents;
+            }
+            return ents;
+        }
+        
         protected void setRoot (Long root) {
             if (root == null)
                 throw new IllegalArgumentException
                     ("Can't set root entity to null");
+
+            int i = indexOf (root);
+            if (i < 0)
+                throw new IllegalArgumentException
+                    ("Entity "+root+" isn't part of component "+id);
             
-            for (Entity e : entities) {
-                if (e.getId() == root) {
-                    this.root = e;
-                    return;
+            if (entities != null) {
+                this.root = entities[i];
+            }
+            else if (this.root == null || this.root.getId() != root) {
+                try (Transaction tx = gdb.beginTx()) {
+                    this.root = Entity._getEntity(gdb.getNodeById(root));
+                    tx.success();
                 }
             }
-            
-            throw new IllegalArgumentException
-                ("Entity "+root+" isn't part of component "+id);
         }
         
         protected void setRoot (Entity root) {
             if (root == null)
                 throw new IllegalArgumentException
                     ("Can't set root entity to null");
-            
-            for (Entity e : entities) {
-                if (e.equals(root)) {
-                    this.root = e;
-                    return;
-                }
-            }
-            
-            throw new IllegalArgumentException
-                ("Entity "+root.getId()+" isn't part of component "+id);
+
+            int i = indexOf (root.getId());
+            if (i < 0)
+                throw new IllegalArgumentException
+                    ("Entity "+root.getId()+" isn't part of component "+id);
+            this.root = entities != null ? entities[i] : root;
         }
 
         public Entity root () { return root; }
@@ -555,22 +876,23 @@ public class EntityFactory implements Props, AutoCloseable {
             Map<Object, Integer> values = new HashMap<>();
             try (Transaction tx = gdb.beginTx()) {
                 Set xv = new HashSet ();
-                Set<Long> seen = new HashSet<>();
-                for (Entity e : entities) {
-                    Node n = e._node();
+                long[] nodes = members ();
+                for (int i = 0; i < nodes.length; ++i) {
+                    Node n = gdb.getNodeById(nodes[i]);
                     for (Relationship rel : n.getRelationships(key)) {
                         long xn = rel.getOtherNodeId(n.getId());
-                        if (rel.hasProperty(VALUE)
-                            && nodes.contains(xn) && !seen.contains(xn)) {
+                        // nodes are visited in sorted order, so those
+                        // less than the current one have been seen
+                        if (rel.hasProperty(VALUE) && xn >= nodes[i]
+                            && contains (xn)) {
                             xv.add(rel.getProperty(VALUE));
                         }
                     }
-                    seen.add(n.getId());
                 }
                 
                 for (Object v : xv) {
-                    long[] nodes = this.nodes(key, v);
-                    values.put(v, nodes.length);
+                    long[] vn = this.nodes(key, v);
+                    values.put(v, vn.length);
                 }
                 
                 tx.success();
@@ -588,28 +910,82 @@ public class EntityFactory implements Props, AutoCloseable {
 
         public Component _filter (StitchKey key, Object value) {
             long[] nodes = EntityFactory.nodes(gdb, key.name(), value);
-            Set<Long> subset = new TreeSet<>();
             // restrict to be subset of this component
-            for (int i = 0; i < nodes.length; ++i)
-                if (this.nodes.contains(nodes[i]))
-                    subset.add(nodes[i]);
-            return new ComponentImpl (gdb, Util.toArray(subset));
+            return new ComponentImpl
+                (gdb, intersection (sorted (nodes), members ()));
         }
         
         public Iterator<Entity> iterator () {
-            return Arrays.asList(entities).iterator();
+            return Arrays.asList(entities ()).iterator();
         }
         
         public String getId () { return id; }
-        public Entity[] entities () { return entities; }
-        public int size () { return nodes.size(); }
-        public Set<Long> nodeSet () {
-            return Collections.unmodifiableSortedSet(nodes);
+        public Entity[] entities () {
+            if (entities == null) {
+                try (Transaction tx = gdb.beginTx()) {
+                    _entities ();
+                    tx.success();
+                }
+            }
+            return entities;
+        }
+        
+        @Override
+        public Entity[] entities (long[] ids) {
+            List<Entity> ents = new ArrayList<>();
+            Entity[] cached = entities;
+            if (cached != null) {
+                for (int i = 0; i < ids.length; ++i) {
+                    int k = indexOf (ids[i]);
+                    if (k >= 0)
+                        ents.add(cached[k]);
+                }
+            }
+            else {
+                // only wrap the requested entities
+                try (Transaction tx = gdb.beginTx()) {
+                    for (int i = 0; i < ids.length; ++i) {
+                        if (indexOf (ids[i]) >= 0) {
+                            ents.add(root != null && root.getId() == ids[i]
+                                     ? root : Entity._getEntity
+                                     (gdb.getNodeById(ids[i])));
+                        }
+                    }
+                    tx.success();
+                }
+            }
+            return ents.toArray(new Entity[0]);
         }
-        public int hashCode () { return nodes.hashCode(); }
+        
+        public int size () { return members().length; }
+        public Set<Long> nodeSet () { return new NodeSet (members ()); }
+        public long[] nodes () { return members().clone(); }
+        public boolean isEmpty () { return members().length == 0; }
+        public boolean contains (long id) { return indexOf (id) >= 0; }
+        public boolean contains (Entity e) { return contains (e.getId()); }
+        
+        public boolean overlaps (Component c) {
+            long[] a = members (), b = sorted (c);
+            for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+                if (a[i] < b[j]) ++i;
+                else if (a[i] > b[j]) ++j;
+                else return true;
+            }
+            return false;
+        }
+
+        public double similarity (Component other) {
+            long[] a = members ();
+            long[] b = sorted (other);
+            int ov = intersection (a, b).length;
+            return (double)ov/(a.length + b.length - ov);
+        }
+        
+        public int hashCode () { return Arrays.hashCode(members ()); }
         public boolean equals (Object obj) {
             if (obj instanceof ComponentImpl) {
-                return nodes.equals(((ComponentImpl)obj).nodes);
+                return Arrays.equals
+                    (members (), ((ComponentImpl)obj).members());
             }
             return false;
         }
@@ -621,17 +997,18 @@ public class EntityFactory implements Props, AutoCloseable {
             if (keys == null || keys.length == 0)
                 keys = Entity.KEYS;
 
+            EntitySignature[] sigs = signatures ();
             double score = 0.0;
             // this assumes the component is a clique
-            for (int i = 0; i < entities.length; ++i) {
-                for (int j = i+1; j < entities.length; ++j) {
-                    double s = entities[i].similarity(entities[j], keys);
+            for (int i = 0; i < sigs.length; ++i) {
+                for (int j = i+1; j < sigs.length; ++j) {
+                    double s = sigs[i].similarity(sigs[j], keys);
                     score += s;
                 }
             }
 
-            if (entities.length > 1) {
-                score /= entities.length*(entities.length-1);
+            if (sigs.length > 1) {
+                score /= sigs.length*(sigs.length-1);
             }
             else score = 0.;
             
@@ -645,7 +1022,7 @@ public class EntityFactory implements Props, AutoCloseable {
                      EntityFactory.find(gdb, key.name(), value);
                  it.hasNext(); ) {
                 long id = it.next().getId();
-                if (this.nodes.contains(id))
+                if (contains (id))
                     nodes.add(id);
             }
             
@@ -656,13 +1033,14 @@ public class EntityFactory implements Props, AutoCloseable {
             Map<Object, Integer> stats = new HashMap<>();
             try (Transaction tx = gdb.beginTx()) {
                 Set<Long> seen = new HashSet<>();
-                for (int i = 0; i < entities.length; ++i) {
-                    Node n = entities[i]._node();
+                long[] nodes = members ();
+                for (int i = 0; i < nodes.length; ++i) {
+                    Node n = gdb.getNodeById(nodes[i]);
                     for (Relationship rel :
                              n.getRelationships(Direction.BOTH, key)) {
                         if (!seen.contains(rel.getId())) {
                             Node xn = rel.getOtherNode(n);
-                            if (nodes.contains(xn.getId())) {
+                            if (contains (xn.getId())) {
                                 Object val = rel.getProperty(VALUE, null);
                                 if (val != null) {
                                     Integer c = stats.get(val);
@@ -685,10 +1063,23 @@ public class EntityFactory implements Props, AutoCloseable {
                 CliqueEnumeration clique = new CliqueEnumeration
                     (gdb, keys == null || keys.length == 0
                      ? Entity.KEYS : keys);
-                clique.enumerate(nodes (), visitor);
+                clique.enumerate(adjacency (), null, visitor);
                 tx.success();
             }
         }
+
+        @Override
+        public boolean cliques (CliqueVisitor visitor, long timeout,
+                                int maxCliques, StitchKey... keys) {
+            try (Transaction tx = gdb.beginTx()) {
+                CliqueEnumeration clique = new CliqueEnumeration
+                    (gdb, keys == null || keys.length == 0
+                     ? Entity.KEYS : keys).setBudget(timeout, maxCliques);
+                clique.enumerate(adjacency (), null, visitor);
+                tx.success();
+                return !clique.isTruncated();
+            }
+        }
         
         Set<Long> getNodes (StitchKey key, Object value) {
             return getNodes (key, value, Stitchable.ANY);
@@ -699,7 +1090,7 @@ public class EntityFactory implements Props, AutoCloseable {
             for (Iterator<Entity> it = find (gdb, key.name(), value, inclusion);
                  it.hasNext(); ) {
                 Entity e = it.next();
-                if (nodes.contains(e.getId()))
+                if (contains (e.getId()))
                     all.add(e.getId());
             }
             return all;
@@ -709,10 +1100,15 @@ public class EntityFactory implements Props, AutoCloseable {
         public void cliques (CliqueVisitor visitor,
                              StitchKey key, Object value, int inclusion) {
             try (Transaction tx = gdb.beginTx()) {
-                    Set<Long> nodes = getNodes (key, value, inclusion);
+                Set<Long> nodes = getNodes (key, value, inclusion);
                 if (!nodes.isEmpty()) {
+                    Adjacency adj = adjacency ();
+                    int[] subset = new int[nodes.size()];
+                    int i = 0;
+                    for (Long id : nodes)
+                        subset[i++] = adj.indexOf(id);
                     CliqueEnumeration clique = new CliqueEnumeration (gdb, key);
-                    clique.enumerate(Util.toArray(nodes), visitor);
+                    clique.enumerate(adj, subset, visitor);
                 }
                 tx.success();
             }
@@ -721,6 +1117,7 @@ public class EntityFactory implements Props, AutoCloseable {
         public void stitches (BiConsumer<Entity, Entity> consumer,
                               StitchKey... keys) {
             try (Transaction tx = gdb.beginTx()) {
+                Entity[] entities = _entities ();
                 Map<Long, Entity> seen = new HashMap<>();
                 for (int i = 0; i < entities.length; ++i) {
                     Node n = entities[i]._node();
@@ -752,6 +1149,7 @@ public class EntityFactory implements Props, AutoCloseable {
 
         public void stitches (StitchVisitor visitor, StitchKey... keys) {
             try (Transaction tx = gdb.beginTx()) {
+                Entity[] entities = _entities ();
                 Map<Long, Entity> seen = new HashMap<>();
                 for (int i = 0; i < entities.length; ++i) {
                     Node n = entities[i]._node();
@@ -779,11 +1177,9 @@ public class EntityFactory implements Props, AutoCloseable {
 
         protected List<Entity> ov (Component comp) {
             List<Entity> ov = new ArrayList<Entity>();
-            for (Entity e : comp) {
-                long id = e.getId();
-                if (nodes.contains(id))
-                    ov.add(e);
-            }
+            for (Entity e : comp.entities(intersection (members (),
+                                                        sorted (comp))))
+                ov.add(e);
             return ov;
         }
 
@@ -794,9 +1190,8 @@ public class EntityFactory implements Props, AutoCloseable {
 
         @Override
         public Component and (Component comp) {
-            List<Entity> ov = ov (comp);
-            return ov.isEmpty() ? null
-                : new ComponentImpl (ov.toArray(new Entity[0]));
+            long[] ov = intersection (members (), sorted (comp));
+            return ov.length == 0 ? null : new ComponentImpl (gdb, ov);
         }
 
         protected Iterable<Relationship> getRelationships
@@ -862,33 +1257,41 @@ public class EntityFactory implements Props, AutoCloseable {
                               BiPredicate<Long, StitchValue> predicate,
                               StitchKey... keys) {
             try (Transaction tx = gdb.beginTx()) {
-                Set<Long> added = new TreeSet<>(this.nodes);
-                int size = added.size();
+                long[] added = new long[nodes.length];
+                int size = 0;
                 for (int i = 0; i < nodes.length; ++i) {
+                    if (contains (nodes[i]))
+                        continue;
+                    
                     Node n = gdb.getNodeById(nodes[i]);
+                    boolean add = false;
                     for (Relationship rel : getRelationships (n, keys)) {
                         long xid = rel.getOtherNode(n).getId();
-                        if (this.nodes.contains(xid)) {                 
+                        if (contains (xid)) {
                             if (predicate != null) {
                                 try {
                                     StitchValue sv = new StitchValue
                                         (StitchKey.valueOf(rel.getType().name()),
                                          VALUE, rel.getProperty(VALUE, null));
                                     if (predicate.test(xid, sv))
-                                        added.add(nodes[i]);
+                                        add = true;
                                 }
                                 catch (IllegalArgumentException ex) {
                                 }
                             }
                             else 
-                                added.add(nodes[i]);
+                                add = true;
                         }
                     }
+                    if (add)
+                        added[size++] = nodes[i];
                 }
                 
                 Component comp = this;
-                if (added.size() > size) {
-                    comp = new ComponentImpl (gdb, added.toArray(new Long[0]));
+                if (size > 0) {
+                    comp = new ComponentImpl
+                        (gdb, union (members (),
+                                     sorted (Arrays.copyOf(added, size))));
                 }
                 tx.success();
                 
@@ -898,35 +1301,23 @@ public class EntityFactory implements Props, AutoCloseable {
 
         @Override
         public Component xor (Component comp) {
-            List<Entity> ov = new ArrayList<Entity>();
-            for (Entity e : comp) {
-                long id = e.getId();
-                if (!nodes.contains(id))
-                    ov.add(e);
-            }
-            
-            for (Entity e : this) {
-                long id = e.getId();
-                if (!comp.nodeSet().contains(id))
-                    ov.add(e);
-            }
-            
-            return ov.isEmpty()
-                ? null : new ComponentImpl (ov.toArray(new Entity[0]));
+            long[] ov = symmetricDifference (members (), sorted (comp));
+            return ov.length == 0 ? null : new ComponentImpl (gdb, ov);
         }
 
         public String toString () {
             return getClass().getName()+"{id="+id+",size="
-                +nodes.size()+",nodes="+nodes+"}";
+                +size ()+",nodes="+Arrays.toString(members ())+"}";
         }
 
         public JsonNode toJson () {
             ObjectMapper mapper = new ObjectMapper ();
             ObjectNode comp = mapper.createObjectNode();            
             try (Transaction tx = gdb.beginTx()) {
+                long[] members = members ();
                 comp.put("id", id);
-                comp.put("size", nodes.size());
-                comp.put("node_ids", mapper.valueToTree(nodes));
+                comp.put("size", members.length);
+                comp.put("node_ids", mapper.valueToTree(members));
                 ObjectNode stitches = mapper.createObjectNode();
                 for (StitchKey key : Entity.KEYS) {
                     Map<Object, Integer> sv = values (key);
@@ -947,7 +1338,7 @@ public class EntityFactory implements Props, AutoCloseable {
 
                 ArrayNode nodes = mapper.createArrayNode();
                 Set<Relationship> relationships = new LinkedHashSet<>();
-                for (Long id : this.nodes) {
+                for (long id : members) {
                     ObjectNode n = mapper.createObjectNode();
                     Node node = gdb.getNodeById(id);
                     n.put("id", id);
@@ -959,7 +1350,7 @@ public class EntityFactory implements Props, AutoCloseable {
                     
                     for (Relationship rel : node.getRelationships()) {
                         Node xn = rel.getOtherNode(node);
-                        if (this.nodes.contains(xn.getId()))
+                        if (contains (xn.getId()))
                             relationships.add(rel);
                     }
                     nodes.add(n);
@@ -1000,6 +1391,7 @@ public class EntityFactory implements Props, AutoCloseable {
                         ("Node does not contain rank");
                 
                 seed = node;
+                gdb = node.getGraphDatabase();
                 tx.success();
             }
         }
@@ -1015,17 +1407,9 @@ public class EntityFactory implements Props, AutoCloseable {
             init ();
             return rank;
         }
-        @Override public Set<Long> nodeSet () {
+        @Override long[] members () {
             init ();
-            return super.nodeSet();
-        }
-        @Override public Entity[] entities () {
-            init ();
-            return super.entities();
-        }
-        @Override public Iterator<Entity> iterator () {
-            init ();
-            return super.iterator();
+            return super.members();
         }
         @Override public Double potential (StitchKey... keys) {
             return rank.doubleValue();
@@ -1041,27 +1425,27 @@ public class EntityFactory implements Props, AutoCloseable {
 
         CliqueImpl (BitSet C, long[] gnodes, Set<StitchKey> keys,
                     GraphDatabaseService gdb) {
-            entities = new Entity[C.cardinality()];
+            long[] ids = new long[C.cardinality()];
             try (Transaction tx = gdb.beginTx()) {
-                Node[] nodes = new Node[C.cardinality()];
+                Node[] nodes = new Node[ids.length];
                 for (int i = C.nextSetBit(0), j = 0;
                      i >= 0; i = C.nextSetBit(i+1)) {
                     nodes[j] = gdb.getNodeById(gnodes[i]);
-                    entities[j] = Entity._getEntity(nodes[j]);
-                    this.nodes.add(gnodes[i]);
+                    ids[j] = gnodes[i];
                     ++j;
                 }
+                this.nodes = sorted (ids);
 
                 for (StitchKey key : keys)
                     update (nodes, key);
 
                 if (values.isEmpty()) {
                     logger.warning("Clique has no defining key span!\n"
-                                   +this.nodes);
+                                   +Arrays.toString(this.nodes));
                 }
                 tx.success();
             }
-            id = Util.sha1(nodes).substring(0, 9);
+            id = Util.sha1(this.nodes).substring(0, 9);
             this.gdb = gdb;
         }
 
@@ -1149,25 +1533,159 @@ public class EntityFactory implements Props, AutoCloseable {
     }
     
     /*
-     * using the standard Bron-Kerbosch enumeration algorithm
+     * Bron-Kerbosch with pivoting and degeneracy ordering (see
+     * graph.BronKerbosch); an optional budget stops the enumeration after
+     * a given time or number of cliques, in which case isTruncated() is
+     * true and only the cliques found so far are visited. With a pool the
+     * stitch keys are searched concurrently; the cliques are merged in
+     * key order either way, so the visitor sees the same sequence.
      */
     static class CliqueEnumeration {
         final GraphDatabaseService gdb;
         final Map<BitSet, EnumSet<StitchKey>> cliques =
-            new HashMap<BitSet, EnumSet<StitchKey>>();
+            new LinkedHashMap<BitSet, EnumSet<StitchKey>>();
         final StitchKey[] keys;
+        ForkJoinPool pool;
+        long timeout; // milliseconds; 0 means no limit
+        int maxCliques; // 0 means no limit
+        long deadline;
+        long[] nodes;
+        int count;
+        boolean truncated;
+
+        /*
+         * cliques of one key in the order found
+         */
+        static class KeyCliques {
+            final StitchKey key;
+            final List<BitSet> cliques = new ArrayList<>();
+            boolean truncated;
+
+            KeyCliques (StitchKey key) {
+                this.key = key;
+            }
+        }
         
         CliqueEnumeration (GraphDatabaseService gdb, StitchKey... keys) {
             this.gdb = gdb;
             this.keys = keys;
         }
 
+        CliqueEnumeration setBudget (long timeout, int maxCliques) {
+            this.timeout = Math.max(0l, timeout);
+            this.maxCliques = Math.max(0, maxCliques);
+            return this;
+        }
+
+        CliqueEnumeration setPool (ForkJoinPool pool) {
+            this.pool = pool;
+            return this;
+        }
+
+        public boolean isTruncated () { return truncated; }
+
         public boolean enumerate (long[] nodes, CliqueVisitor visitor) {
+            return enumerate (new Adjacency (gdb, nodes), null, visitor);
+        }
+
+        /*
+         * enumerate over the nodes of adj at the given positions (or all
+         * of them if subset is null)
+         */
+        boolean enumerate (Adjacency adj, int[] subset,
+                           CliqueVisitor visitor) {
+            // one pass over the relationships for all keys
+            adj.load(keys);
+            search (adj, subset);
+            return visit (visitor);
+        }
+
+        /*
+         * find the cliques without touching the graph; the keys must
+         * already be loaded in adj
+         */
+        void search (Adjacency adj, int[] subset) {
             cliques.clear();
+            count = 0;
+            truncated = false;
+            deadline = timeout > 0 ? System.currentTimeMillis() + timeout : 0;
+            nodes = adj.nodes(subset);
+
+            if (pool == null || keys.length < 2) {
+                for (StitchKey key : keys) {
+                    // once the budget is used up, a single clique
+                    // more means the results are partial
+                    if (!merge (search (key, adj.graph(key, subset),
+                                        maxCliques > 0 ? Math.max
+                                        (1, maxCliques - count) : 0)))
+                        break;
+                }
+            }
+            else {
+                List<ForkJoinTask<KeyCliques>> tasks = new ArrayList<>();
+                for (StitchKey key : keys) {
+                    // each key gets the full budget; merge() trims it
+                    ForkJoinTask<KeyCliques> task = ForkJoinTask.adapt
+                        (() -> search (key, adj.graph(key, subset),
+                                       maxCliques));
+                    tasks.add(ForkJoinTask.getPool() == pool
+                              ? task.fork() : pool.submit(task));
+                }
+                
+                int k = 0;
+                for (; k < tasks.size(); ++k)
+                    if (!merge (tasks.get(k).join()))
+                        break;
+                while (++k < tasks.size())
+                    tasks.get(k).cancel(true);
+            }
+        }
+
+        /*
+         * returns false if the budget is exhausted
+         */
+        boolean merge (KeyCliques kc) {
+            for (BitSet c : kc.cliques) {
+                if (maxCliques > 0 && count >= maxCliques) {
+                    truncated = true;
+                    break;
+                }
+                
+                EnumSet<StitchKey> keys = cliques.get(c);
+                if (keys == null)
+                    cliques.put(c, EnumSet.of(kc.key));
+                else
+                    keys.add(kc.key);
+                ++count;
+            }
+            truncated |= kc.truncated;
             
-            for (StitchKey key : keys)
-                enumerate (key, nodes);
-            
+            if (truncated) {
+                logger.warning("Clique enumeration over "+nodes.length
+                               +" nodes ran out of budget at "+kc.key
+                               +" after "+count+" clique(s); "
+                               +"results are partial!");
+                return false;
+            }
+            return true;
+        }
+        
+        KeyCliques search (StitchKey key, BitSet[] G, int limit) {
+            KeyCliques kc = new KeyCliques (key);
+            BronKerbosch bk = new BronKerbosch (G)
+                .setMinSize(CLIQUE_MINSIZE)
+                .setDeadline(deadline)
+                .setMaxCliques(limit);
+            // only consider cliques that are of size >= CLIQUE_MINSIZE
+            bk.enumerate(C -> kc.cliques.add((BitSet)C.clone()));
+            kc.truncated = bk.isTruncated();
+            return kc;
+        }
+
+        /*
+         * must be called within a transaction
+         */
+        boolean visit (CliqueVisitor visitor) {
             for (Map.Entry<BitSet, EnumSet<StitchKey>> me
                      : cliques.entrySet()) {
                 
@@ -1194,63 +1712,6 @@ public class EntityFactory implements Props, AutoCloseable {
             
             return true;
         }
-        
-        void enumerate (StitchKey key, long[] nodes) {
-            BitSet P = new BitSet (nodes.length);
-            for (int i = 0; i < nodes.length; ++i) {
-                P.set(i);
-            }
-            BitSet C = new BitSet (nodes.length);
-            BitSet S = new BitSet (nodes.length);
-            Graph G = new Graph (gdb, key, nodes);
-
-            /*
-            { Set<Long> g = new TreeSet<Long>();
-                for (int i = 0; i < nodes.length; ++i)
-                    g.add(nodes[i]);
-                logger.info("Clique enumeration "+key+" G="+g+"...");
-            }
-            */
-            
-            bronKerbosch (G, C, P, S);
-        }
-
-        boolean bronKerbosch (Graph G, BitSet C, BitSet P, BitSet S) {
-            boolean done = false;
-            if (P.isEmpty() && S.isEmpty()) {
-                //logger.info("@Clique "+C);
-                // only consider cliques that are of size >= CLIQUE_MINSIZE
-                if (C.cardinality() >= CLIQUE_MINSIZE) {
-                    BitSet c = (BitSet)C.clone();
-                    
-                    EnumSet<StitchKey> keys = cliques.get(c);
-                    if (keys == null) {
-                        cliques.put(c, EnumSet.of(G.key()));
-                        //logger.info("Clique found.."+c);
-                    }
-                    else
-                        keys.add(G.key());
-                    
-                    done = C.cardinality() == G.size();
-                }
-            }
-            else {
-                for (int u = P.nextSetBit(0); u >=0 && !done ;
-                     u = P.nextSetBit(u+1)) {
-                    P.clear(u);
-                    BitSet PP = (BitSet)P.clone();
-                    BitSet SS = (BitSet)S.clone();
-                    PP.and(G.edges(u));
-                    SS.and(G.edges(u));
-                    C.set(u);
-                    done = bronKerbosch (G, C, PP, SS);
-                    C.clear(u);
-                    S.set(u);
-                }
-            }
-            
-            return done;
-        }
     }
 
     protected final GraphDb graphDb;
@@ -1258,6 +1719,10 @@ public class EntityFactory implements Props, AutoCloseable {
     protected final TimelineIndex<Node> timeline;
     protected final DataSourceFactory dsf;
     protected TextIndexer indexer;
+    protected ForkJoinPool cliquePool; // null for sequential enumeration
+    // threads for connectedComponents; see setComponentThreads
+    protected int componentThreads =
+        Integer.getInteger("stitcher.components.threads", 1);
     
     public EntityFactory (String dir) throws IOException {
         this (GraphDb.getInstance(dir));
@@ -1316,6 +1781,14 @@ public class EntityFactory implements Props, AutoCloseable {
     public DataSourceFactory getDataSourceFactory () { return dsf; }
     public long getLastUpdated () { return graphDb.getLastUpdated(); }
     
+    /*
+     * same as calcGraphMetrics() but kept current by a transaction
+     * handler, so only the first call scans the graph
+     */
+    public GraphMetrics getGraphMetrics () {
+        return graphDb.getMetricsCounter().getMetrics();
+    }
+
     public GraphMetrics calcGraphMetrics() {
         return calcGraphMetrics (gdb, AuxNodeType.ENTITY,
                                  Entity.TYPES, Entity.KEYS);
@@ -1401,17 +1874,17 @@ public class EntityFactory implements Props, AutoCloseable {
         return metrics;
     }
     
+    /*
+     * nodes are counted in parallel; unlike the stream version above,
+     * component sizes come from a union-find over the stitches instead of
+     * traversing each component
+     */
     public static GraphMetrics calcGraphMetrics
         (GraphDatabaseService gdb, Label label,
          EntityType[] types, RelationshipType[] keys) {
-
-        GraphMetrics metrics = null;
-        try (Transaction tx = gdb.beginTx()) {
-            metrics = calcGraphMetrics
-                (gdb.findNodes(label).stream(), types, keys);
-            tx.success();
-        }
-        return metrics;
+        return GraphMetricsCounter.count
+            (gdb, label, types, keys,
+             Runtime.getRuntime().availableProcessors());
     }
 
     public static GraphMetrics calcGraphMetrics (Component component) {
@@ -1520,15 +1993,25 @@ public class EntityFactory implements Props, AutoCloseable {
     
     /*
      * delete the entire data source; note that source can either be
-     * the name or its key
+     * the name or its key. returns the number of payloads deleted.
      */
     public int delete (String source) {
-        int count = 0;
+        return delete (source, 1000);
+    }
+
+    /*
+     * same as above but delete at most batchSize nodes per transaction;
+     * nodes are reached through the data source label so the rest of
+     * the graph isn't scanned. returns the number of payloads deleted,
+     * which includes those of the source's entities.
+     */
+    public int delete (String source, int batchSize) {
+        Label label;
         try (Transaction tx = gdb.beginTx()) {
             Index<Node> index = gdb.index().forNodes
                 (DataSource.nodeIndexName());
 
-            Label label = Label.label(source);
+            label = Label.label(source);
             Node n = index.get(KEY, source).getSingle();
             if (n == null) {
                 source = DataSourceFactory.sourceKey(source);
@@ -1541,33 +2024,249 @@ public class EntityFactory implements Props, AutoCloseable {
             else {
                 logger.warning("Can't find data source: "+source);
             }
+            tx.success();
+        }
 
-            for (Iterator<Node> it = gdb.findNodes(label, SOURCE, source);
-                 it.hasNext(); ) {
-                Node node = it.next();
-                Entity._getEntity(node).delete();
-                ++count;
+        /*
+         * every node visited either gets deleted or loses the label, so
+         * each batch simply takes the next nodes still carrying the label
+         */
+        long start = System.currentTimeMillis();
+        int entities = 0, payloads = 0, nodes = 0;
+        Set<Long> roots = new HashSet<>();
+        for (int n = batchSize; n == batchSize; ) {
+            try (Transaction tx = gdb.beginTx()) {
+                List<Node> batch = new ArrayList<>();
+                try (ResourceIterator<Node> it = gdb.findNodes(label)) {
+                    while (batch.size() < batchSize && it.hasNext())
+                        batch.add(it.next());
+                }
+                n = batch.size();
+                
+                for (Node node : batch) {
+                    if (node.hasLabel(AuxNodeType.ENTITY)
+                        && source.equals(node.getProperty(SOURCE, null))) {
+                        payloads += _deleteEntity (node, roots);
+                        ++entities;
+                    }
+                    else {
+                        // entities of other sources this source has been
+                        // attached to and stitch nodes (SGROUP) that
+                        // include this source; only the label and this
+                        // source's payloads go
+                        for (Relationship rel : node.getRelationships
+                                 (Direction.INCOMING, AuxRelType.PAYLOAD)) {
+                            if (source.equals
+                                (rel.getProperty(SOURCE, null))) {
+                                _deletePayload (rel.getStartNode());
+                                ++payloads;
+                            }
+                        }
+                        node.removeLabel(label);
+                    }
+                }
+                tx.success();
             }
-            logger.info(count+" entities deleted for \""+source+"\"");
+            nodes += n;
 
-            count = 0;
-            for (Iterator<Relationship> it = gdb.getAllRelationships().iterator(); it.hasNext();) {
-                Relationship rel = it.next();
-                if (rel.isType(AuxRelType.PAYLOAD)) {
-                    String s = (String)rel.getProperty(SOURCE);
-                    if (source.equals(s)) {
-                        Entity payload = Entity._getEntity(rel.getStartNode());
-                        rel.delete();
-                        payload._node.delete();
-                        ++count;
+            double elapsed = (System.currentTimeMillis() - start)/1000.;
+            logger.info(String.format
+                        ("## %1$s: %2$d nodes visited, %3$d entities and "
+                         +"%4$d payloads deleted (%5$.1f nodes/s)", source,
+                         nodes, entities, payloads,
+                         nodes/Math.max(elapsed, 0.001)));
+        }
+
+        // the deleted entities might have been all that held their
+        // components together, so recompute the connectivity of every
+        // component affected; this also fixes up their ranks and drops
+        // values from their stats nodes no longer shared by any stitch
+        int split = 0, pruned = 0, components = 0;
+        Set<Long> done = new HashSet<>();
+        Iterator<Long> it = roots.iterator();
+        while (it.hasNext()) {
+            try (Transaction tx = gdb.beginTx()) {
+                for (int n = 0; n < batchSize && it.hasNext(); ++n) {
+                    Node root;
+                    try {
+                        root = CNode.getRoot(gdb.getNodeById(it.next()));
+                    }
+                    catch (NotFoundException ex) {
+                        // deleted later on; its successor is recorded
+                        continue;
+                    }
+                    
+                    if (done.add(root.getId())) {
+                        int[] r = _split (root);
+                        split += r[0];
+                        pruned += r[1];
+                        ++components;
                     }
                 }
+                tx.success();
             }
-            logger.info(count+" payloads deleted for \""+source+"\"");
+        }
+        logger.info(entities+" entities and "+payloads+" payloads deleted "
+                    +"for \""+source+"\"; "+components+" component(s) "
+                    +"affected, "+split+" new component(s) split off and "
+                    +pruned+" stale values pruned");
 
-            tx.success();
+        return payloads;
+    }
+
+    /*
+     * delete the payload node along with the stitch relationships that
+     * point to it; otherwise the node can't be deleted
+     */
+    static void _deletePayload (Node payload) {
+        for (Relationship rel : payload.getRelationships())
+            rel.delete();
+        payload.delete();
+    }
+
+    /*
+     * delete an entity of the source being deleted while keeping the rest
+     * of its component in place (root, rank, and stats node); the root
+     * of what's left is recorded so that the component can be split up
+     * afterward if need be (see _split). returns the number of payloads
+     * deleted.
+     */
+    int _deleteEntity (Node node, Set<Long> roots) {
+        int payloads = 0;
+        for (Relationship rel : node.getRelationships
+                 (Direction.INCOMING, AuxRelType.PAYLOAD)) {
+            _deletePayload (rel.getStartNode());
+            ++payloads;
         }
-        return count;
+
+        Node root = CNode.getRoot(node);
+        Node summary = Entity.getStatsNode(node);
+        int rank = (Integer)root.getProperty(RANK, 1);
+        
+        List<Node> children = CNode._children(node);
+        if (!root.equals(node)) {
+            // hang the children onto the root for now
+            for (Node n : children)
+                n.setProperty(PARENT, root.getId());
+            children.clear();
+        }
+
+        Entity._getEntity(node)._delete(children);
+
+        if (!root.equals(node)) {
+            root.setProperty(RANK, rank - 1);
+        }
+        else if (!children.isEmpty()) {
+            // the children now hang off of a new root
+            root = CNode.getRoot(children.get(0));
+            root.addLabel(AuxNodeType.COMPONENT);
+            root.setProperty(RANK, rank - 1);
+            if (summary != null)
+                summary.createRelationshipTo(root, AuxRelType.SUMMARY);
+        }
+        else {
+            // last member of the component
+            root = null;
+            if (summary != null)
+                Entity.deleteStatsNode(summary);
+        }
+
+        if (root != null)
+            roots.add(root.getId());
+
+        return payloads;
+    }
+
+    /*
+     * recompute the connected components of what's left of the component
+     * rooted at root. each piece no longer connected to the root becomes
+     * a component of its own (with its own stats node), the ranks are set
+     * to the actual sizes, and values no longer shared by any stitch
+     * within the root's piece are pruned from its stats node. returns the
+     * number of components split off and the number of values pruned.
+     */
+    int[] _split (Node root) {
+        // members according to the union-find tree
+        Set<Long> members = new TreeSet<>();
+        Deque<Node> queue = new ArrayDeque<>();
+        members.add(root.getId());
+        queue.add(root);
+        while (!queue.isEmpty()) {
+            for (Node n : CNode._children(queue.poll()))
+                if (members.add(n.getId()))
+                    queue.add(n);
+        }
+
+        int[] result = {0, 0};
+        Set<Long> visited = new HashSet<>();
+        List<Relationship> stitches = new ArrayList<>();
+        Set<Long> piece = _piece (root, members, visited, stitches);
+        root.setProperty(RANK, piece.size());
+        
+        Node summary = Entity.getStatsNode(root);
+        if (summary != null) {
+            if (stitches.isEmpty())
+                Entity.deleteStatsNode(summary);
+            else
+                result[1] = Entity.pruneStatsNode(summary, piece);
+        }
+
+        for (Long id : members) {
+            if (visited.contains(id))
+                continue;
+
+            stitches.clear();
+            piece = _piece (gdb.getNodeById(id), members, visited, stitches);
+            // members are visited in order of id, so this is the oldest
+            Node r = gdb.getNodeById(id);
+            for (Long m : piece)
+                gdb.getNodeById(m).setProperty(PARENT, r.getId());
+            r.addLabel(AuxNodeType.COMPONENT);
+            r.setProperty(RANK, piece.size());
+            
+            if (!stitches.isEmpty()) {
+                Node stats = Entity.createStatsNode(r);
+                for (Relationship rel : stitches)
+                    Entity.updateStatsNode
+                        (stats, StitchKey.valueOf(rel.getType().name()),
+                         rel.getProperty(VALUE));
+            }
+            ++result[0];
+        }
+
+        if (result[0] > 0)
+            logger.info("## component "+root.getId()+" ("+members.size()
+                        +") split into "+(result[0]+1)+" components");
+        
+        return result;
+    }
+
+    /*
+     * ids of the members connected to start through stitches; the
+     * stitches are collected along the way
+     */
+    static Set<Long> _piece (Node start, Set<Long> members,
+                             Set<Long> visited, List<Relationship> stitches) {
+        Set<Long> piece = new HashSet<>();
+        Deque<Node> queue = new ArrayDeque<>();
+        visited.add(start.getId());
+        queue.add(start);
+        while (!queue.isEmpty()) {
+            Node n = queue.poll();
+            piece.add(n.getId());
+            for (Relationship rel : n.getRelationships
+                     (Direction.BOTH, Entity.KEYS)) {
+                Node xn = rel.getOtherNode(n);
+                if (!members.contains(xn.getId()))
+                    continue;
+                
+                if (rel.getStartNode().equals(n))
+                    stitches.add(rel);
+                if (visited.add(xn.getId()))
+                    queue.add(xn);
+            }
+        }
+        return piece;
     }
 
     static void getStitchValues (Map<StitchKey, Object> values,
@@ -1618,9 +2317,24 @@ public class EntityFactory implements Props, AutoCloseable {
         return connectedComponents (1, predication);
     }
     
+    /*
+     * scores the entities with componentThreads threads (see
+     * setComponentThreads)
+     */
     public Iterator<Component> connectedComponents (int minscore,
                                                     Predication predication) {
-        return new StronglyConnectedComponents (gdb, predication, minscore);
+        return connectedComponents (minscore, predication, componentThreads);
+    }
+
+    /*
+     * same as above but score the entities with the given number of
+     * threads; the predication must be thread safe
+     */
+    public Iterator<Component> connectedComponents (int minscore,
+                                                    Predication predication,
+                                                    int threads) {
+        return new StronglyConnectedComponents
+            (gdb, predication, minscore, threads);
     }
 
     public Collection<Component> components () {
@@ -1746,6 +2460,41 @@ public class EntityFactory implements Props, AutoCloseable {
         return find (key.name(), value);
     }
 
+    /*
+     * number of threads for clique enumeration across stitch keys and
+     * components; 1 (the default) is sequential and 0 uses all cores.
+     * cliques are delivered to the visitor in the same order regardless.
+     */
+    public synchronized void setCliqueThreads (int threads) {
+        if (threads <= 0)
+            threads = Runtime.getRuntime().availableProcessors();
+        if (cliquePool != null) {
+            cliquePool.shutdown();
+            cliquePool = null;
+        }
+        if (threads > 1)
+            cliquePool = new ForkJoinPool (threads);
+    }
+    
+    public int getCliqueThreads () {
+        ForkJoinPool pool = cliquePool;
+        return pool != null ? pool.getParallelism() : 1;
+    }
+    
+    /*
+     * number of threads that score the entities for connectedComponents;
+     * 1 is sequential and 0 uses all cores. the default comes from the
+     * stitcher.components.threads system property. the components are
+     * the same regardless, but the predication must be thread safe.
+     */
+    public void setComponentThreads (int threads) {
+        if (threads <= 0)
+            threads = Runtime.getRuntime().availableProcessors();
+        componentThreads = threads;
+    }
+
+    public int getComponentThreads () { return componentThreads; }
+
     public boolean cliques (CliqueVisitor visitor) {
         return cliques (visitor, Entity.KEYS);
     }
@@ -1795,6 +2544,10 @@ public class EntityFactory implements Props, AutoCloseable {
         return true;
         */
 
+        ForkJoinPool pool = cliquePool;
+        if (pool != null)
+            return cliques (pool, visitor, keys);
+        
         boolean ret = true;
         try (Transaction tx = gdb.beginTx()) {
             for (Iterator<Node> it = gdb.findNodes(AuxNodeType.COMPONENT);
@@ -1819,6 +2572,75 @@ public class EntityFactory implements Props, AutoCloseable {
         return ret;
     }
 
+    /*
+     * components are searched concurrently, a bounded number ahead of
+     * the one being visited, and visited in the order of the component
+     * index on the calling thread
+     */
+    boolean cliques (ForkJoinPool pool, CliqueVisitor visitor,
+                     StitchKey... keys) {
+        List<Long> components = new ArrayList<>();
+        try (Transaction tx = gdb.beginTx()) {
+            for (Iterator<Node> it = gdb.findNodes(AuxNodeType.COMPONENT);
+                 it.hasNext();) {
+                Node node = it.next();
+                
+                Integer rank = (Integer)node.getProperty(RANK);
+                if (rank == null)
+                    throw new RuntimeException ("Component node "+node.getId()
+                                                +" has no rank!");
+                if (rank >= CLIQUE_MINSIZE)
+                    components.add(node.getId());
+            }
+            tx.success();
+        }
+
+        int window = 2*pool.getParallelism();
+        LinkedList<ForkJoinTask<CliqueEnumeration>> pending =
+            new LinkedList<>();
+        Iterator<Long> it = components.iterator();
+        try (Transaction tx = gdb.beginTx()) {
+            while (true) {
+                while (pending.size() < window && it.hasNext()) {
+                    Long id = it.next();
+                    pending.add(pool.submit(() -> cliques (pool, id, keys)));
+                }
+                
+                if (pending.isEmpty())
+                    break;
+                
+                if (!pending.removeFirst().join().visit(visitor)) {
+                    for (ForkJoinTask task : pending)
+                        task.cancel(true);
+                    tx.success();
+                    return false;
+                }
+            }
+            tx.success();
+        }
+        
+        return true;
+    }
+
+    /*
+     * run on a pool thread; the graph is only read while loading the
+     * adjacency and the search itself runs outside of any transaction
+     */
+    CliqueEnumeration cliques (ForkJoinPool pool, long component,
+                               StitchKey... keys) {
+        Adjacency adj;
+        try (Transaction tx = gdb.beginTx()) {
+            ComponentImpl comp = new ComponentImpl (gdb.getNodeById(component));
+            adj = comp.adjacency().load(keys);
+            tx.success();
+        }
+        
+        CliqueEnumeration clique =
+            new CliqueEnumeration (gdb, keys).setPool(pool);
+        clique.search(adj, null);
+        return clique;
+    }
+    
     public boolean cliques (long[] nodes, CliqueVisitor visitor) {
         return cliques (nodes, visitor, Entity.KEYS);
     }
@@ -1853,7 +2675,8 @@ public class EntityFactory implements Props, AutoCloseable {
         */
 
         if (nodes.length >= CLIQUE_MINSIZE) {
-            CliqueEnumeration clique = new CliqueEnumeration (gdb, keys); 
+            CliqueEnumeration clique =
+                new CliqueEnumeration (gdb, keys).setPool(cliquePool);
             // enumerate all cliques for this key
             return clique.enumerate(nodes, visitor);
         }
@@ -2078,6 +2901,14 @@ public class EntityFactory implements Props, AutoCloseable {
         return find (gdb, key, value);
     }
 
+    public Stream<Entity> findStream (StitchKey key, Object value) {
+        return findStream (key.name(), value);
+    }
+    
+    public Stream<Entity> findStream (String key, Object value) {
+        return stream (find (gdb, key, value));
+    }
+
     public long[] nodes (String key, Object value) {
         return nodes (gdb, key, value);
     }
@@ -2152,6 +2983,18 @@ public class EntityFactory implements Props, AutoCloseable {
         }
     }
     
+    public Stream<Entity> entityStream (DataSource source) {
+        return entityStream (source.getName());
+    }
+    
+    public Stream<Entity> entityStream (String label) {
+        return stream (entities (label));
+    }
+
+    public Stream<Entity> entityStream () {
+        return stream (entities ());
+    }
+    
     public void entities (DataSource source, Consumer<Entity> consumer) {
         entities(source.getName(), consumer);
     }
@@ -2642,6 +3485,7 @@ public class EntityFactory implements Props, AutoCloseable {
     }
 
     public void shutdown () {
+        setCliqueThreads (1);
         graphDb.shutdown();
     }
 
@@ -11,6 +11,17 @@ import java.util.*;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 import java.util.concurrent.Callable;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import java.util.function.Function;
+import java.util.function.Consumer;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Array;
 
@@ -41,6 +52,39 @@ public class EntityRegistry extends EntityFactory {
     static final Logger logger =
         Logger.getLogger(EntityRegistry.class.getName());
 
+    /*
+     * bump whenever lychify() changes what it computes for a structure
+     */
+    static final int LYCHI_REVISION = 1;
+    
+    /*
+     * namespace of the LyChI cache entries: the LyChI library version
+     * (or jar) plus LYCHI_REVISION; it can be overridden with the
+     * stitcher.lychi.version system property
+     */
+    public static final String LYCHI_VERSION = lychiVersion ();
+
+    static String lychiVersion () {
+        String version = System.getProperty("stitcher.lychi.version");
+        if (version == null) {
+            Package pkg = LyChIStandardizer.class.getPackage();
+            if (pkg != null)
+                version = pkg.getImplementationVersion();
+        }
+        if (version == null) {
+            try {
+                File jar = new File (LyChIStandardizer.class
+                                     .getProtectionDomain()
+                                     .getCodeSource().getLocation().toURI());
+                version = jar.getName()+"@"+jar.length();
+            }
+            catch (Exception ex) {
+                version = "unknown";
+            }
+        }
+        return version+"/"+LYCHI_REVISION;
+    }
+
     static final StitchKey[] INDEXES = new StitchKey[]{
         I_CODE, N_Name, I_GENE, I_UNII, I_CAS,
         H_InChIKey, H_LyChI_L4, H_LyChI_L3
@@ -121,6 +165,191 @@ public class EntityRegistry extends EntityFactory {
         }
     }
 
+    /*
+     * groups record-level registrations into a single transaction that
+     * is committed once batchSize records have been added or batchTimeout
+     * milliseconds have elapsed since the transaction was opened. any
+     * transaction opened while the batch is active (e.g., Entity.stitch,
+     * find) simply joins the batch transaction. if a record throws or the
+     * commit itself fails, the batch is rolled back and its records are
+     * replayed one transaction each so that a single bad record doesn't
+     * take the rest of the batch with it. note that an Entity returned
+     * for a record in a batch that is later replayed refers to the
+     * rolled back node; side effects outside of the graph should go
+     * through afterCommit() so that they only see committed entities.
+     * graph transactions are bound to a thread, so the batch must be
+     * driven by the thread that created it.
+     */
+    class Batch {
+        final Thread owner = Thread.currentThread();
+        final List<Supplier<Entity>> records = new ArrayList<>();
+        // afterCommit() actions of the records not yet committed
+        final List<Runnable> actions = new ArrayList<>();
+        Transaction tx;
+        long start;
+        int depth;
+        int batches;
+        long committed, replayed, errors, elapsed;
+
+        Entity add (Supplier<Entity> record) {
+            if (depth > 0) // nested record; it's part of the current one
+                return record.get();
+            
+            if (tx == null) {
+                tx = gdb.beginTx();
+                start = System.currentTimeMillis();
+            }
+            
+            Entity ent;
+            ++depth;
+            try {
+                ent = record.get();
+            }
+            catch (RuntimeException ex) {
+                logger.warning("Batch "+(batches+1)+" failed at record "
+                               +(records.size()+1)+" ("+ex.getMessage()
+                               +"); retrying record by record...");
+                rollback ();
+                // now run the bad record by itself and let the caller
+                // deal with the error as it would without batching
+                return replay (record);
+            }
+            finally {
+                --depth;
+            }
+            records.add(record);
+            
+            if (records.size() >= batchSize
+                || (batchTimeout > 0 && (System.currentTimeMillis()
+                                         - start) >= batchTimeout))
+                commit ();
+            
+            return ent;
+        }
+
+        void commit () {
+            if (tx == null)
+                return;
+            
+            int size = records.size();
+            try {
+                tx.success();
+                tx.close();
+            }
+            catch (Exception ex) {
+                logger.log(Level.WARNING, "Batch "+(batches+1)
+                           +" failed to commit; retrying "+size
+                           +" record(s) one at a time...", ex);
+                tx = null;
+                actions.clear();
+                replay ();
+                return;
+            }
+            tx = null;
+            records.clear();
+            apply ();
+            updateSuggester ();
+            
+            long time = Math.max(1l, System.currentTimeMillis() - start);
+            elapsed += time;
+            committed += size;
+            ++batches;
+            logger.info(String.format
+                        ("## batch %1$d: %2$d record(s) committed in "
+                         +"%3$dms (%4$.1f records/s; %5$d total)",
+                         batches, size, time, size*1000./time, committed));
+        }
+
+        void rollback () {
+            if (tx != null) {
+                tx.failure();
+                try {
+                    tx.close();
+                }
+                catch (Exception ex) {
+                    logger.log(Level.WARNING, "Can't rollback batch", ex);
+                }
+                tx = null;
+            }
+            actions.clear();
+            replay ();
+        }
+
+        void apply () {
+            for (Runnable r : actions) {
+                try {
+                    r.run();
+                }
+                catch (Exception ex) {
+                    logger.log(Level.SEVERE, "Can't apply commit action", ex);
+                }
+            }
+            actions.clear();
+        }
+
+        void replay () {
+            for (Supplier<Entity> r : records) {
+                try {
+                    replay (r);
+                }
+                catch (Exception ex) {
+                    logger.log(Level.SEVERE, "Can't register record", ex);
+                    ++errors;
+                }
+            }
+            records.clear();
+        }
+
+        Entity replay (Supplier<Entity> record) {
+            ++depth;
+            try {
+                Entity ent;
+                try (Transaction tx = gdb.beginTx()) {
+                    ent = record.get();
+                    tx.success();
+                }
+                ++replayed;
+                apply ();
+                return ent;
+            }
+            finally {
+                actions.clear();
+                --depth;
+            }
+        }
+
+        void close () {
+            commit ();
+            logger.info("## "+committed+" record(s) committed in "
+                        +batches+" batch(es) over "+elapsed+"ms; "
+                        +replayed+" record(s) replayed individually, "
+                        +errors+" failed");
+        }
+    }
+
+    /*
+     * LyChI hash keys and snapshots computed for a molecule ahead of
+     * registration; see lychify(Molecule)
+     */
+    public static class LyChI {
+        public String[] moieties;
+        public String[] l3; // H_LyChI_L3
+        public Object l4; // H_LyChI_L4 (String or String[])
+        public Object lychi; // LyChI smiles (String or String[])
+        public String l5; // H_LyChI_L5
+
+        LyChI () {}
+    }
+
+    /*
+     * parse stage of the registration pipeline; the parser must hand
+     * each record to the sink in input order
+     */
+    @FunctionalInterface
+    public interface RecordParser<T> {
+        void parse (Consumer<T> sink) throws Exception;
+    }
+
     protected final PropertyChangeSupport pcs =
         new PropertyChangeSupport (this);
 
@@ -136,6 +365,21 @@ public class EntityRegistry extends EntityFactory {
     protected EnumMap<StitchKey, Set<String>> stitchMappers;
     protected List<Reference> references = new ArrayList<>();
     protected Map<StitchKey, Set<Object>> blacklist;
+
+    protected int batchSize = 1; // records per transaction
+    protected long batchTimeout; // max time (ms) a batch is kept open
+    protected Batch batch;
+    // reweighed as batches are committed; see updateSuggester()
+    protected Suggester suggester;
+
+    // number of threads used to standardize structures ahead of
+    // registration; 1 means structures are standardized inline
+    protected int lychiThreads = 1;
+    // prefetch the cached LyChI of all structures before registration
+    protected boolean lychiPrefetch;
+    // LyChI precomputed by the pipeline keyed by the structure object
+    protected final Map<Object, LyChI> precomputed =
+        Collections.synchronizedMap(new IdentityHashMap<>());
     
     public EntityRegistry (String dir) throws IOException {
         this (GraphDb.getInstance(dir));
@@ -159,6 +403,13 @@ public class EntityRegistry extends EntityFactory {
             graphDb.createIndex(AuxNodeType.ENTITY, "_"+k);
         }
         graphDb.graphDb().registerTransactionEventHandler(new TxHandler ());
+        try {
+            // keep the suggestions current as entities are registered
+            suggester = graphDb.getSuggester();
+        }
+        catch (IOException ex) {
+            logger.warning("Suggester is not available: "+ex.getMessage());
+        }
     }
 
     // to be overriden by subclass
@@ -240,6 +491,124 @@ public class EntityRegistry extends EntityFactory {
     }
     public String getEventParser () { return parserField; }
 
+    /*
+     * set the number of records to register per transaction; a value
+     * larger than 1 enables bulk registration, in which case flush()
+     * must be called (updateMeta does this) to commit the last batch
+     */
+    public EntityRegistry setBatchSize (int batchSize) {
+        if (batchSize < 1)
+            throw new IllegalArgumentException
+                ("Invalid batch size: "+batchSize);
+        this.batchSize = batchSize;
+        return this;
+    }
+    public int getBatchSize () { return batchSize; }
+
+    /*
+     * commit a batch once it's been open for this many milliseconds,
+     * regardless of its size; 0 means no time limit
+     */
+    public EntityRegistry setBatchTimeout (long batchTimeout) {
+        this.batchTimeout = batchTimeout;
+        return this;
+    }
+    public long getBatchTimeout () { return batchTimeout; }
+
+    public boolean isBulk () { return batchSize > 1; }
+
+    /*
+     * number of worker threads used by pipeline() to standardize
+     * structures; 0 means use all available cores
+     */
+    public EntityRegistry setLyChIThreads (int threads) {
+        if (threads < 0)
+            throw new IllegalArgumentException
+                ("Invalid number of threads: "+threads);
+        lychiThreads = threads == 0
+            ? Runtime.getRuntime().availableProcessors() : threads;
+        return this;
+    }
+    public int getLyChIThreads () { return lychiThreads; }
+
+    /*
+     * read the cached LyChI of every structure in the input in one pass
+     * before registration starts; see prefetch()
+     */
+    public EntityRegistry setLyChIPrefetch (boolean lychiPrefetch) {
+        this.lychiPrefetch = lychiPrefetch;
+        return this;
+    }
+    public boolean getLyChIPrefetch () { return lychiPrefetch; }
+
+    /*
+     * register a record within the current batch if bulk mode is enabled,
+     * otherwise within its own transaction
+     */
+    protected Entity bulk (Supplier<Entity> record) {
+        if (isBulk ()) {
+            if (batch == null) {
+                batch = new Batch ();
+            }
+            
+            if (batch.owner == Thread.currentThread())
+                return batch.add(record);
+        }
+        
+        try (Transaction tx = gdb.beginTx()) {
+            Entity ent = record.get();
+            tx.success();
+            return ent;
+        }
+    }
+
+    /*
+     * run action once the record being registered is committed; actions
+     * of a record that is rolled back are dropped (and recorded anew if
+     * the record is replayed). outside of a batch the action runs right
+     * away.
+     */
+    protected void afterCommit (Runnable action) {
+        if (batch != null && batch.owner == Thread.currentThread()
+            && batch.depth > 0)
+            batch.actions.add(action);
+        else
+            action.run();
+    }
+
+    /*
+     * reweigh the suggestions of the values touched by the batch just
+     * committed (and anything else pending) on the loading thread, so
+     * the suggester's backlog doesn't outgrow what it can reweigh and
+     * is empty by the end of the load
+     */
+    protected void updateSuggester () {
+        if (suggester != null) {
+            try {
+                suggester.refresh();
+            }
+            catch (IOException ex) {
+                logger.log(Level.WARNING, "Can't update suggester", ex);
+            }
+        }
+    }
+
+    /*
+     * commit any pending batch
+     */
+    public void flush () {
+        if (batch != null) {
+            batch.close();
+            batch = null;
+        }
+    }
+
+    @Override
+    public void shutdown () {
+        flush ();
+        super.shutdown();
+    }
+
     public void clear () { stitches.clear(); }
     
     public EntityRegistry add (StitchKey key, String property) {
@@ -316,6 +685,15 @@ public class EntityRegistry extends EntityFactory {
             parserField = source.getString("eventParser");
         }
 
+        if (conf.hasPath("batch"))
+            setBatchSize (conf.getInt("batch"));
+        if (conf.hasPath("batch_timeout"))
+            setBatchTimeout (conf.getLong("batch_timeout"));
+        if (conf.hasPath("lychi_threads"))
+            setLyChIThreads (conf.getInt("lychi_threads"));
+        if (conf.hasPath("lychi_prefetch"))
+            setLyChIPrefetch (conf.getBoolean("lychi_prefetch"));
+
         if (conf.hasPath("stitches")) {
             List<? extends ConfigObject> list = conf.getObjectList("stitches");
             
@@ -567,46 +945,43 @@ public class EntityRegistry extends EntityFactory {
     }
     
     public Entity register (final Map<String, Object> map) {
-        try (Transaction tx = gdb.beginTx()) {
-            Entity ent = _register (map);
-            tx.success();
-            return ent;
-        }
+        return bulk (() -> _register (map));
     }
 
     public Entity registerIfAbsent (final Map<String, Object> map) {
+        return bulk (() -> _registerIfAbsent (map));
+    }
+
+    protected Entity _registerIfAbsent (Map<String, Object> map) {
         Entity ent = null;      
-        try (Transaction tx = gdb.beginTx()) {
-            Object id = map.get(idField);           
-            if (id != null) {
-                // check if this has been registered before..
-                int dups = 0;
-                Iterator<Entity> it = find (idField, id);
-                while (it.hasNext()) {
-                    Entity e = it.next();
-                    if (e._is(source.getName())) {
-                        if (ent != null)
-                            ++dups;
-                        ent = e;
-                    }
+        Object id = map.get(idField);           
+        if (id != null) {
+            // check if this has been registered before..
+            int dups = 0;
+            Iterator<Entity> it = find (idField, id);
+            while (it.hasNext()) {
+                Entity e = it.next();
+                if (e._is(source.getName())) {
+                    if (ent != null)
+                        ++dups;
+                    ent = e;
                 }
-                
-                if (dups > 0)
-                    logger.warning(idField+"="+id
-                                   +" yields "+dups+" matches!");
-            }
-
-            if (ent == null) {
-                ent = _register (map);
-            }
-            else {
-                //ent = null;
-                logger.info(id+" is already registered!");
             }
-            tx.success();
             
-            return ent;
+            if (dups > 0)
+                logger.warning(idField+"="+id
+                               +" yields "+dups+" matches!");
+        }
+        
+        if (ent == null) {
+            ent = _register (map);
         }
+        else {
+            //ent = null;
+            logger.info(id+" is already registered!");
+        }
+        
+        return ent;
     }
 
     protected Entity _register (Map<String, Object> map) {
@@ -631,28 +1006,19 @@ public class EntityRegistry extends EntityFactory {
             
             if (strucField != null) {
                 Object value = map.get(strucField);
-                if (value != null) {
-                    if (value instanceof Molecule) {
-                        Molecule mol = (Molecule)value;
+                LyChI ly = value != null ? precomputed.remove(value) : null;
+                if (ly != null) {
+                    _lychify (ent, ly);
+                }
+                else if (value != null) {
+                    try {
+                        Molecule mol = getMolecule (value);
                         if (mol.getAtomCount() > 0)
                             lychify (ent, mol);
                     }
-                    else {
-                        if ("NA".equals(value.toString())) {
-                            // Withdrawn file uses NA as not available,
-                            // but this is a valid smiles
-                            value = "Not Available";
-                        }
-                        try {
-                            MolHandler mh = new MolHandler (value.toString());
-                            Molecule mol = mh.getMolecule();
-                            if (mol.getAtomCount() > 0)
-                                lychify (ent, mol);
-                        }
-                        catch (Exception ex) {
-                            logger.warning
-                                (id+": Can't parse structure: "+value);
-                        }
+                    catch (Exception ex) {
+                        logger.warning
+                            (id+": Can't parse structure: "+value);
                     }
                 }
             }
@@ -809,11 +1175,98 @@ public class EntityRegistry extends EntityFactory {
         }
     }
 
+    /*
+     * cache key of lychify(mol, stripSalt)
+     */
+    protected static String lychiKey (Molecule mol, boolean stripSalt)
+        throws Exception {
+        return Util.sha1hex((stripSalt ? "LyChI:" : "LyChISalt:")
+                            + LYCHI_VERSION + ":"
+                            + mol.exportToFormat("smiles"));
+    }
+
+    /*
+     * cache keys that lychify(Molecule) looks up for the given structure
+     */
+    public static Set<String> lychiKeys (Molecule mol) throws Exception {
+        Set<String> keys = new TreeSet<>();
+        Molecule clone = mol.cloneMolecule();
+        for (Molecule f : clone.convertToFrags())
+            if (isLyChIFragment (f))
+                keys.add(lychiKey (f, false));
+        // with salt + solvent, which is always looked up
+        keys.add(lychiKey (mol.cloneMolecule(), false));
+        return keys;
+    }
+
+    /*
+     * single atom organic ions and the like aren't worth standardizing
+     */
+    static boolean isLyChIFragment (Molecule f) {
+        if (f.getAtomCount() == 1) {
+            // organic ion salt.. 
+            switch (f.getAtom(0).getAtno()) {
+            case 1: // H
+            case 6: // C
+            case 7: // N
+            case 8: // O
+            case 9: // F
+            case 11: // Na
+            case 15: // P
+            case 16: // S
+            case 17: // Cl
+            case 35: // Br
+            case 53: // I
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * prefetch the cached LyChI of the structures of all records in one
+     * sorted pass over the cache; returns the number of structures
+     */
+    protected <T> int prefetch (RecordParser<T> parser,
+                                Function<T, Object> structure)
+        throws IOException {
+        final Set<String> keys = new TreeSet<>();
+        final int[] count = {0};
+        long start = System.currentTimeMillis();
+        try {
+            parser.parse(r -> {
+                    Object s = structure.apply(r);
+                    if (s != null) {
+                        try {
+                            Molecule mol = getMolecule (s);
+                            if (mol.getAtomCount() > 0) {
+                                keys.addAll(lychiKeys (mol));
+                                ++count[0];
+                            }
+                        }
+                        catch (Exception ex) {
+                            // will be dealt with during registration
+                        }
+                    }
+                });
+        }
+        catch (IOException | RuntimeException ex) {
+            throw ex;
+        }
+        catch (Exception ex) {
+            throw new IOException (ex);
+        }
+        
+        int found = getCache().prefetch(keys);
+        logger.info("## prefetch: "+count[0]+" structure(s), "+keys.size()
+                    +" LyChI key(s), "+found+" cached ("
+                    +(System.currentTimeMillis()-start)+"ms)");
+        return count[0];
+    }
+
     protected String[] lychify (final Molecule mol, final boolean stripSalt)
         throws Exception {
-        String hash = Util.sha1hex("LyChI:" + mol.exportToFormat("smiles"));
-        if (!stripSalt)
-            hash = Util.sha1hex("LyChISalt:" + mol.exportToFormat("smiles"));
+        String hash = lychiKey (mol, stripSalt);
 
         String[] hk = getCache().getOrElse(hash, new Callable<String[]> () {
                 public String[] call () throws Exception {
@@ -878,79 +1331,95 @@ public class EntityRegistry extends EntityFactory {
         return hk;
     }
 
-    protected void lychify (Entity ent, Molecule mol) {
-        try {
-            Molecule clone = mol.cloneMolecule();
-            Set<String> l3 = new TreeSet<>();
-            Map<String, Molecule> l4 = new TreeMap<>();
-            boolean lychify;
-            
-            Molecule[] frags = clone.convertToFrags();
-            String[] moieties = new String[frags.length];
-            for (int i = 0; i < frags.length; ++i) {
-                Molecule f = frags[i];
-                moieties[i] = f.toFormat("smiles:q");
-
-                lychify = true;
-                if (f.getAtomCount() == 1) {
-                    // organic ion salt.. 
-                    switch (f.getAtom(0).getAtno()) {
-                    case 1: // H
-                    case 6: // C
-                    case 7: // N
-                    case 8: // O
-                    case 9: // F
-                    case 11: // Na
-                    case 15: // P
-                    case 16: // S
-                    case 17: // Cl
-                    case 35: // Br
-                    case 53: // I
-                        lychify = false;
-                        break;
-                    }
-                }
-                
-                if (lychify) {
-                    String[] hk = lychify (f, false);
-                    logger.info(hk[3]+": "+hk[4]);
-                    f.setProperty(H_LyChI_L4.name(), hk[3]);
-                    f.setProperty(LYCHI, hk[4]);
-                    l3.add(hk[2]);
-                    l4.put(hk[hk.length-1], f);
-                }
-            }
-            ent._snapshot(MOIETIES, moieties);
-
-            if (!l3.isEmpty()) {
-                ent._set(H_LyChI_L3,
-                         new StitchValue (l3.toArray(new String[0])));
-            }
+    protected Molecule getMolecule (Object value) throws Exception {
+        if (value instanceof Molecule)
+            return (Molecule)value;
+        
+        if ("NA".equals(value.toString())) {
+            // Withdrawn file uses NA as not available,
+            // but this is a valid smiles
+            value = "Not Available";
+        }
+        MolHandler mh = new MolHandler (value.toString());
+        return mh.getMolecule();
+    }
 
-            if (!l4.isEmpty()) {
-                String[] hk = new String[l4.size()];
-                String[] ly = new String[l4.size()];
-                int i = 0;
-                for (Molecule f : l4.values()) {
-                    hk[i] = f.getProperty(H_LyChI_L4.name());
-                    ly[i] = f.getProperty(LYCHI);
-                    ++i;
-                }
-                ent._set(H_LyChI_L4, new StitchValue (hk));
-                ent._snapshot(LYCHI, ly); // store the lychi smiles
+    /*
+     * calculate the LyChI hash keys for the given molecule without
+     * touching the graph; this is safe to call from any thread
+     */
+    public LyChI lychify (Molecule mol) throws Exception {
+        LyChI ly = new LyChI ();
+        
+        Molecule clone = mol.cloneMolecule();
+        Set<String> l3 = new TreeSet<>();
+        Map<String, Molecule> l4 = new TreeMap<>();
+        
+        Molecule[] frags = clone.convertToFrags();
+        String[] moieties = new String[frags.length];
+        for (int i = 0; i < frags.length; ++i) {
+            Molecule f = frags[i];
+            moieties[i] = f.toFormat("smiles:q");
+            
+            if (isLyChIFragment (f)) {
+                String[] hk = lychify (f, false);
+                logger.info(hk[3]+": "+hk[4]);
+                f.setProperty(H_LyChI_L4.name(), hk[3]);
+                f.setProperty(LYCHI, hk[4]);
+                l3.add(hk[2]);
+                l4.put(hk[hk.length-1], f);
             }
-            else {
-                clone = mol.cloneMolecule();
-                String[] hk = lychify (clone, false);
-                ent._set(H_LyChI_L4, new StitchValue (hk[3]));
-                ent._snapshot(LYCHI, hk[4]);
+        }
+        ly.moieties = moieties;
+        
+        if (!l3.isEmpty())
+            ly.l3 = l3.toArray(new String[0]);
+        
+        if (!l4.isEmpty()) {
+            String[] hk = new String[l4.size()];
+            String[] sm = new String[l4.size()];
+            int i = 0;
+            for (Molecule f : l4.values()) {
+                hk[i] = f.getProperty(H_LyChI_L4.name());
+                sm[i] = f.getProperty(LYCHI);
+                ++i;
             }
-            
-            // with salt + solvent
+            ly.l4 = hk;
+            ly.lychi = sm; 
+        }
+        else {
             clone = mol.cloneMolecule();
             String[] hk = lychify (clone, false);
-            if (hk != null)
-                ent._set(H_LyChI_L5, new StitchValue (hk[3]));
+            ly.l4 = hk[3];
+            ly.lychi = hk[4];
+        }
+        
+        // with salt + solvent
+        clone = mol.cloneMolecule();
+        String[] hk = lychify (clone, false);
+        if (hk != null)
+            ly.l5 = hk[3];
+        
+        return ly;
+    }
+
+    /*
+     * apply precomputed LyChI to the entity; assumes an open transaction
+     */
+    protected void _lychify (Entity ent, LyChI ly) {
+        ent._snapshot(MOIETIES, ly.moieties);
+        if (ly.l3 != null)
+            ent._set(H_LyChI_L3, new StitchValue (ly.l3));
+        ent._set(H_LyChI_L4, new StitchValue (ly.l4));
+        ent._snapshot(LYCHI, ly.lychi); // store the lychi smiles
+        if (ly.l5 != null)
+            ent._set(H_LyChI_L5, new StitchValue (ly.l5));
+    }
+    
+    protected void lychify (Entity ent, Molecule mol) {
+        try {
+            LyChI ly = precomputed.remove(mol);
+            _lychify (ent, ly != null ? ly : lychify (mol));
         }
         catch (Exception ex) {
             logger.log(Level.SEVERE, "Can't generate LyChI hash for entity "
@@ -958,7 +1427,142 @@ public class EntityRegistry extends EntityFactory {
             firePropertyChange ("error", ent, ex);
         }
     }
+
+    /*
+     * staged registration pipeline: the parser runs on its own thread,
+     * a pool of lychiThreads workers standardizes each record's
+     * structure (as returned by the structure function) off the graph
+     * transaction, and the calling thread hands the records to the
+     * writer in input order, which then picks up the precomputed LyChI
+     * through lychify(Entity, Molecule). a structure that fails to
+     * standardize in the pool is simply redone by the writer. returns
+     * the number of records for which the writer returned an entity.
+     */
+    protected <T> int pipeline (RecordParser<T> parser,
+                                Function<T, Object> structure,
+                                Function<T, Entity> writer)
+        throws IOException {
+        final int[] count = {0};
+        long start = System.currentTimeMillis();
+        CacheFactory.Stats stats = getCache().getStats();
+        long hits = stats.getHits(), misses = stats.getMisses();
+        if (lychiThreads < 2) {
+            // nothing to overlap; do everything inline
+            try {
+                parser.parse(r -> {
+                        if (writer.apply(r) != null)
+                            ++count[0];
+                    });
+            }
+            catch (IOException | RuntimeException ex) {
+                throw ex;
+            }
+            catch (Exception ex) {
+                throw new IOException (ex);
+            }
+            logCacheStats (hits, misses);
+            return count[0];
+        }
+        
+        final ExecutorService workers =
+            Executors.newFixedThreadPool(lychiThreads);
+        final BlockingQueue<Future<T>> queue =
+            new ArrayBlockingQueue<>(16*lychiThreads);
+        final Future<T> eof = new CompletableFuture<>();
+        final AtomicReference<Exception> error = new AtomicReference<>();
+        
+        Thread reader = new Thread (() -> {
+                try {
+                    parser.parse(r -> {
+                            Future<T> f = workers.submit(() -> {
+                                    Object s = structure.apply(r);
+                                    if (s != null) {
+                                        try {
+                                            Molecule mol = getMolecule (s);
+                                            if (mol.getAtomCount() > 0)
+                                                precomputed.put
+                                                    (s, lychify (mol));
+                                        }
+                                        catch (Exception ex) {
+                                            // let the writer deal with it
+                                        }
+                                    }
+                                    return r;
+                                });
+                            try {
+                                queue.put(f);
+                            }
+                            catch (InterruptedException ex) {
+                                throw new RuntimeException (ex);
+                            }
+                        });
+                }
+                catch (Exception ex) {
+                    error.set(ex);
+                }
+                finally {
+                    try {
+                        queue.put(eof);
+                    }
+                    catch (InterruptedException ex) {
+                    }
+                }
+            }, "pipeline-parser");
+        reader.setDaemon(true);
+        reader.start();
+        
+        try {
+            for (Future<T> f; (f = queue.take()) != eof; ) {
+                if (writer.apply(f.get()) != null)
+                    ++count[0];
+            }
+        }
+        catch (InterruptedException ex) {
+            throw new InterruptedIOException (ex.getMessage());
+        }
+        catch (ExecutionException ex) {
+            throw new IOException (ex.getCause());
+        }
+        finally {
+            reader.interrupt();
+            workers.shutdownNow();
+            precomputed.clear();
+        }
+        
+        Exception ex = error.get();
+        if (ex != null) {
+            if (ex instanceof IOException)
+                throw (IOException)ex;
+            throw new IOException (ex);
+        }
+        
+        long time = Math.max(1l, System.currentTimeMillis() - start);
+        logger.info(String.format("## pipeline: %1$d record(s) in %2$dms "
+                                  +"(%3$.1f records/s) using %4$d thread(s)",
+                                  count[0], time, count[0]*1000./time,
+                                  lychiThreads));
+        logCacheStats (hits, misses);
+        
+        return count[0];
+    }
     
+    /*
+     * report how much standardization was served from the cache since
+     * the given counts
+     */
+    protected void logCacheStats (long hits, long misses) {
+        CacheFactory.Stats stats = getCache().getStats();
+        hits = stats.getHits() - hits;
+        misses = stats.getMisses() - misses;
+        if (hits + misses > 0) {
+            logger.info(String.format
+                        ("## LyChI cache (%1$s): %2$d hit(s), %3$d miss(es); "
+                         +"%4$.1f%% of standardizations skipped",
+                         LYCHI_VERSION, hits, misses,
+                         100.*hits/(hits+misses)));
+        }
+    }
+
     public void addPropertyChangeListener (PropertyChangeListener l) {
         pcs.addPropertyChangeListener(l);
     }
@@ -992,6 +1596,7 @@ public class EntityRegistry extends EntityFactory {
     }
     
     protected void updateMeta (DataSource ds) {
+        flush (); // make sure all pending records are committed
         stitchMappers.putAll(stitches); // just to double-check we have the stitches; MoleculeEntityFactory seems to skip this step otherwise
         StitchKey[] keys = stitchMappers.keySet().toArray(new StitchKey[0]);
         String[] sk = new String[keys.length];
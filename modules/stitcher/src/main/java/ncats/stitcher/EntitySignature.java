@@ -0,0 +1,168 @@
+package ncats.stitcher;
+
+import java.lang.reflect.Array;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+
+import static ncats.stitcher.StitchKey.*;
+
+/**
+ * Compact snapshot of the stitch values of an entity: for each stitch
+ * key the sorted 64-bit hashes of its values and the sorted ids of the
+ * neighbors it's stitched to by that key. Pairwise similarity is then a
+ * merge over sorted arrays without going back to the graph, which is
+ * what makes the O(n^2) potential of a large component affordable.
+ * similarity() here gives the same result as Entity.similarity()
+ * barring 64-bit hash collisions.
+ */
+public class EntitySignature {
+    static final long[] EMPTY = new long[0];
+    static final int NKEYS = StitchKey.values().length;
+
+    final long id;
+    final long[][] values = new long[NKEYS][]; // sorted, with duplicates
+    final int[] distinct = new int[NKEYS]; // number of distinct values
+    final long[][] neighbors = new long[NKEYS][]; // sorted node ids
+
+    EntitySignature (long id) {
+        this.id = id;
+    }
+
+    /*
+     * must be called within a transaction
+     */
+    public static EntitySignature _create (Node node) {
+        EntitySignature sig = new EntitySignature (node.getId());
+        for (StitchKey key : Entity.KEYS) {
+            long[] hashes = EMPTY;
+            if (node.hasProperty(key.name())) {
+                Object value = node.getProperty(key.name());
+                if (value.getClass().isArray()) {
+                    int len = Array.getLength(value);
+                    hashes = new long[len];
+                    for (int i = 0; i < len; ++i)
+                        hashes[i] = hash (Array.get(value, i));
+                    Arrays.sort(hashes);
+                }
+                else {
+                    hashes = new long[]{hash (value)};
+                }
+            }
+            sig.values[key.ordinal()] = hashes;
+
+            int n = 0;
+            for (int i = 0; i < hashes.length; ++i)
+                if (i == 0 || hashes[i] != hashes[i-1])
+                    ++n;
+            sig.distinct[key.ordinal()] = n;
+            sig.neighbors[key.ordinal()] = EMPTY;
+        }
+
+        long[][] nb = new long[NKEYS][];
+        int[] size = new int[NKEYS];
+        for (Relationship rel : node.getRelationships
+                 (Direction.BOTH, Entity.KEYS)) {
+            if (!rel.hasProperty(Props.VALUE))
+                continue;
+
+            int k = StitchKey.valueOf(rel.getType().name()).ordinal();
+            if (nb[k] == null)
+                nb[k] = new long[4];
+            else if (size[k] == nb[k].length)
+                nb[k] = Arrays.copyOf(nb[k], 2*size[k]);
+            nb[k][size[k]++] = rel.getOtherNodeId(sig.id);
+        }
+        for (int k = 0; k < NKEYS; ++k) {
+            if (size[k] > 0) {
+                long[] ids = Arrays.copyOf(nb[k], size[k]);
+                Arrays.sort(ids);
+                sig.neighbors[k] = ids;
+            }
+        }
+
+        return sig;
+    }
+
+    /*
+     * signatures of the given nodes read in a single transaction
+     */
+    public static EntitySignature[] create (GraphDatabaseService gdb,
+                                            long... nodes) {
+        EntitySignature[] sigs = new EntitySignature[nodes.length];
+        try (Transaction tx = gdb.beginTx()) {
+            for (int i = 0; i < nodes.length; ++i)
+                sigs[i] = _create (gdb.getNodeById(nodes[i]));
+            tx.success();
+        }
+        return sigs;
+    }
+
+    /*
+     * FNV-1a over the class and string value so that values that aren't
+     * equals() (e.g., Integer 1 vs Long 1) hash differently
+     */
+    static long hash (Object value) {
+        long h = 0xcbf29ce484222325l;
+        for (byte b : (value.getClass().getName()+":"+value)
+                 .getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3l;
+        }
+        return h;
+    }
+
+    public long getId () { return id; }
+
+    public boolean isStitched (EntitySignature other, StitchKey key) {
+        return Arrays.binarySearch(neighbors[key.ordinal()], other.id) >= 0;
+    }
+
+    /*
+     * same as Entity.similarity
+     */
+    public double similarity (EntitySignature other, StitchKey... keys) {
+        if (isStitched (other, R_exactMatch)
+            || isStitched (other, R_equivalentClass)) {
+            if (keys != null && keys.length > 0) {
+                // make sure it's connected by at least one of
+                //  the specified keys
+                for (StitchKey sk : keys)
+                    if (isStitched (other, sk))
+                        return 1.;
+                return 0.; // no dice
+            }
+            return 1.;
+        }
+
+        if (keys == null || keys.length == 0) {
+            keys = Entity.KEYS;
+        }
+
+        int a = 0, b = 0, ov = 0;
+        for (StitchKey key : keys) {
+            long[] x = values[key.ordinal()], y = other.values[key.ordinal()];
+            for (int i = 0, j = 0; i < x.length && j < y.length; ) {
+                if (x[i] < y[j]) ++i;
+                else if (x[i] > y[j]) ++j;
+                else {
+                    ++ov;
+                    ++i; // duplicates in x each count
+                }
+            }
+            a += x.length;
+            b += other.distinct[key.ordinal()];
+        }
+
+        double sim = 0.0;
+        if (a + b > 0) {
+            sim = (double)ov/(a+b-ov);
+        }
+        return sim;
+    }
+}
@@ -45,6 +45,10 @@ public class GraphDb extends TransactionEventHandler.Adapter
     protected final File indexDir;
     protected final Map<File, TextIndexer> indexers
         = new ConcurrentHashMap<>();
+    protected final Map<Integer, Indexer> stitchIndexers
+        = new ConcurrentHashMap<>();
+    protected Suggester suggester;
+    protected GraphMetricsCounter metricsCounter;
     
     protected GraphDb (File dir) throws IOException {
         this (dir, null);
@@ -85,6 +89,22 @@ public class GraphDb extends TransactionEventHandler.Adapter
             */
             .newGraphDatabase();
 
+        indexDir = new File (dir, "index");
+        if (!indexDir.exists()) {
+            indexDir.mkdirs();
+        }
+
+        // existing stitch indexes follow all changes from here on, not
+        // just those of whoever asks for them
+        for (File f : indexDir.listFiles()) {
+            if (f.isDirectory() && f.getName().matches("v[0-9]+"))
+                getIndexer (Integer.parseInt(f.getName().substring(1)));
+        }
+
+        // union-find children are looked up by their parent, e.g., when
+        // entities are deleted
+        createIndex (AuxNodeType.ENTITY, Props.PARENT);
+
         /*
         try (Transaction tx = gdb.beginTx()) {
             createIndex (CNode.CLASS_LABEL, Props.PARENT);
@@ -96,11 +116,6 @@ public class GraphDb extends TransactionEventHandler.Adapter
         gdb.registerTransactionEventHandler(this);
         gdb.registerKernelEventHandler(this);
 
-        indexDir = new File (dir, "index");
-        if (!indexDir.exists()) {
-            indexDir.mkdirs();
-        }
-
         // this must be initialized after graph initialization
         if (cache == null) {
             this.cache = CacheFactory.getInstance
@@ -130,6 +145,7 @@ public class GraphDb extends TransactionEventHandler.Adapter
     }
     
     public File getPath () { return dir; }
+    public File getIndexDir () { return indexDir; }
     public void shutdown () {
         for (TextIndexer indexer : indexers.values()) {
             try {
@@ -139,6 +155,18 @@ public class GraphDb extends TransactionEventHandler.Adapter
                 logger.log(Level.SEVERE, "Can't close TextIndexer", ex);
             }
         }
+        for (Indexer indexer : stitchIndexers.values())
+            indexer.shutdown();
+        if (metricsCounter != null)
+            metricsCounter.shutdown();
+        if (suggester != null) {
+            try {
+                suggester.close();
+            }
+            catch (Exception ex) {
+                logger.log(Level.SEVERE, "Can't close Suggester", ex);
+            }
+        }
         gdb.unregisterTransactionEventHandler(this);
         gdb.shutdown();
         if (localCache)
@@ -182,6 +210,27 @@ public class GraphDb extends TransactionEventHandler.Adapter
         return indexer;
     }
 
+    /*
+     * typeahead suggestions for stitch key values; once created it
+     * follows all changes to those values
+     */
+    public synchronized Suggester getSuggester () throws IOException {
+        if (suggester == null)
+            suggester = new Suggester
+                (gdb, new File (indexDir, Indexer.DEFAULT_SUGGEST));
+        return suggester;
+    }
+
+    /*
+     * graph metrics over all entities that are counted once (in the
+     * background) and then kept current as transactions are committed
+     */
+    public synchronized GraphMetricsCounter getMetricsCounter () {
+        if (metricsCounter == null)
+            metricsCounter = new GraphMetricsCounter (gdb);
+        return metricsCounter;
+    }
+
     /*
      * KernelEventHandler
      */
@@ -241,8 +290,15 @@ public class GraphDb extends TransactionEventHandler.Adapter
         return null;
     }
 
+    /*
+     * search index of the stitches of the given version; once created it
+     * follows all changes to those stitches (see Indexer.isCurrent)
+     */
     public Indexer getIndexer (Integer version) throws IOException {
-        return Indexer.getInstance(new File (indexDir, "v"+version));
+        return stitchIndexers.computeIfAbsent
+            (version, Uncheck.throwingFunction
+             (v -> Indexer.getInstance
+              (gdb, new File (indexDir, "v"+v), v)));
     }
 
     public static void addShutdownHook () {
@@ -0,0 +1,730 @@
+package ncats.stitcher;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import java.util.logging.Logger;
+import java.util.logging.Level;
+
+import ncats.stitcher.graph.UnionFind;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.event.*;
+
+/**
+ * Graph metrics (see EntityFactory.calcGraphMetrics) over all entities.
+ * The counts are computed once by scanning the entities in parallel and
+ * are then kept current by a transaction handler that applies the
+ * changes of each commit, so getMetrics() doesn't touch the graph.
+ * Component sizes don't rely on the PARENT and RANK properties; they come
+ * from a union-find over the stitches that is kept in memory. It can only
+ * merge components, so a commit that deletes a stitch or an entity has
+ * the entities counted again in the background. Entities that commits
+ * touch during a scan are counted once the scan is done (see Scan).
+ */
+public class GraphMetricsCounter extends TransactionEventHandler.Adapter {
+    static final Logger logger =
+        Logger.getLogger(GraphMetricsCounter.class.getName());
+
+    static final int CHUNK_SIZE = 4096;
+
+    /*
+     * histogram of small non-negative values
+     */
+    static class Histogram {
+        static final int MAX_DENSE = 1<<16;
+
+        int[] counts = new int[64];
+        Map<Integer, Integer> sparse; // values >= MAX_DENSE
+
+        void add (int value, int delta) {
+            if (value < MAX_DENSE) {
+                if (value >= counts.length)
+                    counts = Arrays.copyOf
+                        (counts, Math.min(MAX_DENSE, Math.max
+                                          (2*counts.length, value+1)));
+                counts[value] += delta;
+            }
+            else {
+                if (sparse == null)
+                    sparse = new HashMap<>();
+                sparse.merge(value, delta, Integer::sum);
+            }
+        }
+
+        void add (Histogram h, int sign) {
+            if (h.counts.length > counts.length)
+                counts = Arrays.copyOf(counts, h.counts.length);
+            for (int i = 0; i < h.counts.length; ++i)
+                counts[i] += sign*h.counts[i];
+            if (h.sparse != null)
+                for (Map.Entry<Integer, Integer> me : h.sparse.entrySet())
+                    add (me.getKey(), sign*me.getValue());
+        }
+
+        int get (int value) {
+            if (value < counts.length)
+                return counts[value];
+            Integer c = sparse != null ? sparse.get(value) : null;
+            return c != null ? c : 0;
+        }
+
+        int total () {
+            int total = 0;
+            for (int c : counts)
+                total += c;
+            if (sparse != null)
+                for (Integer c : sparse.values())
+                    total += c;
+            return total;
+        }
+
+        Map<Integer, Integer> toMap () {
+            Map<Integer, Integer> map = new TreeMap<>();
+            for (int i = 0; i < counts.length; ++i)
+                if (counts[i] != 0)
+                    map.put(i, counts[i]);
+            if (sparse != null)
+                for (Map.Entry<Integer, Integer> me : sparse.entrySet())
+                    if (me.getValue() != 0)
+                        map.put(me.getKey(), me.getValue());
+            return map;
+        }
+    }
+
+    /*
+     * connected components by union-find over node ids, which UnionFind
+     * maps to dense indexes however large they get; components can be
+     * merged but not split
+     */
+    static class Components {
+        final UnionFind uf = new UnionFind ();
+        final Histogram histogram = new Histogram ();
+
+        void add (long id) {
+            if (!uf.contains(id)) {
+                uf.add(id);
+                histogram.add(1, 1);
+            }
+        }
+
+        void union (long a, long b) {
+            add (a);
+            add (b);
+            if (!uf.find(a, b)) {
+                int sa = uf.weight(a), sb = uf.weight(b);
+                histogram.add(sa, -1);
+                histogram.add(sb, -1);
+                uf.union(a, b);
+                histogram.add(sa + sb, 1);
+            }
+        }
+    }
+
+    /*
+     * counts over a set of entities; stitches are counted from both of
+     * their ends as in calcGraphMetrics. Entities and the stitches between
+     * them are recorded as links until they're added to counts that keep
+     * the components.
+     */
+    static class Counts {
+        final EntityType[] types;
+        final RelationshipType[] keys;
+        final Map<String, Integer> index = new HashMap<>();
+
+        int entities;
+        final int[] typeCounts;
+        long stitches; // not counting self references
+        final long[] keyCounts;
+        final Histogram sizes = new Histogram ();
+        Components components;
+        long[] links = new long[16]; // pairs of node ids
+        int nlinks;
+        boolean split; // components might have come apart
+
+        Counts (EntityType[] types, RelationshipType[] keys) {
+            this.types = types;
+            this.keys = keys;
+            for (int i = 0; i < keys.length; ++i)
+                index.put(keys[i].name(), i);
+            typeCounts = new int[types.length];
+            keyCounts = new long[keys.length];
+        }
+
+        int key (RelationshipType type) {
+            Integer k = index.get(type.name());
+            return k != null ? k : -1;
+        }
+
+        void link (long a, long b) {
+            if (components != null) {
+                components.union(a, b);
+            }
+            else {
+                if (nlinks+2 > links.length)
+                    links = Arrays.copyOf(links, 2*links.length);
+                links[nlinks++] = a;
+                links[nlinks++] = b;
+            }
+        }
+
+        /*
+         * an entity with the given types and number of stitches per key;
+         * the last slot of degree is the number of stitches to other nodes
+         */
+        void add (boolean[] typed, int[] degree, int sign) {
+            entities += sign;
+            for (int i = 0; i < types.length; ++i)
+                if (typed[i])
+                    typeCounts[i] += sign;
+            int nrel = 0;
+            for (int i = 0; i < keys.length; ++i) {
+                keyCounts[i] += sign*degree[i];
+                nrel += degree[i];
+            }
+            stitches += sign*degree[keys.length];
+            sizes.add(nrel, sign);
+        }
+
+        void add (Node node, Label label) {
+            boolean[] typed = new boolean[types.length];
+            for (int i = 0; i < types.length; ++i)
+                typed[i] = node.hasLabel(types[i]);
+
+            int[] degree = new int[keys.length+1];
+            link (node.getId(), node.getId());
+            for (Relationship rel
+                     : node.getRelationships(Direction.BOTH, keys)) {
+                Node other = rel.getOtherNode(node);
+                // do we count self reference?
+                if (!other.equals(node)) {
+                    ++degree[keys.length];
+                    if (other.hasLabel(label))
+                        link (node.getId(), other.getId());
+                }
+                ++degree[key (rel.getType())];
+            }
+            add (typed, degree, 1);
+        }
+
+        void add (Counts c, int sign) {
+            entities += sign*c.entities;
+            for (int i = 0; i < typeCounts.length; ++i)
+                typeCounts[i] += sign*c.typeCounts[i];
+            stitches += sign*c.stitches;
+            for (int i = 0; i < keyCounts.length; ++i)
+                keyCounts[i] += sign*c.keyCounts[i];
+            sizes.add(c.sizes, sign);
+            if (sign > 0) // components can't be taken apart
+                for (int i = 0; i < c.nlinks; i += 2)
+                    link (c.links[i], c.links[i+1]);
+            split |= c.split;
+        }
+
+        EntityFactory.DefaultGraphMetrics metrics () {
+            EntityFactory.DefaultGraphMetrics metrics =
+                new EntityFactory.DefaultGraphMetrics ();
+            metrics.entityCount = entities;
+            for (int i = 0; i < types.length; ++i)
+                if (typeCounts[i] != 0)
+                    metrics.entityHistogram.put(types[i], typeCounts[i]);
+            metrics.entitySizeDistribution.putAll(sizes.toMap());
+            metrics.stitchCount = (int)(stitches / 2);
+            for (int i = 0; i < keys.length; ++i)
+                if (keyCounts[i] != 0)
+                    metrics.stitchHistogram.put
+                        (keys[i].name(), (int)(keyCounts[i] / 2));
+            if (components != null) {
+                Histogram h = components.histogram;
+                metrics.connectedComponentHistogram.putAll(h.toMap());
+                metrics.connectedComponentCount = h.total();
+                metrics.singletonCount = h.get(1);
+            }
+            return metrics;
+        }
+    }
+
+    /*
+     * entities touched by commits during a scan. The scan doesn't see a
+     * consistent state, so it skips the entities it gets to after they've
+     * been touched; those it counted before are taken out again by way of
+     * their state before the first commit that touched them. Either way
+     * they're counted once the scan is done.
+     */
+    static class Scan {
+        final Object[] stripes = new Object[64];
+        final Set<Long> dirty = ConcurrentHashMap.newKeySet();
+        final Set<Long> skipped = ConcurrentHashMap.newKeySet();
+        final Map<Long, Counts> before = new ConcurrentHashMap<>();
+        volatile boolean split;
+
+        Scan () {
+            for (int i = 0; i < stripes.length; ++i)
+                stripes[i] = new Object ();
+        }
+
+        Object stripe (long id) {
+            return stripes[(int)(id & (stripes.length-1))];
+        }
+    }
+
+    /*
+     * count the nodes of the given label on the given number of threads;
+     * each thread counts chunks of nodes under its own transaction
+     */
+    public static GraphMetrics count (GraphDatabaseService gdb, Label label,
+                                      EntityType[] types,
+                                      RelationshipType[] keys, int threads) {
+        return counts(gdb, label, types, keys, threads, null).metrics();
+    }
+
+    static Counts counts (GraphDatabaseService gdb, Label label,
+                          EntityType[] types, RelationshipType[] keys,
+                          int threads, Scan scan) {
+        long[] nodes = new long[1024];
+        int size = 0;
+        try (Transaction tx = gdb.beginTx();
+             ResourceIterator<Node> it = gdb.findNodes(label)) {
+            while (it.hasNext()) {
+                if (size == nodes.length)
+                    nodes = Arrays.copyOf(nodes, 2*size);
+                nodes[size++] = it.next().getId();
+            }
+            tx.success();
+        }
+
+        final long[] ids = nodes;
+        Counts counts = new Counts (types, keys);
+        counts.components = new Components ();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Counts>> futures = new ArrayList<>();
+            for (int from = 0; from < size; from += CHUNK_SIZE) {
+                final int start = from, end = Math.min(size, from+CHUNK_SIZE);
+                futures.add(pool.submit(() -> {
+                            Counts c = new Counts (types, keys);
+                            try (Transaction tx = gdb.beginTx()) {
+                                for (int i = start; i < end; ++i) {
+                                    try {
+                                        count (c, gdb.getNodeById(ids[i]),
+                                               label, scan);
+                                    }
+                                    catch (NotFoundException ex) {
+                                        // deleted since
+                                    }
+                                }
+                                tx.success();
+                            }
+                            return c;
+                        }));
+            }
+            for (Future<Counts> f : futures)
+                counts.add(f.get(), 1);
+        }
+        catch (Exception ex) {
+            throw new RuntimeException ("Can't calculate graph metrics", ex);
+        }
+        finally {
+            pool.shutdownNow();
+        }
+        return counts;
+    }
+
+    static void count (Counts c, Node node, Label label, Scan scan) {
+        if (scan == null) {
+            c.add(node, label);
+        }
+        else {
+            long id = node.getId();
+            synchronized (scan.stripe(id)) {
+                if (scan.dirty.contains(id))
+                    scan.skipped.add(id);
+                else
+                    c.add(node, label);
+            }
+        }
+    }
+
+    // state of commits that don't touch entities
+    static final Counts NONE =
+        new Counts (new EntityType[0], new RelationshipType[0]);
+
+    final GraphDatabaseService gdb;
+    final EntityType[] types;
+    final RelationshipType[] keys;
+    final int threads;
+    final CompletableFuture<Counts> ready = new CompletableFuture<>();
+    final Object scanning = new Object ();
+    Scan scan; // under way
+    boolean gated; // commits wait while set
+    int inflight; // commits between beforeCommit and afterCommit
+    boolean recounting; // scheduled but not started
+    Counts counts;
+    volatile GraphMetrics metrics;
+
+    public GraphMetricsCounter (GraphDatabaseService gdb) {
+        this (gdb, Entity.TYPES, Entity.KEYS,
+              Runtime.getRuntime().availableProcessors());
+    }
+
+    public GraphMetricsCounter (GraphDatabaseService gdb, EntityType[] types,
+                                RelationshipType[] keys, int threads) {
+        this.gdb = gdb;
+        this.types = types;
+        this.keys = keys;
+        this.threads = threads;
+        gdb.registerTransactionEventHandler(this);
+        recountLater ();
+    }
+
+    public void shutdown () {
+        gdb.unregisterTransactionEventHandler(this);
+    }
+
+    synchronized void recountLater () {
+        if (!recounting) {
+            recounting = true;
+            Thread t = new Thread (this::recount, "GraphMetricsCounter");
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    /*
+     * hold off new commits and wait for those under way
+     */
+    synchronized void gate () throws InterruptedException {
+        gated = true;
+        while (inflight > 0)
+            wait ();
+    }
+
+    synchronized void ungate () {
+        gated = false;
+        notifyAll ();
+    }
+
+    /*
+     * count from scratch while the current counts are still served;
+     * commits are held off only to start the scan and to count the
+     * entities they touched during it
+     */
+    public void recount () {
+        boolean again = false;
+        synchronized (scanning) {
+            try {
+                long start = System.currentTimeMillis();
+                Scan s = new Scan ();
+                try {
+                    gate ();
+                    synchronized (this) {
+                        recounting = false;
+                        scan = s;
+                    }
+                }
+                finally {
+                    ungate ();
+                }
+
+                Counts c = counts (gdb, AuxNodeType.ENTITY,
+                                   types, keys, threads, s);
+                try {
+                    gate ();
+                    for (Long id : s.dirty) {
+                        Counts b = s.before.get(id);
+                        if (b != null && !s.skipped.contains(id))
+                            c.add(b, -1);
+                    }
+                    try (Transaction tx = gdb.beginTx()) {
+                        for (Long id : s.dirty) {
+                            try {
+                                Node node = gdb.getNodeById(id);
+                                if (node.hasLabel(AuxNodeType.ENTITY))
+                                    c.add(node, AuxNodeType.ENTITY);
+                            }
+                            catch (NotFoundException ex) {
+                                // deleted since
+                            }
+                        }
+                        tx.success();
+                    }
+                    synchronized (this) {
+                        scan = null;
+                        counts = c;
+                        metrics = null;
+                    }
+                }
+                finally {
+                    ungate ();
+                }
+                again = s.split;
+                ready.complete(c);
+                logger.info("## "+c.entities+" entities counted ("
+                            +s.dirty.size()+" after the scan) in "
+                            +String.format
+                            ("%1$.1fs", 1e-3*(System.currentTimeMillis()
+                                              -start)));
+            }
+            catch (Exception ex) {
+                synchronized (this) {
+                    scan = null;
+                }
+                logger.log(Level.SEVERE, "Can't count graph metrics", ex);
+                ready.completeExceptionally(ex);
+            }
+        }
+        if (again) // components split during the scan
+            recountLater ();
+    }
+
+    /*
+     * current metrics; blocks until the initial count is done. After a
+     * commit that splits components, their sizes are stale until the
+     * recount it triggers is done.
+     */
+    public GraphMetrics getMetrics () {
+        GraphMetrics m = metrics;
+        if (m == null) {
+            try {
+                ready.get();
+            }
+            catch (Exception ex) {
+                throw new RuntimeException ("Graph metrics unavailable", ex);
+            }
+            synchronized (this) {
+                if (metrics == null)
+                    metrics = counts.metrics();
+                m = metrics;
+            }
+        }
+        return m;
+    }
+
+    static Set<String> labels (Map<Node, Set<String>> labels, Node node) {
+        Set<String> l = labels.get(node);
+        return l != null ? l : Collections.emptySet();
+    }
+
+    /*
+     * stitches created (d = 1) or deleted (d = -1) per node and key; the
+     * last slot counts those to other nodes. A self reference counts once
+     * as with getRelationships.
+     */
+    void stitched (Map<Node, int[]> stitched, Relationship rel,
+                   int k, int d) {
+        Node start = rel.getStartNode(), end = rel.getEndNode();
+        boolean loop = start.equals(end);
+        for (Node n : loop ? new Node[]{start} : new Node[]{start, end}) {
+            int[] diff = stitched.computeIfAbsent
+                (n, x -> new int[keys.length+1]);
+            diff[k] += d;
+            if (!loop)
+                diff[keys.length] += d;
+        }
+    }
+
+    /*
+     * the net change in counts of this transaction: the state of each
+     * node touched by it is counted negatively as it was and positively
+     * as it is now
+     */
+    @Override
+    public Object beforeCommit (TransactionData data) throws Exception {
+        Scan s;
+        synchronized (this) {
+            while (gated)
+                wait ();
+            ++inflight;
+            s = scan;
+        }
+
+        try {
+            return delta (data, s);
+        }
+        catch (Exception ex) {
+            done ();
+            throw ex;
+        }
+    }
+
+    Counts delta (TransactionData data, Scan scan) {
+        Map<Node, Set<String>> assigned = new HashMap<>();
+        Map<Node, Set<String>> removed = new HashMap<>();
+        for (LabelEntry le : data.assignedLabels())
+            assigned.computeIfAbsent
+                (le.node(), n -> new HashSet<>()).add(le.label().name());
+        for (LabelEntry le : data.removedLabels())
+            removed.computeIfAbsent
+                (le.node(), n -> new HashSet<>()).add(le.label().name());
+
+        Set<Node> touched = new HashSet<>();
+        touched.addAll(assigned.keySet());
+        touched.addAll(removed.keySet());
+
+        Counts delta = new Counts (types, keys);
+        boolean changed = false;
+        Map<Node, int[]> stitched = new HashMap<>();
+        List<Relationship> created = new ArrayList<>();
+        for (Relationship rel : data.createdRelationships()) {
+            int k = delta.key(rel.getType());
+            if (k >= 0) {
+                stitched (stitched, rel, k, 1);
+                touched.add(rel.getStartNode());
+                touched.add(rel.getEndNode());
+                created.add(rel);
+            }
+        }
+        for (Relationship rel : data.deletedRelationships()) {
+            int k = delta.key(rel.getType());
+            if (k >= 0) {
+                stitched (stitched, rel, k, -1);
+                touched.add(rel.getStartNode());
+                touched.add(rel.getEndNode());
+                if (!rel.getStartNode().equals(rel.getEndNode()))
+                    delta.split = true;
+            }
+        }
+
+        String entity = AuxNodeType.ENTITY.name();
+        Set<Node> entities = new HashSet<>(); // after this commit
+        for (Node node : touched) {
+            boolean deleted = data.isDeleted(node);
+            Set<String> a = labels (assigned, node), r = labels (removed, node);
+            boolean was = r.contains(entity)
+                || (!deleted && !a.contains(entity)
+                    && node.hasLabel(AuxNodeType.ENTITY));
+            boolean is = !deleted && node.hasLabel(AuxNodeType.ENTITY);
+            if (!was && !is)
+                continue;
+            changed = true;
+
+            // as counted by Counts.add
+            boolean[] typed = new boolean[types.length];
+            int[] degree = new int[keys.length+1];
+            if (!deleted) {
+                for (int i = 0; i < types.length; ++i)
+                    typed[i] = node.hasLabel(types[i]);
+                for (Relationship rel
+                         : node.getRelationships(Direction.BOTH, keys)) {
+                    ++degree[delta.key(rel.getType())];
+                    if (!rel.getOtherNode(node).equals(node)) {
+                        ++degree[keys.length];
+                        if (!was) // existing stitches of a new entity
+                            created.add(rel);
+                    }
+                }
+            }
+
+            Counts prior = null;
+            if (was) {
+                boolean[] wastyped = new boolean[types.length];
+                for (int i = 0; i < types.length; ++i) {
+                    String t = types[i].name();
+                    wastyped[i] = r.contains(t)
+                        || (!deleted && !a.contains(t) && typed[i]);
+                }
+                int[] diff = stitched.get(node);
+                int[] wasdegree = degree.clone();
+                if (diff != null)
+                    for (int i = 0; i < wasdegree.length; ++i)
+                        wasdegree[i] -= diff[i];
+                delta.add(wastyped, wasdegree, -1);
+                if (scan != null) {
+                    prior = new Counts (types, keys);
+                    prior.add(wastyped, wasdegree, 1);
+                }
+                if (!is)
+                    delta.split = true;
+            }
+
+            if (is) {
+                delta.add(typed, degree, 1);
+                delta.link(node.getId(), node.getId());
+                entities.add(node);
+            }
+
+            if (scan != null) {
+                long id = node.getId();
+                synchronized (scan.stripe(id)) {
+                    if (scan.dirty.add(id) && prior != null)
+                        scan.before.put(id, prior);
+                }
+            }
+        }
+
+        for (Relationship rel : created) {
+            Node start = rel.getStartNode(), end = rel.getEndNode();
+            if (!start.equals(end)
+                && (entities.contains(start)
+                    || (!data.isDeleted(start)
+                        && start.hasLabel(AuxNodeType.ENTITY)))
+                && (entities.contains(end)
+                    || (!data.isDeleted(end)
+                        && end.hasLabel(AuxNodeType.ENTITY))))
+                delta.link(start.getId(), end.getId());
+        }
+
+        if (!changed)
+            return NONE;
+        if (scan != null && delta.split)
+            scan.split = true;
+        return delta;
+    }
+
+    synchronized void done () {
+        if (--inflight == 0)
+            notifyAll ();
+    }
+
+    @Override
+    public void afterCommit (TransactionData data, Object state) {
+        if (state == null)
+            return;
+        if (state == NONE) { // nothing relevant changed
+            done ();
+            return;
+        }
+
+        Counts delta = (Counts)state;
+        boolean split = false;
+        try {
+            synchronized (this) {
+                if (counts != null) {
+                    counts.add(delta, 1);
+                    metrics = null;
+                }
+                // a scan under way has it counted again
+                split = delta.split && scan == null;
+            }
+        }
+        catch (RuntimeException ex) {
+            logger.log(Level.SEVERE, "Can't update graph metrics; "
+                       +"recounting...", ex);
+            split = true;
+        }
+        finally {
+            // or gate() waits for this transaction forever
+            done ();
+        }
+        if (split)
+            recountLater ();
+    }
+
+    @Override
+    public void afterRollback (TransactionData data, Object state) {
+        if (state != null)
+            done ();
+    }
+}
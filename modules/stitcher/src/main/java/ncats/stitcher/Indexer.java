@@ -3,10 +3,11 @@ package ncats.stitcher;
 import java.io.*;
 import java.util.*;
 import java.util.concurrent.locks.*;
-import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import java.util.logging.Logger;
 import java.util.logging.Level;
@@ -16,55 +17,184 @@ import org.apache.lucene.document.*;
 import org.apache.lucene.index.*;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.search.*;
+import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.util.IOUtils;
 import org.apache.lucene.facet.*;
+import org.apache.lucene.facet.taxonomy.*;
 import org.apache.lucene.facet.taxonomy.directory.*;
 
+import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.Label;
 import org.neo4j.graphdb.Node;
-import org.neo4j.graphdb.Entity;
+import org.neo4j.graphdb.NotFoundException;
 import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.ResourceIterator;
 import org.neo4j.graphdb.Transaction;
 import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.event.*;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+import org.neo4j.kernel.impl.transaction.log.TransactionIdStore;
 
+import ncats.stitcher.calculators.EventCalculator;
+import static ncats.stitcher.Props.*;
 
-public class Indexer {
+/**
+ * Search index of the stitches of a given version (i.e., nodes labeled
+ * S_STITCH_V<ver>); each stitch is one document with the names and
+ * identifiers of its members along with its approval and phase fields,
+ * which are also facets. Stitches are (re)indexed whenever a committed
+ * transaction creates, changes or deletes them or their events. Each
+ * index commit records the last database transaction it covers; an
+ * index that doesn't match the database when opened (e.g., stitches
+ * were written without it) is stale until rebuilt.
+ */
+public class Indexer extends TransactionEventHandler.Adapter {
     static final Logger logger = Logger.getLogger(Indexer.class.getName());
-    
+
     static final String DEFAULT_FACET = "facet"; // facet index
     static final String DEFAULT_TEXT = "text"; // lucene index
     static final String DEFAULT_SUGGEST = "suggest"; // suggest index
-    
-    
+
+    public static final String FIELD_ID = "@id"; // stitch node id
+    public static final String FIELD_KEY = ID; // stitch key
+    public static final String FIELD_TEXT = "text";
+    public static final String FIELD_NAME = NAME;
+    public static final String FIELD_IDENTIFIER = "identifier";
+    public static final String FIELD_RANK = RANK;
+    public static final String FACET_SOURCE = SOURCE;
+    public static final String FACET_PHASE = EventCalculator.highestPhase;
+    public static final String FACET_APPROVED = EventCalculator.USapproved;
+    public static final String FACET_MARKETED =
+        EventCalculator.initiallyMarketed;
+    public static final String FACET_MARKETED_US =
+        EventCalculator.initiallyMarketedUS;
+    static final String[] FACETS = {
+        FACET_SOURCE, FACET_PHASE, FACET_APPROVED,
+        FACET_MARKETED, FACET_MARKETED_US
+    };
+
+    static final RelationshipType EVENT =
+        RelationshipType.withName(AuxRelType.EVENT.name());
+    // stitches per transaction when (re)building the whole index
+    static final int BATCH_SIZE = 1000;
+    // commit data; last transaction whose changes are in the index
+    static final String WATERMARK = "txid";
+    // stitch properties that go into its document; see instrument()
+    static final Set<String> STITCH_FIELDS = new HashSet<>
+        (Arrays.asList(ID, RANK, PARENT, FACET_PHASE, FACET_APPROVED,
+                       FACET_MARKETED, FACET_MARKETED_US));
+
+    public static class Hit {
+        public final long id; // stitch node
+        public final float score;
+        public final Map<String, Object> fields = new TreeMap<>();
+
+        Hit (long id, float score) {
+            this.id = id;
+            this.score = score;
+        }
+    }
+
+    public static class SearchResult {
+        public final List<Hit> hits = new ArrayList<>();
+        public final Map<String, Map<String, Integer>> facets =
+            new TreeMap<>();
+        public final int skip;
+        public final int top;
+        public final int total;
+
+        SearchResult (int skip, int top, int total) {
+            this.skip = skip;
+            this.top = top;
+            this.total = total;
+        }
+        public int size () { return hits.size(); }
+    }
+
+    /*
+     * transaction state; documents are built before the commit (while
+     * the nodes can still be read) and written after it
+     */
+    static class Changes {
+        final Map<Long, Document> docs = new HashMap<>();
+        final Set<Long> removed = new HashSet<>();
+        boolean isEmpty () { return docs.isEmpty() && removed.isEmpty(); }
+    }
+
     final ReentrantLock lock = new ReentrantLock ();
+    final protected GraphDatabaseService gdb;
+    final protected Label label;
     protected File base;
     protected Directory textDir;
     protected Directory facetsDir;
     protected IndexWriter indexWriter;
     protected DirectoryTaxonomyWriter facetsWriter;
-    protected FacetsConfig facetsConfig; 
-    protected IndexSearcher indexSearcher;
+    protected FacetsConfig facetsConfig;
+    protected SearcherTaxonomyManager searcherManager;
+    protected ScheduledExecutorService scheduler;
+    protected volatile long lastCommit = System.currentTimeMillis();
+    protected volatile long commitInterval =
+        TextIndexer.DEFAULT_COMMIT_INTERVAL;
+    // transactions between beforeCommit and afterCommit (or rollback)
+    protected final AtomicInteger inflight = new AtomicInteger ();
+    protected volatile boolean stale;
+    protected long watermark = -1l;
 
     static final Map<File, Indexer> INSTANCES = new ConcurrentHashMap<>();
 
-    protected Indexer (File base) throws IOException {
+    protected Indexer (GraphDatabaseService gdb, File base, int version)
+        throws IOException {
         if (!base.exists())
             base.mkdirs();
-        
+        this.gdb = gdb;
+        this.label = Label.label("S_STITCH_V"+version);
+        this.base = base;
+
         File dir = new File (base, DEFAULT_TEXT);
         dir.mkdirs();
         textDir = new NIOFSDirectory (dir.toPath());
         IndexWriterConfig config =
             new IndexWriterConfig (new StandardAnalyzer ());
         indexWriter = new IndexWriter (textDir, config);
-        
+
         dir = new File (base, DEFAULT_FACET);
         dir.mkdirs();
         facetsDir = new NIOFSDirectory (dir.toPath());
         facetsWriter = new DirectoryTaxonomyWriter (facetsDir);
         facetsConfig = new FacetsConfig ();
+        facetsConfig.setMultiValued(FACET_SOURCE, true);
+        searcherManager = new SearcherTaxonomyManager
+            (indexWriter, true, new SearcherFactory (), facetsWriter);
+        // before checking the watermark so that nothing falls in between
+        gdb.registerTransactionEventHandler(this);
 
-        this.base = base;
+        String txid = indexWriter.getCommitData().get(WATERMARK);
+        if (txid != null) {
+            watermark = Long.parseLong(txid);
+            stale = watermark != lastTxId (gdb);
+        }
+        else {
+            // new (or old) index
+            try (Transaction tx = gdb.beginTx();
+                 ResourceIterator<Node> it = gdb.findNodes(label)) {
+                stale = it.hasNext();
+                tx.success();
+            }
+        }
+        if (stale)
+            logger.warning("## stitch index "+base+" is stale (at "
+                           +watermark+", database at "+lastTxId (gdb)
+                           +"); it must be rebuilt!");
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread (r, "Indexer "+base.getName());
+                t.setDaemon(true);
+                return t;
+            });
+        long period = (long)(TextIndexer.DEFAULT_MAX_STALENESS * 1000.);
+        scheduler.scheduleWithFixedDelay
+            (this::maintain, period, period, TimeUnit.MILLISECONDS);
         INSTANCES.put(base, this);
     }
 
@@ -72,6 +202,12 @@ public class Indexer {
         lock.lock();
         try {
             if (INSTANCES.containsKey(base)) {
+                scheduler.shutdown();
+                scheduler.awaitTermination(10, TimeUnit.SECONDS);
+                // anything committed after this is beyond the watermark
+                commit ();
+                gdb.unregisterTransactionEventHandler(this);
+                IOUtils.close(searcherManager);
                 IOUtils.close(indexWriter);
                 IOUtils.close(textDir);
                 IOUtils.close(facetsWriter);
@@ -79,7 +215,7 @@ public class Indexer {
                 INSTANCES.remove(base);
             }
         }
-        catch (IOException ex) {
+        catch (Exception ex) {
             logger.log(Level.SEVERE, "Can't close Lucene handles", ex);
         }
         finally {
@@ -87,26 +223,490 @@ public class Indexer {
         }
     }
 
-    public synchronized static Indexer getInstance (File base)
+    public synchronized static Indexer getInstance
+        (GraphDatabaseService gdb, File base, int version)
         throws IOException {
         Indexer indexer = INSTANCES.get(base);
         if (indexer == null) {
-            indexer = new Indexer (base);
+            indexer = new Indexer (gdb, base, version);
         }
         return indexer;
     }
 
-    public void add (Entity ent) {
-        String FIELD_ID = ent.getClass().getName()+".__id";
+    public Label getLabel () { return label; }
+    public int size () { return indexWriter.numDocs(); }
+    /*
+     * false if the index has missed changes to the database and needs a
+     * rebuild()
+     */
+    public boolean isCurrent () { return !stale; }
+
+    static long lastTxId (GraphDatabaseService gdb) {
+        return ((GraphDatabaseAPI)gdb).getDependencyResolver()
+            .resolveDependency(TransactionIdStore.class)
+            .getLastCommittedTransactionId();
     }
 
-    public void addIfAbsent (Entity ent) {
-        String FIELD_ID = ent.getClass().getName()+".__id";
+    public void setCommitInterval (long millis) {
+        commitInterval = millis;
     }
+    public long getCommitInterval () { return commitInterval; }
 
-    public void update (Entity ent) {
+    /*
+     * run by the background thread; same as TextIndexer
+     */
+    protected void maintain () {
+        try {
+            searcherManager.maybeRefresh();
+            long now = System.currentTimeMillis();
+            if (now - lastCommit >= commitInterval) {
+                commit ();
+                lastCommit = now;
+            }
+        }
+        catch (Exception ex) {
+            logger.log(Level.SEVERE, "Can't refresh index "+base, ex);
+        }
     }
 
-    public void remove (Entity ent) {
+    protected void commit () throws IOException {
+        lock.lock();
+        try {
+            long txid = lastTxId (gdb);
+            // the transactions up to txid have all been indexed if
+            // none is still in flight
+            if (!stale && txid != watermark && inflight.get() == 0) {
+                Map<String, String> data =
+                    new HashMap<>(indexWriter.getCommitData());
+                data.put(WATERMARK, String.valueOf(txid));
+                indexWriter.setCommitData(data);
+                watermark = txid;
+            }
+            
+            // taxonomy first so that the index never refers to
+            // uncommitted ordinals
+            facetsWriter.commit();
+            if (indexWriter.hasUncommittedChanges())
+                indexWriter.commit();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * make all documents indexed so far visible to search
+     */
+    public void refresh () throws IOException {
+        searcherManager.maybeRefreshBlocking();
+    }
+
+    static void add (Set<String> values, Object value) {
+        if (value == null) {
+        }
+        else if (value.getClass().isArray()) {
+            int len = java.lang.reflect.Array.getLength(value);
+            for (int i = 0; i < len; ++i)
+                add (values, java.lang.reflect.Array.get(value, i));
+        }
+        else {
+            String s = value.toString().trim();
+            if (s.length() > 0)
+                values.add(s);
+        }
+    }
+
+    /*
+     * year of an event's start date (yyyy-MM-dd)
+     */
+    static String year (Node event) {
+        Object date = event.getProperty("startDate", null);
+        return date instanceof String && ((String)date).length() >= 4
+            ? ((String)date).substring(0, 4) : null;
+    }
+
+    /*
+     * must be called within a transaction
+     */
+    protected Document instrument (Node stitch) {
+        Document doc = new Document ();
+        doc.add(new StringField
+                (FIELD_ID, String.valueOf(stitch.getId()), Field.Store.YES));
+        Object key = stitch.getProperty(ID, null);
+        if (key != null) {
+            doc.add(new StringField
+                    (FIELD_KEY, key.toString(), Field.Store.YES));
+        }
+        Object rank = stitch.getProperty(RANK, null);
+        if (rank instanceof Number) {
+            doc.add(new StoredField
+                    (FIELD_RANK, ((Number)rank).intValue()));
+        }
+
+        // names and identifiers of the members
+        Set<String> sources = new TreeSet<>();
+        Set<String> names = new LinkedHashSet<>();
+        Set<String> ids = new TreeSet<>();
+        Long parent = (Long) stitch.getProperty(PARENT, null);
+        for (Relationship rel : stitch.getRelationships
+                 (AuxRelType.STITCH, Direction.OUTGOING)) {
+            add (sources, rel.getProperty(SOURCE, null));
+
+            Node payload = rel.getOtherNode(stitch);
+            Relationship prel = payload.getSingleRelationship
+                (AuxRelType.PAYLOAD, Direction.OUTGOING);
+            if (prel == null)
+                continue;
+
+            Node member = prel.getOtherNode(payload);
+            Set<String> mnames = new LinkedHashSet<>();
+            for (StitchKey sk : StitchKey.values()) {
+                Object value = member.getProperty(sk.name(), null);
+                if (value == null)
+                    ;
+                else if (sk == StitchKey.N_Name)
+                    add (mnames, value);
+                else if (sk.name().startsWith("I_"))
+                    add (ids, value);
+            }
+
+            if (parent != null && parent == payload.getId()) {
+                // parent's names go first
+                mnames.addAll(names);
+                names = mnames;
+            }
+            else {
+                names.addAll(mnames);
+            }
+        }
+
+        boolean first = true;
+        for (String s : names) {
+            doc.add(new TextField
+                    (FIELD_NAME, s, first ? Field.Store.YES : Field.Store.NO));
+            doc.add(new TextField (FIELD_TEXT, s, Field.Store.NO));
+            first = false;
+        }
+        for (String s : ids) {
+            doc.add(new StringField (FIELD_IDENTIFIER, s, Field.Store.NO));
+            doc.add(new TextField (FIELD_TEXT, s, Field.Store.NO));
+        }
+        for (String s : sources)
+            doc.add(new FacetField (FACET_SOURCE, s));
+
+        // approval and phase (see EventCalculator); the stitch refers to
+        // its events by id
+        Map<String, Relationship> events = new HashMap<>();
+        for (Relationship rel : stitch.getRelationships
+                 (EVENT, Direction.INCOMING)) {
+            Object id = rel.getProperty(ID, null);
+            if (id != null)
+                events.put(id.toString(), rel);
+        }
+
+        String phase = null;
+        Relationship rel = events.get
+            (stitch.getProperty(EventCalculator.highestPhase, ""));
+        if (rel != null) {
+            phase = (String) rel.getProperty(KIND, null);
+            Object comment = rel.getStartNode().getProperty("comment", null);
+            if (comment != null
+                && EventCalculator.CLINICAL_PHASES.contains(comment))
+                phase = comment.toString();
+        }
+        facet (doc, FACET_PHASE, phase);
+        facet (doc, FACET_APPROVED, String.valueOf
+               (events.containsKey
+                (stitch.getProperty(EventCalculator.USapproved, ""))));
+
+        rel = events.get(stitch.getProperty
+                         (EventCalculator.initiallyMarketed, ""));
+        facet (doc, FACET_MARKETED,
+               rel != null ? year (rel.getStartNode()) : null);
+        rel = events.get(stitch.getProperty
+                         (EventCalculator.initiallyMarketedUS, ""));
+        facet (doc, FACET_MARKETED_US,
+               rel != null ? year (rel.getStartNode()) : null);
+
+        return doc;
+    }
+
+    static void facet (Document doc, String name, String value) {
+        if (value != null) {
+            doc.add(new StringField (name, value, Field.Store.YES));
+            doc.add(new FacetField (name, value));
+        }
+    }
+
+    void index (Changes changes) throws IOException {
+        lock.lock();
+        try {
+            for (Long id : changes.removed)
+                indexWriter.deleteDocuments
+                    (new Term (FIELD_ID, String.valueOf(id)));
+            for (Map.Entry<Long, Document> me : changes.docs.entrySet())
+                indexWriter.updateDocument
+                    (new Term (FIELD_ID, String.valueOf(me.getKey())),
+                     facetsConfig.build(facetsWriter, me.getValue()));
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * explicitly (re)index the given stitch, e.g., after the payload
+     * of one of its members has changed
+     */
+    public void update (Entity stitch) {
+        try (Transaction tx = gdb.beginTx()) {
+            Changes changes = new Changes ();
+            Node node = stitch._node();
+            if (node.hasLabel(label))
+                changes.docs.put(node.getId(), instrument (node));
+            else
+                changes.removed.add(node.getId());
+            tx.success();
+            index (changes);
+        }
+        catch (NotFoundException ex) {
+            // stitch has since been deleted
+            remove (stitch);
+        }
+        catch (IOException ex) {
+            logger.log(Level.SEVERE, "Can't index stitch "
+                       +stitch.getId(), ex);
+        }
+    }
+
+    public void add (Entity stitch) {
+        update (stitch);
+    }
+
+    public void remove (Entity stitch) {
+        Changes changes = new Changes ();
+        changes.removed.add(stitch.getId());
+        try {
+            index (changes);
+        }
+        catch (IOException ex) {
+            logger.log(Level.SEVERE, "Can't remove stitch "
+                       +stitch.getId(), ex);
+        }
+    }
+
+    /*
+     * (re)index all stitches of this version
+     */
+    public int rebuild () throws IOException {
+        long start = System.currentTimeMillis();
+        stale = true; // until done
+        // changes from here on are indexed as they're committed
+        lock.lock();
+        try {
+            indexWriter.deleteAll();
+        }
+        finally {
+            lock.unlock();
+        }
+
+        List<Long> ids = new ArrayList<>();
+        try (Transaction tx = gdb.beginTx();
+             ResourceIterator<Node> it = gdb.findNodes(label)) {
+            while (it.hasNext())
+                ids.add(it.next().getId());
+            tx.success();
+        }
+
+        for (int i = 0; i < ids.size(); i += BATCH_SIZE) {
+            Changes changes = new Changes ();
+            try (Transaction tx = gdb.beginTx()) {
+                for (Long id : ids.subList
+                         (i, Math.min(ids.size(), i+BATCH_SIZE))) {
+                    try {
+                        changes.docs.put
+                            (id, instrument (gdb.getNodeById(id)));
+                    }
+                    catch (NotFoundException ex) {
+                        // deleted since
+                    }
+                }
+                tx.success();
+            }
+            index (changes);
+        }
+        stale = false;
+        commit ();
+        refresh ();
+        logger.info("## "+ids.size()+" "+label+" stitches indexed in "
+                    +(System.currentTimeMillis()-start)+"ms");
+        return ids.size();
+    }
+
+    boolean isStitch (TransactionData data, Node node) {
+        return !data.isDeleted(node) && node.hasLabel(label);
+    }
+
+    void touch (TransactionData data, Set<Node> dirty, Node node) {
+        if (isStitch (data, node))
+            dirty.add(node);
+    }
+
+    @Override
+    public Object beforeCommit (TransactionData data) throws Exception {
+        Set<Node> dirty = new HashSet<>();
+        for (Node node : data.createdNodes())
+            touch (data, dirty, node);
+        for (LabelEntry le : data.assignedLabels())
+            touch (data, dirty, le.node());
+        for (PropertyEntry<Node> pe : data.assignedNodeProperties())
+            if (STITCH_FIELDS.contains(pe.key()))
+                touch (data, dirty, pe.entity());
+        for (PropertyEntry<Node> pe : data.removedNodeProperties())
+            if (STITCH_FIELDS.contains(pe.key()))
+                touch (data, dirty, pe.entity());
+        for (Relationship rel : data.createdRelationships())
+            if (rel.isType(EVENT) || rel.isType(AuxRelType.STITCH)) {
+                touch (data, dirty, rel.getStartNode());
+                touch (data, dirty, rel.getEndNode());
+            }
+        for (Relationship rel : data.deletedRelationships())
+            if (rel.isType(EVENT) || rel.isType(AuxRelType.STITCH)) {
+                touch (data, dirty, rel.getStartNode());
+                touch (data, dirty, rel.getEndNode());
+            }
+
+        Changes changes = new Changes ();
+        // deleted nodes (or those no longer stitches of this version)
+        // show up with their labels removed
+        for (LabelEntry le : data.removedLabels())
+            if (le.label().equals(label))
+                changes.removed.add(le.node().getId());
+        for (Node node : dirty)
+            changes.docs.put(node.getId(), instrument (node));
+
+        inflight.incrementAndGet();
+        return changes;
+    }
+
+    @Override
+    public void afterCommit (TransactionData data, Object state) {
+        if (state != null) {
+            Changes changes = (Changes)state;
+            try {
+                // made visible by the refresh thread
+                if (!changes.isEmpty())
+                    index (changes);
+            }
+            catch (IOException ex) {
+                // the watermark no longer holds
+                stale = true;
+                logger.log(Level.SEVERE, "Can't index stitches", ex);
+            }
+            finally {
+                inflight.decrementAndGet();
+            }
+        }
+    }
+
+    @Override
+    public void afterRollback (TransactionData data, Object state) {
+        if (state != null)
+            inflight.decrementAndGet();
+    }
+
+    public SearchResult search (String query, int skip, int top)
+        throws Exception {
+        return search (query, null, skip, top);
+    }
+
+    /*
+     * query is in the same syntax as TextIndexer's; filters are facet
+     * values (e.g., highestPhase => Approved Rx) that the results must
+     * have
+     */
+    public SearchResult search (String query, Map<String, String[]> filters,
+                                int skip, int top) throws Exception {
+        Query q = query == null || query.trim().length() == 0
+            ? new MatchAllDocsQuery ()
+            : new QueryParser (FIELD_TEXT, indexWriter.getAnalyzer())
+            .parse(TextIndexer.queryRewrite(query));
+        if (filters != null && !filters.isEmpty()) {
+            DrillDownQuery ddq = new DrillDownQuery (facetsConfig, q);
+            for (Map.Entry<String, String[]> me : filters.entrySet())
+                for (String v : me.getValue())
+                    ddq.add(me.getKey(), v);
+            q = ddq;
+        }
+
+        SearcherTaxonomyManager.SearcherAndTaxonomy st =
+            searcherManager.acquire();
+        try {
+            FacetsCollector fc = new FacetsCollector ();
+            TopDocs docs = FacetsCollector.search
+                (st.searcher, q, Math.max(1, skip+top), fc);
+            SearchResult result = new SearchResult (skip, top, docs.totalHits);
+            for (int i = skip; i < docs.scoreDocs.length; ++i) {
+                ScoreDoc sd = docs.scoreDocs[i];
+                Document doc = st.searcher.doc(sd.doc);
+                Hit hit = new Hit (Long.parseLong(doc.get(FIELD_ID)),
+                                   sd.score);
+                for (IndexableField f : doc.getFields()) {
+                    if (FIELD_ID.equals(f.name()))
+                        continue;
+                    Number n = f.numericValue();
+                    hit.fields.put(f.name(), n != null ? n : f.stringValue());
+                }
+                result.hits.add(hit);
+            }
+
+            Facets facets = new FastTaxonomyFacetCounts
+                (st.taxonomyReader, facetsConfig, fc);
+            for (String name : FACETS) {
+                FacetResult fr = facets.getTopChildren(20, name);
+                if (fr != null) {
+                    Map<String, Integer> counts = new LinkedHashMap<>();
+                    for (LabelAndValue lv : fr.labelValues)
+                        counts.put(lv.label, lv.value.intValue());
+                    result.facets.put(name, counts);
+                }
+            }
+            return result;
+        }
+        finally {
+            searcherManager.release(st);
+        }
+    }
+
+    public static void main (String[] argv) throws Exception {
+        if (argv.length < 2) {
+            System.err.println("Usage: "+Indexer.class.getName()
+                               +" DBDIR VERSION [QUERY]");
+            System.err.println("where the stitch index of the given "
+                               +"version is rebuilt if no QUERY is given");
+            System.exit(1);
+        }
+
+        GraphDb graphDb = GraphDb.getInstance(argv[0]);
+        try {
+            Indexer indexer = graphDb.getIndexer(Integer.parseInt(argv[1]));
+            if (argv.length > 2) {
+                long start = System.currentTimeMillis();
+                SearchResult result = indexer.search(argv[2], 0, 10);
+                logger.info("## "+result.total+" stitch(es) matched in "
+                            +(System.currentTimeMillis()-start)+"ms");
+                for (Hit hit : result.hits)
+                    System.out.println(hit.id+" "+String.format
+                                       ("%1$.3f", hit.score)+" "
+                                       +hit.fields);
+                System.out.println(result.facets);
+            }
+            else {
+                indexer.rebuild();
+            }
+        }
+        finally {
+            graphDb.shutdown();
+        }
     }
 }
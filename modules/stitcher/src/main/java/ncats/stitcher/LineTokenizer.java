@@ -3,13 +3,31 @@ package ncats.stitcher;
 import java.io.*;
 import java.util.*;
 
+/**
+ * Delimited line tokenizer. A double quote toggles quoting and is
+ * dropped, a quoted delimiter or newline is part of the token, a '\r'
+ * is always dropped and an empty token is returned as null. Input is
+ * scanned a block at a time; tokens that don't cross a block boundary
+ * or contain quotes are created straight from the block.
+ */
 public class LineTokenizer implements Iterator<String[]> {
+    static final int BUFSIZE = 1<<16;
+
     protected char delim;
     protected Reader reader;
-    protected char[] buf = new char[1];
-    protected String[] tokens;
+    protected char[] buf = new char[BUFSIZE];
+    protected int pos, limit;
+    protected char last; // last char read before the current block
     protected boolean checkQuote = true;
-    
+
+    // tokens of the look-ahead line
+    protected String[] tokens = new String[16];
+    protected int ntokens;
+    protected boolean available;
+    // token chars that had to be copied
+    protected char[] tok = new char[256];
+    protected int ntok;
+
     protected int count, lines;
     protected StringBuilder currentLine = new StringBuilder ();
 
@@ -29,56 +47,102 @@ public class LineTokenizer implements Iterator<String[]> {
         this.checkQuote = checkQuote;
     }
 
-    protected String[] nextLine () throws IOException {
-        List<String> tokens = new ArrayList<String>();
-        int i = 0, nb;
+    void append (int start, int end) {
+        int len = end - start;
+        if (len > 0) {
+            if (ntok + len > tok.length)
+                tok = Arrays.copyOf(tok, Math.max(2*tok.length, ntok+len));
+            System.arraycopy(buf, start, tok, ntok, len);
+            ntok += len;
+        }
+    }
 
-        boolean quote = false;
-        StringBuilder tok = new StringBuilder ();
+    String token (int start, int end) {
+        if (ntok == 0)
+            return end > start ? new String (buf, start, end - start) : null;
+        append (start, end);
+        String s = new String (tok, 0, ntok);
+        ntok = 0;
+        return s;
+    }
+
+    void add (String token) {
+        if (ntokens == tokens.length)
+            tokens = Arrays.copyOf(tokens, 2*tokens.length);
+        tokens[ntokens++] = token;
+    }
+
+    /*
+     * scan the next line into tokens; returns false at the end of input
+     */
+    protected boolean nextLine () throws IOException {
+        ntokens = 0;
+        ntok = 0;
         currentLine.setLength(0);
-        while ((nb = reader.read(buf)) != -1) {
-            currentLine.append(buf[0]);
-            
-            if (buf[0] == '"' && checkQuote) {
+
+        boolean quote = false;
+        int i = pos, start = pos, line = pos;
+        for (;;) {
+            if (i == limit) {
+                append (start, i);
+                currentLine.append(buf, line, i - line);
+                if (limit > 0)
+                    last = buf[limit-1];
+                limit = reader.read(buf);
+                pos = i = start = line = 0;
+                if (limit < 0) {
+                    limit = 0;
+                    if (ntokens == 0) return false;
+                    // in case no terminating newline at the end of the
+                    // last record
+                    if (last != '\n')
+                        add (token (0, 0));
+                    break;
+                }
+                continue;
+            }
+
+            char ch = buf[i];
+            if (ch == '"' && checkQuote) {
+                append (start, i);
                 quote = !quote;
+                start = ++i;
             }
-            else if (buf[0] == '\r') {
+            else if (ch == '\r') {
+                append (start, i);
+                start = ++i;
             }
-            else if (buf[0] == '\n') {
+            else if (ch == '\n') {
                 ++lines;
                 if (!quote) {
-                    tokens.add(tok.length() > 0? tok.toString() : null);
+                    add (token (start, i));
+                    currentLine.append(buf, line, ++i - line);
+                    pos = i;
                     break;
                 }
-                else
-                    tok.append('\n');
+                ++i;
             }
-            else if (buf[0] != delim || quote) {
-                tok.append(buf[0]);
+            else if (ch == delim && !quote) {
+                add (token (start, i));
+                start = ++i;
             }
             else {
-                tokens.add(tok.length() > 0 ? tok.toString() : null);
-                tok.setLength(0);
+                ++i;
             }
         }
-
-        if (nb == -1) {
-            if (tokens.isEmpty()) return null;
-            // in case no terminating newline at the end of the last record
-            if (buf[0] != '\n')
-                tokens.add(tok.length() > 0 ? tok.toString() : null);           
-        }
         ++count;
-        
-        return tokens.toArray(new String[0]);
+
+        return true;
     }
-    
+
     public void setInputStream (InputStream is) throws IOException {
-        reader = new BufferedReader (new InputStreamReader (is));
+        reader = new InputStreamReader (is);
+        pos = limit = 0;
+        last = 0;
         lines = 0;
         count = 0;
         currentLine.setLength(0);
-        tokens = nextLine ();
+        available = nextLine ();
     }
 
     public int getCount () { return count; }
@@ -86,21 +150,33 @@ public class LineTokenizer implements Iterator<String[]> {
     public String getCurrentLine () {
         return currentLine.toString();
     }
-    
+
     public boolean hasNext () {
-        return tokens != null;
+        return available;
     }
 
     public String[] next () {
-        if (tokens == null)
+        return next (null);
+    }
+
+    /*
+     * same as next() but the tokens are copied into the given array when
+     * its length matches the number of tokens, so that a caller that
+     * doesn't hold on to the tokens of a line can avoid an allocation
+     * per line
+     */
+    public String[] next (String[] line) {
+        if (!available)
             throw new IllegalStateException ("No line available");
-        String[] line = tokens;
+        if (line == null || line.length != ntokens)
+            line = new String[ntokens];
+        System.arraycopy(tokens, 0, line, 0, ntokens);
         try {
-            tokens = nextLine ();
+            available = nextLine ();
         }
         catch (IOException ex) {
             ex.printStackTrace();
-            tokens = null;
+            available = false;
         }
         return line;
     }
@@ -112,7 +188,7 @@ public class LineTokenizer implements Iterator<String[]> {
         }
 
         LineTokenizer tokenizer = new LineTokenizer ();
-        Map<String, Set<String>> uvals = new HashMap<>();       
+        Map<String, Set<String>> uvals = new HashMap<>();
         for (String a : argv) {
             int pos = a.indexOf('=');
             if (pos > 0) {
@@ -0,0 +1,132 @@
+package ncats.stitcher;
+
+import java.io.*;
+import java.util.logging.Logger;
+
+import org.apache.lucene.index.*;
+import org.apache.lucene.store.*;
+import org.apache.lucene.search.*;
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.Document;
+
+/**
+ * The original cache storage: one Lucene document per entry keyed by the
+ * SHA1 of the Java serialized key with a Java serialized value. It's
+ * kept so that existing cache directories can still be read; new caches
+ * use MappedCacheStore. Reads go through a near real-time searcher, so a
+ * read after a write no longer forces a commit; commits happen on
+ * flush() and close().
+ */
+public class LuceneCacheStore implements CacheStore {
+    static final Logger logger =
+        Logger.getLogger(LuceneCacheStore.class.getName());
+
+    static final String KEY = "__key";
+    static final String VALUE = "__value";
+
+    final File dir;
+    final IndexWriter indexWriter;
+    // searchers are reference counted, so a reader is only closed once
+    // the last search on it is done
+    final SearcherManager searcherManager;
+    volatile long writes; // number of updates so far
+    long refreshed; // number of updates the current searcher sees
+
+    public LuceneCacheStore (File dir) throws IOException {
+        this.dir = dir;
+        IndexWriterConfig config = new IndexWriterConfig
+            (new KeywordAnalyzer ());
+        indexWriter = new IndexWriter
+            (new NIOFSDirectory (dir.toPath()), config);
+        searcherManager = new SearcherManager (indexWriter, true, null);
+        logger.info("##### initializing cache: "+dir
+                    +"; "+indexWriter.numDocs()+" entries! ######");
+    }
+
+    /*
+     * does the directory look like a lucene index?
+     */
+    public static boolean isLuceneIndex (File dir) {
+        String[] files = dir.list();
+        if (files != null)
+            for (String f : files)
+                if (f.startsWith("segments"))
+                    return true;
+        return false;
+    }
+
+    static String getKey (Object key) throws IOException {
+        if (!(key instanceof Serializable))
+            throw new IllegalArgumentException
+                ("Cache key "+key+" is not serializable!");
+        return Util.sha1hex(Util.serialize(key));
+    }
+
+    public Object get (Object key) throws IOException {
+        long w = writes;
+        if (w > refreshed) {
+            // make sure the searcher sees the updates so far
+            synchronized (searcherManager) {
+                if (w > refreshed) {
+                    w = writes;
+                    searcherManager.maybeRefreshBlocking();
+                    refreshed = w;
+                }
+            }
+        }
+        
+        IndexSearcher searcher = searcherManager.acquire();
+        try {
+            TopDocs hits = searcher.search
+                (new TermQuery (new Term (KEY, getKey (key))), 1);
+            if (hits.totalHits > 0) {
+                Document doc = searcher.doc(hits.scoreDocs[0].doc);
+                byte[] data = doc.getBinaryValue(VALUE).bytes;
+                try (ObjectInputStream ois = new ObjectInputStream
+                     (new ByteArrayInputStream (data))) {
+                    return ois.readObject();
+                }
+                catch (ClassNotFoundException ex) {
+                    throw new IOException (ex);
+                }
+            }
+        }
+        finally {
+            searcherManager.release(searcher);
+        }
+        return null;
+    }
+
+    public synchronized void put (Object key, Object value)
+        throws IOException {
+        String id = getKey (key);
+        Document doc = new Document ();
+        doc.add(new StringField (KEY, id, Field.Store.NO));
+        doc.add(new Field (VALUE, Util.serialize(value)));
+        indexWriter.updateDocument(new Term (KEY, id), doc);
+        ++writes;
+    }
+
+    public synchronized void remove (Object key) throws IOException {
+        indexWriter.deleteDocuments(new Term (KEY, getKey (key)));
+        ++writes;
+    }
+
+    public int size () {
+        return indexWriter.numDocs();
+    }
+
+    public synchronized void flush () throws IOException {
+        if (indexWriter.hasUncommittedChanges())
+            indexWriter.commit();
+    }
+
+    public synchronized void close () throws IOException {
+        logger.info("#### closing cache "+dir+"; "
+                    +indexWriter.numDocs()+" entries #####");
+        searcherManager.close();
+        indexWriter.close();
+    }
+}
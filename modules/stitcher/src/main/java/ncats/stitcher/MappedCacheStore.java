@@ -0,0 +1,610 @@
+package ncats.stitcher;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * Cache storage made up of an append-only data file of records
+ *
+ *   KEYLEN(int) VALLEN(int) KEY VALUE
+ *
+ * (a VALLEN of -1 marks a removal) and a memory-mapped open addressing
+ * hash index of (key hash, record offset) slots. Keys and values are
+ * encoded with CacheCodec. Appends are buffered and written out in
+ * batches, and the slots of a batch are only published to the index
+ * once its records are in the data file. The index header records how
+ * much of the data file it covers; when the store is opened again,
+ * slots beyond that are dropped, the records appended after it are
+ * re-indexed, and a partially written last record is truncated. Only
+ * the index lives in (off-heap) memory.
+ *
+ * The hashes of the keys read or written are collected in memory and
+ * appended to a reference log on flush() so that compact() can drop the
+ * entries that haven't been used since the last compaction (e.g., by the
+ * latest build) along with the superseded and removed records. The log
+ * is kept to about one entry per key by deduplicating it as it grows.
+ */
+public class MappedCacheStore implements CacheStore {
+    static final Logger logger =
+        Logger.getLogger(MappedCacheStore.class.getName());
+
+    static final String DATA = "cache.dat";
+    static final String INDEX = "cache.idx";
+    static final String REFS = "cache.ref";
+
+    static final long MAGIC = 0x5354434143484531l; // STCACHE1
+    static final int HEADER = 64;
+    static final int SLOT = 16;
+    static final int MIN_CAPACITY = 1<<16;
+    static final long DELETED = -1l;
+    static final int DEFAULT_BATCH = 1<<20; // bytes
+
+    final File dir;
+    RandomAccessFile data;
+    FileChannel channel;
+    long length; // bytes of the data file on disk
+    final Buffer pending = new Buffer ();
+    // offsets (or DELETED) of the keys in pending, which aren't in the
+    // index yet
+    final Map<ByteBuffer, Long> pendingSlots = new HashMap<>();
+    int pendingCount; // change in live entries due to pendingSlots
+    int batchSize = DEFAULT_BATCH;
+
+    RandomAccessFile indexFile;
+    MappedByteBuffer index;
+    int capacity;
+    int count; // live entries
+    int used; // live + deleted slots
+
+    static final int TOUCHED = 1<<14;
+    long[] touched = new long[TOUCHED]; // key hashes not yet logged
+    int ntouched;
+
+    static class Buffer extends ByteArrayOutputStream {
+        byte[] array () { return buf; }
+    }
+
+    public MappedCacheStore (File dir) throws IOException {
+        dir.mkdirs();
+        if (!dir.isDirectory())
+            throw new IllegalArgumentException (dir+" is not a directory!");
+
+        this.dir = dir;
+        data = new RandomAccessFile (new File (dir, DATA), "rw");
+        channel = data.getChannel();
+        length = channel.size();
+
+        long covered = openIndex ();
+        if (covered < 0) {
+            createIndex (MIN_CAPACITY);
+            covered = 0;
+        }
+        if (covered < length)
+            scan (covered);
+        logger.info("##### initializing cache: "+dir+"; "+count
+                    +" entries! ######");
+    }
+
+    public static boolean isMappedStore (File dir) {
+        return new File (dir, DATA).exists();
+    }
+
+    public void setBatchSize (int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /*
+     * returns the data length covered by the existing index or -1 if
+     * it has to be rebuilt
+     */
+    long openIndex () throws IOException {
+        File file = new File (dir, INDEX);
+        if (!file.exists() || file.length() < HEADER)
+            return -1;
+
+        indexFile = new RandomAccessFile (file, "rw");
+        index = indexFile.getChannel().map
+            (FileChannel.MapMode.READ_WRITE, 0, indexFile.length());
+        if (index.getLong(0) != MAGIC
+            || HEADER + (long)index.getInt(8)*SLOT != indexFile.length()
+            || index.getLong(20) > length) {
+            logger.warning(file+": invalid index; rebuilding...");
+            indexFile.close();
+            return -1;
+        }
+        capacity = index.getInt(8);
+        count = index.getInt(12);
+        used = index.getInt(16);
+        
+        // the index might have been written out ahead of the header;
+        // anything beyond what the header covers is re-indexed by scan()
+        long covered = index.getLong(20);
+        int dropped = 0;
+        for (int i = 0; i < capacity; ++i) {
+            long pos = slotPos (i);
+            if (pos > 0 && pos - 1 >= covered) {
+                setSlot (i, 0l, DELETED);
+                --count;
+                ++dropped;
+            }
+        }
+        if (dropped > 0)
+            logger.warning(file+": dropped "+dropped+" slot(s) beyond "
+                           +covered+" bytes of data");
+        return covered;
+    }
+
+    void createIndex (int capacity) throws IOException {
+        File file = new File (dir, INDEX);
+        if (indexFile != null)
+            indexFile.close();
+        file.delete();
+
+        indexFile = new RandomAccessFile (file, "rw");
+        indexFile.setLength(HEADER + (long)capacity*SLOT);
+        index = indexFile.getChannel().map
+            (FileChannel.MapMode.READ_WRITE, 0, indexFile.length());
+        index.putLong(0, MAGIC);
+        this.capacity = capacity;
+        count = 0;
+        used = 0;
+        writeHeader (0);
+    }
+
+    void writeHeader (long covered) {
+        index.putInt(8, capacity);
+        index.putInt(12, count);
+        index.putInt(16, used);
+        index.putLong(20, covered);
+    }
+
+    /*
+     * index the records from the given offset to the end of the data file
+     */
+    void scan (long pos) throws IOException {
+        ByteBuffer hdr = ByteBuffer.allocate(8);
+        int n = 0;
+        while (pos < length) {
+            hdr.clear();
+            if (pos + 8 > length || channel.read(hdr, pos) < 8)
+                break;
+            int klen = hdr.getInt(0), vlen = hdr.getInt(4);
+            long end = pos + 8 + klen + Math.max(vlen, 0);
+            if (klen < 0 || end > length)
+                break;
+
+            byte[] key = new byte[klen];
+            channel.read(ByteBuffer.wrap(key), pos+8);
+            if (vlen < 0) delete (key);
+            else insert (key, pos);
+            pos = end;
+            ++n;
+        }
+
+        if (pos < length) {
+            logger.warning(dir+": truncating partial record at "+pos);
+            channel.truncate(pos);
+            length = pos;
+        }
+        writeHeader (length);
+        logger.info("## "+dir+": indexed "+n+" record(s)");
+    }
+
+    static long hash (byte[] key) {
+        long h = 0xcbf29ce484222325l;
+        for (byte b : key) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3l;
+        }
+        h ^= h >>> 33; // spread the bits used for the slot
+        h *= 0xff51afd7ed558ccdl;
+        return h ^ (h >>> 33);
+    }
+
+    int slot (long h) {
+        return (int)(h & (capacity - 1));
+    }
+
+    long slotHash (int i) { return index.getLong(HEADER + i*SLOT); }
+    long slotPos (int i) { return index.getLong(HEADER + i*SLOT + 8); }
+    void setSlot (int i, long h, long pos) {
+        index.putLong(HEADER + i*SLOT, h);
+        index.putLong(HEADER + i*SLOT + 8, pos);
+    }
+
+    /*
+     * slot holding the key or -1
+     */
+    int find (byte[] key, long h) throws IOException {
+        for (int i = slot (h), n = 0; n < capacity;
+             i = (i+1) & (capacity - 1), ++n) {
+            long pos = slotPos (i);
+            if (pos == 0)
+                break;
+            if (pos != DELETED && slotHash (i) == h
+                && Arrays.equals(key, readKey (pos-1)))
+                return i;
+        }
+        return -1;
+    }
+
+    void insert (byte[] key, long offset) throws IOException {
+        if ((used+1) * 2l > capacity)
+            resize (capacity * 2);
+
+        long h = hash (key);
+        int free = -1;
+        for (int i = slot (h); ; i = (i+1) & (capacity - 1)) {
+            long pos = slotPos (i);
+            if (pos == 0) {
+                if (free < 0) {
+                    free = i;
+                    ++used;
+                }
+                break;
+            }
+            else if (pos == DELETED) {
+                if (free < 0)
+                    free = i;
+            }
+            else if (slotHash (i) == h
+                     && Arrays.equals(key, readKey (pos-1))) {
+                setSlot (i, h, offset+1); // replace
+                return;
+            }
+        }
+        setSlot (free, h, offset+1);
+        ++count;
+    }
+
+    boolean delete (byte[] key) throws IOException {
+        int i = find (key, hash (key));
+        if (i >= 0) {
+            setSlot (i, 0l, DELETED);
+            --count;
+            return true;
+        }
+        return false;
+    }
+
+    void resize (int size) throws IOException {
+        // collect the live slots, then rebuild
+        long[] live = new long[count*2];
+        int n = 0;
+        for (int i = 0; i < capacity; ++i) {
+            long pos = slotPos (i);
+            if (pos > 0) {
+                live[n++] = slotHash (i);
+                live[n++] = pos;
+            }
+        }
+
+        long covered = index.getLong(20);
+        createIndex (Math.max(size, MIN_CAPACITY));
+        for (int k = 0; k < n; k += 2) {
+            int i = slot (live[k]);
+            while (slotPos (i) != 0)
+                i = (i+1) & (capacity - 1);
+            setSlot (i, live[k], live[k+1]);
+        }
+        count = used = n/2;
+        writeHeader (covered);
+    }
+
+    /*
+     * offset of the key's record or -1 if the key isn't in the store
+     */
+    long offset (byte[] key, long h) throws IOException {
+        Long pos = pendingSlots.get(ByteBuffer.wrap(key));
+        if (pos != null)
+            return pos != DELETED ? pos : -1l;
+        int i = find (key, h);
+        return i >= 0 ? slotPos (i) - 1 : -1l;
+    }
+
+    /*
+     * read len bytes at the given offset of the data, which might not have
+     * been written out yet
+     */
+    byte[] read (long offset, int len) throws IOException {
+        byte[] buf = new byte[len];
+        if (offset >= length) {
+            System.arraycopy(pending.array(), (int)(offset - length),
+                             buf, 0, len);
+        }
+        else {
+            ByteBuffer bb = ByteBuffer.wrap(buf);
+            while (bb.hasRemaining()) {
+                if (channel.read(bb, offset+bb.position()) < 0)
+                    throw new EOFException ();
+            }
+        }
+        return buf;
+    }
+
+    byte[] readKey (long offset) throws IOException {
+        ByteBuffer hdr = ByteBuffer.wrap(read (offset, 8));
+        return read (offset+8, hdr.getInt(0));
+    }
+
+    byte[] readValue (long offset) throws IOException {
+        ByteBuffer hdr = ByteBuffer.wrap(read (offset, 8));
+        return read (offset+8+hdr.getInt(0), hdr.getInt(4));
+    }
+
+    long append (byte[] key, byte[] value) throws IOException {
+        long offset = length + pending.size();
+        DataOutputStream out = new DataOutputStream (pending);
+        out.writeInt(key.length);
+        out.writeInt(value != null ? value.length : -1);
+        out.write(key);
+        if (value != null)
+            out.write(value);
+        return offset;
+    }
+
+    /*
+     * no file i/o here since this is on every read; the references are
+     * deduplicated in memory and only written out by flush()
+     */
+    void touch (long h) {
+        if (ntouched == touched.length) {
+            dedupTouched ();
+            if (ntouched > touched.length / 2)
+                touched = Arrays.copyOf(touched, touched.length*2);
+        }
+        touched[ntouched++] = h;
+    }
+
+    void dedupTouched () {
+        Arrays.sort(touched, 0, ntouched);
+        int k = 0;
+        for (int i = 0; i < ntouched; ++i)
+            if (k == 0 || touched[k-1] != touched[i])
+                touched[k++] = touched[i];
+        ntouched = k;
+    }
+
+    void writeReferences () throws IOException {
+        if (ntouched > 0) {
+            File file = new File (dir, REFS);
+            dedupTouched ();
+            try (DataOutputStream out = new DataOutputStream
+                 (new BufferedOutputStream (new FileOutputStream
+                                            (file, true)))) {
+                for (int i = 0; i < ntouched; ++i)
+                    out.writeLong(touched[i]);
+            }
+            ntouched = 0;
+            if (touched.length > TOUCHED)
+                touched = new long[TOUCHED];
+
+            // once the log is twice as long as there are keys, rewrite it
+            // without the duplicates
+            if (file.length() > 16l*Math.max(count, MIN_CAPACITY)) {
+                long[] refs = references ();
+                File tmp = new File (dir, REFS+".tmp");
+                try (DataOutputStream out = new DataOutputStream
+                     (new BufferedOutputStream
+                      (new FileOutputStream (tmp)))) {
+                    for (long h : refs)
+                        out.writeLong(h);
+                }
+                if (!tmp.renameTo(file)) {
+                    file.delete();
+                    if (!tmp.renameTo(file))
+                        throw new IOException
+                            ("Can't rename "+tmp+" to "+file);
+                }
+            }
+        }
+    }
+
+    public synchronized byte[] getBytes (byte[] key) throws IOException {
+        long h = hash (key);
+        long pos = offset (key, h);
+        if (pos < 0)
+            return null;
+        touch (h);
+        return readValue (pos);
+    }
+
+    public synchronized void putBytes (byte[] key, byte[] value)
+        throws IOException {
+        long h = hash (key);
+        if (offset (key, h) < 0)
+            ++pendingCount;
+        pendingSlots.put(ByteBuffer.wrap(key), append (key, value));
+        touch (h);
+        if (pending.size() >= batchSize)
+            flush ();
+    }
+
+    /*
+     * look up the given keys in the order of their records in the data
+     * file instead of one random read per key
+     */
+    @Override
+    public synchronized Map<Object, Object> getAll (Collection<?> keys)
+        throws IOException {
+        List<long[]> found = new ArrayList<>(); // (offset, key index)
+        Object[] ks = keys.toArray();
+        for (int k = 0; k < ks.length; ++k) {
+            byte[] key = CacheCodec.encode(ks[k]);
+            long h = hash (key);
+            long pos = offset (key, h);
+            if (pos >= 0) {
+                found.add(new long[]{pos, k});
+                touch (h);
+            }
+        }
+        Collections.sort(found, (a, b) -> Long.compare(a[0], b[0]));
+
+        Map<Object, Object> values = new HashMap<>();
+        for (long[] f : found)
+            values.put(ks[(int)f[1]], CacheCodec.decode(readValue (f[0])));
+        return values;
+    }
+
+    public synchronized boolean removeBytes (byte[] key) throws IOException {
+        if (offset (key, hash (key)) < 0)
+            return false;
+        
+        --pendingCount;
+        append (key, null);
+        pendingSlots.put(ByteBuffer.wrap(key), DELETED);
+        if (pending.size() >= batchSize)
+            flush ();
+        return true;
+    }
+
+    public Object get (Object key) throws IOException {
+        byte[] value = getBytes (CacheCodec.encode(key));
+        return value != null ? CacheCodec.decode(value) : null;
+    }
+
+    public void put (Object key, Object value) throws IOException {
+        putBytes (CacheCodec.encode(key), CacheCodec.encode(value));
+    }
+
+    public void remove (Object key) throws IOException {
+        removeBytes (CacheCodec.encode(key));
+    }
+
+    public synchronized int size () { return count + pendingCount; }
+
+    public synchronized void flush () throws IOException {
+        if (pending.size() > 0) {
+            ByteBuffer bb = ByteBuffer.wrap(pending.array(), 0,
+                                            pending.size());
+            while (bb.hasRemaining())
+                channel.write(bb, length+bb.position());
+            length += pending.size();
+            pending.reset();
+        }
+
+        // the records are written, so now their slots can be published
+        for (Map.Entry<ByteBuffer, Long> me : pendingSlots.entrySet()) {
+            byte[] key = me.getKey().array();
+            if (me.getValue() == DELETED)
+                delete (key);
+            else
+                insert (key, me.getValue());
+        }
+        pendingSlots.clear();
+        pendingCount = 0;
+        
+        writeHeader (length);
+        writeReferences ();
+    }
+
+    /*
+     * sorted unique key hashes referenced since the last compaction or
+     * null if there is no reference log
+     */
+    long[] references () throws IOException {
+        File file = new File (dir, REFS);
+        if (!file.exists())
+            return null;
+
+        long[] refs = new long[(int)(file.length() / 8)];
+        try (DataInputStream in = new DataInputStream
+             (new BufferedInputStream (new FileInputStream (file)))) {
+            for (int i = 0; i < refs.length; ++i)
+                refs[i] = in.readLong();
+        }
+        Arrays.sort(refs);
+        int k = 0;
+        for (int i = 0; i < refs.length; ++i)
+            if (k == 0 || refs[k-1] != refs[i])
+                refs[k++] = refs[i];
+        return Arrays.copyOf(refs, k);
+    }
+
+    /*
+     * rewrite the data file with only the live entries and, if
+     * referencedOnly, only those referenced since the last compaction;
+     * returns the number of entries dropped
+     */
+    public synchronized int compact (boolean referencedOnly)
+        throws IOException {
+        flush ();
+        long[] refs = referencedOnly ? references () : null;
+        if (referencedOnly && refs == null) {
+            logger.warning(dir+": no references recorded; keeping all "
+                           +"live entries");
+        }
+
+        File tmp = new File (dir, DATA+".tmp");
+        long[] live = new long[2*count];
+        int n = 0, dropped = 0;
+        long offset = 0;
+        try (OutputStream out = new BufferedOutputStream
+             (new FileOutputStream (tmp))) {
+            for (int i = 0; i < capacity; ++i) {
+                long pos = slotPos (i);
+                if (pos <= 0)
+                    continue;
+
+                long h = slotHash (i);
+                if (refs != null && Arrays.binarySearch(refs, h) < 0) {
+                    ++dropped;
+                    continue;
+                }
+
+                ByteBuffer hdr = ByteBuffer.wrap(read (pos-1, 8));
+                byte[] rec = read (pos-1, 8 + hdr.getInt(0)
+                                   + Math.max(0, hdr.getInt(4)));
+                out.write(rec);
+                live[n++] = h;
+                live[n++] = offset+1;
+                offset += rec.length;
+            }
+        }
+
+        long before = length;
+        data.close();
+        File file = new File (dir, DATA);
+        if (!tmp.renameTo(file)) {
+            file.delete();
+            if (!tmp.renameTo(file))
+                throw new IOException ("Can't rename "+tmp+" to "+file);
+        }
+        data = new RandomAccessFile (file, "rw");
+        channel = data.getChannel();
+        length = channel.size();
+
+        int size = MIN_CAPACITY;
+        while (size < n) // n/2 entries at a load of at most 1/2
+            size *= 2;
+        createIndex (size);
+        for (int k = 0; k < n; k += 2) {
+            int i = slot (live[k]);
+            while (slotPos (i) != 0)
+                i = (i+1) & (capacity - 1);
+            setSlot (i, live[k], live[k+1]);
+        }
+        count = used = n/2;
+        writeHeader (length);
+        new File (dir, REFS).delete();
+        ntouched = 0;
+        touched = new long[TOUCHED];
+
+        logger.info("## "+dir+": compacted "+before+" to "+length
+                    +" bytes; "+count+" entries kept, "+dropped+" dropped");
+        return dropped;
+    }
+
+    public synchronized void close () throws IOException {
+        flush ();
+        channel.force(true);
+        index.force();
+        logger.info("#### closing cache "+dir+"; "+count+" entries #####");
+        indexFile.close();
+        data.close();
+    }
+}
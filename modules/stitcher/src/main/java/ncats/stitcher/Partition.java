@@ -7,12 +7,18 @@ import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.lang.reflect.Array;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 
 import org.neo4j.graphdb.Label;
 import org.neo4j.graphdb.Transaction;
@@ -29,7 +35,7 @@ public class Partition {
         final String value;
         final int count;
         final int total;
-        final Set<Long> nodes = new TreeSet<>();
+        int nodes; // number of nodes with this value
 
         SV (StitchKey key, String value, int count, int total) {
             this.key = key;
@@ -53,184 +59,283 @@ public class Partition {
         }
 
         public String toString () {
-            return key+": \""+value+"\" "+count+"/"+total+" "+nodes;
+            return key+": \""+value+"\" "+count+"/"+total+" ("+nodes+" nodes)";
         }
     }
 
-    static class NV {
-        final long id;
-        final Set<String> labels = new TreeSet<>();
-        final Map<StitchKey, String[]> values = new TreeMap<>();
-
-        NV (long id) {
-            this.id = id;
+    /*
+     * sparse document-word counts in compressed row form: the words of
+     * document i are cols[rows[i]..rows[i+1]) with counts vals[...]
+     */
+    static class CSR {
+        final int N, M;
+        final int[] rows;
+        final int[] cols;
+        final double[] vals;
+
+        CSR (int N, int M, int[] rows, int[] cols, double[] vals) {
+            this.N = N;
+            this.M = M;
+            this.rows = rows;
+            this.cols = cols;
+            this.vals = vals;
         }
-        public String toString () {
-            return "["+id+": labels="+labels+" values="+values+"]";
+
+        /*
+         * same counts with documents and words swapped
+         */
+        CSR transpose () {
+            int[] trows = new int[M+1];
+            for (int p = 0; p < nnz (); ++p)
+                ++trows[cols[p]+1];
+            for (int j = 0; j < M; ++j)
+                trows[j+1] += trows[j];
+            
+            int[] next = Arrays.copyOf(trows, M);
+            int[] tcols = new int[nnz ()];
+            double[] tvals = new double[nnz ()];
+            for (int i = 0; i < N; ++i)
+                for (int p = rows[i]; p < rows[i+1]; ++p) {
+                    int q = next[cols[p]]++;
+                    tcols[q] = i;
+                    tvals[q] = vals[p];
+                }
+            
+            return new CSR (M, N, trows, tcols, tvals);
         }
-    }
 
-    interface EMStep {
-        void step (int k, int i, int j);
+        int nnz () { return rows[N]; }
     }
     
-    static abstract class PLSA {
-        final double[][] Pz;
-        final double[][] Pw;
-        final double[][][] P;
+    /*
+     * PLSA over a sparse document-word matrix. The posteriors
+     * P(z_k|d_i,w_j) are never stored; they're computed on the fly for
+     * each non-zero count, so an iteration is O(nnz*K) time and the
+     * model O(nnz+(N+M)*K) space. Documents are split into one chunk
+     * per thread (of roughly equal non-zeros), each with its own P(w|z)
+     * accumulator; P(z|d) rows are owned by their chunk. Iterations stop
+     * once the relative change in log-likelihood is within epsilon or
+     * after maxiter iterations.
+     */
+    static class PLSA {
+        final CSR csr;
+        final double[] Pw; // P(w_j | z_k) at j*K+k
+        final double[] Pz; // P(z_k | d_i) at i*K+k
 
-        final int N, M, K, maxiter;
         /*
          * N - number of documents
          * M - number of words (i.e., dictionary size)
          * K - latent dimension
          */
-        protected PLSA (int K, int N, int M) {
-            Pw = new double[K][M]; // P(w_j | z_k)
-            Pz = new double[N][K]; // P(z_k | d_i)
-            P = new double[N][M][K]; // P(z_k | d_i, w_j)
+        final int N, M, K;
+        int maxiter = 100;
+        double epsilon = 1e-5;
+        int threads = 1;
+        long seed = 1l;
+        double loglik = Double.NEGATIVE_INFINITY;
+        
+        protected PLSA (int K, CSR csr) {
+            this.csr = csr;
             this.K = K;
-            this.N = N;
-            this.M = M;
-            this.maxiter = 10*K;
+            this.N = csr.N;
+            this.M = csr.M;
+            Pw = new double[M*K];
+            Pz = new double[N*K];
         }
 
+        public double Pw (int k, int j) { return Pw[j*K+k]; }
+        public double Pz (int i, int k) { return Pz[i*K+k]; }
+        public double getLogLikelihood () { return loglik; }
+
         protected void init () {
-            for (int k = 0; k < K; ++k) {
-                for (int i = 0; i < N; ++i) {
-                    for (int j = 0; j < M; ++j)
-                        P[i][j][k] = Math.random();
-                    Pz[i][k] = Math.random();
-                }
-                
-                for (int j = 0; j < M; ++j)
-                    Pw[k][j] = Math.random();
+            Random rand = new Random (seed);
+            for (int i = 0; i < N; ++i) {
+                double sum = 0.;
+                for (int k = 0; k < K; ++k)
+                    sum += Pz[i*K+k] = rand.nextDouble();
+                for (int k = 0; k < K; ++k)
+                    Pz[i*K+k] /= sum;
             }
+
+            for (int x = 0; x < Pw.length; ++x)
+                Pw[x] = rand.nextDouble();
+            normalize (Pw);
         }
 
-        protected void step (EMStep em) {
-            for (int k = 0; k < K; ++k) 
-                for (int i = 0; i < N; ++i)
-                    for (int j = 0; j < M; ++j) {
-                        if (hasw (i, j))
-                            em.step(k, i, j);
-                    }
+        // make each P(w|z_k) sum to 1
+        void normalize (double[] w) {
+            double[] sum = new double[K];
+            for (int x = 0; x < w.length; ++x)
+                sum[x % K] += w[x];
+            for (int x = 0; x < w.length; ++x)
+                if (sum[x % K] > 0.)
+                    w[x] /= sum[x % K];
         }
-        
+
         /*
-         * P(z_k|d_i,w_j) = P(w_i|z_k)P(z_k|d_i) 
-         *                  / sum_{l..K} P(w_j|z_l)P(z_l|d_i)
+         * E-step for documents [from, to) accumulating the expected word
+         * counts n(d,w)P(z|d,w) into acc and updating P(z|d) in place
+         * (each row only depends on itself); returns the log-likelihood
+         * of these documents under the current parameters
          */
-        protected void Estep (int k, int i, int j) {
-            double Q = 0.;
-            for (int l = 0; l < K; ++l)
-                Q += Pw[l][j] * Pz[i][l];
-            P[i][j][k] = Pw[k][j] * Pz[i][k] / Q;
+        double step (int from, int to, double[] acc) {
+            final int[] rows = csr.rows, cols = csr.cols;
+            final double[] vals = csr.vals;
+            final double[] q = new double[K], nz = new double[K];
+            
+            double ll = 0.;
+            for (int i = from; i < to; ++i) {
+                int di = i*K;
+                double d = 0.;
+                Arrays.fill(nz, 0.);
+                for (int p = rows[i]; p < rows[i+1]; ++p) {
+                    int wj = cols[p]*K;
+                    double Q = 0.;
+                    for (int k = 0; k < K; ++k)
+                        Q += q[k] = Pw[wj+k] * Pz[di+k];
+                    if (Q > 0.) {
+                        double n = vals[p], s = n / Q;
+                        ll += n * Math.log(Q);
+                        for (int k = 0; k < K; ++k) {
+                            double r = s * q[k];
+                            acc[wj+k] += r;
+                            nz[k] += r;
+                        }
+                        d += n;
+                    }
+                }
+                
+                if (d > 0.) {
+                    for (int k = 0; k < K; ++k)
+                        Pz[di+k] = nz[k] / d;
+                }
+            }
+            return ll;
         }
 
-        protected void Mstep (int k, int i, int j) {
-            double num = 0.;
-            for (int l = 0; l < N; ++l)
-                num += getw (l, j) * P[l][j][k];
-            double den = 0.;
-            for (int m = 0; m < M; ++m)
-                for (int l = 0; l < N; ++l)
-                    den += getw (l, m) * P[l][m][k];
-            Pw[k][j] = num / den;
-
-            num = 0.;
-            for (int m = 0; m < M; ++m)
-                num += getw (i, m) * P[i][m][k];
-            Pz[i][k] = num / getd (i);
+        /*
+         * document boundaries of nc chunks with about the same number
+         * of non-zeros
+         */
+        int[] chunks (int nc) {
+            int[] bounds = new int[nc+1];
+            long nnz = csr.nnz();
+            for (int c = 1, i = 0; c < nc; ++c) {
+                long target = c * nnz / nc;
+                while (i < N && csr.rows[i] < target)
+                    ++i;
+                bounds[c] = i;
+            }
+            bounds[nc] = N;
+            return bounds;
         }
 
         public int EM () {
             init ();
+            
+            final int nc = Math.max(1, Math.min(threads, N));
+            final int[] bounds = chunks (nc);
+            final double[][] acc = new double[nc][Pw.length];
+            ExecutorService pool = nc > 1
+                ? Executors.newFixedThreadPool(nc) : null;
+            
+            logger.info("## PLSA: N="+N+" M="+M+" K="+K+" nnz="+csr.nnz()
+                        +" threads="+nc);
             int niter = 0;
-            for ( ; !converged (niter); ++niter) {
-                step (this::Estep);
-                step (this::Mstep);
+            try {
+                double prev = Double.NEGATIVE_INFINITY;
+                while (niter < maxiter) {
+                    long start = System.currentTimeMillis();
+                    double ll = 0.;
+                    if (pool == null) {
+                        ll = step (0, N, acc[0]);
+                    }
+                    else {
+                        List<Future<Double>> futures = new ArrayList<>();
+                        for (int c = 0; c < nc; ++c) {
+                            final int chunk = c;
+                            futures.add(pool.submit
+                                        (() -> step (bounds[chunk],
+                                                     bounds[chunk+1],
+                                                     acc[chunk])));
+                        }
+                        for (Future<Double> f : futures)
+                            ll += f.get();
+                    }
+                    
+                    // M-step for P(w|z)
+                    System.arraycopy(acc[0], 0, Pw, 0, Pw.length);
+                    Arrays.fill(acc[0], 0.);
+                    for (int c = 1; c < nc; ++c) {
+                        for (int x = 0; x < Pw.length; ++x)
+                            Pw[x] += acc[c][x];
+                        Arrays.fill(acc[c], 0.);
+                    }
+                    normalize (Pw);
+                    
+                    loglik = ll;
+                    ++niter;
+                    logger.info(String.format
+                                ("## PLSA iteration %1$d: log-likelihood="
+                                 +"%2$.6g (%3$dms)", niter, loglik,
+                                 System.currentTimeMillis()-start));
+                    if (converged (prev, loglik))
+                        break;
+                    prev = loglik;
+                }
+            }
+            catch (InterruptedException ex) {
+                throw new RuntimeException (ex);
+            }
+            catch (ExecutionException ex) {
+                throw new RuntimeException (ex.getCause());
+            }
+            finally {
+                if (pool != null)
+                    pool.shutdownNow();
             }
+            
             return niter;
         }
 
-        protected boolean converged (int niter) {
-            return niter > maxiter;
+        protected boolean converged (double prev, double ll) {
+            return prev > Double.NEGATIVE_INFINITY
+                && Math.abs(ll - prev) <= epsilon * Math.abs(prev);
         }
-
-        // return true if word j is in document i; false otherwise
-        abstract boolean hasw (int i, int j);
-        // return the count of word j in document i
-        abstract double getw (int i, int j);
-        // return the length (number of words) for document i
-        abstract double getd (int i);
     }
 
     class StitchPLSA extends PLSA {
-        final NV[] nodes;
+        final long[] nodes;
         final SV[] values;
         final boolean reversed;
 
-        StitchPLSA (int K, NV[] nodes, SV[] values) {
-            super (K, nodes.length, values.length);
-            this.nodes = nodes;
-            this.values = values;
-            reversed = false;
-        }
-
-        StitchPLSA (int K, SV[] values, NV[] nodes) {
-            super (K, values.length, nodes.length);
-            this.nodes = nodes;
-            this.values = values;
-            reversed = true;
-        }
-
-        protected boolean hasw (int i, int j) {
-            NV nv;
-            SV sv;
-            if (reversed) {
-                nv = nodes[j];
-                sv = values[i];
-            }
-            else {
-                nv = nodes[i];
-                sv = values[j];
-            }
-            return sv.nodes.contains(nv.id);
-        }
-
-        protected double getw (int i, int j) {
-            return hasw (i, j) ? 1.0 : 0.0;
-        }
-
-        protected double getd (int i) {
-            double d = 0.;
-            if (reversed) {
-                d = values[i].nodes.size();
-            }
-            else {
-                NV nv = nodes[i];
-                for (Map.Entry<StitchKey, String[]> me : nv.values.entrySet()) {
-                    switch (me.getKey()) {
-                    case N_Name: case I_CODE:
-                        d += me.getValue().length;
-                        break;
-                    }
-                }
-            }
-            return d;
+        /*
+         * nodes as documents and values as words or, if reversed, the
+         * other way around
+         */
+        StitchPLSA (int K, boolean reversed) {
+            super (K, reversed ? matrix.transpose() : matrix);
+            this.nodes = Partition.this.nodes;
+            this.values = Partition.this.values;
+            this.reversed = reversed;
+            configure (this);
         }
 
         public void aspects (OutputStream os) {
-            EM ();
+            long start = System.currentTimeMillis();
+            int niter = EM ();
+            logger.info("## PLSA finished after "+niter+" iteration(s) in "
+                        +(System.currentTimeMillis()-start)
+                        +"ms; log-likelihood="+getLogLikelihood ()
+                        +"; "+memory ());
             
             PrintStream ps = new PrintStream (os);
             Map<Integer, Set> partitions = new TreeMap<>();
             for (int j = 0; j < M; ++j) {
                 Object val;
                 if (reversed) {
-                    ps.print(String.format("%1$40d", nodes[j].id));
-                    val = nodes[j].id;
+                    ps.print(String.format("%1$40d", nodes[j]));
+                    val = nodes[j];
                 }
                 else {
                     ps.print(String.format("%1$40s", values[j].value));
@@ -240,11 +345,12 @@ public class Partition {
                 BitSet set = new BitSet (K);
                 double max = 0.; 
                 for (int k = 0; k < K; ++k) {
-                    ps.print("\t"+String.format("%1$.3f", Pw[k][j]));
-                    if (Pw[k][j] < max) {
+                    double p = Pw (k, j);
+                    ps.print("\t"+String.format("%1$.3f", p));
+                    if (p < max) {
                     }
-                    else if (Pw[k][j] > max) {
-                        max = Pw[k][j];
+                    else if (p > max) {
+                        max = p;
                         set.clear();
                         set.set(k);
                     }
@@ -275,118 +381,278 @@ public class Partition {
         }
     }
 
-    Map<String, SV> values = new TreeMap<>();
-    Map<Long, NV> nodes = new TreeMap<>();
-
-    public Partition (File file) throws IOException {
-        ObjectMapper mapper = new ObjectMapper ();
-        try (InputStream is = new FileInputStream (file)) {
-            JsonNode json = mapper.readTree(is);
+    /*
+     * builds the node-value matrix while streaming through an ncatskg
+     * json export; values of any stitch key are interned into an int
+     * dictionary as they're read and the nodes' (sorted, unique) value
+     * ids are appended to a row each
+     */
+    static class Loader {
+        static final Map<String, StitchKey> KEYS = new HashMap<>();
+        static {
+            for (StitchKey key : StitchKey.values())
+                KEYS.put(key.name(), key);
+        }
+        
+        final Map<String, Integer> terms = new HashMap<>();
+        final List<String> dict = new ArrayList<>();
+        final Map<Integer, SV> stitches = new HashMap<>();
+        String id;
+        
+        long[] ids = new long[1024];
+        int[] rows = new int[1025];
+        int[] cols = new int[1<<16];
+        int nnodes, nnz;
+
+        int term (String value) {
+            Integer t = terms.get(value);
+            if (t == null) {
+                terms.put(value, t = dict.size());
+                dict.add(value);
+            }
+            return t;
+        }
 
-            // stitches
-            JsonNode stitches = json.get("stitches");
-            if (stitches == null)
+        void load (JsonParser parser) throws IOException {
+            if (parser.nextToken() != JsonToken.START_OBJECT)
                 throw new IllegalArgumentException
                     ("Not a valid ncatskg json format!");
-            for (Iterator<String> it = stitches.fieldNames(); it.hasNext(); ) {
-                String f = it.next();
-                try {
-                    StitchKey key = StitchKey.valueOf(f);
-                    switch (key) {
-                    case N_Name: case I_CODE:
-                        { JsonNode nodes = stitches.get(f);
-                            for (int i = 0; i < nodes.size(); ++i) {
-                                JsonNode n = nodes.get(i);
-                                SV sv = new SV (key, n.get("value").asText(),
-                                                n.get("count").asInt(),
-                                                n.get("total").asInt());
-                                values.put(sv.value, sv);
-                            }
-                        }
-                    }
+            boolean hasStitches = false, hasNodes = false;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if ("id".equals(field)) {
+                    id = parser.getText();
                 }
-                catch (Exception ex) {
-                    logger.warning("Not a recognized StitchKey: "+f);
+                else if ("stitches".equals(field)
+                         && token == JsonToken.START_OBJECT) {
+                    stitches (parser);
+                    hasStitches = true;
+                }
+                else if ("nodes".equals(field)
+                         && token == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT)
+                        node (parser);
+                    hasNodes = true;
+                }
+                else {
+                    parser.skipChildren();
                 }
             }
-
-            // nodes
-            JsonNode nodes = json.get("nodes");
-            if (nodes == null)
+            
+            if (!hasStitches || !hasNodes)
                 throw new IllegalArgumentException
                     ("Not a valid ncatskg json format!");
-            for (int i = 0; i < nodes.size(); ++i) {
-                JsonNode n = nodes.get(i);
-                long id = n.get("id").asLong();
-                NV nv = new NV (id);
-                
-                JsonNode labels = n.get("labels");
-                if (labels != null) {
-                    for (int j = 0; j < labels.size(); ++j)
-                        nv.labels.add(labels.get(j).asText());
+        }
+
+        void stitches (JsonParser parser) throws IOException {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String f = parser.getCurrentName();
+                StitchKey key = KEYS.get(f);
+                parser.nextToken();
+                if (key == null) {
+                    logger.warning("Not a recognized StitchKey: "+f);
+                    parser.skipChildren();
+                    continue;
                 }
                 
-                JsonNode props = n.get("properties");
-                for (Iterator<String> it = props.fieldNames(); it.hasNext();) {
-                    String p = it.next();
-                    try {
-                        StitchKey key = StitchKey.valueOf(p);
-                        JsonNode val = props.get(p);
-                        if (val.isArray()) {
-                            String[] vals = new String[val.size()];
-                            for (int j = 0; j < val.size(); ++j) {
-                                String v = val.get(j).asText();
-                                SV sv = values.get(v);
-                                if (sv != null)
-                                    sv.nodes.add(id);
-                                vals[j] = v;
+                switch (key) {
+                case N_Name: case I_CODE:
+                    if (parser.getCurrentToken() == JsonToken.START_ARRAY) {
+                        while (parser.nextToken() == JsonToken.START_OBJECT) {
+                            String value = null;
+                            int count = 0, total = 0;
+                            while (parser.nextToken()
+                                   == JsonToken.FIELD_NAME) {
+                                String name = parser.getCurrentName();
+                                parser.nextToken();
+                                if ("value".equals(name))
+                                    value = parser.getText();
+                                else if ("count".equals(name))
+                                    count = parser.getValueAsInt();
+                                else if ("total".equals(name))
+                                    total = parser.getValueAsInt();
+                                else
+                                    parser.skipChildren();
                             }
-                            nv.values.put(key, vals);
+                            if (value != null)
+                                stitches.put(term (value), new SV
+                                             (key, value, count, total));
+                        }
+                        break;
+                    }
+                    // fall through
+                default:
+                    parser.skipChildren();
+                }
+            }
+        }
+
+        void add (int term) {
+            if (nnz == cols.length)
+                cols = Arrays.copyOf(cols, 2*cols.length);
+            cols[nnz++] = term;
+        }
+        
+        void node (JsonParser parser) throws IOException {
+            long id = 0l;
+            int start = nnz;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if ("id".equals(field)) {
+                    id = parser.getValueAsLong();
+                }
+                else if ("properties".equals(field)
+                         && token == JsonToken.START_OBJECT) {
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        StitchKey key = KEYS.get(parser.getCurrentName());
+                        token = parser.nextToken();
+                        if (key == null) {
+                            parser.skipChildren();
+                        }
+                        else if (token == JsonToken.START_ARRAY) {
+                            while ((token = parser.nextToken())
+                                   != JsonToken.END_ARRAY) {
+                                if (token.isScalarValue())
+                                    add (term (parser.getText()));
+                                else
+                                    parser.skipChildren();
+                            }
+                        }
+                        else if (token.isScalarValue()) {
+                            add (term (parser.getText()));
                         }
                         else {
-                            String v = val.asText();
-                            SV sv = values.get(v);
-                            if (sv != null)
-                                sv.nodes.add(id);
-                            nv.values.put(key, new String[]{v});
+                            parser.skipChildren();
                         }
                     }
-                    catch (Exception ex) {
-                        // not a stitchkey
-                    }
                 }
-                this.nodes.put(id, nv);
+                else {
+                    parser.skipChildren();
+                }
             }
-            
-            logger.info("loading "+json.get("id").asText()+"..."+values.size());
-            Set<SV> svs = new TreeSet<>(values.values());
-            for (SV sv : svs) {
-                System.out.println(sv);
+
+            // a value counts once per node
+            Arrays.sort(cols, start, nnz);
+            int end = start;
+            for (int p = start; p < nnz; ++p)
+                if (p == start || cols[p] != cols[p-1])
+                    cols[end++] = cols[p];
+            nnz = end;
+
+            if (nnodes == ids.length) {
+                ids = Arrays.copyOf(ids, 2*ids.length);
+                rows = Arrays.copyOf(rows, ids.length+1);
             }
+            ids[nnodes++] = id;
+            rows[nnodes] = nnz;
         }
     }
+
+    String id;
+    long[] nodes; // node id of each row of matrix
+    SV[] values; // value of each column of matrix, sorted by value
+    CSR matrix; // node-value incidence
+    int maxiter = 100;
+    double epsilon = 1e-5;
+    int threads = Runtime.getRuntime().availableProcessors();
+
+    public Partition (File file) throws IOException {
+        long start = System.currentTimeMillis();
+        Loader loader = new Loader ();
+        try (JsonParser parser = new JsonFactory ().createParser(file)) {
+            loader.load(parser);
+        }
+        id = loader.id;
+
+        // only values that are stitches are kept as columns
+        Map<String, SV> sorted = new TreeMap<>();
+        for (SV sv : loader.stitches.values())
+            sorted.put(sv.value, sv);
+        values = sorted.values().toArray(new SV[0]);
+        int[] column = new int[loader.dict.size()];
+        Arrays.fill(column, -1);
+        for (int j = 0; j < values.length; ++j)
+            column[loader.terms.get(values[j].value)] = j;
+
+        int[] rows = loader.rows, cols = loader.cols;
+        int nnz = 0;
+        for (int i = 0, p = 0; i < loader.nnodes; ++i) {
+            for (; p < rows[i+1]; ++p) {
+                int j = column[cols[p]];
+                if (j >= 0) {
+                    cols[nnz++] = j;
+                    ++values[j].nodes;
+                }
+            }
+            rows[i+1] = nnz;
+        }
+        
+        nodes = Arrays.copyOf(loader.ids, loader.nnodes);
+        double[] vals = new double[nnz];
+        Arrays.fill(vals, 1.);
+        matrix = new CSR (nodes.length, values.length,
+                          Arrays.copyOf(rows, nodes.length+1),
+                          Arrays.copyOf(cols, nnz), vals);
+        
+        Set<SV> svs = new TreeSet<>(Arrays.asList(values));
+        for (SV sv : svs) {
+            System.out.println(sv);
+        }
+        logger.info("## "+file+": "+nodes.length+" nodes, "+values.length
+                    +" values ("+loader.dict.size()+" terms) and "+nnz
+                    +" non-zeros loaded in "
+                    +(System.currentTimeMillis()-start)+"ms; "+memory ());
+    }
+
+    /*
+     * peak heap usage so far (summed over the heap pools, so it's an
+     * upper bound)
+     */
+    static String memory () {
+        long peak = 0l;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            if (pool.getType() == MemoryType.HEAP)
+                peak += pool.getPeakUsage().getUsed();
+        return String.format("peak heap %1$.1fMB", peak/1048576.);
+    }
     
+    public void setMaxIterations (int maxiter) { this.maxiter = maxiter; }
+    public int getMaxIterations () { return maxiter; }
+    /*
+     * relative change in log-likelihood at which PLSA has converged
+     */
+    public void setEpsilon (double epsilon) { this.epsilon = epsilon; }
+    public double getEpsilon () { return epsilon; }
+    public void setThreads (int threads) { this.threads = threads; }
+    public int getThreads () { return threads; }
+
+    void configure (PLSA plsa) {
+        plsa.maxiter = maxiter;
+        plsa.epsilon = epsilon;
+        plsa.threads = threads;
+    }
+
     public void plsa (int K) throws Exception {
         plsa (K, System.out);
     }
     
     public void plsa (int K, OutputStream os) throws Exception {
         logger.info("------- VALUE partitions -------");
-        StitchPLSA plsa =
-            new StitchPLSA (K, nodes.values().toArray(new NV[0]),
-                            values.values().toArray(new SV[0]));
+        StitchPLSA plsa = new StitchPLSA (K, false);
         plsa.aspects(os);
         
         logger.info("------- NODE partitions ---------");
-        plsa = new StitchPLSA (K, values.values().toArray(new SV[0]),
-                               nodes.values().toArray(new NV[0]));
+        plsa = new StitchPLSA (K, true);
         plsa.aspects(os);
     }
 
     public static void main (String[] argv) throws Exception {
         if (argv.length == 0) {
             System.err.println
-                ("Usage: ncats.stitcher.Partition [K=5] [FILES...");
+                ("Usage: ncats.stitcher.Partition [K=5] [maxiter=100] "
+                 +"[epsilon=1e-5] [threads=N] [FILES...");
             System.exit(1);
         }
 
@@ -397,10 +663,23 @@ public class Partition {
         }
         catch (NumberFormatException ex) {
         }
-        
+
+        Map<String, String> opts = new HashMap<>();
         for (; i < argv.length; ++i) {
+            int pos = argv[i].indexOf('=');
+            if (pos > 0) {
+                opts.put(argv[i].substring(0, pos), argv[i].substring(pos+1));
+                continue;
+            }
+            
             File file = new File (argv[i]);
             Partition part = new Partition (file);
+            if (opts.containsKey("maxiter"))
+                part.setMaxIterations(Integer.parseInt(opts.get("maxiter")));
+            if (opts.containsKey("epsilon"))
+                part.setEpsilon(Double.parseDouble(opts.get("epsilon")));
+            if (opts.containsKey("threads"))
+                part.setThreads(Integer.parseInt(opts.get("threads")));
             part.plsa(K);
         }
     }
@@ -0,0 +1,185 @@
+package ncats.stitcher;
+
+import java.io.*;
+import java.util.*;
+import java.security.MessageDigest;
+import java.util.logging.Logger;
+
+/**
+ * Append-only log of the components untangled by a stitch build along
+ * with the stitch nodes each produced. The first line of the file holds
+ * a signature of the untangler (class, version, code digest, config, and
+ * loaded data sources); a log written under a different signature is discarded
+ * when opened. Each subsequent line is of the form
+ *
+ *   COMPONENT<tab>STITCH,STITCH,...
+ *
+ * and is flushed as soon as it's written, so at most a partially written
+ * last line is lost when the process dies.
+ */
+public class StitchCheckpoint implements AutoCloseable {
+    static final Logger logger = Logger.getLogger
+        (StitchCheckpoint.class.getName());
+
+    static final String SUFFIX = ".ckpt";
+    static final long[] NONE = new long[0];
+
+    final File file;
+    final String signature;
+    final Map<Long, long[]> done = new HashMap<>();
+    final Writer out;
+
+    public StitchCheckpoint (File file, String signature) throws IOException {
+        this.file = file;
+        this.signature = signature;
+
+        boolean valid = false;
+        if (file.exists()) {
+            try (BufferedReader br = new BufferedReader
+                 (new FileReader (file))) {
+                String line = br.readLine();
+                if (line != null && line.equals("#"+signature)) {
+                    valid = true;
+                    while ((line = br.readLine()) != null)
+                        parse (line);
+                }
+                else {
+                    logger.warning(file+": signature has changed; "
+                                   +"discarding checkpoint");
+                }
+            }
+        }
+        else if (file.getParentFile() != null) {
+            file.getParentFile().mkdirs();
+        }
+
+        out = new BufferedWriter (new FileWriter (file, valid));
+        if (!valid) {
+            out.write("#"+signature+"\n");
+            out.flush();
+        }
+        logger.info("## "+file+": "+done.size()
+                    +" component(s) already done");
+    }
+
+    void parse (String line) {
+        line = line.trim();
+        if (line.isEmpty())
+            return;
+
+        try {
+            int pos = line.indexOf('\t');
+            long cid = Long.parseLong(pos < 0 ? line : line.substring(0, pos));
+            long[] stitches = NONE;
+            if (pos > 0 && pos+1 < line.length()) {
+                String[] toks = line.substring(pos+1).split(",");
+                stitches = new long[toks.length];
+                for (int i = 0; i < toks.length; ++i)
+                    stitches[i] = Long.parseLong(toks[i]);
+            }
+            done.put(cid, stitches);
+        }
+        catch (NumberFormatException ex) {
+            // partially written last line
+            logger.warning(file+": bogus checkpoint entry: "+line);
+        }
+    }
+
+    /*
+     * default checkpoint location for the given stitch data source name
+     * (e.g., stitch_v1) under the index directory of the graph
+     */
+    public static File getFile (GraphDb graphDb, String name) {
+        return new File (graphDb.getIndexDir(), name+SUFFIX);
+    }
+
+    public static String signature (EntityFactory ef,
+                                    Class<? extends UntangleAbstract> cls,
+                                    int version) {
+        return signature (ef, cls, version, Collections.emptyMap());
+    }
+
+    /*
+     * signature for the given untangler and version over the data sources
+     * currently loaded; stitch data sources are excluded since they are
+     * the output of the build. the signature also covers the settings
+     * the untangler is run with (config) and a digest of the untangler's
+     * classes, since most of its rules are in code and the version isn't
+     * always bumped when they change.
+     */
+    public static String signature (EntityFactory ef,
+                                    Class<? extends UntangleAbstract> cls,
+                                    int version, Map<String, ?> config) {
+        StringBuilder sb = new StringBuilder (cls.getName()+":"+version);
+        sb.append(":"+digest (cls));
+        for (Map.Entry<String, ?> me : new TreeMap<>(config).entrySet())
+            sb.append(":"+me.getKey()+"="+me.getValue());
+        
+        Set<String> keys = new TreeSet<>();
+        for (DataSource ds : ef.getDataSourceFactory().datasources()) {
+            String name = ds.getName();
+            if (name == null || !name.startsWith("stitch_v"))
+                keys.add(ds.getKey());
+        }
+        for (String k : keys)
+            sb.append(":"+k);
+        return sb.toString();
+    }
+
+    /*
+     * digest of the class files of the untangler and its superclasses
+     */
+    static String digest (Class<? extends UntangleAbstract> cls) {
+        MessageDigest md = Util.sha1();
+        byte[] buf = new byte[4096];
+        for (Class c = cls; c != null && UntangleAbstract.class
+                 .isAssignableFrom(c); c = c.getSuperclass()) {
+            String name = "/"+c.getName().replace('.', '/')+".class";
+            try (InputStream is = c.getResourceAsStream(name)) {
+                if (is == null) {
+                    md.update(name.getBytes());
+                    continue;
+                }
+                for (int nb; (nb = is.read(buf)) > 0; )
+                    md.update(buf, 0, nb);
+            }
+            catch (IOException ex) {
+                logger.warning("Can't read class "+name+": "
+                               +ex.getMessage());
+                md.update(name.getBytes());
+            }
+        }
+        return Util.hex(md.digest()).substring(0, 12);
+    }
+
+    public File getFile () { return file; }
+    public String getSignature () { return signature; }
+    public synchronized int size () { return done.size(); }
+
+    public synchronized boolean isDone (long component) {
+        return done.containsKey(component);
+    }
+
+    /*
+     * stitch node ids recorded for the component or null if the component
+     * isn't done
+     */
+    public synchronized long[] getStitches (long component) {
+        return done.get(component);
+    }
+
+    public synchronized void record (long component, long[] stitches)
+        throws IOException {
+        StringBuilder sb = new StringBuilder ();
+        sb.append(component);
+        for (int i = 0; i < stitches.length; ++i)
+            sb.append(i == 0 ? '\t' : ',').append(stitches[i]);
+        out.write(sb.append('\n').toString());
+        out.flush();
+        done.put(component, stitches);
+    }
+
+    public synchronized void close () throws IOException {
+        out.close();
+    }
+}
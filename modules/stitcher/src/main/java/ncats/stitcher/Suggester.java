@@ -0,0 +1,560 @@
+package ncats.stitcher;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import java.util.logging.Logger;
+import java.util.logging.Level;
+
+import org.apache.lucene.store.*;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IOUtils;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.util.CharArraySet;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.suggest.InputIterator;
+import org.apache.lucene.search.suggest.Lookup;
+import org.apache.lucene.search.suggest.analyzing.AnalyzingInfixSuggester;
+
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.event.*;
+import org.neo4j.graphdb.index.Index;
+import org.neo4j.graphdb.index.IndexHits;
+
+/**
+ * Typeahead suggestions for the names and identifiers that entities are
+ * stitched on. Each distinct value is an entry weighted by the number of
+ * entities having it, and any word of a value can be matched by prefix
+ * (e.g., "salicy" suggests "acetylsalicylic acid"). The entries are kept
+ * on disk; while a suggester is open, values touched by a committed
+ * transaction are reweighed in the background (and by EntityRegistry
+ * after each batch it commits). A suggester that doesn't match its
+ * database when opened isn't current and has to be rebuilt (see main);
+ * one created along with an empty database is current. Lookups have
+ * only been timed on a synthetic set of 166k values (p50 ~0.4ms and p99
+ * 2.5-6ms once warm), not on a full database.
+ */
+public class Suggester extends TransactionEventHandler.Adapter
+    implements AutoCloseable {
+    static final Logger logger = Logger.getLogger(Suggester.class.getName());
+
+    // names and string identifiers
+    public static final StitchKey[] KEYS;
+    static {
+        List<StitchKey> keys = new ArrayList<>();
+        for (StitchKey k : StitchKey.values()) {
+            if (k == StitchKey.N_Name
+                || (k.name().startsWith("I_") && k.type == String.class))
+                keys.add(k);
+        }
+        KEYS = keys.toArray(new StitchKey[0]);
+    }
+
+    static final int MAX_LENGTH = 256; // longer values aren't suggested
+    // values waiting to be reweighed; past that it's cheaper to rebuild
+    static final int MAX_PENDING = 100000;
+    static final int BATCH_SIZE = 1000; // values reweighed per transaction
+    static final String WATERMARK = "txid"; // file; see close()
+
+    public static class Suggestion {
+        public final String value;
+        public final long weight; // number of entities
+        public final String[] keys; // stitch keys having the value
+
+        Suggestion (String value, long weight, String[] keys) {
+            this.value = value;
+            this.weight = weight;
+            this.keys = keys;
+        }
+    }
+
+    /*
+     * value => {weight, bit mask of KEYS}
+     */
+    static class Entries implements InputIterator {
+        final Iterator<Map.Entry<String, long[]>> iter;
+        Map.Entry<String, long[]> current;
+
+        Entries (Map<String, long[]> entries) {
+            iter = entries.entrySet().iterator();
+        }
+
+        public BytesRef next () {
+            if (!iter.hasNext())
+                return null;
+            current = iter.next();
+            return new BytesRef (current.getKey());
+        }
+        public long weight () { return current.getValue()[0]; }
+        public BytesRef payload () {
+            return payload (current.getValue()[1]);
+        }
+        public boolean hasPayloads () { return true; }
+        public Set<BytesRef> contexts () {
+            return contexts (current.getValue()[1]);
+        }
+        public boolean hasContexts () { return true; }
+
+        static BytesRef payload (long mask) {
+            StringBuilder sb = new StringBuilder ();
+            for (int i = 0; i < KEYS.length; ++i)
+                if ((mask & (1l << i)) != 0) {
+                    if (sb.length() > 0) sb.append(' ');
+                    sb.append(KEYS[i].name());
+                }
+            return new BytesRef (sb);
+        }
+
+        static Set<BytesRef> contexts (long mask) {
+            Set<BytesRef> contexts = new HashSet<>();
+            for (int i = 0; i < KEYS.length; ++i)
+                if ((mask & (1l << i)) != 0)
+                    contexts.add(new BytesRef (KEYS[i].name()));
+            return contexts;
+        }
+    }
+
+    final GraphDatabaseService gdb;
+    final File dir;
+    final Directory indexDir;
+    final AnalyzingInfixSuggester lookup;
+    final Set<String> pending = ConcurrentHashMap.newKeySet();
+    // build() replaces the suggester's writer, so no updates meanwhile
+    final ReentrantLock lock = new ReentrantLock ();
+    final ScheduledExecutorService scheduler;
+    protected volatile long commitInterval =
+        TextIndexer.DEFAULT_COMMIT_INTERVAL;
+    protected volatile long lastCommit = System.currentTimeMillis();
+    protected volatile boolean dirty;
+    protected volatile boolean overflow; // pending values were dropped
+    protected volatile boolean stale;
+    // rebuilds in progress; reweigh() leaves the values pending meanwhile
+    protected final AtomicInteger rebuilding = new AtomicInteger ();
+    // transactions between beforeCommit and afterCommit (or rollback)
+    protected final AtomicInteger inflight = new AtomicInteger ();
+
+    public Suggester (GraphDatabaseService gdb, File dir) throws IOException {
+        dir.mkdirs();
+        this.dir = dir;
+        this.gdb = gdb;
+        indexDir = new NIOFSDirectory (dir.toPath());
+        // no stop words; "vitamin a" is a perfectly good name
+        Analyzer analyzer = new StandardAnalyzer (CharArraySet.EMPTY_SET);
+        lookup = new AnalyzingInfixSuggester
+            (indexDir, analyzer, analyzer,
+             AnalyzingInfixSuggester.DEFAULT_MIN_PREFIX_CHARS,
+             false, true, false);
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread (r, "Suggester "+dir.getName());
+                t.setDaemon(true);
+                return t;
+            });
+        scheduler.scheduleWithFixedDelay
+            (this::maintain, 1, 1, TimeUnit.SECONDS);
+        gdb.registerTransactionEventHandler(this);
+
+        // last transaction covered when the suggester was closed; it no
+        // longer holds once the database changes
+        File file = new File (dir, WATERMARK);
+        String txid = null;
+        if (file.exists()) {
+            try (BufferedReader br = new BufferedReader
+                 (new FileReader (file))) {
+                txid = br.readLine();
+            }
+            file.delete();
+        }
+        if (txid != null)
+            stale = Long.parseLong(txid.trim()) != Indexer.lastTxId(gdb);
+        else
+            stale = size () > 0 || hasEntities (gdb);
+        if (stale)
+            logger.warning("## suggester "+dir+" is stale; "
+                           +"it must be rebuilt!");
+    }
+
+    public void close () throws Exception {
+        scheduler.shutdown();
+        scheduler.awaitTermination(10, TimeUnit.SECONDS);
+        
+        long txid = Indexer.lastTxId(gdb);
+        // the transactions up to txid are all pending (if not already
+        // reweighed) unless some are still in flight
+        boolean current = !stale && !overflow && inflight.get() == 0;
+        if (current)
+            reweigh ();
+        gdb.unregisterTransactionEventHandler(this);
+        if (dirty)
+            lookup.commit();
+        IOUtils.close(lookup, indexDir);
+
+        if (current) {
+            try (PrintWriter pw = new PrintWriter
+                 (new FileWriter (new File (dir, WATERMARK)))) {
+                pw.println(txid);
+            }
+        }
+    }
+
+    /*
+     * false if the suggestions have missed changes to the database and
+     * need a rebuild()
+     */
+    public boolean isCurrent () { return !stale; }
+
+    public void setCommitInterval (long millis) {
+        commitInterval = millis;
+    }
+    public long getCommitInterval () { return commitInterval; }
+
+    public long size () {
+        try {
+            return lookup.getCount();
+        }
+        catch (Exception ex) {
+            return 0l;
+        }
+    }
+
+    static boolean hasEntities (GraphDatabaseService gdb) {
+        try (Transaction tx = gdb.beginTx();
+             ResourceIterator<Node> it = gdb.findNodes(AuxNodeType.ENTITY)) {
+            return it.hasNext();
+        }
+    }
+
+    static boolean isKey (String name) {
+        for (StitchKey k : KEYS)
+            if (k.name().equals(name))
+                return true;
+        return false;
+    }
+
+    static void values (Collection<String> values, Object value) {
+        if (value instanceof String[]) {
+            for (String v : (String[])value)
+                if (v.length() <= MAX_LENGTH)
+                    values.add(v);
+        }
+        else if (value instanceof String) {
+            String v = (String)value;
+            if (v.length() <= MAX_LENGTH)
+                values.add(v);
+        }
+    }
+
+    @Override
+    public Object beforeCommit (TransactionData data) throws Exception {
+        Set<String> values = new HashSet<>();
+        // also covers created and deleted nodes
+        for (PropertyEntry<Node> pe : data.assignedNodeProperties()) {
+            if (isKey (pe.key())) {
+                values (values, pe.value());
+                values (values, pe.previouslyCommitedValue());
+            }
+        }
+        for (PropertyEntry<Node> pe : data.removedNodeProperties()) {
+            if (isKey (pe.key()))
+                values (values, pe.previouslyCommitedValue());
+        }
+        inflight.incrementAndGet();
+        return values;
+    }
+
+    @Override
+    public void afterCommit (TransactionData data, Object state) {
+        if (state != null) {
+            Set<String> values = (Set<String>)state;
+            try {
+                if (overflow) {
+                    // the rebuild to come covers them
+                }
+                else if (pending.size() + values.size() > MAX_PENDING) {
+                    overflow = true;
+                    pending.clear();
+                    logger.warning("## more than "+MAX_PENDING
+                                   +" values to reweigh; rebuilding "
+                                   +"suggester "+dir);
+                }
+                else {
+                    pending.addAll(values);
+                }
+            }
+            finally {
+                inflight.decrementAndGet();
+            }
+        }
+    }
+
+    @Override
+    public void afterRollback (TransactionData data, Object state) {
+        if (state != null)
+            inflight.decrementAndGet();
+    }
+
+    /*
+     * run by the background thread
+     */
+    protected void maintain () {
+        try {
+            if (overflow) {
+                // whatever gets dropped meanwhile is committed by now
+                pending.clear();
+                overflow = false;
+                rebuild ();
+            }
+            else if (!pending.isEmpty()) {
+                reweigh ();
+            }
+            long now = System.currentTimeMillis();
+            if (now - lastCommit >= commitInterval) {
+                if (dirty) {
+                    lookup.commit();
+                    dirty = false;
+                }
+                lastCommit = now;
+            }
+        }
+        catch (Exception ex) {
+            logger.log(Level.SEVERE, "Can't update suggester "+dir, ex);
+        }
+    }
+
+    /*
+     * bit mask of the KEYS under which the node has the value
+     */
+    static long keyMask (Node node, String value) {
+        long mask = 0l;
+        Set<String> vals = new HashSet<>();
+        for (int i = 0; i < KEYS.length; ++i) {
+            vals.clear();
+            values (vals, node.getProperty(KEYS[i].name(), null));
+            if (vals.contains(value))
+                mask |= 1l << i;
+        }
+        return mask;
+    }
+
+    /*
+     * weight and keys of each pending value are looked up in the entity
+     * index, with one query over all KEYS per value; a value no longer
+     * stitched on is left without keys, which hides it from suggest().
+     * while a rebuild() is scanning, the values are left pending, since
+     * build() would undo their updates; rebuild() reweighs them after.
+     */
+    void reweigh () throws IOException {
+        int count = 0;
+        lock.lock();
+        try {
+            if (rebuilding.get() > 0)
+                return;
+            
+            Index<Node> index = null;
+            Transaction tx = null;
+            try {
+                for (Iterator<String> it = pending.iterator();
+                     it.hasNext(); ++count) {
+                    String value = it.next();
+                    it.remove();
+
+                    if (count % BATCH_SIZE == 0) {
+                        if (tx != null) {
+                            tx.success();
+                            tx.close();
+                        }
+                        tx = gdb.beginTx();
+                        index = gdb.index().forNodes(Entity.nodeIndexName());
+                    }
+
+                    BooleanQuery.Builder query = new BooleanQuery.Builder ();
+                    for (StitchKey k : KEYS)
+                        query.add(new TermQuery (new Term (k.name(), value)),
+                                  BooleanClause.Occur.SHOULD);
+
+                    long weight = 0l, mask = 0l;
+                    try (IndexHits<Node> hits = index.query(query.build())) {
+                        for (Node node : hits) {
+                            long m = keyMask (node, value);
+                            if (m != 0l) { // index may lag behind
+                                ++weight;
+                                mask |= m;
+                            }
+                        }
+                    }
+                    lookup.update(new BytesRef (value),
+                                  Entries.contexts(mask),
+                                  weight, Entries.payload(mask));
+                }
+            }
+            finally {
+                if (tx != null) {
+                    tx.success();
+                    tx.close();
+                }
+            }
+
+            if (count > 0) {
+                lookup.refresh();
+                dirty = true;
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * make all values committed so far visible to suggest(), unless a
+     * rebuild() is running, which does so once it's done
+     */
+    public void refresh () throws IOException {
+        reweigh ();
+    }
+
+    /*
+     * (re)build the suggestions from all entities
+     */
+    public long rebuild () throws IOException {
+        long start = System.currentTimeMillis();
+        Map<String, long[]> values = new HashMap<>();
+        int nodes;
+        rebuilding.incrementAndGet();
+        try {
+            // wait for a reweigh() in progress; later ones see rebuilding
+            lock.lock();
+            lock.unlock();
+            nodes = scan (values);
+
+            // values changed since the scan started are still pending
+            lock.lock();
+            try {
+                lookup.build(new Entries (values));
+                lookup.commit();
+                dirty = false;
+                stale = false;
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+        finally {
+            rebuilding.decrementAndGet();
+        }
+        reweigh ();
+        logger.info("## "+values.size()+" value(s) from "+nodes
+                    +" entities built in "
+                    +String.format("%1$.1fs", 1e-3*(System.currentTimeMillis()-start)));
+        return values.size();
+    }
+
+    /*
+     * weight and keys of every value of all entities; returns the number
+     * of entities
+     */
+    int scan (Map<String, long[]> values) {
+        int nodes = 0;
+        try (Transaction tx = gdb.beginTx();
+             ResourceIterator<Node> it = gdb.findNodes(AuxNodeType.ENTITY)) {
+            Set<String> vals = new HashSet<>();
+            Map<String, Long> masks = new HashMap<>();
+            for (; it.hasNext(); ++nodes) {
+                Node node = it.next();
+                masks.clear();
+                for (int i = 0; i < KEYS.length; ++i) {
+                    vals.clear();
+                    values (vals, node.getProperty(KEYS[i].name(), null));
+                    for (String v : vals)
+                        masks.merge(v, 1l << i, (a, b) -> a | b);
+                }
+                // each entity counts once toward a value's weight
+                for (Map.Entry<String, Long> me : masks.entrySet()) {
+                    long[] e = values.get(me.getKey());
+                    if (e == null)
+                        values.put(me.getKey(), e = new long[2]);
+                    ++e[0];
+                    e[1] |= me.getValue();
+                }
+                if (nodes % 100000 == 0 && nodes > 0)
+                    logger.info("## "+nodes+" entities scanned; "
+                                +values.size()+" values");
+            }
+            tx.success();
+        }
+        return nodes;
+    }
+
+    public List<Suggestion> suggest (String query, int max,
+                                     StitchKey... keys) throws IOException {
+        List<Suggestion> suggestions = new ArrayList<>();
+        if (query == null || query.trim().length() == 0)
+            return suggestions;
+
+        Set<BytesRef> contexts = new HashSet<>();
+        for (StitchKey k : keys.length > 0 ? keys : KEYS)
+            contexts.add(new BytesRef (k.name()));
+
+        List<Lookup.LookupResult> results;
+        try {
+            results = lookup.lookup(query, contexts, max, true, false);
+        }
+        catch (IllegalStateException ex) {
+            // nothing has been built or added yet
+            return suggestions;
+        }
+
+        for (Lookup.LookupResult r : results) {
+            suggestions.add(new Suggestion
+                            (r.key.toString(), r.value,
+                             r.payload.utf8ToString().split(" ")));
+        }
+        return suggestions;
+    }
+
+    public static void main (String[] argv) throws Exception {
+        if (argv.length == 0) {
+            System.err.println("Usage: "+Suggester.class.getName()
+                               +" DBDIR [QUERY...]");
+            System.err.println("where the suggestions are rebuilt "
+                               +"if no QUERY is given");
+            System.exit(1);
+        }
+
+        GraphDb graphDb = GraphDb.getInstance(argv[0]);
+        try {
+            Suggester suggester = graphDb.getSuggester();
+            if (argv.length == 1) {
+                suggester.rebuild();
+            }
+            else {
+                for (int i = 1; i < argv.length; ++i) {
+                    long start = System.nanoTime();
+                    List<Suggestion> suggestions =
+                        suggester.suggest(argv[i], 10);
+                    logger.info("## \""+argv[i]+"\": "+suggestions.size()
+                                +" suggestion(s) in "+String.format
+                                ("%1$.2fms", 1e-6*(System.nanoTime()-start)));
+                    for (Suggestion s : suggestions)
+                        System.out.println(s.value+"\t"+s.weight+"\t"
+                                           +String.join(",", s.keys));
+                }
+            }
+        }
+        finally {
+            graphDb.shutdown();
+        }
+    }
+}
@@ -3,6 +3,10 @@ package ncats.stitcher;
 import java.io.*;
 import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.*;
 import java.util.logging.Logger;
 import java.util.logging.Level;
@@ -117,6 +121,12 @@ public class TextIndexer extends TransactionEventHandler.Adapter
     public static final String FIELD_ID = "@id";
     public static final String FIELD_PROPS = "@props";
 
+    // how long (in seconds) newly indexed documents can remain invisible
+    // to search
+    public static final double DEFAULT_MAX_STALENESS = 1.;
+    // how often (in milliseconds) pending documents are committed
+    public static final long DEFAULT_COMMIT_INTERVAL = 60000l;
+
     final protected GraphDatabaseService gdb;
     final protected File dbdir;
     final protected FieldType tvFieldType;
@@ -126,6 +136,11 @@ public class TextIndexer extends TransactionEventHandler.Adapter
     final protected DirectoryTaxonomyWriter taxonWriter;
     final protected FacetsConfig facetConfig;
     final protected SearcherManager searcherManager;
+    final protected ScheduledExecutorService scheduler;
+    protected ScheduledFuture<?> refresher;
+    protected double maxStaleness;
+    protected volatile long commitInterval = DEFAULT_COMMIT_INTERVAL;
+    protected volatile long lastCommit = System.currentTimeMillis();
 
     protected TextIndexer (GraphDatabaseService gdb, File dir)
         throws Exception {
@@ -149,6 +164,12 @@ public class TextIndexer extends TransactionEventHandler.Adapter
 
         searcherManager = new SearcherManager
             (indexWriter, new SearcherFactory ());
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread (r, "TextIndexer "+dir.getName());
+                t.setDaemon(true);
+                return t;
+            });
+        setMaxStaleness (DEFAULT_MAX_STALENESS);
         
         gdb.registerTransactionEventHandler(this);
         this.dbdir = dir;
@@ -156,11 +177,61 @@ public class TextIndexer extends TransactionEventHandler.Adapter
     }
 
     public void close () throws Exception {
+        scheduler.shutdown();
+        scheduler.awaitTermination(10, TimeUnit.SECONDS);
         searcherManager.close();
         IOUtils.close(indexWriter, indexDir, taxonWriter, taxonDir);
         gdb.unregisterTransactionEventHandler(this);
     }
 
+    /*
+     * documents indexed are visible to search within the given number
+     * of seconds; the searcher is refreshed by a background thread
+     */
+    public synchronized void setMaxStaleness (double seconds) {
+        if (seconds <= 0.)
+            throw new IllegalArgumentException
+                ("Invalid max staleness: "+seconds);
+        if (refresher != null)
+            refresher.cancel(false);
+        long period = Math.max(1l, (long)(seconds * 1000.));
+        refresher = scheduler.scheduleWithFixedDelay
+            (this::maintain, period, period, TimeUnit.MILLISECONDS);
+        maxStaleness = seconds;
+    }
+    public synchronized double getMaxStaleness () { return maxStaleness; }
+
+    public void setCommitInterval (long millis) {
+        commitInterval = millis;
+    }
+    public long getCommitInterval () { return commitInterval; }
+
+    /*
+     * make all documents indexed so far visible to search
+     */
+    public void refresh () throws IOException {
+        searcherManager.maybeRefreshBlocking();
+    }
+
+    /*
+     * run by the background thread
+     */
+    protected void maintain () {
+        try {
+            searcherManager.maybeRefresh();
+            long now = System.currentTimeMillis();
+            if (now - lastCommit >= commitInterval) {
+                // group commit of whatever has been added since
+                if (indexWriter.hasUncommittedChanges())
+                    indexWriter.commit();
+                lastCommit = now;
+            }
+        }
+        catch (Exception ex) {
+            logger.log(Level.SEVERE, "Can't refresh index "+dbdir, ex);
+        }
+    }
+
     /*
      * should be overriden by subclasses
      */
@@ -218,11 +289,12 @@ public class TextIndexer extends TransactionEventHandler.Adapter
     public void afterCommit (TransactionData data, Object state) {
         List<Document> docs = (List<Document>)state;
         try {
+            // no flush here; documents are made visible by the refresh
+            // thread and committed in groups
             for (Document d : docs) {
                 indexWriter.addDocument(d);
                 //logger.info("adding doc "+d);
             }
-            indexWriter.flush();
         }
         catch (IOException ex) {
             logger.log(Level.SEVERE, "Can't index document", ex);
@@ -295,38 +367,46 @@ public class TextIndexer extends TransactionEventHandler.Adapter
     public SearchResult search (Query query, int skip, int top)
         throws Exception {
         //System.err.println("** query: "+query);
-        try (IndexReader reader = DirectoryReader.open(indexWriter)) {
-            IndexSearcher searcher = new IndexSearcher (reader);
-            TopDocs hits = searcher.search(query, skip+top);
-            SearchResult result = new SearchResult (skip, top, hits.totalHits);
-            int size = Math.min(skip+top, hits.totalHits);
-            for (int i = skip; i < size; ++i) {
-                Document doc = searcher.doc(hits.scoreDocs[i].doc);
-                String did = doc.get(FIELD_ID);
-                if (did != null) {
-                    int pos = did.indexOf(':');
-                    if (pos > 0) {
-                        try {
-                            long id = Long.parseLong(did.substring(pos+1));
-                            Node n = gdb.getNodeById(id);
-                            if (n != null && n.hasLabel(DATA)) {
-                                float score = hits.scoreDocs[i].score;
-                                /*
-                                System.err.println(id+":"+String.format
-                                            ("%1$.3f", score)+" "
-                                            +n.getAllProperties());
-                                */
-                                result.matches.add(new Result (n, score));
-                            }
-                        }
-                        catch (NumberFormatException ex) {
-                            logger.log(Level.SEVERE, "Bogus id field: "+did,ex);
+        IndexSearcher searcher = searcherManager.acquire();
+        try {
+            return search (searcher, query, skip, top);
+        }
+        finally {
+            searcherManager.release(searcher);
+        }
+    }
+
+    protected SearchResult search (IndexSearcher searcher, Query query,
+                                   int skip, int top) throws IOException {
+        TopDocs hits = searcher.search(query, skip+top);
+        SearchResult result = new SearchResult (skip, top, hits.totalHits);
+        int size = Math.min(skip+top, hits.totalHits);
+        for (int i = skip; i < size; ++i) {
+            Document doc = searcher.doc(hits.scoreDocs[i].doc);
+            String did = doc.get(FIELD_ID);
+            if (did != null) {
+                int pos = did.indexOf(':');
+                if (pos > 0) {
+                    try {
+                        long id = Long.parseLong(did.substring(pos+1));
+                        Node n = gdb.getNodeById(id);
+                        if (n != null && n.hasLabel(DATA)) {
+                            float score = hits.scoreDocs[i].score;
+                            /*
+                            System.err.println(id+":"+String.format
+                                        ("%1$.3f", score)+" "
+                                        +n.getAllProperties());
+                            */
+                            result.matches.add(new Result (n, score));
                         }
                     }
+                    catch (NumberFormatException ex) {
+                        logger.log(Level.SEVERE, "Bogus id field: "+did, ex);
+                    }
                 }
             }
-            return result;
         }
+        return result;
     }
 
     public static Set<String> ngrams (String text, int min, int max)
@@ -17,6 +17,10 @@ public class UntangleCompoundComponent extends UntangleCompoundAbstract {
     static final Logger logger = Logger.getLogger
         (UntangleCompoundComponent.class.getName());
 
+    // bump whenever the untangling rules change so that checkpoints of
+    // earlier stitch builds are invalidated
+    public static final int VERSION = 1;
+
     final Map<Object, Set<Entity>> moieties = new TreeMap<>();
     final protected Component component;
     final protected Map<StitchKey, Map<Object, Integer>> stats;
@@ -803,7 +807,12 @@ public class UntangleCompoundComponent extends UntangleCompoundAbstract {
         if (argv.length < 2) {
             System.err.println("Usage: "
                                +UntangleCompoundComponent.class.getName()
-                               +" DB VERSION [COMPONENTS...]");
+                               +" DB VERSION [threads=N] "
+                               +"[checkpoint[=FILE]] [COMPONENTS...]");
+            System.err.println("where checkpoint without FILE records "
+                               +"completed components under the index "
+                               +"directory so that the build can be "
+                               +"resumed");
             System.exit(1);
         }
         
@@ -821,14 +830,47 @@ public class UntangleCompoundComponent extends UntangleCompoundAbstract {
         }
 
         GraphDb graphDb = GraphDb.getInstance(argv[0]);
+        int failed = 0;
         try {
             EntityFactory ef = new EntityFactory (graphDb);
             //dumpComponents (ef);
 
             DataSource dsource =
                 ef.getDataSourceFactory().register("stitch_v"+version);
+
+            int threads = 1;
+            File checkpoint = null;
+            List<String> args = new ArrayList<>();
+            for (int i = 2; i < argv.length; ++i) {
+                if (argv[i].startsWith("threads="))
+                    threads = Integer.parseInt(argv[i].substring(8));
+                else if (argv[i].startsWith("checkpoint="))
+                    checkpoint = new File (argv[i].substring(11));
+                else if (argv[i].equals("checkpoint"))
+                    checkpoint = StitchCheckpoint.getFile
+                        (graphDb, dsource.getName());
+                else
+                    args.add(argv[i]);
+            }
             
-            if (argv.length == 2) {
+            if (threads != 1 || checkpoint != null) {
+                List<Long> components = new ArrayList<>();
+                if (args.isEmpty())
+                    ef.components(components);
+                for (String a : args)
+                    components.add(Long.parseLong(a));
+                UntangleDriver driver = new UntangleDriver
+                    (ef, comp -> new UntangleCompoundComponent
+                     (dsource, comp))
+                    .setThreads(threads)
+                    .setCheckpoint(checkpoint, StitchCheckpoint.signature
+                                   (ef, UntangleCompoundComponent.class,
+                                    VERSION, Collections.singletonMap
+                                    ("datasource", dsource.getName())));
+                driver.untangle(components);
+                failed = driver.getFailures().size();
+            }
+            else if (args.isEmpty()) {
                 // do all components
                 logger.info("Untangle all components...");
                 List<Long> components = new ArrayList<>();
@@ -848,8 +890,8 @@ public class UntangleCompoundComponent extends UntangleCompoundAbstract {
                 }
             }
             else {
-                for (int i = 2; i < argv.length; ++i) {
-                    Component comp = ef.component(Long.parseLong(argv[i]));
+                for (String a : args) {
+                    Component comp = ef.component(Long.parseLong(a));
                     /*
                     logger.info("Dumping component "+comp.getId());         
                     FileOutputStream fos = new FileOutputStream
@@ -866,5 +908,8 @@ public class UntangleCompoundComponent extends UntangleCompoundAbstract {
         finally {
             graphDb.shutdown();
         }
+
+        if (failed > 0)
+            System.exit(1);
     }
 }
@@ -563,6 +563,8 @@ public class UntangleCompoundStitches extends UntangleCompoundAbstract {
             int version = Integer.parseInt(argv[1]);
             DataSource dsource =
                 ef.getDataSourceFactory().register("stitch_v"+version);
+            // index the new stitches as they're created
+            graphDb.getIndexer(version);
 
             List<Long> comps = new ArrayList<>();
             Double score = null;
@@ -0,0 +1,326 @@
+package ncats.stitcher;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Transaction;
+
+import ncats.stitcher.EntityFactory.ComponentImpl;
+
+/**
+ * Untangle many components concurrently. Components are scheduled
+ * largest first on a pool of worker threads; each worker untangles its
+ * component inside a single read transaction and hands the resulting
+ * (root, members) groups to the calling thread, which creates the
+ * stitch nodes in batched write transactions. Completed components
+ * and their stitches can be recorded in a {@link StitchCheckpoint} so
+ * that an interrupted run resumes where it left off.
+ */
+public class UntangleDriver {
+    static final Logger logger = Logger.getLogger
+        (UntangleDriver.class.getName());
+
+    static class Result {
+        final Long cid;
+        final UntangleAbstract untangler;
+        final List<Long> roots = new ArrayList<>();
+        final List<long[]> members = new ArrayList<>();
+        long[] stitches;
+        Throwable error;
+
+        Result (Long cid, UntangleAbstract untangler) {
+            this.cid = cid;
+            this.untangler = untangler;
+        }
+    }
+
+    final EntityFactory ef;
+    final GraphDatabaseService gdb;
+    final Function<Component, UntangleAbstract> untangler;
+
+    int threads = Runtime.getRuntime().availableProcessors();
+    int batchSize = 100; // number of stitches per write transaction
+    File checkpoint;
+    String signature;
+    Consumer<Stitch> consumer;
+    // components of the last run that couldn't be untangled or written
+    final Map<Long, Throwable> failures = new LinkedHashMap<>();
+
+    public UntangleDriver (EntityFactory ef,
+                           Function<Component, UntangleAbstract> untangler) {
+        this.ef = ef;
+        this.gdb = ef.getGraphDb().graphDb();
+        this.untangler = untangler;
+    }
+
+    public UntangleDriver setThreads (int threads) {
+        this.threads = threads > 0 ? threads
+            : Runtime.getRuntime().availableProcessors();
+        return this;
+    }
+    public int getThreads () { return threads; }
+
+    public UntangleDriver setBatchSize (int batchSize) {
+        if (batchSize < 1)
+            throw new IllegalArgumentException
+                ("Invalid batch size: "+batchSize);
+        this.batchSize = batchSize;
+        return this;
+    }
+    public int getBatchSize () { return batchSize; }
+
+    /*
+     * checkpoint log to which completed components are appended;
+     * components already recorded under the same signature (see
+     * StitchCheckpoint.signature) whose stitches are still around are
+     * skipped
+     */
+    public UntangleDriver setCheckpoint (File checkpoint, String signature) {
+        this.checkpoint = checkpoint;
+        this.signature = signature;
+        return this;
+    }
+    public File getCheckpoint () { return checkpoint; }
+
+    /*
+     * called (on the calling thread) for each stitch created
+     */
+    public UntangleDriver setConsumer (Consumer<Stitch> consumer) {
+        this.consumer = consumer;
+        return this;
+    }
+
+    /*
+     * components of the last untangle() that failed along with their
+     * errors; these aren't recorded in the checkpoint, so they're tried
+     * again on the next run
+     */
+    public Map<Long, Throwable> getFailures () {
+        return Collections.unmodifiableMap(failures);
+    }
+
+    /*
+     * stitches of a completed component can be reused only if they
+     * haven't been removed since they were recorded
+     */
+    boolean _exists (long[] stitches) {
+        for (long id : stitches) {
+            try {
+                if (!gdb.getNodeById(id).hasLabel(AuxNodeType.SGROUP))
+                    return false;
+            }
+            catch (NotFoundException ex) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * untangle the given components (component nodes or any of their
+     * members); returns the number of components untangled successfully.
+     * components that failed are available through getFailures().
+     */
+    public int untangle (Collection<Long> components) throws Exception {
+        try (StitchCheckpoint cp = checkpoint != null
+             ? new StitchCheckpoint (checkpoint, signature) : null) {
+            return untangle (components, cp);
+        }
+    }
+
+    int untangle (Collection<Long> components, StitchCheckpoint cp)
+        throws Exception {
+        // largest components first so that the long tail is made up of
+        // small ones
+        final Map<Long, Integer> ranks = new HashMap<>();
+        int reused = 0;
+        failures.clear();
+        try (Transaction tx = gdb.beginTx()) {
+            for (Long cid : components) {
+                long[] stitches = cp != null ? cp.getStitches(cid) : null;
+                if (stitches != null) {
+                    if (_exists (stitches)) {
+                        reused += stitches.length;
+                        continue;
+                    }
+                    logger.warning("Stitches of component "+cid
+                                   +" are gone; untangling it again");
+                }
+                Node node = gdb.getNodeById(cid);
+                if (!node.hasLabel(AuxNodeType.COMPONENT))
+                    node = CNode.getRoot(node);
+                ranks.put(cid, (Integer)node.getProperty(Props.RANK, 0));
+            }
+            tx.success();
+        }
+
+        List<Long> todo = new ArrayList<>(ranks.keySet());
+        Collections.sort(todo, (a, b) -> {
+                int d = ranks.get(b) - ranks.get(a);
+                return d == 0 ? Long.compare(a, b) : d;
+            });
+        int skipped = components.size() - todo.size();
+        if (skipped > 0) {
+            // make sure nobody mistakes a resumed run for a full one
+            logger.warning("### "+skipped+" of "+components.size()
+                           +" component(s) SKIPPED as already done in "
+                           +"checkpoint "+cp.getFile()+" ("+reused
+                           +" stitches reused); remove the checkpoint "
+                           +"to untangle them again");
+        }
+        logger.info("### "+todo.size()+" component(s) to untangle; "
+                    +threads+" thread(s)");
+
+        final BlockingQueue<Result> results = new LinkedBlockingQueue<>();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            for (Long cid : todo) {
+                pool.submit(() -> results.add(untangle (cid)));
+            }
+            pool.shutdown();
+
+            long start = System.currentTimeMillis();
+            int count = 0, stitches = 0;
+            List<Result> batch = new ArrayList<>();
+            while (count < todo.size()) {
+                batch.add(results.take());
+                results.drainTo(batch);
+
+                // group into write transactions of about batchSize stitches
+                for (int i = 0; i < batch.size(); ) {
+                    int j = i, n = 0;
+                    do {
+                        n += batch.get(j++).roots.size();
+                    }
+                    while (j < batch.size() && n < batchSize);
+
+                    stitches += write (batch.subList(i, j), cp);
+                    i = j;
+                }
+
+                for (Result r : batch)
+                    if (r.error != null)
+                        failures.put(r.cid, r.error);
+                count += batch.size();
+                batch.clear();
+
+                double elapsed = (System.currentTimeMillis()-start)/1000.;
+                logger.info(String.format
+                            ("## %1$d/%2$d components, %3$d stitches, "
+                             +"%4$d failed (%5$.1f components/s)", count,
+                             todo.size(), stitches, failures.size(),
+                             count/Math.max(elapsed, 0.001)));
+            }
+        }
+        finally {
+            pool.shutdownNow();
+        }
+
+        if (!failures.isEmpty()) {
+            logger.severe("### "+failures.size()+" of "+todo.size()
+                          +" component(s) failed to untangle: "
+                          +failures.keySet());
+        }
+
+        return todo.size() - failures.size();
+    }
+
+    /*
+     * run on a worker thread
+     */
+    Result untangle (Long cid) {
+        Result result = new Result (cid, null);
+        try (Transaction tx = gdb.beginTx()) {
+            Component comp = ef.component(cid);
+            logger.info("########### Untangle component "+cid
+                        +" of size "+comp.size()+"...");
+            result = new Result (cid, untangler.apply(comp));
+            final Result r = result;
+            r.untangler.untangle(ef, (root, member) -> {
+                    r.roots.add(root);
+                    r.members.add(member);
+                });
+            tx.success();
+        }
+        catch (Throwable t) {
+            logger.log(Level.SEVERE, "Can't untangle component "+cid, t);
+            result.error = t;
+        }
+        return result;
+    }
+
+    /*
+     * run on the calling thread
+     */
+    int write (List<Result> batch, StitchCheckpoint cp) throws IOException {
+        List<Stitch> stitches = new ArrayList<>();
+        try (Transaction tx = gdb.beginTx()) {
+            for (Result r : batch)
+                _write (r, stitches);
+            tx.success();
+        }
+        catch (Exception ex) {
+            if (batch.size() == 1) {
+                logger.log(Level.SEVERE, "Can't write stitches for "
+                           +"component "+batch.get(0).cid, ex);
+                batch.get(0).error = ex;
+                return 0;
+            }
+            else {
+                // redo one component per transaction so one bad
+                // component doesn't take the whole batch down with it
+                logger.warning("Batch of "+batch.size()+" components "
+                               +"failed; retrying individually");
+                int n = 0;
+                for (Result r : batch)
+                    n += write (Collections.singletonList(r), cp);
+                return n;
+            }
+        }
+
+        if (consumer != null) {
+            for (Stitch s : stitches)
+                consumer.accept(s);
+        }
+
+        // only record components once their stitches are committed and
+        // processed; a component that was written but not recorded is
+        // simply untangled again on restart, and _createStitch resolves
+        // to the same stitch nodes by key
+        if (cp != null) {
+            for (Result r : batch)
+                if (r.error == null)
+                    cp.record(r.cid, r.stitches);
+        }
+
+        return stitches.size();
+    }
+
+    void _write (Result r, List<Stitch> stitches) {
+        if (r.error != null)
+            return;
+
+        DataSource dsource = r.untangler.getDataSource();
+        r.stitches = new long[r.roots.size()];
+        for (int i = 0; i < r.roots.size(); ++i) {
+            ComponentImpl comp = new ComponentImpl (gdb, r.members.get(i));
+            Long root = r.roots.get(i);
+            if (root != null)
+                comp.setRoot(root);
+            Stitch s = ef._createStitch(dsource, comp);
+            r.stitches[i] = s.getId();
+            stitches.add(s);
+        }
+    }
+}
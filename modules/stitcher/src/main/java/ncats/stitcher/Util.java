@@ -1103,20 +1103,34 @@ public class Util {
     public static String sha1 (Collection<Long> ids) {
         MessageDigest sha1 = sha1 ();
         byte[] data = new byte[8];
-        for (Long id : ids) {
-            data[0] = (byte)((id >> 56) & 0xff);
-            data[1] = (byte)((id >> 48) & 0xff);
-            data[2] = (byte)((id >> 40) & 0xff);
-            data[3] = (byte)((id >> 32) & 0xff);
-            data[4] = (byte)((id >> 24) & 0xff);
-            data[5] = (byte)((id >> 16) & 0xff);
-            data[6] = (byte)((id >> 8) & 0xff);
-            data[7] = (byte)(id & 0xff);
-            sha1.update(data);
-        }
+        for (Long id : ids)
+            sha1.update(toBytes (data, id));
+        return hex (sha1.digest());
+    }
+
+    /*
+     * same digest as above for the same sequence of ids
+     */
+    public static String sha1 (long[] ids) {
+        MessageDigest sha1 = sha1 ();
+        byte[] data = new byte[8];
+        for (long id : ids)
+            sha1.update(toBytes (data, id));
         return hex (sha1.digest());
     }
 
+    static byte[] toBytes (byte[] data, long id) {
+        data[0] = (byte)((id >> 56) & 0xff);
+        data[1] = (byte)((id >> 48) & 0xff);
+        data[2] = (byte)((id >> 40) & 0xff);
+        data[3] = (byte)((id >> 32) & 0xff);
+        data[4] = (byte)((id >> 24) & 0xff);
+        data[5] = (byte)((id >> 16) & 0xff);
+        data[6] = (byte)((id >> 8) & 0xff);
+        data[7] = (byte)(id & 0xff);
+        return data;
+    }
+
     public static void dump (Component component) {
         dump (System.out, component);
     }
@@ -0,0 +1,267 @@
+package ncats.stitcher.graph;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Maximal clique enumeration over a graph given as adjacency bitsets
+ * (adj[i] is the set of neighbors of vertex i) using Bron-Kerbosch with
+ * Tomita pivoting and a degeneracy ordering of the outer loop (Eppstein,
+ * Loeffler, and Strash). The candidate and exclusion sets of each level
+ * of the recursion are kept in bitsets that are allocated once and
+ * reused. An optional time and clique budget cuts the enumeration short;
+ * isTruncated() tells whether that happened.
+ */
+public class BronKerbosch {
+    public interface Visitor {
+        /*
+         * the clique bitset is owned by the enumeration and must be
+         * copied if it's to be kept; return false to stop
+         */
+        boolean clique (BitSet clique);
+    }
+
+    final BitSet[] adj;
+    final int size;
+
+    int minsize = 1;
+    long deadline; // System.currentTimeMillis() based; 0 means none
+    int maxcliques; // 0 means no limit
+
+    int ncliques;
+    boolean truncated;
+    Visitor visitor;
+
+    // per depth buffers
+    BitSet[] P = new BitSet[0], X = new BitSet[0], Q = new BitSet[0];
+    final BitSet R;
+
+    public BronKerbosch (BitSet[] adj) {
+        this.adj = adj;
+        this.size = adj.length;
+        R = new BitSet (size);
+    }
+
+    public BronKerbosch setMinSize (int minsize) {
+        this.minsize = minsize;
+        return this;
+    }
+    public int getMinSize () { return minsize; }
+
+    /*
+     * stop after the given number of milliseconds from now; 0 means no
+     * time limit
+     */
+    public BronKerbosch setTimeout (long millis) {
+        deadline = millis > 0 ? System.currentTimeMillis() + millis : 0;
+        return this;
+    }
+
+    /*
+     * absolute deadline (System.currentTimeMillis()); 0 means none
+     */
+    public BronKerbosch setDeadline (long deadline) {
+        this.deadline = deadline;
+        return this;
+    }
+
+    /*
+     * stop after the given number of cliques have been visited; 0 means
+     * no limit
+     */
+    public BronKerbosch setMaxCliques (int maxcliques) {
+        this.maxcliques = maxcliques;
+        return this;
+    }
+
+    public boolean isTruncated () { return truncated; }
+    public int getCliqueCount () { return ncliques; }
+
+    BitSet buffer (BitSet[] buf, int depth) {
+        return buf[depth] != null
+            ? buf[depth] : (buf[depth] = new BitSet (size));
+    }
+
+    void ensureDepth (int depth) {
+        if (depth >= P.length) {
+            int len = Math.max(depth+1, P.length*2);
+            P = Arrays.copyOf(P, len);
+            X = Arrays.copyOf(X, len);
+            Q = Arrays.copyOf(Q, len);
+        }
+    }
+
+    /*
+     * vertex order such that each vertex has the fewest neighbors among
+     * the vertices that come after it
+     */
+    int[] degeneracyOrder () {
+        int[] degree = new int[size];
+        int maxdeg = 0;
+        for (int i = 0; i < size; ++i) {
+            degree[i] = adj[i].cardinality();
+            if (adj[i].get(i))
+                --degree[i]; // ignore self loops
+            maxdeg = Math.max(maxdeg, degree[i]);
+        }
+
+        // bucket queue keyed by current degree
+        int[] head = new int[maxdeg+1], next = new int[size], prev = new int[size];
+        Arrays.fill(head, -1);
+        for (int i = 0; i < size; ++i) {
+            prev[i] = -1;
+            next[i] = head[degree[i]];
+            if (head[degree[i]] >= 0)
+                prev[head[degree[i]]] = i;
+            head[degree[i]] = i;
+        }
+
+        boolean[] removed = new boolean[size];
+        int[] order = new int[size];
+        int d = 0;
+        for (int k = 0; k < size; ++k) {
+            d = Math.max(0, d - 1);
+            while (head[d] < 0)
+                ++d;
+            int v = head[d];
+            unlink (head, next, prev, degree, v);
+            removed[v] = true;
+            order[k] = v;
+            for (int u = adj[v].nextSetBit(0); u >= 0;
+                 u = adj[v].nextSetBit(u+1)) {
+                if (!removed[u] && u != v) {
+                    unlink (head, next, prev, degree, u);
+                    --degree[u];
+                    prev[u] = -1;
+                    next[u] = head[degree[u]];
+                    if (head[degree[u]] >= 0)
+                        prev[head[degree[u]]] = u;
+                    head[degree[u]] = u;
+                }
+            }
+        }
+        return order;
+    }
+
+    static void unlink (int[] head, int[] next, int[] prev,
+                        int[] degree, int v) {
+        if (prev[v] >= 0) next[prev[v]] = next[v];
+        else head[degree[v]] = next[v];
+        if (next[v] >= 0) prev[next[v]] = prev[v];
+    }
+
+    /*
+     * enumerate all maximal cliques of at least minsize vertices; returns
+     * false if the visitor stopped the enumeration
+     */
+    public boolean enumerate (Visitor visitor) {
+        this.visitor = visitor;
+        ncliques = 0;
+        truncated = false;
+        R.clear();
+
+        ensureDepth (1);
+        BitSet later = new BitSet (size);
+        later.set(0, size);
+        for (int v : degeneracyOrder ()) {
+            later.clear(v);
+            BitSet p = buffer (P, 0), x = buffer (X, 0);
+            p.clear();
+            p.or(adj[v]);
+            x.clear();
+            x.or(adj[v]);
+            p.and(later);
+            x.andNot(later);
+            p.clear(v);
+            x.clear(v);
+
+            R.set(v);
+            int status = expand (0, 1);
+            R.clear(v);
+
+            if (status < 0)
+                return false;
+            if (status > 0 || truncated)
+                break; // the whole graph is a clique or out of budget
+        }
+        return true;
+    }
+
+    /*
+     * returns -1 if the visitor stopped the enumeration, 1 if the clique
+     * spans the whole graph (nothing else to enumerate), and 0 otherwise
+     */
+    int expand (int depth, int rsize) {
+        BitSet p = P[depth], x = X[depth];
+        if (p.isEmpty()) {
+            if (x.isEmpty() && rsize >= minsize) {
+                if (maxcliques > 0 && ncliques >= maxcliques) {
+                    // one clique more than the budget allows
+                    truncated = true;
+                    return 0;
+                }
+                ++ncliques;
+                if (!visitor.clique(R))
+                    return -1;
+                if (rsize == size)
+                    return 1;
+            }
+            return 0;
+        }
+
+        if (deadline > 0 && System.currentTimeMillis() > deadline) {
+            truncated = true;
+            return 0;
+        }
+
+        // pivot: the vertex of P u X with the most neighbors in P
+        int pivot = -1, best = -1;
+        for (BitSet s : new BitSet[]{p, x}) {
+            for (int u = s.nextSetBit(0); u >= 0; u = s.nextSetBit(u+1)) {
+                int n = intersectionSize (p, adj[u]);
+                if (n > best) {
+                    best = n;
+                    pivot = u;
+                }
+            }
+        }
+
+        ensureDepth (depth+1);
+        BitSet q = buffer (Q, depth);
+        q.clear();
+        q.or(p);
+        q.andNot(adj[pivot]);
+
+        BitSet pp = buffer (P, depth+1), xx = buffer (X, depth+1);
+        for (int v = q.nextSetBit(0); v >= 0 && !truncated;
+             v = q.nextSetBit(v+1)) {
+            pp.clear();
+            pp.or(p);
+            pp.and(adj[v]);
+            pp.clear(v);
+            xx.clear();
+            xx.or(x);
+            xx.and(adj[v]);
+            xx.clear(v);
+
+            R.set(v);
+            int status = expand (depth+1, rsize+1);
+            R.clear(v);
+            if (status != 0)
+                return status;
+
+            p.clear(v);
+            x.set(v);
+        }
+        return 0;
+    }
+
+    static int intersectionSize (BitSet a, BitSet b) {
+        // avoid allocating a temporary bitset
+        int n = 0;
+        for (int i = a.nextSetBit(0); i >= 0; i = a.nextSetBit(i+1))
+            if (b.get(i))
+                ++n;
+        return n;
+    }
+}
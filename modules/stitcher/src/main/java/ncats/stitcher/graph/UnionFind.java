@@ -1,71 +1,178 @@
 package ncats.stitcher.graph;
 
-import java.util.Map;
-import java.util.HashMap;
-import java.util.TreeMap;
-import java.util.List;
-import java.util.ArrayList;
-import java.util.Set;
-import java.util.TreeSet;
-import java.util.Iterator;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.function.Consumer;
 
 /**
- * UnionFind algorithm with path compression
+ * UnionFind algorithm with path compression and union by (weighted)
+ * size. Node ids are mapped to dense int indexes through an open
+ * addressing hash table so that parent and size are kept in primitive
+ * arrays; no boxing takes place in add/union/root.
  */
 public class UnionFind {
+    static final int DEFAULT_CAPACITY = 16;
+    static final long EMPTY = Long.MIN_VALUE; // reserved key
 
-    private Map<Long, Long> parent = new HashMap<Long, Long>();
-    private Map<Long, Integer> rank = new HashMap<Long, Integer>();
+    // open addressing long -> index table
+    private long[] keys;
+    private int[] slots;
+    private int mask;
+
+    // index -> node id, parent index, size, and the weight the node
+    // was added with
+    private long[] nodes;
+    private int[] parent;
+    private int[] rank;
+    private int[] weight;
+    private int size;
 
     public UnionFind () {
+        this (DEFAULT_CAPACITY);
+    }
+
+    public UnionFind (int capacity) {
+        init (Math.max(DEFAULT_CAPACITY, capacity));
+    }
+
+    void init (int capacity) {
+        int cap = Integer.highestOneBit(Math.max(2, capacity-1)) << 2;
+        keys = new long[cap];
+        Arrays.fill(keys, EMPTY);
+        slots = new int[cap];
+        mask = cap - 1;
+        nodes = new long[capacity];
+        parent = new int[capacity];
+        rank = new int[capacity];
+        weight = new int[capacity];
+        size = 0;
     }
 
     public void clear () {
-        parent.clear();
-        rank.clear();
+        init (DEFAULT_CAPACITY);
+    }
+
+    public int size () { return size; }
+
+    static int hash (long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdl;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53l;
+        key ^= key >>> 33;
+        return (int)key;
+    }
+
+    /*
+     * index of the given node or -1 if it's not present
+     */
+    protected int index (long n) {
+        if (n == EMPTY)
+            throw new IllegalArgumentException ("Invalid node id: "+n);
+
+        for (int i = hash (n) & mask; ; i = (i + 1) & mask) {
+            long k = keys[i];
+            if (k == n)
+                return slots[i];
+            if (k == EMPTY)
+                return -1;
+        }
+    }
+
+    /*
+     * index of the given node, creating a singleton set of weight r
+     * if the node isn't present
+     */
+    protected int index (long n, int r) {
+        int i = hash (n) & mask;
+        for (long k; (k = keys[i]) != EMPTY; i = (i + 1) & mask) {
+            if (k == n)
+                return slots[i];
+        }
+
+        if (n == EMPTY)
+            throw new IllegalArgumentException ("Invalid node id: "+n);
+
+        if (size == nodes.length) {
+            int cap = size << 1;
+            nodes = Arrays.copyOf(nodes, cap);
+            parent = Arrays.copyOf(parent, cap);
+            rank = Arrays.copyOf(rank, cap);
+            weight = Arrays.copyOf(weight, cap);
+        }
+
+        int x = size++;
+        nodes[x] = n;
+        parent[x] = x;
+        rank[x] = r;
+        weight[x] = r;
+        keys[i] = n;
+        slots[i] = x;
+
+        // keep the load factor at or below 1/2
+        if (size << 1 > keys.length)
+            rehash (keys.length << 1);
+
+        return x;
+    }
+
+    void rehash (int cap) {
+        keys = new long[cap];
+        Arrays.fill(keys, EMPTY);
+        slots = new int[cap];
+        mask = cap - 1;
+        for (int x = 0; x < size; ++x) {
+            int i = hash (nodes[x]) & mask;
+            while (keys[i] != EMPTY)
+                i = (i + 1) & mask;
+            keys[i] = nodes[x];
+            slots[i] = x;
+        }
+    }
+
+    protected int find (int x) {
+        int r = x;
+        while (parent[r] != r)
+            r = parent[r];
+
+        // path compression
+        while (parent[x] != r) {
+            int p = parent[x];
+            parent[x] = r;
+            x = p;
+        }
+        return r;
     }
 
     protected Long getRoot (Long n) {
         return getRoot (n, 1);
     }
-    
+
     protected Long getRoot (Long n, int r) {
-        Long p = parent.get(n);
-        if (p != null) {
-            while (!n.equals(p)) {
-                n = p;          
-                p = parent.get(p);              
-            }
-        }
-        else {
-            parent.put(n, n);
-            rank.put(n, r);
-        }
-        return n;
+        return nodes[find (index (n, r))];
     }
 
     public boolean add (long p) {
         return add (p, 1);
     }
-    
+
     public boolean add (long p, int r) {
-        Long q = getRoot (p, r);
-        return q.equals(p);
+        int x = index (p, r);
+        return find (x) == x;
     }
-    
+
     public boolean find (long p, long q) {
-        return parent.containsKey(p) && parent.containsKey(q)
-            && getRoot(p).equals(getRoot (q));
+        int x = index (p), y = index (q);
+        return x >= 0 && y >= 0 && find (x) == find (y);
     }
 
     public boolean contains (long p) {
-        return parent.containsKey(p);
+        return index (p) >= 0;
     }
 
     public Long root (long p) {
-        return parent.containsKey(p) ? getRoot (p) : null;
+        int x = index (p);
+        return x >= 0 ? nodes[find (x)] : null;
     }
 
     public long union (long p, long q) {
@@ -73,58 +180,105 @@ public class UnionFind {
     }
 
     public long union (long p, long q, boolean maxrank) {
-        long i = getRoot (p);
-        long j = getRoot (q);
-        long k;
+        int i = find (index (p, 1));
+        int j = find (index (q, 1));
+        int k;
         if (i != j) {
-            int ri = rank.get(i);
-            int rj = rank.get(j);
+            int ri = rank[i];
+            int rj = rank[j];
             if (ri >= rj || !maxrank) { // preserve directionality
-                parent.put(j, i);
-                rank.put(i, ri+rj);
+                parent[j] = i;
+                rank[i] = ri+rj;
                 k = i;
             }
             else {
-                parent.put(i, j);
-                rank.put(j, ri+rj);
+                parent[i] = j;
+                rank[j] = ri+rj;
                 k = j;
             }
         }
         else
             k = i; // or p = j
-        return k;
+        return nodes[k];
+    }
+
+    /*
+     * merge the equivalence classes of another instance into this one;
+     * the resulting components and their weights are the same as if all
+     * the unions of both instances had been done on this instance. nodes
+     * keep the weight they were first added with.
+     */
+    public void union (UnionFind uf) {
+        for (int x = 0; x < uf.size; ++x)
+            index (uf.nodes[x], uf.weight[x]);
+        for (int x = 0; x < uf.size; ++x) {
+            int r = uf.find(x);
+            if (r != x)
+                union (uf.nodes[r], uf.nodes[x]);
+        }
+    }
+
+    /*
+     * weight of the component of the given node or 0 if it's not present
+     */
+    public int weight (long p) {
+        int x = index (p);
+        return x >= 0 ? rank[find (x)] : 0;
     }
 
     public long component (long p) { return getRoot (p); }
-    public long[][] components () {
-        Map<Long, Set<Long>> eqmap = new TreeMap<Long, Set<Long>>();
-        for (Long n : parent.keySet()) {
-            Long p = getRoot (n);
-            Set<Long> comp = eqmap.get(p);
-            if (comp == null) {
-                eqmap.put(p, comp = new TreeSet<Long>());
-            }
-            comp.add(n);
+
+    /*
+     * stream each component (with members sorted by id) to the consumer
+     * without building intermediate sets; components are visited in
+     * the order their roots were first added
+     */
+    public void components (Consumer<long[]> consumer) {
+        // count the members of each root
+        int[] count = new int[size];
+        int[] roots = new int[size];
+        for (int x = 0; x < size; ++x) {
+            roots[x] = find (x);
+            ++count[roots[x]];
         }
 
-        // equivalence class
-        long[][] eqv = new long[eqmap.size()][];
-        int eq = 0;
-        for (Map.Entry<Long, Set<Long>> me : eqmap.entrySet()) {
-            Set<Long> v = me.getValue();
-            eqv[eq] = new long[v.size()];
-            int i = 0;
-            for (Iterator<Long> it = v.iterator(); it.hasNext(); ++i)
-                eqv[eq][i] = it.next();
-            ++eq;
+        // bucket members by root
+        int[] offset = new int[size+1];
+        for (int x = 0; x < size; ++x)
+            offset[x+1] = offset[x] + count[x];
+        long[] members = new long[size];
+        int[] pos = Arrays.copyOf(offset, size);
+        for (int x = 0; x < size; ++x)
+            members[pos[roots[x]]++] = nodes[x];
+
+        for (int x = 0; x < size; ++x) {
+            if (count[x] > 0) {
+                long[] comp = Arrays.copyOfRange
+                    (members, offset[x], offset[x+1]);
+                Arrays.sort(comp);
+                consumer.accept(comp);
+            }
         }
+    }
+
+    public long[][] components () {
+        int n = 0;
+        for (int x = 0; x < size; ++x)
+            if (parent[x] == x)
+                ++n;
+
+        final long[][] eqv = new long[n][];
+        final int[] eq = {0};
+        components (c -> {
+                eqv[eq[0]++] = c;
+            });
 
         // now sort the array
         Arrays.sort(eqv, new Comparator<long[]> () {
                 public int compare (long[] c1, long[] c2) {
                     int d = c2.length - c1.length;
                     if (d == 0) {
-                        d = (int)(c1[0] - c2[0]);
+                        d = Long.compare(c1[0], c2[0]);
                     }
                     return d;
                 }
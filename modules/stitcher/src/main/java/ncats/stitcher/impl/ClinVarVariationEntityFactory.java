@@ -42,32 +42,51 @@ public class ClinVarVariationEntityFactory extends EntityRegistry {
 
     static final boolean LITERATURE_ONLY = true;
 
-    class ClinVarVariationParser implements BiConsumer<XmlStream, byte[]> {
-        final DocumentBuilder builder;
-
-        public int count;
-        ClinVarVariationParser () throws Exception {
-            builder = DocumentBuilderFactory.newInstance()
-                .newDocumentBuilder();
-        }
+    /*
+     * parses a record into a Variation; safe to call from any thread
+     */
+    class ClinVarVariationParser implements Function<byte[], Variation> {
+        final ThreadLocal<DocumentBuilder> builder =
+            ThreadLocal.withInitial(() -> {
+                    try {
+                        return DocumentBuilderFactory.newInstance()
+                            .newDocumentBuilder();
+                    }
+                    catch (ParserConfigurationException ex) {
+                        throw new RuntimeException (ex);
+                    }
+                });
 
-        public void accept (XmlStream xs, byte[] xml) {
-            //logger.info("### processing record "+xs.getCount()+"...");
+        public Variation apply (byte[] xml) {
             try {
-                Document doc = builder.parse(new ByteArrayInputStream (xml));
-                Entity ent = register (xs, doc, xml);
-                if (ent != null)
-                    ++count;
+                Document doc = builder.get().parse
+                    (new ByteArrayInputStream (xml));
+                return parse (doc);
             }
             catch (Exception ex) {
                 logger.log(Level.SEVERE,
-                           "Can't register ClinVarVariation record:\n"
+                           "Can't parse ClinVarVariation record:\n"
                            +new String(xml), ex);
             }
+            return null;
         }
     }
 
-    DateFormat df = new SimpleDateFormat ("yyyy-MM-dd");
+    /*
+     * the data of a record as extracted from its xml
+     */
+    static class Variation {
+        final Map<String, Object> data = new LinkedHashMap<>();
+        final Set<String> genes = new TreeSet<>();
+        final List<Map> interps = new ArrayList<>();
+        int conditionCount;
+    }
+
+    // SimpleDateFormat isn't thread safe
+    final ThreadLocal<DateFormat> df = ThreadLocal.withInitial
+        (() -> new SimpleDateFormat ("yyyy-MM-dd"));
+    // records parsed concurrently with registration; 1 means inline
+    int parserThreads = 1;
 
     public ClinVarVariationEntityFactory(GraphDb graphDb) throws IOException {
         super (graphDb);
@@ -93,7 +112,17 @@ public class ClinVarVariationEntityFactory extends EntityRegistry {
             ;
     }
 
-    Entity register (XmlStream xs, Document doc, byte[] xml) throws Exception {
+    public void setParserThreads (int threads) {
+        parserThreads = threads == 0
+            ? Runtime.getRuntime().availableProcessors() : threads;
+    }
+    public int getParserThreads () { return parserThreads; }
+
+    /*
+     * extract a record from its DOM; returns null if the record is
+     * skipped. this doesn't touch the graph.
+     */
+    Variation parse (Document doc) throws Exception {
         XPath xpath = XPathFactory.newInstance().newXPath();        
         Element vcv = doc.getDocumentElement();
 
@@ -104,7 +133,8 @@ public class ClinVarVariationEntityFactory extends EntityRegistry {
                 return null;
         }
 
-        Map<String, Object> data = new LinkedHashMap<>();
+        Variation var = new Variation ();
+        Map<String, Object> data = var.data;
         String type = vcv.getAttribute("VariationType");
         data.put("id", Long.parseLong(vcv.getAttribute("VariationID")));
         data.put("accession", vcv.getAttribute("Accession"));
@@ -116,13 +146,13 @@ public class ClinVarVariationEntityFactory extends EntityRegistry {
                  
         String value = vcv.getAttribute("DateCreated");
         if (value != null) {
-            Date date = df.parse(value);
+            Date date = df.get().parse(value);
             data.put("created", date.getTime());
         }
         
         value = vcv.getAttribute("DateLastUpdated");
         if (value != null) {
-            Date date = df.parse(value);
+            Date date = df.get().parse(value);
             data.put("updated", date.getTime());
         }
         
@@ -130,7 +160,7 @@ public class ClinVarVariationEntityFactory extends EntityRegistry {
             ("./InterpretedRecord/"
              +(type.equalsIgnoreCase("haplotype") ? "Haplotype/":"")
              +"SimpleAllele/GeneList/Gene", vcv, XPathConstants.NODESET);
-        Set<String> genes = new TreeSet<>();
+        Set<String> genes = var.genes;
         Set<String> generefs = new TreeSet<>();
         Set<Integer> alleles = new TreeSet<>();
         for (int i = 0; i < values.getLength(); ++i) {
@@ -171,7 +201,7 @@ public class ClinVarVariationEntityFactory extends EntityRegistry {
         values = (NodeList)xpath.evaluate
             ("./InterpretedRecord/Interpretations/Interpretation",
              vcv, XPathConstants.NODESET);
-        List<Map> interps = new ArrayList<>();
+        List<Map> interps = var.interps;
         Set<String> conditions = new TreeSet<>();
         int conditionCount = 0;
         for (int i = 0; i < values.getLength(); ++i) {
@@ -242,7 +272,17 @@ public class ClinVarVariationEntityFactory extends EntityRegistry {
         data.put("interpretations", interpretations.toArray(new String[0]));
         data.put("conditions", conditions.toArray(new String[0]));
         data.put("condition_count", conditionCount);
+        var.conditionCount = conditionCount;
+
+        return var;
+    }
 
+    Entity register (XmlStream xs, Variation var) throws Exception {
+        Map<String, Object> data = var.data;
+        Set<String> genes = var.genes;
+        List<Map> interps = var.interps;
+        int conditionCount = var.conditionCount;
+        
         Entity ent = register (data);
         if (ent != null) {
             logger.info("++++++ "+String.format("%1$6d ", xs.getCount())
@@ -284,15 +324,30 @@ public class ClinVarVariationEntityFactory extends EntityRegistry {
 
         logger.info("############## registering entities for "+file);
         try {
-            ClinVarVariationParser varp = new ClinVarVariationParser ();
+            final int[] count = {0};
+            long start = System.currentTimeMillis();
             try (XmlStream xs = new XmlStream
                  (new GZIPInputStream (new FileInputStream (file)),
-                  "VariationArchive", varp)) {
-                int total = xs.start();
-                ds.set(INSTANCES, varp.count);
+                  "VariationArchive")) {
+                int total = xs.start
+                    (parserThreads, new ClinVarVariationParser (),
+                     (_xs, var) -> {
+                        try {
+                            if (register (_xs, var) != null)
+                                ++count[0];
+                        }
+                        catch (Exception ex) {
+                            logger.log(Level.SEVERE,
+                                       "Can't register ClinVarVariation "
+                                       +var.data.get("accession"), ex);
+                        }
+                    });
+                ds.set(INSTANCES, count[0]);
                 updateMeta (ds);
-                logger.info("############### "+varp.count+"/"
-                            +total+" entities registered!");
+                logger.info("############### "+count[0]+"/"
+                            +total+" entities registered in "
+                            +(System.currentTimeMillis()-start)+"ms using "
+                            +parserThreads+" parser thread(s)!");
             }
         }
         catch (Exception ex) {
@@ -304,12 +359,16 @@ public class ClinVarVariationEntityFactory extends EntityRegistry {
     public static void main(String[] argv) throws Exception {
         if (argv.length < 2) {
             logger.info("Usage: "+ClinVarVariationEntityFactory.class.getName()
-                        +" DBDIR ClinVarVariationRelease_00-latest.xml.gz");
+                        +" DBDIR ClinVarVariationRelease_00-latest.xml.gz "
+                        +"[threads=1]");
             System.exit(1);
         }
 
         try (ClinVarVariationEntityFactory cvv =
              new ClinVarVariationEntityFactory (argv[0])) {
+            if (argv.length > 2 && argv[2].startsWith("threads="))
+                cvv.setParserThreads
+                    (Integer.parseInt(argv[2].substring(8)));
             cvv.register(new File (argv[1]));
         }
     }
@@ -33,6 +33,7 @@ public class MedGenEntityFactory extends EntityRegistry {
         final LineTokenizer tokenizer;
         Map<String, String> row = new LinkedHashMap<>();
         Map<String, Object> current;
+        String[] toks; // reused across lines
         
         MedGenReader (File file) throws IOException {
             tokenizer = new LineTokenizer ('|');
@@ -65,7 +66,7 @@ public class MedGenEntityFactory extends EntityRegistry {
             updateRecord (rec);
             row.clear();
             while (tokenizer.hasNext()) {
-                String[] toks = tokenizer.next();
+                toks = tokenizer.next(toks);
                 if (toks.length != header.length) {
                     logger.warning(tokenizer.getLineCount()+": expect "
                                    +header.length+" tokens but instead got "
@@ -53,14 +53,13 @@ public class MoleculeEntityFactory extends EntityRegistry {
     }
 
     public Entity register (final Molecule mol) {
-        // execute in transaction context
-        try (Transaction tx = gdb.beginTx()) {
-            Entity e = _register (mol);
-            tx.success();
-            firePropertyChange ("entity", mol, e);
-            
-            return e;
-        }
+        // execute in transaction context (or current batch); listeners
+        // only hear about the entity once it's committed
+        return bulk (() -> {
+                Entity e = _register (mol);
+                afterCommit (() -> firePropertyChange ("entity", mol, e));
+                return e;
+            });
     }
 
     public Entity _register (final Molecule mol) {
@@ -251,15 +250,20 @@ public class MoleculeEntityFactory extends EntityRegistry {
     }
 
     public int register (InputStream is) throws IOException {
-        int count = 0;
+        final int[] count = {0};
         MolImporter mi = new MolImporter (is);  
-        for (Molecule mol; (mol = mi.read()) != null; ++count) {
-            System.out.println("+++++ "+(count+1)+" +++++");
-            register (mol);
-        }
+        this.<Molecule>pipeline (sink -> {
+                for (Molecule mol; (mol = mi.read()) != null; )
+                    sink.accept(mol);
+            }, mol -> mol, mol -> {
+                if (++count[0] % 1000 == 0)
+                    logger.info("+++++ "+count[0]+" +++++");
+                return register (mol);
+            });
         mi.close();
-        logger.info("$$$ "+count+" entities registered!");
-        return count;
+        flush ();
+        logger.info("$$$ "+count[0]+" entities registered!");
+        return count[0];
     }
 
     public int register (DataSource ds) throws IOException {
@@ -270,6 +274,16 @@ public class MoleculeEntityFactory extends EntityRegistry {
                            +" entities!");
         }
         else {
+            if (lychiPrefetch) {
+                try (InputStream is = ds.openStream()) {
+                    MolImporter mi = new MolImporter (is);
+                    this.<Molecule>prefetch (sink -> {
+                            for (Molecule mol; (mol = mi.read()) != null; )
+                                sink.accept(mol);
+                        }, mol -> mol);
+                    mi.close();
+                }
+            }
             instances = register (ds.openStream());
             updateMeta (ds);
             ds.set(INSTANCES, instances);
@@ -13,6 +13,9 @@ import java.util.concurrent.Callable;
 import java.lang.reflect.Array;
 
 import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
 import org.apache.jena.ontology.*;
 import org.apache.jena.rdf.model.*;
 import org.apache.jena.util.FileManager;
@@ -176,6 +179,15 @@ public class OntEntityFactory extends EntityRegistry {
         public boolean isOntology () {
             return "Ontology".equalsIgnoreCase(type);
         }
+        public boolean isProperty () {
+            return "ObjectProperty".equals(type)
+                || "AnnotationProperty".equals(type);
+        }
+        // anything else is kept as a cross reference
+        public boolean isXref () {
+            return !isOntology () && !isAxiom () && !isRestriction ()
+                && !isClass () && !isProperty ();
+        }
 
         public String toString () {
             StringBuilder sb = new StringBuilder ();
@@ -209,9 +221,25 @@ public class OntEntityFactory extends EntityRegistry {
         }
     }
 
+    /*
+     * classes (and properties) registered within a transaction when
+     * loading from spilled triples
+     */
+    static final int SPILL_BATCH = 1000;
+    /*
+     * rough number of spilled bytes per bucket
+     */
+    static final long SPILL_BUCKET_SIZE = 8l<<20;
+    
     Map<Resource, OntologyResource> resources = new LinkedHashMap<>();
     Map<Resource, OntologyResource> xrefs = new LinkedHashMap<>();
     OntologyResource ontology;
+
+    // if set, ontologies are streamed through this directory instead of
+    // being loaded into memory; see registerStreaming()
+    File spill;
+    // non-class resources by key when streaming
+    MappedCacheStore lookup;
     
     public OntEntityFactory(GraphDb graphDb) throws IOException {
         super (graphDb);
@@ -286,6 +314,73 @@ public class OntEntityFactory extends EntityRegistry {
         resources.clear();
         xrefs.clear();
     }
+
+    public void setSpillDir (File spill) {
+        this.spill = spill;
+    }
+    public File getSpillDir () { return spill; }
+
+    /*
+     * the lookups below go to the in-memory maps or, when streaming, to
+     * the spilled resources
+     */
+    boolean isClassResource (Resource res) {
+        if (lookup == null)
+            return resources.containsKey(res);
+        try {
+            return lookup.getBytes(classKey (res.asNode())) != null;
+        }
+        catch (IOException ex) {
+            throw new RuntimeException (ex);
+        }
+    }
+
+    OntologyResource getXref (Resource res) {
+        if (lookup == null)
+            return xrefs.get(res);
+        OntologyResource or = loadResource (res.asNode());
+        return or != null && or.isXref() ? or : null;
+    }
+
+    OntologyResource getResource (Resource res) {
+        if (lookup == null)
+            return new OntologyResource (res);
+        OntologyResource or = loadResource (res.asNode());
+        return or != null ? or : new OntologyResource (res);
+    }
+
+    static byte[] classKey (Node node) {
+        return ("C "+TripleSpill.key(node)).getBytes();
+    }
+
+    static byte[] resourceKey (Node node) {
+        return ("R "+TripleSpill.key(node)).getBytes();
+    }
+
+    OntologyResource loadResource (Node node) {
+        return loadResource (resourceKey (node));
+    }
+    
+    OntologyResource loadResource (byte[] key) {
+        try {
+            byte[] data = lookup.getBytes(key);
+            if (data == null)
+                return null;
+            Model model = ModelFactory.createDefaultModel();
+            TripleSpill.decode(data, model.getGraph());
+            ResIterator iter = model.listSubjects();
+            try {
+                return iter.hasNext()
+                    ? new OntologyResource (iter.nextResource()) : null;
+            }
+            finally {
+                iter.close();
+            }
+        }
+        catch (IOException ex) {
+            throw new RuntimeException (ex);
+        }
+    }
     
     static String getResourceValue (Resource r) {
         String v = r.getLocalName();
@@ -1455,12 +1550,13 @@ public class OntEntityFactory extends EntityRegistry {
     void _stitch (Entity ent, String name,
                   Resource res, Map<String, Object> attrs) {
         String uri = getURI (res);
+        OntologyResource or;
         if (DEBUG > 0) {
             logger.info("+++++ stitching resource "+res+" (uri="+uri
                         +") to entity "+ent.getId()+" via "+name+"...");
         }
         
-        if (uri != null || resources.containsKey(res)) {
+        if (uri != null || isClassResource (res)) {
             if (uri == null) {
                 uri = res.toString(); // anonymous class
             }
@@ -1495,8 +1591,7 @@ public class OntEntityFactory extends EntityRegistry {
                 }
             }
         }
-        else if (xrefs.containsKey(res)) {
-            OntologyResource or = xrefs.get(res);
+        else if ((or = getXref (res)) != null) {
             if (DEBUG > 0) {
                 logger.info("~~~~~ resolving "+res+" to entity "
                             +ent.getId()+" via "+name+"\n"+or);
@@ -1509,12 +1604,12 @@ public class OntEntityFactory extends EntityRegistry {
                 }
                 
                 Resource r = (Resource)me.getValue();
-                if (xrefs.containsKey(r)) {
-                    OntologyResource ores = xrefs.get(r);
+                OntologyResource ores = getXref (r);
+                if (ores != null) {
                     _stitch (ent, name, ores.resource);
                 }
                 else {
-                    OntologyResource ores = new OntologyResource (r);
+                    ores = getResource (r);
                     if (DEBUG > 0) {
                         logger.info("^^^^^"+ores);
                     }
@@ -1523,7 +1618,7 @@ public class OntEntityFactory extends EntityRegistry {
             }
         }
         else {
-            _stitch (ent, name, new OntologyResource (res));
+            _stitch (ent, name, getResource (res));
         }
     }
 
@@ -1612,8 +1707,37 @@ public class OntEntityFactory extends EntityRegistry {
         return ent;
     }
 
+    void setOntology (DataSource ds, OntologyResource or) {
+        ontology = or;
+        for (Map.Entry<String, Object> me : or.props.entrySet())
+            if (!"".equals(me.getKey()))
+                ds.set(me.getKey(), me.getValue());
+        
+        for (Map.Entry<String, Object> me : or.links.entrySet()) {
+            Object value = me.getValue();
+            if (value.getClass().isArray()) {
+                int len = Array.getLength(value);
+                String[] vals = new String[len];
+                for (int i = 0; i < len; ++i) {
+                    Resource r = (Resource) Array.get(value, i);
+                    vals[i] = getURI (r);
+                }
+                ds.set(me.getKey(), vals);
+            }
+            else {
+                Resource r = (Resource) me.getValue();
+                String uri = getURI (r);
+                if (uri != null)
+                    ds.set(me.getKey(), uri);
+            }
+        }
+        logger.info(">>>>>>> Ontology <<<<<<<<\n"+or);
+    }
+    
     public DataSource register (String file) throws Exception {
         DataSource ds = super.register(new File (file));
+        if (spill != null)
+            return registerStreaming (ds, file);
 
         Model model = ModelFactory.createDefaultModel();
         model.read(file);
@@ -1624,30 +1748,7 @@ public class OntEntityFactory extends EntityRegistry {
             Resource res = iter.nextResource();
             OntologyResource or = new OntologyResource (res);
             if (or.isOntology()) {
-                ontology = or;
-                for (Map.Entry<String, Object> me : or.props.entrySet())
-                    if (!"".equals(me.getKey()))
-                        ds.set(me.getKey(), me.getValue());
-                
-                for (Map.Entry<String, Object> me : or.links.entrySet()) {
-                    Object value = me.getValue();
-                    if (value.getClass().isArray()) {
-                        int len = Array.getLength(value);
-                        String[] vals = new String[len];
-                        for (int i = 0; i < len; ++i) {
-                            Resource r = (Resource) Array.get(value, i);
-                            vals[i] = getURI (r);
-                        }
-                        ds.set(me.getKey(), vals);
-                    }
-                    else {
-                        Resource r = (Resource) me.getValue();
-                        String uri = getURI (r);
-                        if (uri != null)
-                            ds.set(me.getKey(), uri);
-                    }
-                }
-                logger.info(">>>>>>> Ontology <<<<<<<<\n"+or);
+                setOntology (ds, or);
                 break;
             }
         }
@@ -1761,6 +1862,216 @@ public class OntEntityFactory extends EntityRegistry {
         return ds;
     }
 
+    /*
+     * load the ontology without keeping its model in memory: the
+     * triples are parsed once and spilled into buckets by subject. each
+     * bucket is then grouped into resources; classes and properties are
+     * spilled again along with their axioms (by annotatedSource) while
+     * everything else (restrictions, xrefs) goes to a lookup store for
+     * the resolution passes. registration and resolution then go one
+     * bucket (and SPILL_BATCH resources per transaction) at a time.
+     */
+    protected DataSource registerStreaming (DataSource ds, String file)
+        throws Exception {
+        reset ();
+        int nb = (int)Math.max(16l, Math.min
+                               (1024l, new File(file).length()
+                                / SPILL_BUCKET_SIZE));
+        File dir = new File (spill, ds.getKey());
+        File lookupDir = new File (dir, "lookup");
+        if (lookupDir.exists())
+            for (File f : lookupDir.listFiles())
+                f.delete();
+
+        long start = System.currentTimeMillis();
+        logger.info("Spilling triples of "+file+" to "+dir+"...");
+        final TripleSpill subjects = new TripleSpill (dir, "subject", nb);
+        try {
+            RDFDataMgr.parse(new StreamRDFBase () {
+                    @Override
+                    public void triple (Triple triple) {
+                        try {
+                            subjects.add(triple.getSubject(), triple);
+                        }
+                        catch (IOException ex) {
+                            throw new RuntimeException (ex);
+                        }
+                    }
+                }, file);
+        }
+        finally {
+            subjects.close();
+        }
+        logger.info("###### "+subjects.getCount()+" triples spilled into "
+                    +nb+" buckets in "
+                    +(System.currentTimeMillis()-start)+"ms");
+
+        TripleSpill owners = new TripleSpill (dir, "owner", nb);
+        File xrefFile = new File (dir, "xrefs.keys");
+        lookup = new MappedCacheStore (lookupDir);
+        try {
+            int nclasses = 0, naxioms = 0, nxrefs = 0;
+            try (DataOutputStream xrefKeys = new DataOutputStream
+                 (new BufferedOutputStream
+                  (new FileOutputStream (xrefFile)))) {
+                for (int b = 0; b < nb; ++b) {
+                    Model model = subjects.load(b);
+                    for (ResIterator iter = model.listSubjects();
+                         iter.hasNext(); ) {
+                        Resource res = iter.nextResource();
+                        OntologyResource or = new OntologyResource (res);
+                        List<Triple> triples = res.listProperties()
+                            .mapWith(Statement::asTriple).toList();
+                        if (or.isOntology()) {
+                            if (ontology == null)
+                                setOntology (ds, or);
+                        }
+                        else if (or.isAxiom()) {
+                            Resource src = (Resource)
+                                or.links.get("annotatedSource");
+                            owners.add((src != null ? src : res)
+                                       .asNode(), triples);
+                            ++naxioms;
+                        }
+                        else if (or.isClass() || or.isProperty()) {
+                            owners.add(res.asNode(), triples);
+                            lookup.putBytes(classKey (res.asNode()),
+                                            new byte[0]);
+                            ++nclasses;
+                        }
+                        else {
+                            byte[] key = resourceKey (res.asNode());
+                            lookup.putBytes
+                                (key, TripleSpill.encode(triples));
+                            if (or.isXref() && or.uri != null) {
+                                xrefKeys.writeInt(key.length);
+                                xrefKeys.write(key);
+                                ++nxrefs;
+                            }
+                        }
+                    }
+                    model.close();
+                }
+            }
+            finally {
+                owners.close();
+                subjects.delete();
+            }
+            lookup.flush();
+            
+            if (ontology == null) {
+                logger.warning("!!! No ontology class found! !!!");
+            }
+            logger.info("###### "+nclasses+" class resources, "+naxioms
+                        +" axioms and "+nxrefs+" xrefs grouped!");
+
+            // register entities
+            logger.info("####### registering entities...");
+            int unresolved = 0;
+            for (int b = 0; b < nb; ++b)
+                unresolved += registerSpilled (owners.load(b), false);
+            
+            // resolve other references (if any)
+            logger.info("####### resolving other entities...");
+            try (DataInputStream in = new DataInputStream
+                 (new BufferedInputStream (new FileInputStream (xrefFile)))) {
+                List<byte[]> keys = new ArrayList<>();
+                for (int n = 0; n < nxrefs; ++n) {
+                    byte[] key = new byte[in.readInt()];
+                    in.readFully(key);
+                    keys.add(key);
+                    if (keys.size() == SPILL_BATCH || n+1 == nxrefs) {
+                        try (Transaction tx = gdb.beginTx()) {
+                            for (byte[] k : keys)
+                                _resolve (loadResource (k));
+                            tx.success();
+                        }
+                        keys.clear();
+                    }
+                }
+            }
+            
+            // resolve entities
+            logger.info("####### resolving class entities...");
+            for (int b = 0; b < nb; ++b)
+                registerSpilled (owners.load(b), true);
+            
+            if (unresolved > 0) {
+                logger.warning("!!!!! "+unresolved
+                               +" unresolved axioms !!!!!");
+            }
+            
+            ds.set(INSTANCES, nclasses);
+            updateMeta (ds);
+            logger.info("###### "+file+" registered in "
+                        +(System.currentTimeMillis()-start)+"ms");
+        }
+        finally {
+            lookup.close();
+            lookup = null;
+            owners.delete();
+            xrefFile.delete();
+            for (File f : lookupDir.listFiles())
+                f.delete();
+            lookupDir.delete();
+            dir.delete();
+        }
+        
+        return ds;
+    }
+
+    /*
+     * register (or resolve) the classes of a bucket of spilled owners
+     * with their axioms; returns the number of axioms without a class
+     */
+    int registerSpilled (Model model, boolean resolve) {
+        Map<Resource, OntologyResource> classes = new LinkedHashMap<>();
+        List<OntologyResource> axioms = new ArrayList<>();
+        for (ResIterator iter = model.listSubjects(); iter.hasNext(); ) {
+            Resource res = iter.nextResource();
+            OntologyResource or = new OntologyResource (res);
+            if (or.isAxiom())
+                axioms.add(or);
+            else
+                classes.put(res, or);
+        }
+
+        int unresolved = 0;
+        for (OntologyResource or : axioms) {
+            OntologyResource ref = classes.get
+                ((Resource) or.links.get("annotatedSource"));
+            if (ref != null) {
+                ref.axioms.add(or);
+            }
+            else {
+                if (!resolve)
+                    System.out.println(or);
+                ++unresolved;
+            }
+        }
+
+        List<OntologyResource> batch = new ArrayList<>(classes.values());
+        for (int i = 0; i < batch.size(); i += SPILL_BATCH) {
+            try (Transaction tx = gdb.beginTx()) {
+                for (OntologyResource or : batch.subList
+                         (i, Math.min(batch.size(), i+SPILL_BATCH))) {
+                    if (resolve) {
+                        _resolve (or);
+                    }
+                    else {
+                        Entity ent = _registerIfAbsent (or);
+                        logger.info("+++++++ "+ent.getId()+" +++++++\n"
+                                    +or.resource+"\n"+or);
+                    }
+                }
+                tx.success();
+            }
+        }
+        model.close();
+        
+        return unresolved;
+    }
+
     static void iterateModel (Model model) {
         Map<String, Integer> classes = new TreeMap<>();
         for (ResIterator iter = model.listSubjects(); iter.hasNext();) {
@@ -1825,7 +2136,7 @@ public class OntEntityFactory extends EntityRegistry {
     public static void main(String[] argv) throws Exception {
         if (argv.length < 2) {
             logger.info("Usage: "+OntEntityFactory.class.getName()
-                        +" DBDIR [cache=DIR] [OWL|TTL]...");
+                        +" DBDIR [cache=DIR] [spill=DIR] [OWL|TTL]...");
             System.exit(1);
         }
 
@@ -1835,6 +2146,10 @@ public class OntEntityFactory extends EntityRegistry {
                 def.setCache(argv[i].substring(6));
                 ++i;
             }
+            if (argv[i].startsWith("spill=")) {
+                def.setSpillDir(new File (argv[i].substring(6)));
+                ++i;
+            }
 
             for (; i < argv.length; ++i)
                 def.register(argv[i]);
@@ -62,28 +62,56 @@ public class SRSJsonEntityFactory extends MoleculeEntityFactory {
         add (T_Keyword, "Class");
     }
 
-    void register (String line, int total) {
-        System.out.println("+gsrs+ "+(count+1)+" +++++");
+    /*
+     * parsed GSRS record
+     */
+    static class Record {
+        final String line;
+        final int total;
+        Object vobj;
+
+        Record (String line, int total) {
+            this.line = line;
+            this.total = total;
+        }
+    }
+
+    Record parse (String line, int total) {
+        Record rec = new Record (line, total);
         String[] toks = line.split("\t");
         if (toks.length < 2) {
             logger.warning(total+": Expecting 3 fields, but instead got "
                            +toks.length+";\n"+line);
-            return;
         }
-            
-        //logger.info("JSON: "+toks[2]);
-        Object vobj = Util.fromJson(toks[2]);
-        if (vobj == null) {
-            logger.warning("Can't parse json: "+toks[2]);
+        else {
+            //logger.info("JSON: "+toks[2]);
+            rec.vobj = Util.fromJson(toks[2]);
+            if (rec.vobj == null)
+                logger.warning("Can't parse json: "+toks[2]);
         }
-        else if (vobj instanceof Molecule) {
+        return rec;
+    }
+
+    Entity register (String line, int total) {
+        return register (parse (line, total));
+    }
+    
+    /*
+     * the lookups for active moieties are only updated once the record
+     * is committed, so a batch that gets rolled back and replayed leaves
+     * no references to its rolled back entities behind
+     */
+    Entity register (Record rec) {
+        Entity ent = null;
+        Object vobj = rec.vobj;
+        if (vobj instanceof Molecule) {
             Molecule mol = (Molecule)vobj;
             for (int i = 0; i < mol.getPropertyCount(); ++i) {
                 String prop = mol.getPropertyKey(i);
                 properties.add(prop);
             }
             
-            Entity ent = register (mol);
+            ent = register (mol);
             String relationships = mol.getProperty(RELATIONSHIPS);
             if (relationships != null && relationships.length() > 0) {
                 String[] rels = relationships.split("\n");
@@ -91,14 +119,12 @@ public class SRSJsonEntityFactory extends MoleculeEntityFactory {
                     processGSRSRel(ent, rel, false);
                 }
             }
-
-            ++count;
         }
-        else { // not chemical
+        else if (vobj != null) { // not chemical
             Map<String, Object> map = (Map)vobj;
             properties.addAll(map.keySet());
             
-            Entity ent = register (map);
+            ent = register (map);
             vobj = map.get(RELATIONSHIPS);
             if (vobj != null) {
                 String unii = (String)map.get("UNII");
@@ -108,14 +134,15 @@ public class SRSJsonEntityFactory extends MoleculeEntityFactory {
                     }
                 }
                 else if (unii != null && ((String)vobj).contains(unii)) {
-                    activeMoieties.put(unii, ent);
+                    final Entity active = ent;
+                    afterCommit (() -> activeMoieties.put(unii, active));
                 }
                 else {
                     processGSRSRel(ent, (String)vobj, false);
                 }
             }
-            ++count;
         }
+        return ent;
     }
 
     private void processGSRSRel(Entity ent, String rel, boolean force) {
@@ -150,10 +177,12 @@ public class SRSJsonEntityFactory extends MoleculeEntityFactory {
                 logger.warning("** Unknown reference to "+type+": "
                         +id+":"+rel);
         } else {
-            Set<Entity> ents = unresolved.get(rel);
-            if (ents == null)
-                unresolved.put(rel, ents = new HashSet<>());
-            ents.add(ent);
+            afterCommit (() -> {
+                    Set<Entity> ents = unresolved.get(rel);
+                    if (ents == null)
+                        unresolved.put(rel, ents = new HashSet<>());
+                    ents.add(ent);
+                });
         }
     }
 
@@ -164,16 +193,38 @@ public class SRSJsonEntityFactory extends MoleculeEntityFactory {
         activeMoieties.clear();
         
         BufferedReader br = new BufferedReader (new InputStreamReader (is));
-        int ln = 0;
-        for (String line; (line = br.readLine()) != null; ++ln) {
-            try {
-                register (line, ln+1);
-            }
-            catch (Exception ex) {
-                logger.log(Level.SEVERE, "can't register entry: "+line, ex);
-            }
-        }
+        // json is parsed on the parser thread and structures standardized
+        // by the pipeline workers (if enabled) ahead of the graph writes
+        this.<Record>pipeline (sink -> {
+                int ln = 0;
+                for (String line; (line = br.readLine()) != null; ++ln) {
+                    try {
+                        sink.accept(parse (line, ln+1));
+                    }
+                    catch (Exception ex) {
+                        logger.log(Level.SEVERE,
+                                   "can't parse entry: "+line, ex);
+                    }
+                }
+            }, rec -> rec.vobj instanceof Molecule ? rec.vobj : null,
+            rec -> {
+                System.out.println("+gsrs+ "+(count+1)+" +++++");
+                try {
+                    // the whole line (entity + relationships) is the unit
+                    // of work that gets replayed should its batch fail
+                    Entity ent = bulk (() -> register (rec));
+                    if (ent != null)
+                        ++count;
+                    return ent;
+                }
+                catch (Exception ex) {
+                    logger.log(Level.SEVERE,
+                               "can't register entry: "+rec.line, ex);
+                }
+                return null;
+            });
         br.close();
+        flush ();
 
         logger.info("## "+unresolved.size()+" unresolved active moieties!");
         for (Map.Entry<String, Set<Entity>> me : unresolved.entrySet()) {
@@ -217,7 +268,7 @@ public class SRSJsonEntityFactory extends MoleculeEntityFactory {
         System.out.println("Hook registered!");
         if (argv.length < 2) {
             System.err.println("Usage: " + SRSJsonEntityFactory.class.getName()
-                               +" DBDIR [cache=DIR] FILE...");
+                               +" DBDIR [cache=DIR] [batch=N] [threads=N] FILE...");
             System.exit(1);
         }
 
@@ -232,6 +283,14 @@ public class SRSJsonEntityFactory extends MoleculeEntityFactory {
                     if (name.equalsIgnoreCase("cache")) {
                         mef.setCache(argv[i].substring(pos+1));
                     }
+                    else if (name.equalsIgnoreCase("batch")) {
+                        mef.setBatchSize(Integer.parseInt
+                                         (argv[i].substring(pos+1)));
+                    }
+                    else if (name.equalsIgnoreCase("threads")) {
+                        mef.setLyChIThreads(Integer.parseInt
+                                            (argv[i].substring(pos+1)));
+                    }
                     else if (name.equalsIgnoreCase("name")) {
                         sourceName = argv[i].substring(pos+1);
                         System.out.println(sourceName);
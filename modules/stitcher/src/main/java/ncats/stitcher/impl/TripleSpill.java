@@ -0,0 +1,195 @@
+package ncats.stitcher.impl;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.logging.Logger;
+
+import org.apache.jena.datatypes.TypeMapper;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+
+/**
+ * Triples spilled to disk in a fixed number of buckets by the hash of an
+ * owner node (e.g., the subject), so that all triples of an owner can be
+ * loaded back into a small in-memory model one bucket at a time. Blank
+ * nodes are written with their labels and read back with the same
+ * labels, so they stay equal across buckets and loads.
+ */
+public class TripleSpill implements Closeable {
+    static final Logger logger = Logger.getLogger(TripleSpill.class.getName());
+
+    static final byte URI = 1;
+    static final byte BLANK = 2;
+    static final byte LITERAL = 3;
+
+    final File dir;
+    final String name;
+    final DataOutputStream[] buckets;
+    long count;
+
+    public TripleSpill (File dir, String name, int buckets)
+        throws IOException {
+        dir.mkdirs();
+        this.dir = dir;
+        this.name = name;
+        this.buckets = new DataOutputStream[buckets];
+        for (int i = 0; i < buckets; ++i)
+            this.buckets[i] = new DataOutputStream
+                (new BufferedOutputStream
+                 (new FileOutputStream (file (i)), 1<<15));
+    }
+
+    File file (int bucket) {
+        return new File (dir, String.format("%1$s-%2$04d.spill",
+                                            name, bucket));
+    }
+
+    public int getBucketCount () { return buckets.length; }
+    public long getCount () { return count; }
+
+    public static String key (Node node) {
+        if (node.isBlank())
+            return "_:"+node.getBlankNodeLabel();
+        if (node.isURI())
+            return node.getURI();
+        return node.toString();
+    }
+
+    int bucket (Node owner) {
+        return (key(owner).hashCode() & 0x7fffffff) % buckets.length;
+    }
+
+    public void add (Node owner, Triple triple) throws IOException {
+        write (buckets[bucket (owner)], triple);
+        ++count;
+    }
+
+    public void add (Node owner, Collection<Triple> triples)
+        throws IOException {
+        DataOutputStream out = buckets[bucket (owner)];
+        for (Triple t : triples)
+            write (out, t);
+        count += triples.size();
+    }
+
+    /*
+     * all triples of the given bucket
+     */
+    public Model load (int bucket) throws IOException {
+        Model model = ModelFactory.createDefaultModel();
+        Graph graph = model.getGraph();
+        try (DataInputStream in = new DataInputStream
+             (new BufferedInputStream
+              (new FileInputStream (file (bucket)), 1<<16))) {
+            for (Triple t; (t = read (in)) != null; )
+                graph.add(t);
+        }
+        return model;
+    }
+
+    public void close () throws IOException {
+        for (DataOutputStream out : buckets)
+            out.close();
+    }
+
+    public void delete () {
+        for (int i = 0; i < buckets.length; ++i)
+            file(i).delete();
+    }
+
+    public static byte[] encode (Collection<Triple> triples)
+        throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream ();
+        DataOutputStream out = new DataOutputStream (bos);
+        for (Triple t : triples)
+            write (out, t);
+        out.flush();
+        return bos.toByteArray();
+    }
+
+    public static void decode (byte[] data, Graph graph) throws IOException {
+        DataInputStream in = new DataInputStream
+            (new ByteArrayInputStream (data));
+        for (Triple t; (t = read (in)) != null; )
+            graph.add(t);
+    }
+
+    static void write (DataOutputStream out, Triple t) throws IOException {
+        writeNode (out, t.getSubject());
+        writeString (out, t.getPredicate().getURI());
+        writeNode (out, t.getObject());
+    }
+
+    static Triple read (DataInputStream in) throws IOException {
+        Node s = readNode (in);
+        if (s == null)
+            return null;
+        Node p = NodeFactory.createURI(readString (in));
+        return Triple.create(s, p, readNode (in));
+    }
+
+    static void writeNode (DataOutputStream out, Node node) throws IOException {
+        if (node.isURI()) {
+            out.writeByte(URI);
+            writeString (out, node.getURI());
+        }
+        else if (node.isBlank()) {
+            out.writeByte(BLANK);
+            writeString (out, node.getBlankNodeLabel());
+        }
+        else if (node.isLiteral()) {
+            out.writeByte(LITERAL);
+            writeString (out, node.getLiteralLexicalForm());
+            writeString (out, node.getLiteralLanguage());
+            String type = node.getLiteralDatatypeURI();
+            writeString (out, type != null ? type : "");
+        }
+        else {
+            throw new IllegalArgumentException
+                ("Can't spill node "+node);
+        }
+    }
+
+    static Node readNode (DataInputStream in) throws IOException {
+        int type = in.read();
+        switch (type) {
+        case -1:
+            return null;
+        case URI:
+            return NodeFactory.createURI(readString (in));
+        case BLANK:
+            return NodeFactory.createBlankNode(readString (in));
+        case LITERAL: {
+            String lex = readString (in);
+            String lang = readString (in);
+            String dt = readString (in);
+            if (lang.length() > 0)
+                return NodeFactory.createLiteral(lex, lang);
+            if (dt.length() > 0)
+                return NodeFactory.createLiteral
+                    (lex, TypeMapper.getInstance().getSafeTypeByName(dt));
+            return NodeFactory.createLiteral(lex);
+        }
+        }
+        throw new IOException ("Unknown node type: "+type);
+    }
+
+    // DataOutput.writeUTF is limited to 64k
+    static void writeString (DataOutputStream out, String s)
+        throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    static String readString (DataInputStream in) throws IOException {
+        byte[] b = new byte[in.readInt()];
+        in.readFully(b);
+        return new String (b, StandardCharsets.UTF_8);
+    }
+}
@@ -1,93 +1,212 @@
 package ncats.stitcher.impl;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.InputStream;
 import java.io.FilterInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
-import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiConsumer;
+import java.util.function.Function;
 import java.util.zip.GZIPInputStream;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+/**
+ * Split a large xml stream into records delimited by a given tag. The
+ * input is scanned a block at a time for the start and end tags; a
+ * RecordHandler gets each record as a slice of the scan buffer, while a
+ * consumer gets a standalone xml document (with an xml declaration) of
+ * its own.
+ */
 public class XmlStream extends FilterInputStream {
     static final Logger logger = Logger.getLogger(XmlStream.class.getName());
     static final byte[] TAG_XML = "<?xml version=\"1.0\"?>\n".getBytes();
-    
-    ByteArrayOutputStream buf = new ByteArrayOutputStream (1024);
-    int start, stop, count;
+    static final int BUFSIZE = 1<<20;
+
+    /*
+     * buf[off,off+len) is only valid for the duration of the call
+     */
+    @FunctionalInterface
+    public interface RecordHandler {
+        void record (XmlStream xs, byte[] buf, int off, int len);
+    }
+
+    // scan buffer; bytes before mark are no longer needed
+    byte[] buf = new byte[BUFSIZE];
+    int mark, limit, scan;
+    int record = -1; // start of the current record, if any
+    boolean eof;
+    int count;
     BiConsumer<XmlStream, byte[]> consumer;
-    boolean done;
+    RecordHandler handler;
+    // parallel hand-off; see start(threads,...)
+    volatile RecordHandler splitter;
+    volatile boolean done;
 
-    byte[] startTag;
+    byte[] startTag; // without the closing '>'
     byte[] endTag;
 
     public XmlStream (InputStream is) {
         this (is, null);
     }
-    
+
     public XmlStream (InputStream is, String tag) {
-        this (is, tag, null);
+        this (is, tag, (BiConsumer<XmlStream, byte[]>)null);
     }
-    
+
     public XmlStream (InputStream is, String tag,
                       BiConsumer<XmlStream, byte[]> consumer) {
         super (is);
         if (tag != null)
             setTag (tag);
         this.consumer = consumer;
-        clear ();
+    }
+
+    public XmlStream (InputStream is, String tag, RecordHandler handler) {
+        super (is);
+        if (tag != null)
+            setTag (tag);
+        this.handler = handler;
     }
 
     public void setTag (String tag) {
         if (tag == null || tag.length() == 0)
             throw new IllegalArgumentException ("Tag must not be empty!");
         tag = tag.replaceAll("(<|>)", "");
-        startTag = ("<"+tag+">").getBytes();
+        startTag = ("<"+tag).getBytes();
         endTag = ("</"+tag+">").getBytes();
     }
-    
-    void clear () {
-        start = 0;
-        stop = 0;
-        buf.reset();
-        try {
-            buf.write(TAG_XML);
+
+    static int indexOf (byte[] b, int from, int to, byte[] pat) {
+        byte first = pat[0];
+        int max = to - pat.length;
+        for (int i = from; i <= max; ++i) {
+            if (b[i] != first) {
+                while (++i <= max && b[i] != first)
+                    ;
+            }
+            if (i <= max) {
+                int j = i + 1, end = i + pat.length;
+                for (int k = 1; j < end && b[j] == pat[k]; ++j, ++k)
+                    ;
+                if (j == end)
+                    return i;
+            }
         }
-        catch (IOException ex) {
-            logger.log(Level.SEVERE, "Can't write xml", ex);
+        return -1;
+    }
+
+    /*
+     * make room for at least size more bytes in buf
+     */
+    void reserve (int size) {
+        if (limit + size > buf.length) {
+            int keep = limit - mark;
+            byte[] b = buf;
+            if (keep + size > buf.length)
+                b = new byte[Math.max(2*buf.length, keep + size)];
+            System.arraycopy(buf, mark, b, 0, keep);
+            buf = b;
+            scan -= mark;
+            if (record >= 0)
+                record -= mark;
+            limit = keep;
+            mark = 0;
         }
     }
-    
-    void publish () {
-        if (buf.size() > TAG_XML.length) {
-            byte[] xml = buf.toByteArray();
+
+    /*
+     * a record is dropped once done, e.g., when the scanner thread of
+     * start(threads,...) outlives the caller that cleared the splitter
+     */
+    void publish (byte[] b, int off, int len) {
+        RecordHandler s = splitter;
+        if (s != null) {
+            s.record(this, b, off, len);
+        }
+        else if (!done) {
+            if (handler != null)
+                handler.record(this, b, off, len);
             if (consumer != null)
-                consumer.accept(this, xml);
+                consumer.accept(this, xml (b, off, len));
             ++count;
         }
     }
-    
-    void add (byte b) {
-        boolean intag = start < startTag.length
-            && (b == startTag[start]
-                || (start+1 == startTag.length && b == ' '));
-        if (start == startTag.length || intag) {
-            buf.write(b);
-            if (stop < endTag.length && b == endTag[stop]) {
-                if (++stop == endTag.length) {
-                    publish ();
-                    clear ();
+
+    static byte[] xml (byte[] b, int off, int len) {
+        byte[] xml = new byte[TAG_XML.length + len];
+        System.arraycopy(TAG_XML, 0, xml, 0, TAG_XML.length);
+        System.arraycopy(b, off, xml, TAG_XML.length, len);
+        return xml;
+    }
+
+    /*
+     * publish the records in buf[scan,limit)
+     */
+    void scan () {
+        while (!done) {
+            if (record < 0) {
+                int pos = indexOf (buf, scan, limit, startTag);
+                if (pos < 0) {
+                    // keep what could be the beginning of a start tag
+                    mark = scan = Math.max(scan, limit - startTag.length + 1);
+                    break;
+                }
+
+                int next = pos + startTag.length;
+                if (next == limit) {
+                    mark = scan = pos;
+                    break;
+                }
+
+                if (buf[next] == '>' || buf[next] == ' ') {
+                    mark = record = pos;
+                    scan = next + 1;
+                }
+                else {
+                    scan = pos + 1;
+                }
+            }
+            else {
+                int pos = indexOf (buf, scan, limit, endTag);
+                if (pos < 0) {
+                    scan = Math.max(scan, limit - endTag.length + 1);
+                    break;
                 }
+
+                int end = pos + endTag.length;
+                publish (buf, record, end - record);
+                record = -1;
+                mark = scan = end;
             }
-            else stop = 0;
-            
-            if (intag)
-                ++start;
         }
-        else {
-            clear ();
+    }
+
+    void add (byte[] b, int off, int len) {
+        reserve (len);
+        System.arraycopy(b, off, buf, limit, len);
+        limit += len;
+        scan ();
+    }
+
+    void finish () {
+        if (!eof) {
+            eof = true;
+            if (record >= 0 && !done) {
+                logger.warning("Truncated record at the end of input!");
+                publish (buf, record, limit - record);
+                record = -1;
+            }
+            mark = scan = limit;
         }
     }
 
@@ -98,57 +217,175 @@ public class XmlStream extends FilterInputStream {
         return done;
     }
     public void setDone (boolean done) { this.done = done; }
-    
+
+    /*
+     * also stops a scanner thread (see start(threads,...)) blocked on
+     * reading the input
+     */
+    @Override
+    public void close () throws IOException {
+        done = true;
+        super.close();
+    }
+
     public int read () throws IOException {
         if (isDone ()) return -1;
         int ch = super.read();
         if (ch != -1) {
-            byte b = (byte)(ch & 0xff);
-            add (b);
+            add (new byte[]{(byte)(ch & 0xff)}, 0, 1);
         }
         else {
-            publish ();
+            finish ();
         }
         return ch;
     }
 
     public int read (byte[] b) throws IOException {
-        if (isDone ()) return -1;
-        int nb = super.read(b);
-        if (nb != -1) {
-            for (int i = 0; i < nb; ++i)
-                add (b[i]);
-        }
-        else {
-            publish ();
-        }
-                
-        return nb;
+        return read (b, 0, b.length);
     }
-        
+
     public int read (byte[] b, int off, int len) throws IOException {
         if (isDone ()) return -1;
         int nb = super.read(b, off, len);
         if (nb != -1) {
-            for (int i = 0; i < nb; ++i)
-                add (b[off+i]);
+            add (b, off, nb);
         }
         else {
-            publish ();
+            finish ();
         }
         return nb;
     }
 
     public int getCount () { return count; }
+
+    /*
+     * scan the whole input (reading straight into the scan buffer) and
+     * return the number of records
+     */
     public int start () throws IOException {
         count = 0;
-        byte[] buf = new byte[1024];
-        for (int nb; (nb = read (buf, 0, buf.length)) != -1; )
-            ;
-        
+        while (!isDone ()) {
+            reserve (BUFSIZE/2);
+            int nb = in.read(buf, limit, buf.length - limit);
+            if (nb < 0) {
+                finish ();
+                break;
+            }
+            limit += nb;
+            scan ();
+        }
         return count;
     }
 
+    /*
+     * same as start() but each record (as passed to a consumer) is
+     * parsed by the given function on one of the given number of
+     * threads while the input is being scanned. the results are handed
+     * to the writer on the calling thread in input order; null results
+     * are skipped. during the writer call getCount() is the index of the
+     * record, as it is for a consumer. the scanner thread gives up
+     * once the calling thread is done (or fails), so closing the stream
+     * afterward doesn't leave it blocked.
+     */
+    public <T> int start (int threads, Function<byte[], T> parser,
+                          BiConsumer<XmlStream, T> writer)
+        throws IOException {
+        if (threads < 2) {
+            BiConsumer<XmlStream, byte[]> c = consumer;
+            consumer = (xs, xml) -> {
+                T r = parser.apply(xml);
+                if (r != null)
+                    writer.accept(xs, r);
+            };
+            try {
+                return start ();
+            }
+            finally {
+                consumer = c;
+            }
+        }
+
+        final ExecutorService workers = Executors.newFixedThreadPool(threads);
+        final BlockingQueue<Future<T>> queue =
+            new ArrayBlockingQueue<>(16*threads);
+        final Future<T> eos = new CompletableFuture<>();
+        final AtomicReference<Exception> error = new AtomicReference<>();
+
+        splitter = (xs, b, off, len) -> {
+            if (done)
+                return;
+            final byte[] xml = xml (b, off, len);
+            Future<T> f = workers.submit(() -> parser.apply(xml));
+            try {
+                // nobody takes from the queue once the caller is done
+                while (!queue.offer(f, 1, TimeUnit.SECONDS)) {
+                    if (done) {
+                        f.cancel(true);
+                        break;
+                    }
+                }
+            }
+            catch (InterruptedException ex) {
+                f.cancel(true);
+                throw new RuntimeException (ex);
+            }
+        };
+
+        Thread scanner = new Thread (() -> {
+                try {
+                    start ();
+                }
+                catch (Exception ex) {
+                    error.set(ex);
+                }
+                finally {
+                    try {
+                        while (!done && !queue.offer(eos, 1, TimeUnit.SECONDS))
+                            ;
+                    }
+                    catch (InterruptedException ex) {
+                    }
+                }
+            }, "xmlstream-scanner");
+        scanner.setDaemon(true);
+        scanner.start();
+
+        int total = 0;
+        try {
+            for (Future<T> f; !done && (f = queue.take()) != eos; ++total) {
+                T r = f.get();
+                count = total;
+                if (r != null)
+                    writer.accept(this, r);
+            }
+        }
+        catch (InterruptedException ex) {
+            throw new InterruptedIOException (ex.getMessage());
+        }
+        catch (ExecutionException ex) {
+            throw new IOException (ex.getCause());
+        }
+        finally {
+            done = true;
+            scanner.interrupt();
+            queue.clear();
+            workers.shutdownNow();
+            // the scanner might still be in publish(), which drops the
+            // record once it sees done (set above) or no splitter
+            splitter = null;
+            count = total;
+        }
+
+        Exception ex = error.get();
+        if (ex != null) {
+            if (ex instanceof IOException)
+                throw (IOException)ex;
+            throw new IOException (ex);
+        }
+
+        return total;
+    }
+
     // sbt stitcher/"runMain ncats.stitcher.impl.XmlStream FILE.XML.GZ TAG"
     public static void main (String[] argv) throws Exception {
         if (argv.length < 2) {
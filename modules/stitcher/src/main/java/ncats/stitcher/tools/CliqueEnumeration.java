@@ -100,7 +100,7 @@ public class CliqueEnumeration implements CliqueVisitor {
     public static void main (String[] argv) throws Exception {
         if (argv.length == 0) {
             System.err.println("Usage: "+CliqueEnumeration.class.getName()
-                               +" DB [StitchKeys...]");
+                               +" DB [threads=N] [StitchKeys...]");
             System.exit(1);
         }
 
@@ -111,6 +111,12 @@ public class CliqueEnumeration implements CliqueVisitor {
             EnumSet<StitchKey> keys = EnumSet.noneOf(StitchKey.class);
             String label = null;
             for (int i = 1; i < argv.length; ++i) {
+                if (argv[i].startsWith("threads=")) {
+                    clique.ef.setCliqueThreads
+                        (Integer.parseInt(argv[i].substring(8)));
+                    continue;
+                }
+                
                 try {
                     StitchKey key = StitchKey.valueOf(argv[i]);
                     keys.add(key);
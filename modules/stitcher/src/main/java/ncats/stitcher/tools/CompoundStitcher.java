@@ -3,8 +3,12 @@ package ncats.stitcher.tools;
 import ncats.stitcher.*;
 import ncats.stitcher.calculators.CalculatorFactory;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.function.Consumer;
 import java.util.logging.Logger;
 import java.net.URI;
@@ -102,6 +106,42 @@ public class CompoundStitcher implements Consumer<Stitch> {
         }
     }
 
+    /*
+     * untangle components concurrently on the given number of threads;
+     * if checkpoint is not null, components already recorded there are
+     * skipped. returns the components that failed to untangle.
+     */
+    public Map<Long, Throwable> stitch (int version, int threads,
+                                        File checkpoint,
+                                        Long... components)
+        throws Exception {
+        DataSource dsource = dsf.register("stitch_v"+version);
+        List<Long> comps = new ArrayList<>();
+        if (components == null || components.length == 0) {
+            logger.info("Untangle all components...");
+            ef.components(comps);
+        }
+        else {
+            comps.addAll(Arrays.asList(components));
+        }
+
+        // the calculators run on the calling thread; stitches aren't
+        // kept around since there can be a great many of them
+        UntangleDriver driver = new UntangleDriver
+            (ef, comp -> new StitcherUntangleCompoundComponent
+             (dsource, comp))
+            .setThreads(threads)
+            .setCheckpoint(checkpoint, StitchCheckpoint.signature
+                           (ef, StitcherUntangleCompoundComponent.class,
+                            UntangleCompoundComponent.VERSION,
+                            Collections.singletonMap
+                            ("datasource", dsource.getName())))
+            .setConsumer(s -> CalculatorFactory.getCalculatorFactory(ef)
+                         .process(Stitch.getStitch(s)));
+        driver.untangle(comps);
+        return driver.getFailures();
+    }
+
     public List<Stitch> stitch (int version, Component comp) {
         DataSource dsource = dsf.register("stitch_v"+version);
         stitches = new ArrayList();
@@ -119,19 +159,43 @@ public class CompoundStitcher implements Consumer<Stitch> {
     public static void main (String[] argv) throws Exception {
         if (argv.length < 2) {
             System.err.println("Usage: "+CompoundStitcher.class.getName()
-                               +" DB VERSION [COMPONENTS...]");
+                               +" DB VERSION [threads=N] "
+                               +"[checkpoint[=FILE]] [COMPONENTS...]");
+            System.err.println("where checkpoint without FILE records "
+                               +"completed components under the index "
+                               +"directory so that the build can be "
+                               +"resumed");
             System.exit(1);
         }
 
         CompoundStitcher cs = new CompoundStitcher (argv[0]);
         int version = Integer.parseInt(argv[1]);
 
+        int threads = 1;
+        File checkpoint = null;
         List<Long> comps = new ArrayList<>();
-        for (int i = 2; i < argv.length; ++i)
-            comps.add(Long.parseLong(argv[i]));
-        cs.stitch(version, comps.toArray(new Long[0]));
+        for (int i = 2; i < argv.length; ++i) {
+            if (argv[i].startsWith("threads="))
+                threads = Integer.parseInt(argv[i].substring(8));
+            else if (argv[i].startsWith("checkpoint="))
+                checkpoint = new File (argv[i].substring(11));
+            else if (argv[i].equals("checkpoint"))
+                checkpoint = StitchCheckpoint.getFile
+                    (cs.ef.getGraphDb(), "stitch_v"+version);
+            else
+                comps.add(Long.parseLong(argv[i]));
+        }
+
+        Map<Long, Throwable> failed = Collections.emptyMap();
+        if (threads == 1 && checkpoint == null)
+            cs.stitch(version, comps.toArray(new Long[0]));
+        else
+            failed = cs.stitch(version, threads, checkpoint,
+                               comps.toArray(new Long[0]));
 
         cs.shutdown();
+        if (!failed.isEmpty())
+            System.exit(1);
     }
 
     // Perform all calculator options
@@ -0,0 +1,208 @@
+package ncats.stitcher.tools;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.logging.Logger;
+
+import ncats.stitcher.LineTokenizer;
+
+/*
+ * compare LineTokenizer against the original char-at-a-time tokenizer on
+ * a (possibly gzip'ed) delimited file, e.g., MedGen's MGCONSO.RRF.gz:
+ * the first pass checks that both produce the same tokens, the others
+ * time each variant
+ */
+public class LineTokenizerBenchmark {
+    static final Logger logger = Logger.getLogger
+        (LineTokenizerBenchmark.class.getName());
+
+    /*
+     * the original implementation
+     */
+    static class CharTokenizer {
+        final char delim;
+        final boolean checkQuote;
+        final Reader reader;
+        final char[] buf = new char[1];
+        int lines;
+
+        CharTokenizer (InputStream is, char delim, boolean checkQuote) {
+            this.delim = delim;
+            this.checkQuote = checkQuote;
+            reader = new BufferedReader (new InputStreamReader (is));
+        }
+
+        String[] nextLine () throws IOException {
+            List<String> tokens = new ArrayList<String>();
+            int nb;
+
+            boolean quote = false;
+            StringBuilder tok = new StringBuilder ();
+            while ((nb = reader.read(buf)) != -1) {
+                if (buf[0] == '"' && checkQuote) {
+                    quote = !quote;
+                }
+                else if (buf[0] == '\r') {
+                }
+                else if (buf[0] == '\n') {
+                    ++lines;
+                    if (!quote) {
+                        tokens.add(tok.length() > 0? tok.toString() : null);
+                        break;
+                    }
+                    else
+                        tok.append('\n');
+                }
+                else if (buf[0] != delim || quote) {
+                    tok.append(buf[0]);
+                }
+                else {
+                    tokens.add(tok.length() > 0 ? tok.toString() : null);
+                    tok.setLength(0);
+                }
+            }
+
+            if (nb == -1) {
+                if (tokens.isEmpty()) return null;
+                if (buf[0] != '\n')
+                    tokens.add(tok.length() > 0 ? tok.toString() : null);
+            }
+            return tokens.toArray(new String[0]);
+        }
+    }
+
+    final File file;
+    final char delim;
+    final boolean checkQuote;
+
+    LineTokenizerBenchmark (File file, char delim, boolean checkQuote) {
+        this.file = file;
+        this.delim = delim;
+        this.checkQuote = checkQuote;
+    }
+
+    InputStream open () throws IOException {
+        InputStream is = new BufferedInputStream
+            (new FileInputStream (file), 1<<16);
+        return file.getName().endsWith(".gz")
+            ? new GZIPInputStream (is, 1<<16) : is;
+    }
+
+    LineTokenizer tokenizer (InputStream is) throws IOException {
+        LineTokenizer tokenizer = new LineTokenizer (delim);
+        tokenizer.setCheckQuote(checkQuote);
+        tokenizer.setInputStream(is);
+        return tokenizer;
+    }
+
+    long verify () throws IOException {
+        long lines = 0;
+        try (InputStream is0 = open (); InputStream is1 = open ()) {
+            CharTokenizer expected = new CharTokenizer (is0, delim, checkQuote);
+            LineTokenizer tokenizer = tokenizer (is1);
+            for (String[] toks; (toks = expected.nextLine()) != null; ++lines) {
+                if (!tokenizer.hasNext())
+                    throw new IllegalStateException
+                        ("Line "+expected.lines+": premature end of input");
+                String[] line = tokenizer.next();
+                if (!Arrays.equals(toks, line))
+                    throw new IllegalStateException
+                        ("Line "+expected.lines+": expected "
+                         +Arrays.toString(toks)+" but got "
+                         +Arrays.toString(line));
+            }
+            if (tokenizer.hasNext())
+                throw new IllegalStateException
+                    ("Line "+expected.lines+": extra tokens "
+                     +Arrays.toString(tokenizer.next()));
+        }
+        return lines;
+    }
+
+    /*
+     * returns number of tokens (to keep the jit honest)
+     */
+    long run (String variant) throws IOException {
+        long ntoks = 0;
+        try (InputStream is = open ()) {
+            switch (variant) {
+            case "char": {
+                CharTokenizer tokenizer =
+                    new CharTokenizer (is, delim, checkQuote);
+                for (String[] toks; (toks = tokenizer.nextLine()) != null; )
+                    ntoks += toks.length;
+                break;
+            }
+            case "buffered": {
+                LineTokenizer tokenizer = tokenizer (is);
+                while (tokenizer.hasNext())
+                    ntoks += tokenizer.next().length;
+                break;
+            }
+            case "reuse": {
+                LineTokenizer tokenizer = tokenizer (is);
+                String[] toks = null;
+                while (tokenizer.hasNext())
+                    ntoks += (toks = tokenizer.next(toks)).length;
+                break;
+            }
+            default:
+                throw new IllegalArgumentException
+                    ("Unknown variant: "+variant);
+            }
+        }
+        return ntoks;
+    }
+
+    public static void main (String[] argv) throws Exception {
+        if (argv.length == 0) {
+            System.err.println
+                ("Usage: "+LineTokenizerBenchmark.class.getName()
+                 +" [delimiter=tab] [quote=true] [runs=3] FILE");
+            System.exit(1);
+        }
+
+        char delim = '\t';
+        boolean checkQuote = true;
+        int runs = 3;
+        File file = null;
+        for (String a : argv) {
+            int pos = a.indexOf('=');
+            if (pos > 0) {
+                String name = a.substring(0, pos), value = a.substring(pos+1);
+                if ("delimiter".equals(name))
+                    delim = "tab".equalsIgnoreCase(value)
+                        ? '\t' : value.charAt(0);
+                else if ("quote".equals(name))
+                    checkQuote = Boolean.parseBoolean(value);
+                else if ("runs".equals(name))
+                    runs = Integer.parseInt(value);
+                else
+                    logger.warning("Unknown argument: "+a);
+            }
+            else {
+                file = new File (a);
+            }
+        }
+
+        LineTokenizerBenchmark bench =
+            new LineTokenizerBenchmark (file, delim, checkQuote);
+        long start = System.currentTimeMillis();
+        long lines = bench.verify();
+        logger.info("## "+file+": "+lines+" lines verified in "
+                    +(System.currentTimeMillis()-start)+"ms");
+
+        for (int r = 0; r < runs; ++r) {
+            for (String variant : new String[]{"char", "buffered", "reuse"}) {
+                start = System.nanoTime();
+                long ntoks = bench.run(variant);
+                double secs = (System.nanoTime() - start)/1e9;
+                logger.info(String.format
+                            ("## run %1$d %2$-8s %3$.2fs %4$.0f lines/s "
+                             +"(%5$d tokens)", r+1, variant, secs,
+                             lines/secs, ntoks));
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package ncats.stitcher;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+
+/*
+ * compare the throughput of TextIndexer when each transaction flushes
+ * the index writer and each query opens its own reader (the old
+ * behavior) with group commit and the pooled searcher:
+ *
+ *   TextIndexerBenchmark [DOCS] [QUERIES] [THREADS]
+ *
+ * it lives with the test sources in TextIndexer's package since it
+ * reaches into the index writer to reproduce the old behavior
+ */
+public class TextIndexerBenchmark {
+    static final Logger logger = Logger.getLogger
+        (TextIndexerBenchmark.class.getName());
+
+    static final String[] WORDS = {
+        "aspirin", "ibuprofen", "acetaminophen", "caffeine", "morphine",
+        "codeine", "penicillin", "amoxicillin", "insulin", "heparin",
+        "warfarin", "metformin", "atorvastatin", "lisinopril", "omeprazole",
+        "sodium", "chloride", "hydrochloride", "sulfate", "acetate",
+        "tablet", "injection", "solution", "capsule", "cream"
+    };
+
+    interface Search {
+        void search (Query query) throws Exception;
+    }
+
+    final GraphDb graphDb;
+    final GraphDatabaseService gdb;
+    final TextIndexer indexer;
+    final Random rand = new Random (1);
+
+    TextIndexerBenchmark () throws Exception {
+        graphDb = GraphDb.createTempDb("_bench");
+        gdb = graphDb.graphDb();
+        indexer = graphDb.getTextIndexer("bench");
+    }
+
+    String name () {
+        StringBuilder sb = new StringBuilder ();
+        for (int i = rand.nextInt(3); i >= 0; --i)
+            sb.append(WORDS[rand.nextInt(WORDS.length)]+" ");
+        return sb.toString().trim();
+    }
+
+    /*
+     * one node per transaction, which is the worst case for a flush in
+     * afterCommit
+     */
+    double index (int docs, boolean flush) throws Exception {
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < docs; ++i) {
+            try (Transaction tx = gdb.beginTx()) {
+                Node node = gdb.createNode(TextIndexer.DATA);
+                node.setProperty("name", name ());
+                tx.success();
+            }
+            if (flush)
+                indexer.indexWriter.flush();
+        }
+        return docs / Math.max(0.001,
+                               (System.currentTimeMillis()-start)/1000.);
+    }
+
+    double query (int queries, int threads, Search search) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future> futures = new ArrayList<>();
+        long start = System.currentTimeMillis();
+        for (int t = 0; t < threads; ++t) {
+            futures.add(pool.submit(() -> {
+                        Random r = new Random ();
+                        for (int i = 0; i < queries / threads; ++i) {
+                            Query q = new TermQuery
+                                (new Term (TextIndexer.FIELD_TEXT,
+                                           WORDS[r.nextInt(WORDS.length)]));
+                            try (Transaction tx = gdb.beginTx()) {
+                                search.search(q);
+                                tx.success();
+                            }
+                        }
+                        return null;
+                    }));
+        }
+        for (Future f : futures)
+            f.get();
+        pool.shutdown();
+        return queries / Math.max(0.001,
+                                  (System.currentTimeMillis()-start)/1000.);
+    }
+
+    void run (int docs, int queries, int threads) throws Exception {
+        double before = index (docs, true);
+        double after = index (docs, false);
+        logger.info(String.format("## indexing: %1$.1f docs/s with flush "
+                                  +"per transaction, %2$.1f docs/s with "
+                                  +"group commit", before, after));
+
+        indexer.refresh();
+        before = query (queries, threads, q -> {
+                try (IndexReader reader =
+                     DirectoryReader.open(indexer.indexWriter)) {
+                    indexer.search(new IndexSearcher (reader), q, 0, 10);
+                }
+            });
+        after = query (queries, threads, q -> indexer.search(q, 0, 10));
+        logger.info(String.format("## search (%1$d threads): %2$.1f "
+                                  +"queries/s with a reader per query, "
+                                  +"%3$.1f queries/s with pooled searcher",
+                                  threads, before, after));
+    }
+
+    public static void main (String[] argv) throws Exception {
+        int docs = argv.length > 0 ? Integer.parseInt(argv[0]) : 10000;
+        int queries = argv.length > 1 ? Integer.parseInt(argv[1]) : 10000;
+        int threads = argv.length > 2 ? Integer.parseInt(argv[2])
+            : Runtime.getRuntime().availableProcessors();
+
+        TextIndexerBenchmark bench = new TextIndexerBenchmark ();
+        try {
+            bench.run(docs, queries, threads);
+        }
+        finally {
+            bench.graphDb.shutdown();
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package ncats.stitcher.test;
+
+import java.util.*;
+import java.io.*;
+import java.util.logging.Logger;
+import java.util.logging.Level;
+import java.lang.reflect.Array;
+
+import ncats.stitcher.*;
+import static ncats.stitcher.StitchKey.*;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/*
+ * registration through the batching pipeline; a record that fails rolls
+ * back its batch, which is then replayed one record at a time. structures
+ * standardized by the pipeline's workers must come out the same as those
+ * standardized inline.
+ */
+public class TestBatch {
+    static final Logger logger =
+        Logger.getLogger(TestBatch.class.getName());
+
+    static class BatchRegistry extends EntityRegistry {
+        final Set<String> failing = new HashSet<>();
+        // ids in the order their records got committed
+        final List<String> committed = new ArrayList<>();
+        int attempts;
+
+        BatchRegistry (File dir) throws IOException {
+            super (dir);
+            setDataSource (getDataSourceFactory().register("batch"));
+        }
+
+        @Override
+        protected void init () {
+            super.init();
+            setIdField ("id");
+            setNameField ("name");
+            add (I_CAS, "id");
+            add (N_Name, "name");
+        }
+
+        @Override
+        protected Entity _register (Map<String, Object> map) {
+            ++attempts;
+            Entity ent = super._register(map);
+            String id = (String)map.get("id");
+            if (failing.contains(id)) // after the node has been created
+                throw new IllegalStateException ("Bad record "+id);
+            afterCommit (() -> committed.add(id));
+            return ent;
+        }
+
+        int register (int size) throws IOException {
+            return pipeline (sink -> {
+                    for (int i = 0; i < size; ++i) {
+                        Map<String, Object> row = new HashMap<>();
+                        row.put("id", "id-"+i);
+                        row.put("name", "NAME "+i);
+                        sink.accept(row);
+                    }
+                }, row -> null, row -> {
+                    try {
+                        return register (row);
+                    }
+                    catch (IllegalStateException ex) {
+                        logger.info(ex.getMessage());
+                    }
+                    return null;
+                });
+        }
+
+        int count (String id) {
+            int n = 0;
+            for (Iterator<Entity> it = find (I_CAS, id); it.hasNext(); ++n)
+                it.next();
+            return n;
+        }
+    }
+
+    static class StructureRegistry extends EntityRegistry {
+        StructureRegistry (File dir) throws IOException {
+            super (dir);
+            setDataSource (getDataSourceFactory().register("structures"));
+        }
+
+        @Override
+        protected void init () {
+            super.init();
+            setIdField ("id");
+            setStrucField ("smiles");
+            add (I_CAS, "id");
+        }
+
+        int register (String[][] structures) throws IOException {
+            return pipeline (sink -> {
+                    for (String[] s : structures) {
+                        Map<String, Object> row = new HashMap<>();
+                        row.put("id", s[0]);
+                        row.put("smiles", s[1]);
+                        sink.accept(row);
+                    }
+                }, row -> row.get("smiles"), row -> register (row));
+        }
+
+        /*
+         * LyChI related properties of each entity by id
+         */
+        Map<String, String> lychis () {
+            Map<String, String> lychis = new TreeMap<>();
+            entities (getDataSource(), e -> {
+                    StringBuilder sb = new StringBuilder ();
+                    for (String p : new String[]{
+                            H_LyChI_L3.name(), H_LyChI_L4.name(),
+                            H_LyChI_L5.name(), Props.MOIETIES, Props.LYCHI
+                        }) {
+                        sb.append(p+"="+value (e._node().getProperty(p, null))
+                                  +"\n");
+                    }
+                    lychis.put(value (e._node().getProperty(I_CAS.name())),
+                               sb.toString());
+                });
+            return lychis;
+        }
+    }
+
+    static final String[][] STRUCTURES = {
+        {"aspirin", "CC(=O)OC1=CC=CC=C1C(O)=O"},
+        {"aspirin hydrate", "O.O.CC(=O)OC1=CC=CC=C1C(O)=O"},
+        {"caffeine", "CN1C=NC2=C1C(=O)N(C)C(=O)N2C"},
+        {"sodium benzoate", "[Na+].[O-]C(=O)C1=CC=CC=C1"},
+        {"metformin hydrochloride", "Cl.CN(C)C(=N)NC(N)=N"},
+        {"cisplatin", "N.N.Cl[Pt]Cl"},
+        {"DB07915", "OC(=O)C(\\O)=C/C=C/C(=O)C1=CC=CC=C1"},
+        {"DB07914", "OC(=O)C(\\O)=C\\C=C\\C(=O)C1=CC=CC=C1"},
+        {"ethanol", "CCO"},
+        {"tartaric acid", "O[C@H]([C@@H](O)C(O)=O)C(O)=O"},
+        {"ibuprofen lysinate", "CC(C)CC1=CC=C(C=C1)C(C)C(O)=O"
+         +".NCCCC[C@H](N)C(O)=O"},
+        {"glucose", "OC[C@H]1OC(O)[C@H](O)[C@@H](O)[C@@H]1O"}
+    };
+
+    static String value (Object value) {
+        if (value != null && value.getClass().isArray()) {
+            List<String> values = new ArrayList<>();
+            for (int i = 0; i < Array.getLength(value); ++i)
+                values.add(String.valueOf(Array.get(value, i)));
+            Collections.sort(values);
+            return values.toString();
+        }
+        return String.valueOf(value);
+    }
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    @Rule
+    public TestRegistryResource<BatchRegistry> resource =
+        TestRegistryResource.createFromTempFolder
+        (tmpDir, f -> new BatchRegistry (f));
+
+    public TestBatch () {
+    }
+
+    void load (int threads) throws Exception {
+        BatchRegistry reg = resource.getRegistry();
+        reg.setBatchSize(4);
+        reg.setLyChIThreads(threads);
+        // second and last batches fail
+        reg.failing.add("id-5");
+        reg.failing.add("id-9");
+
+        int size = 10;
+        int count = reg.register(size);
+        reg.flush();
+
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < size; ++i) {
+            String id = "id-"+i;
+            if (!reg.failing.contains(id))
+                expected.add(id);
+        }
+        assertEquals ("Registered entities", expected.size(), count);
+        assertEquals ("Records must be committed in input order",
+                      expected, reg.committed);
+        // the records ahead of a bad one in its batch are redone
+        assertTrue ("Failed batches must be replayed",
+                    reg.attempts > size);
+
+        for (int i = 0; i < size; ++i) {
+            String id = "id-"+i;
+            assertEquals (id, reg.failing.contains(id) ? 0 : 1,
+                          reg.count(id));
+        }
+
+        final int[] total = {0};
+        reg.entities(reg.getDataSource(), e -> ++total[0]);
+        assertEquals ("Rolled back entities must not be committed",
+                      expected.size(), total[0]);
+    }
+
+    @Test
+    public void testReplay () throws Exception {
+        load (1);
+    }
+
+    @Test
+    public void testPipelineReplay () throws Exception {
+        load (4);
+    }
+
+    @Test
+    public void testPipelineLyChI () throws Exception {
+        Map<String, String> expected, actual;
+        StructureRegistry reg = new StructureRegistry (tmpDir.newFolder());
+        try {
+            reg.setLyChIThreads(1); // lychify inline
+            assertEquals (STRUCTURES.length, reg.register(STRUCTURES));
+            reg.flush();
+            expected = reg.lychis();
+        }
+        finally {
+            reg.shutdown();
+        }
+
+        reg = new StructureRegistry (tmpDir.newFolder());
+        try {
+            reg.setBatchSize(3);
+            reg.setLyChIThreads(4);
+            assertEquals (STRUCTURES.length, reg.register(STRUCTURES));
+            reg.flush();
+            actual = reg.lychis();
+        }
+        finally {
+            reg.shutdown();
+        }
+
+        assertEquals (STRUCTURES.length, expected.size());
+        for (Map.Entry<String, String> me : expected.entrySet()) {
+            assertTrue (me.getKey()+" has no LyChI",
+                        !me.getValue().contains(H_LyChI_L4.name()+"=null"));
+            assertEquals (me.getKey(), me.getValue(),
+                          actual.get(me.getKey()));
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package ncats.stitcher.test;
+
+import java.util.*;
+
+import ncats.stitcher.graph.BronKerbosch;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TestBronKerbosch {
+
+    static BitSet[] random (Random rand, int n, double p) {
+        BitSet[] adj = new BitSet[n];
+        for (int i = 0; i < n; ++i)
+            adj[i] = new BitSet (n);
+        for (int i = 0; i < n; ++i)
+            for (int j = i+1; j < n; ++j)
+                if (rand.nextDouble() < p) {
+                    adj[i].set(j);
+                    adj[j].set(i);
+                }
+        return adj;
+    }
+
+    /*
+     * plain Bron-Kerbosch without pivoting as reference
+     */
+    static void reference (BitSet[] adj, BitSet C, BitSet P, BitSet S,
+                           Set<BitSet> cliques) {
+        if (P.isEmpty() && S.isEmpty()) {
+            if (C.cardinality() >= 2)
+                cliques.add((BitSet)C.clone());
+        }
+        else {
+            for (int u = P.nextSetBit(0); u >= 0; u = P.nextSetBit(u+1)) {
+                P.clear(u);
+                BitSet PP = (BitSet)P.clone();
+                BitSet SS = (BitSet)S.clone();
+                PP.and(adj[u]);
+                SS.and(adj[u]);
+                C.set(u);
+                reference (adj, C, PP, SS, cliques);
+                C.clear(u);
+                S.set(u);
+            }
+        }
+    }
+
+    @Test
+    public void testRandomGraphs () {
+        Random rand = new Random (1);
+        for (int k = 0; k < 50; ++k) {
+            int n = 1 + rand.nextInt(40);
+            BitSet[] adj = random (rand, n, rand.nextDouble());
+
+            Set<BitSet> expected = new HashSet<>();
+            BitSet P = new BitSet (n);
+            P.set(0, n);
+            reference (adj, new BitSet (n), P, new BitSet (n), expected);
+
+            Set<BitSet> cliques = new HashSet<>();
+            BronKerbosch bk = new BronKerbosch (adj).setMinSize(2);
+            assertTrue (bk.enumerate(c -> {
+                        assertTrue ("duplicate clique "+c,
+                                    cliques.add((BitSet)c.clone()));
+                        return true;
+                    }));
+            assertFalse (bk.isTruncated());
+            assertEquals (expected, cliques);
+        }
+    }
+
+    @Test
+    public void testCompleteGraph () {
+        BitSet[] adj = random (new Random (), 10, 1.);
+        List<BitSet> cliques = new ArrayList<>();
+        new BronKerbosch (adj).enumerate(c -> cliques.add((BitSet)c.clone()));
+        assertEquals (1, cliques.size());
+        assertEquals (10, cliques.get(0).cardinality());
+    }
+
+    @Test
+    public void testBudget () {
+        BitSet[] adj = random (new Random (2), 60, .5);
+        int[] count = new int[1];
+        BronKerbosch bk = new BronKerbosch (adj).setMaxCliques(5);
+        assertTrue (bk.enumerate(c -> ++count[0] > 0));
+        assertTrue (bk.isTruncated());
+        assertEquals (5, count[0]);
+
+        // exactly as many cliques as the budget isn't truncated
+        BitSet[] edges = new BitSet[6];
+        for (int i = 0; i < edges.length; ++i) {
+            edges[i] = new BitSet (edges.length);
+            edges[i].set(i ^ 1);
+        }
+        count[0] = 0;
+        bk = new BronKerbosch (edges).setMaxCliques(3);
+        assertTrue (bk.enumerate(c -> ++count[0] > 0));
+        assertFalse (bk.isTruncated());
+        assertEquals (3, count[0]);
+
+        count[0] = 0;
+        bk = new BronKerbosch (edges).setMaxCliques(2);
+        assertTrue (bk.enumerate(c -> ++count[0] > 0));
+        assertTrue (bk.isTruncated());
+        assertEquals (2, count[0]);
+
+        // visitor stops the enumeration
+        count[0] = 0;
+        bk = new BronKerbosch (adj);
+        assertFalse (bk.enumerate(c -> ++count[0] < 3));
+        assertFalse (bk.isTruncated());
+        assertEquals (3, count[0]);
+    }
+}
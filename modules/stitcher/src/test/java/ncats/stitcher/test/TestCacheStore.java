@@ -0,0 +1,198 @@
+package ncats.stitcher.test;
+
+import java.util.*;
+import java.io.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import ncats.stitcher.CacheStore;
+import ncats.stitcher.LuceneCacheStore;
+import ncats.stitcher.MappedCacheStore;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class TestCacheStore {
+    static final Logger logger =
+        Logger.getLogger(TestCacheStore.class.getName());
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    public TestCacheStore () {
+    }
+
+    static void fill (CacheStore store, int from, int to) throws IOException {
+        for (int i = from; i < to; ++i)
+            store.put("key"+i, "value"+i);
+    }
+
+    static void check (CacheStore store, int from, int to)
+        throws IOException {
+        for (int i = from; i < to; ++i)
+            assertEquals ("key"+i, "value"+i, store.get("key"+i));
+    }
+
+    @Test
+    public void testMapped () throws Exception {
+        File dir = tmpDir.newFolder();
+        MappedCacheStore store = new MappedCacheStore (dir);
+        store.setBatchSize(256); // many batches
+        fill (store, 0, 1000);
+        check (store, 0, 1000);
+        store.put("key10", "updated");
+        store.remove("key20");
+        store.remove("key20");
+        assertEquals (999, store.size());
+        assertEquals ("updated", store.get("key10"));
+        assertNull (store.get("key20"));
+        store.close();
+
+        store = new MappedCacheStore (dir);
+        assertEquals (999, store.size());
+        assertEquals ("updated", store.get("key10"));
+        assertNull (store.get("key20"));
+        check (store, 21, 1000);
+        store.close();
+    }
+
+    /*
+     * the process dies with records that haven't been flushed and the
+     * last record only partially written
+     */
+    @Test
+    public void testMappedRecovery () throws Exception {
+        File dir = tmpDir.newFolder();
+        MappedCacheStore store = new MappedCacheStore (dir);
+        fill (store, 0, 500);
+        store.flush();
+        fill (store, 500, 600); // still pending
+        store = null;
+
+        try (RandomAccessFile raf = new RandomAccessFile
+             (new File (dir, "cache.dat"), "rw")) {
+            raf.seek(raf.length());
+            raf.writeInt(100);
+            raf.writeInt(100);
+            raf.write(new byte[10]);
+        }
+
+        store = new MappedCacheStore (dir);
+        assertEquals (500, store.size());
+        check (store, 0, 500);
+        assertNull (store.get("key550"));
+        store.close();
+    }
+
+    /*
+     * the index was written out ahead of its header, so it has slots
+     * beyond the data it covers
+     */
+    @Test
+    public void testMappedStaleSlots () throws Exception {
+        File dir = tmpDir.newFolder();
+        MappedCacheStore store = new MappedCacheStore (dir);
+        fill (store, 0, 500);
+        store.close();
+
+        try (RandomAccessFile raf = new RandomAccessFile
+             (new File (dir, "cache.idx"), "rw")) {
+            raf.seek(20); // data covered by the index
+            raf.writeLong(0l);
+        }
+
+        store = new MappedCacheStore (dir);
+        assertEquals (500, store.size());
+        check (store, 0, 500);
+        store.close();
+    }
+
+    @Test
+    public void testMappedReferences () throws Exception {
+        File dir = tmpDir.newFolder();
+        MappedCacheStore store = new MappedCacheStore (dir);
+        fill (store, 0, 100);
+        assertEquals (0, store.compact(true));
+        for (int i = 0; i < 200000; ++i)
+            store.get("key"+(i % 10));
+        // reads only collect the references in memory
+        assertFalse (new File (dir, "cache.ref").exists());
+        store.flush();
+        // the reference log doesn't grow with every access
+        assertTrue (new File (dir, "cache.ref").length() < 16l*(1<<16));
+
+        // only the keys read since the last compaction are kept
+        assertEquals (90, store.compact(true));
+        assertEquals (10, store.size());
+        check (store, 0, 10);
+        assertNull (store.get("key50"));
+        store.close();
+    }
+
+    @Test
+    public void testMappedCompactKeepsUnreferenced () throws Exception {
+        File dir = tmpDir.newFolder();
+        MappedCacheStore store = new MappedCacheStore (dir);
+        fill (store, 0, 100);
+        store.remove("key20");
+        assertEquals (0, store.compact(true));
+        store.get("key0");
+        // without pruning only the removed records go away
+        assertEquals (0, store.compact(false));
+        assertEquals (99, store.size());
+        check (store, 21, 100);
+        store.close();
+    }
+
+    @Test
+    public void testLucene () throws Exception {
+        File dir = tmpDir.newFolder();
+        LuceneCacheStore store = new LuceneCacheStore (dir);
+        fill (store, 0, 100);
+        check (store, 0, 100);
+        store.remove("key20");
+        assertNull (store.get("key20"));
+        assertEquals (99, store.size());
+        store.close();
+
+        store = new LuceneCacheStore (dir);
+        assertEquals (99, store.size());
+        check (store, 21, 100);
+        store.close();
+    }
+
+    /*
+     * readers must stay open while other threads search them
+     */
+    @Test
+    public void testLuceneConcurrent () throws Exception {
+        File dir = tmpDir.newFolder();
+        LuceneCacheStore store = new LuceneCacheStore (dir);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; ++t) {
+                final int base = t*1000;
+                futures.add(pool.submit(() -> {
+                            for (int i = base; i < base+200; ++i) {
+                                store.put("key"+i, "value"+i);
+                                assertEquals ("value"+i, store.get("key"+i));
+                                check (store, base, i+1);
+                            }
+                            return null;
+                        }));
+            }
+            for (Future<?> f : futures)
+                f.get();
+        }
+        finally {
+            pool.shutdown();
+        }
+        assertEquals (1600, store.size());
+        store.close();
+    }
+}
@@ -0,0 +1,109 @@
+package ncats.stitcher.test;
+
+import java.util.*;
+import java.io.*;
+import java.util.logging.Logger;
+
+import ncats.stitcher.*;
+import static ncats.stitcher.StitchKey.*;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/*
+ * connected components scored on several threads must be the same as
+ * those of the sequential pass
+ */
+public class TestConnectedComponents {
+    static final Logger logger =
+        Logger.getLogger(TestConnectedComponents.class.getName());
+
+    static class ComponentRegistry extends EntityRegistry {
+        ComponentRegistry (File dir) throws IOException {
+            super (dir);
+            setDataSource (getDataSourceFactory().register("components"));
+        }
+
+        @Override
+        protected void init () {
+            super.init();
+            setIdField ("id");
+            setNameField ("name");
+            add (I_CAS, "cas");
+            add (N_Name, "name");
+        }
+
+        /*
+         * enough entities for several chunks, stitched into components
+         * of different sizes by overlapping names and cas numbers
+         */
+        void register (int size) throws IOException {
+            Random rand = new Random (size);
+            for (int i = 0; i < size; ++i) {
+                Map<String, Object> row = new HashMap<>();
+                row.put("id", "id-"+i);
+                row.put("name", "NAME "+rand.nextInt(size));
+                if (i % 3 == 0)
+                    row.put("cas", "CAS-"+rand.nextInt(size));
+                register (row);
+            }
+            flush ();
+        }
+
+        List<String> components (int threads) {
+            List<String> comps = new ArrayList<>();
+            for (Iterator<Component> it = connectedComponents
+                     (1, null, threads); it.hasNext(); ) {
+                Component c = it.next();
+                comps.add(new TreeSet<>(c.nodeSet()).toString());
+            }
+            Collections.sort(comps);
+            return comps;
+        }
+    }
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    @Rule
+    public TestRegistryResource<ComponentRegistry> resource =
+        TestRegistryResource.createFromTempFolder
+        (tmpDir, f -> new ComponentRegistry (f));
+
+    public TestConnectedComponents () {
+    }
+
+    @Test
+    public void testParallel () throws Exception {
+        ComponentRegistry reg = resource.getRegistry();
+        reg.setBatchSize(500);
+        reg.register(5000);
+
+        List<String> expected = reg.components(1);
+        int singletons = 0;
+        for (String c : expected)
+            if (c.indexOf(',') < 0)
+                ++singletons;
+        assertTrue ("Expecting components other than singletons",
+                    singletons < expected.size());
+
+        for (int threads : new int[]{2, 4}) {
+            List<String> actual = reg.components(threads);
+            assertEquals ("Number of components with "+threads+" threads",
+                          expected.size(), actual.size());
+            assertEquals ("Components with "+threads+" threads",
+                          expected, actual);
+        }
+
+        reg.setComponentThreads(4);
+        assertEquals (4, reg.getComponentThreads());
+        List<String> actual = new ArrayList<>();
+        for (Iterator<Component> it = reg.connectedComponents(1, null);
+             it.hasNext(); )
+            actual.add(new TreeSet<>(it.next().nodeSet()).toString());
+        Collections.sort(actual);
+        assertEquals (expected, actual);
+    }
+}
@@ -10,6 +10,7 @@ import java.util.logging.Level;
 import ncats.stitcher.*;
 import ncats.stitcher.impl.*;
 import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
 
 import org.junit.Test;
 import org.junit.Rule;
@@ -42,11 +43,28 @@ public class TestDataSourceFactory {
     public void testSRS () throws Exception {
         SRSJsonEntityFactory srs = new SRSJsonEntityFactory
             (GraphDb.createTempDb(name.getMethodName()));
+        // follows the registration below
+        GraphMetricsCounter counter = srs.getGraphDb().getMetricsCounter();
         URL url = DataSourceFactory.class.getResource
             ("/jsonDumpINN100.txt.gz");
         srs.register(url);
         
-        GraphMetrics metrics = srs.calcGraphMetrics();
+        // components traversed rather than taken from the ranks
+        GraphMetrics metrics;
+        GraphDatabaseService gdb = srs.getGraphDb().graphDb();
+        try (Transaction tx = gdb.beginTx()) {
+            metrics = EntityFactory.calcGraphMetrics
+                (gdb.findNodes(AuxNodeType.ENTITY).stream());
+            tx.success();
+        }
+        assertTrue ("Expecting incremental metrics to be the same as "
+                    +"traversed metrics",
+                    Util.toJson(metrics).equals
+                    (Util.toJson(counter.getMetrics())));
+        assertTrue ("Expecting parallel metrics to be the same as "
+                    +"traversed metrics",
+                    Util.toJson(metrics).equals
+                    (Util.toJson(srs.calcGraphMetrics())));
         assertTrue ("Expecting entity count to be 100 but instead got "
                     +metrics.getEntityCount(), metrics.getEntityCount() == 100);
         assertTrue ("Expecting stitch count to be 26 but instead got "
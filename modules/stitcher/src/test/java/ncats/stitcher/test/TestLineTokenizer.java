@@ -42,5 +42,97 @@ public class TestLineTokenizer {
             assertEquals("number of lines", 2320, lines);
         }
     }
-           
+
+    static List<String[]> tokenize (LineTokenizer tokenizer, String input)
+        throws IOException {
+        tokenizer.setInputStream
+            (new ByteArrayInputStream (input.getBytes("utf8")));
+        List<String[]> lines = new ArrayList<>();
+        while (tokenizer.hasNext())
+            lines.add(tokenizer.next());
+        return lines;
+    }
+
+    static List<String[]> tokenize (String input) throws IOException {
+        return tokenize (new LineTokenizer (','), input);
+    }
+
+    @Test
+    public void testQuotedDelimiter () throws IOException {
+        List<String[]> lines = tokenize
+            ("a,\"b,c\",d\n\"x\ny\",\"\",z\n");
+        assertEquals (2, lines.size());
+        assertArrayEquals (new String[]{"a", "b,c", "d"}, lines.get(0));
+        // quoted newline is part of the token; empty quotes are no token
+        assertArrayEquals (new String[]{"x\ny", null, "z"}, lines.get(1));
+
+        LineTokenizer tokenizer = new LineTokenizer (',');
+        tokenizer.setCheckQuote(false);
+        lines = tokenize (tokenizer, "a,\"b,c\"\n");
+        assertArrayEquals (new String[]{"a", "\"b", "c\""}, lines.get(0));
+    }
+
+    @Test
+    public void testLineEndings () throws IOException {
+        List<String[]> lines = tokenize ("a,b\r\nc,d\ne,f\r\n");
+        assertEquals (3, lines.size());
+        assertArrayEquals (new String[]{"a", "b"}, lines.get(0));
+        assertArrayEquals (new String[]{"c", "d"}, lines.get(1));
+        assertArrayEquals (new String[]{"e", "f"}, lines.get(2));
+
+        // no newline at the end of the last line
+        lines = tokenize ("a,b\r\nc,d");
+        assertEquals (2, lines.size());
+        assertArrayEquals (new String[]{"c", "d"}, lines.get(1));
+    }
+
+    @Test
+    public void testEmptyFields () throws IOException {
+        List<String[]> lines = tokenize (",a,,\n,,\nb,\r\nc,");
+        assertEquals (4, lines.size());
+        assertArrayEquals (new String[]{null, "a", null, null},
+                           lines.get(0));
+        assertArrayEquals (new String[]{null, null, null}, lines.get(1));
+        assertArrayEquals (new String[]{"b", null}, lines.get(2));
+        assertArrayEquals (new String[]{"c", null}, lines.get(3));
+    }
+
+    /*
+     * tokens (quoted or not) crossing the boundary of a block
+     */
+    @Test
+    public void testLongLines () throws IOException {
+        char[] chars = new char[100000];
+        Arrays.fill(chars, 'x');
+        String x = new String (chars);
+        StringBuilder sb = new StringBuilder ();
+        for (int i = 0; i < 5; ++i)
+            sb.append(i).append(",\"").append(x).append(",y\",")
+                .append(x).append("\r\n");
+
+        LineTokenizer tokenizer = new LineTokenizer (',');
+        List<String[]> lines = tokenize (tokenizer, sb.toString());
+        assertEquals (5, lines.size());
+        for (int i = 0; i < lines.size(); ++i) {
+            assertArrayEquals (new String[]{String.valueOf(i), x+",y", x},
+                               lines.get(i));
+        }
+        assertEquals (5, tokenizer.getCount());
+    }
+
+    @Test
+    public void testReuse () throws IOException {
+        LineTokenizer tokenizer = new LineTokenizer (',');
+        tokenizer.setInputStream
+            (new ByteArrayInputStream ("a,b\nc,d\ne\n".getBytes("utf8")));
+        String[] line = new String[2];
+        assertSame (line, tokenizer.next(line));
+        assertArrayEquals (new String[]{"a", "b"}, line);
+        assertSame (line, tokenizer.next(line));
+        assertArrayEquals (new String[]{"c", "d"}, line);
+        String[] last = tokenizer.next(line);
+        assertNotSame (line, last);
+        assertArrayEquals (new String[]{"e"}, last);
+        assertFalse (tokenizer.hasNext());
+    }
 }
@@ -0,0 +1,142 @@
+package ncats.stitcher.test;
+
+import java.util.*;
+import java.io.*;
+import java.lang.reflect.Array;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.logging.Logger;
+
+import ncats.stitcher.*;
+import ncats.stitcher.impl.OntEntityFactory;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.PropertyContainer;
+import org.neo4j.graphdb.Relationship;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/*
+ * loading an ontology by way of spilled triples (see
+ * OntEntityFactory.registerStreaming) must end up with the same entities
+ * as loading it into memory
+ */
+public class TestOntEntityFactory {
+    static final Logger logger =
+        Logger.getLogger(TestOntEntityFactory.class.getName());
+
+    // depend on the order of registration
+    static final Set<String> IGNORED = new HashSet<>
+        (Arrays.asList(Props.CREATED, Props.UPDATED,
+                       Props.PARENT, Props.RANK));
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    public TestOntEntityFactory () {
+    }
+
+    static String value (Object value) {
+        if (value != null && value.getClass().isArray()) {
+            List<String> values = new ArrayList<>();
+            for (int i = 0; i < Array.getLength(value); ++i)
+                values.add(String.valueOf(Array.get(value, i)));
+            Collections.sort(values);
+            return values.toString();
+        }
+        return String.valueOf(value);
+    }
+
+    static String props (PropertyContainer pc) {
+        Map<String, String> props = new TreeMap<>();
+        for (Map.Entry<String, Object> me
+                 : pc.getAllProperties().entrySet()) {
+            if (!IGNORED.contains(me.getKey()))
+                props.put(me.getKey(), value (me.getValue()));
+        }
+        return props.toString();
+    }
+
+    /*
+     * an entity by its own properties and those of its payload
+     */
+    static String identity (Node node) {
+        List<String> payload = new ArrayList<>();
+        for (Relationship rel : node.getRelationships
+                 (AuxRelType.PAYLOAD, Direction.BOTH))
+            payload.add(props (rel.getOtherNode(node)));
+        Collections.sort(payload);
+        return props (node)+" "+payload;
+    }
+
+    /*
+     * an entity along with its stitches to other entities
+     */
+    static String describe (Node node) {
+        List<String> rels = new ArrayList<>();
+        for (Relationship rel : node.getRelationships()) {
+            Node other = rel.getOtherNode(node);
+            if (other.hasLabel(AuxNodeType.ENTITY)) {
+                rels.add(rel.getType().name()
+                         +(rel.getStartNode().equals(node) ? " -> " : " <- ")
+                         +props (rel)+" "+identity (other));
+            }
+        }
+        Collections.sort(rels);
+        StringBuilder sb = new StringBuilder (identity (node));
+        for (String r : rels)
+            sb.append("\n  ").append(r);
+        return sb.toString();
+    }
+
+    List<String> load (String resource, boolean streaming) throws Exception {
+        File file = new File (tmpDir.getRoot(), resource);
+        if (!file.exists()) {
+            try (InputStream is = TestOntEntityFactory.class
+                 .getResourceAsStream("/"+resource)) {
+                Files.copy(is, file.toPath(),
+                           StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+
+        OntEntityFactory ont = new OntEntityFactory (tmpDir.newFolder());
+        try {
+            if (streaming)
+                ont.setSpillDir(tmpDir.newFolder());
+            DataSource ds = ont.register(file.getPath());
+            List<String> entities = new ArrayList<>();
+            ont.entities(ds, e -> entities.add(describe (e._node())));
+            Collections.sort(entities);
+            logger.info("## "+resource+": "+entities.size()+" entities "
+                        +(streaming ? "streamed" : "loaded in memory"));
+            return entities;
+        }
+        finally {
+            ont.shutdown();
+        }
+    }
+
+    void compare (String resource) throws Exception {
+        List<String> expected = load (resource, false);
+        assertFalse (resource+" has no entities", expected.isEmpty());
+        List<String> actual = load (resource, true);
+        assertEquals (resource+": number of entities",
+                      expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); ++i)
+            assertEquals (resource, expected.get(i), actual.get(i));
+    }
+
+    @Test
+    public void testOwl () throws Exception {
+        compare ("dummy.owl");
+    }
+
+    @Test
+    public void testTurtle () throws Exception {
+        compare ("omim.ttl");
+    }
+}
@@ -0,0 +1,120 @@
+package ncats.stitcher.test;
+
+import java.util.*;
+
+import ncats.stitcher.graph.UnionFind;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TestUnionFind {
+
+    @Test
+    public void testComponents () {
+        UnionFind uf = new UnionFind ();
+        uf.union(10l, 2l);
+        uf.union(2l, 7l);
+        uf.union(100l, 50l);
+        uf.add(1l);
+        
+        long[][] comps = uf.components();
+        assertEquals ("number of components", 3, comps.length);
+        assertArrayEquals (new long[]{2l, 7l, 10l}, comps[0]);
+        assertArrayEquals (new long[]{50l, 100l}, comps[1]);
+        assertArrayEquals (new long[]{1l}, comps[2]);
+        
+        assertTrue (uf.find(7l, 10l));
+        assertFalse (uf.find(7l, 50l));
+        assertFalse (uf.find(7l, 3l));
+        assertNull (uf.root(3l));
+        assertEquals (Long.valueOf(10l), uf.root(7l));
+    }
+
+    @Test
+    public void testDirectionality () {
+        UnionFind uf = new UnionFind ();
+        uf.add(1l, 5);
+        uf.add(2l);
+        // larger weight wins
+        assertEquals (1l, uf.union(2l, 1l));
+        assertEquals (1l, uf.union(3l, 2l));
+        // unless requested otherwise
+        assertEquals (4l, uf.union(4l, 1l, false));
+        assertTrue (uf.add(4l));
+        assertFalse (uf.add(3l));
+    }
+    
+    @Test
+    public void testLarge () {
+        int n = 100000;
+        UnionFind uf = new UnionFind ();
+        for (int i = 0; i < n; ++i)
+            uf.union(i, (i + 2) % n); // even and odd cycles
+        
+        long[][] comps = uf.components();
+        assertEquals ("number of components", 2, comps.length);
+        assertEquals (n/2, comps[0].length);
+        assertEquals (0l, comps[0][0]);
+        assertEquals (1l, comps[1][0]);
+
+        final int[] total = {0};
+        uf.components(c -> total[0] += c.length);
+        assertEquals (n, total[0]);
+    }
+
+    @Test
+    public void testMerge () {
+        UnionFind a = new UnionFind ();
+        a.union(1l, 2l);
+        a.union(5l, 6l);
+        a.add(9l);
+        
+        UnionFind b = new UnionFind ();
+        b.union(2l, 3l);
+        b.union(6l, 7l);
+        b.add(10l);
+
+        UnionFind all = new UnionFind ();
+        all.union(1l, 2l);
+        all.union(5l, 6l);
+        all.add(9l);
+        all.union(2l, 3l);
+        all.union(6l, 7l);
+        all.add(10l);
+
+        a.union(b);
+        assertArrayEquals (all.components(), a.components());
+    }
+
+    @Test
+    public void testMergeWeights () {
+        UnionFind a = new UnionFind ();
+        a.add(1l, 5);
+        a.union(1l, 2l);
+        a.add(8l, 3);
+
+        UnionFind b = new UnionFind ();
+        b.add(3l, 4);
+        b.union(2l, 3l); // 2 is first added here, so it's weight 1
+        b.add(9l, 7);
+        b.union(8l, 9l);
+
+        UnionFind all = new UnionFind ();
+        all.add(1l, 5);
+        all.union(1l, 2l);
+        all.add(8l, 3);
+        all.add(3l, 4);
+        all.union(2l, 3l);
+        all.add(9l, 7);
+        all.union(8l, 9l);
+
+        a.union(b);
+        assertArrayEquals (all.components(), a.components());
+        for (long n : new long[]{1l, 2l, 3l, 8l, 9l}) {
+            assertEquals ("weight of "+n, all.weight(n), a.weight(n));
+            assertEquals ("root of "+n, all.root(n), a.root(n));
+        }
+        assertEquals (10, a.weight(1l));
+        assertEquals (10, a.weight(8l));
+    }
+}